@@ -135,6 +135,11 @@ public class FitConfiguration implements IDirectFilter, Gaussian2DFitConfigurati
   private double widthFactor = 2;
   private boolean computeResiduals = true;
   private boolean zEnabled;
+  private boolean lazyMultiPath;
+  private boolean collectMetrics;
+  private double warmStartDistance;
+  private double likelihoodTableMaxExpected;
+  private boolean sparseFunction;
 
   // Options for clamping
   private double[] clampValues;
@@ -631,6 +636,11 @@ public class FitConfiguration implements IDirectFilter, Gaussian2DFitConfigurati
     coordinateOffset = other.coordinateOffset;
     noise = other.noise;
     computeResiduals = other.computeResiduals;
+    lazyMultiPath = other.lazyMultiPath;
+    collectMetrics = other.collectMetrics;
+    warmStartDistance = other.warmStartDistance;
+    likelihoodTableMaxExpected = other.likelihoodTableMaxExpected;
+    sparseFunction = other.sparseFunction;
 
     // Support cloning the initialised state from IDirectFilter.setup(...)
     directFilter = other.getSmartFilter(); // This is a clone
@@ -710,6 +720,9 @@ public class FitConfiguration implements IDirectFilter, Gaussian2DFitConfigurati
       flags &= ~GaussianFunctionFactory.FIT_SIGNAL;
       flags |= GaussianFunctionFactory.FIT_SIMPLE;
     }
+    if (sparseFunction) {
+      flags |= GaussianFunctionFactory.FIT_SPARSE;
+    }
     return flags;
   }
 
@@ -1662,6 +1675,136 @@ public class FitConfiguration implements IDirectFilter, Gaussian2DFitConfigurati
     this.computeResiduals = computeResiduals;
   }
 
+  /**
+   * Checks if the multi-path fit alternatives are evaluated lazily.
+   *
+   * @return true if the multi-path fit alternatives are evaluated lazily
+   */
+  public boolean isLazyMultiPath() {
+    return lazyMultiPath;
+  }
+
+  /**
+   * Set to true to evaluate the multi-path fit alternatives lazily. When the single fit is the
+   * path most frequently selected the single fit is evaluated first. The multi fit and doublet fits
+   * are only computed if the single fit is not accepted or is eligible for doublet fitting.
+   *
+   * <p>The default is false. This evaluates the multi fit first and the results may differ from
+   * lazy evaluation.
+   *
+   * @param lazyMultiPath true to evaluate the multi-path fit alternatives lazily
+   */
+  public void setLazyMultiPath(boolean lazyMultiPath) {
+    this.lazyMultiPath = lazyMultiPath;
+  }
+
+  /**
+   * Checks if the fit engine collects metrics.
+   *
+   * @return true if collecting metrics
+   */
+  public boolean isCollectMetrics() {
+    return collectMetrics;
+  }
+
+  /**
+   * Set to true to collect metrics in the fit engine. This records the latency of each stage of
+   * the fitting process, the solver iterations and evaluations per fit and the depth of the job
+   * queue.
+   *
+   * @param collectMetrics true to collect metrics
+   * @see FitEngine#getMetrics()
+   */
+  public void setCollectMetrics(boolean collectMetrics) {
+    this.collectMetrics = collectMetrics;
+  }
+
+  /**
+   * Checks if the multi-peak Gaussian function restricts each peak to a support around the centre.
+   *
+   * @return true if using a sparse function
+   */
+  public boolean isSparseFunction() {
+    return sparseFunction;
+  }
+
+  /**
+   * Set to true to restrict the evaluation of each peak of a multi-peak Gaussian function to a
+   * support around the centre. This reduces the cost of fitting many peaks in a large fit region.
+   * It is only supported for the ERF circle and free circle functions with a fitted background.
+   *
+   * <p>The function is non-smooth at the edge of the support and the fit results may differ
+   * slightly from the full function. The default is false.
+   *
+   * @param sparseFunction true to use a sparse function
+   * @see GaussianFunctionFactory#FIT_SPARSE
+   */
+  public void setSparseFunction(boolean sparseFunction) {
+    if (this.sparseFunction != sparseFunction) {
+      this.sparseFunction = sparseFunction;
+      invalidateGaussianFunction();
+    }
+  }
+
+  /**
+   * Checks if the fit engine uses the fitted parameters from the previous frame as initial
+   * estimates.
+   *
+   * @return true if using a warm start
+   */
+  public boolean isWarmStart() {
+    return warmStartDistance > 0;
+  }
+
+  /**
+   * Gets the distance tolerance (in pixels) between a candidate and a localisation in the previous
+   * frame to use the localisation as an initial estimate.
+   *
+   * @return the warm start distance
+   */
+  public double getWarmStartDistance() {
+    return warmStartDistance;
+  }
+
+  /**
+   * Set the distance tolerance (in pixels) between a candidate and a localisation in the previous
+   * frame to use the localisation as an initial estimate. Fluorophores that are on for consecutive
+   * frames can be fit in fewer iterations using the previous localisation.
+   *
+   * <p>Estimates further than 1 pixel from the candidate are only used for a single-peak fit and
+   * must be within 1.41 pixels. The default is zero to disable the warm start.
+   *
+   * @param warmStartDistance the warm start distance
+   * @see FitEngine#getWarmStarts()
+   */
+  public void setWarmStartDistance(double warmStartDistance) {
+    this.warmStartDistance = warmStartDistance;
+  }
+
+  /**
+   * Gets the maximum expected value (in photons) for the tabulated Poisson-Gamma-Gaussian
+   * likelihood function used by the Maximum Likelihood Estimator with an EM-CCD camera.
+   *
+   * @return the maximum expected value for the table (zero if disabled)
+   */
+  public double getLikelihoodTableMaxExpected() {
+    return likelihoodTableMaxExpected;
+  }
+
+  /**
+   * Sets the maximum expected value (in photons) for the tabulated Poisson-Gamma-Gaussian
+   * likelihood function used by the Maximum Likelihood Estimator with an EM-CCD camera. If
+   * positive the likelihood is interpolated from a shared precomputed table; expected values
+   * outside the table are computed exactly. The default is zero to disable the table.
+   *
+   * @param likelihoodTableMaxExpected the maximum expected value for the table
+   * @see MaximumLikelihoodFitter#setTableMaxExpected(double)
+   */
+  public void setLikelihoodTableMaxExpected(double likelihoodTableMaxExpected) {
+    invalidateFunctionSolver();
+    this.likelihoodTableMaxExpected = likelihoodTableMaxExpected;
+  }
+
   /**
    * Sets the nm per pixel scale to use when evaluating a fitted peak's localisation precision.
    *
@@ -3113,6 +3256,7 @@ public class FitConfiguration implements IDirectFilter, Gaussian2DFitConfigurati
           // EMCCD = Poisson+Gamma+Gaussian
           fitter.setLikelihoodFunction(
               MaximumLikelihoodFitter.LikelihoodFunction.POISSON_GAMMA_GAUSSIAN);
+          fitter.setTableMaxExpected(getLikelihoodTableMaxExpected());
         } else {
           // CCD = Poisson+Gaussian
           fitter.setLikelihoodFunction(MaximumLikelihoodFitter.LikelihoodFunction.POISSON_GAUSSIAN);
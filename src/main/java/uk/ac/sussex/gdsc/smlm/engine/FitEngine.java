@@ -29,6 +29,7 @@ import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.lang3.concurrent.ConcurrentRuntimeException;
@@ -36,6 +37,7 @@ import uk.ac.sussex.gdsc.core.logging.LoggerUtils;
 import uk.ac.sussex.gdsc.smlm.data.config.CalibrationProtos.Calibration;
 import uk.ac.sussex.gdsc.smlm.data.config.FitProtos.FitEngineSettings;
 import uk.ac.sussex.gdsc.smlm.data.config.PSFProtos.PSF;
+import uk.ac.sussex.gdsc.smlm.engine.FitMetrics.Metric;
 import uk.ac.sussex.gdsc.smlm.filters.MaximaSpotFilter;
 import uk.ac.sussex.gdsc.smlm.results.PeakResults;
 
@@ -45,15 +47,33 @@ import uk.ac.sussex.gdsc.smlm.results.PeakResults;
  * <p>Multi-threaded for speed. Uses a BlockingQueue to hold the ImageProcessor work which is then
  * processed sequentially by worker threads. The queue behaviour when the size is much greater than
  * the number of worker threads can be configured.
+ *
+ * <p>The engine can optionally run as a two-stage pipeline. Pre-processing workers remove the
+ * camera bias and gain, identify candidate spots and estimate the noise. The frames are then passed
+ * through a bounded queue to the fitting workers. This allows spot identification for upcoming
+ * frames to run concurrently with fitting of the current frames. The pre-processing workers block
+ * when the fitting queue is full. The queue behaviour applies to the input to the pipeline. The
+ * backlog used to ignore frames includes the frames waiting for either stage.
  */
 public class FitEngine {
   /** The empty job used as a shutdown signal. */
   private static final FitJob EMPTY_JOB = new FitJob();
+  /** The time in milliseconds to wait before checking the workers are alive. */
+  private static final long WAIT_MS = 100;
 
   private final BlockingQueue<FitJob> jobs;
+  /** The queue for the fitting workers. This is the jobs queue if not using a pipeline. */
+  private final BlockingQueue<FitJob> fitJobs;
   private final List<FitWorker> workers;
+  private final List<PreprocessWorker> preprocessWorkers;
   private List<Thread> threads;
+  private List<Thread> preprocessThreads;
   private long time;
+  private long preprocessTime;
+  private long preprocessBlockedTime;
+  private long savedMultiFits;
+  private long warmStarts;
+  private WarmStartCache warmStartCache;
   private final FitQueue queueType;
   private final PeakResults results;
 
@@ -62,6 +82,77 @@ public class FitEngine {
   private final MaximaSpotFilter spotFilter;
   private final Logger logger;
   private FitTypeCounter counter;
+  /** The metrics for the job queue. Only updated by the thread adding jobs. */
+  private final FitMetrics metrics;
+  /** The metrics for each worker. */
+  private final List<FitMetrics> workerMetrics;
+
+  /**
+   * Pre-process jobs for the fitting workers.
+   */
+  private static class PreprocessWorker implements Runnable {
+    private final FitWorker worker;
+    private final BlockingQueue<FitJob> in;
+    private final BlockingQueue<FitJob> out;
+    private final FitMetrics metrics;
+    private volatile boolean finished;
+    private long blockedTime;
+
+    PreprocessWorker(FitWorker worker, BlockingQueue<FitJob> in, BlockingQueue<FitJob> out) {
+      this.worker = worker;
+      this.in = in;
+      this.out = out;
+      metrics = worker.getMetrics();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!finished) {
+          final FitJob job = in.take();
+          if (job.data == null || finished) {
+            break;
+          }
+          worker.preprocess(job);
+          if (metrics != null) {
+            metrics.record(Metric.FIT_QUEUE_DEPTH, out.size());
+          }
+          // Record the time waiting for the fitting workers
+          final long start = System.nanoTime();
+          if (!put(job)) {
+            break;
+          }
+          blockedTime += System.nanoTime() - start;
+        }
+      } catch (final InterruptedException ex) {
+        if (!finished) {
+          Logger.getLogger(FitEngine.class.getName()).log(Level.WARNING,
+              () -> "Interrupted: " + ex.toString());
+          Thread.currentThread().interrupt();
+          throw new ConcurrentRuntimeException(ex);
+        }
+      } finally {
+        finished = true;
+      }
+    }
+
+    /**
+     * Adds the job to the fitting queue, waiting if necessary for space to become available. The
+     * wait is abandoned if the worker is finished.
+     *
+     * @param job The job
+     * @return true if added
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private boolean put(FitJob job) throws InterruptedException {
+      while (!out.offer(job, WAIT_MS, TimeUnit.MILLISECONDS)) {
+        if (finished) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
 
   /**
    * Return the fitting window size calculated using the fitting parameter and the configured peak
@@ -88,12 +179,14 @@ public class FitEngine {
    * @param config The fit configuration
    * @param results Output results (must be thread safe if using multiple threads)
    * @param threads The number of threads to use (set to 1 if less than 1)
+   * @param preprocessThreads The number of threads to use for pre-processing (0 to disable)
    * @param queueType Specify the queue behaviour
    * @param queueSize The size of the queue
    */
   private FitEngine(FitEngineConfiguration config, PeakResults results, int threads,
-      FitQueue queueType, int queueSize) {
+      int preprocessThreads, FitQueue queueType, int queueSize) {
     workers = new ArrayList<>(threads);
+    preprocessWorkers = new ArrayList<>(preprocessThreads);
     this.queueType = queueType;
     switch (queueType) {
       case NON_BLOCKING:
@@ -105,6 +198,8 @@ public class FitEngine {
         this.jobs = new ArrayBlockingQueue<>(queueSize);
         break;
     }
+    // The pipeline uses a small bounded queue to apply back-pressure to the pre-processing
+    fitJobs = (preprocessThreads > 0) ? new ArrayBlockingQueue<>(2 * threads) : jobs;
     this.results = results;
 
     fitting = config.getFittingWidth();
@@ -112,11 +207,16 @@ public class FitEngine {
 
     logger = config.getFitConfiguration().getLog();
 
-    // Allow logging the type of fit
-    if (logger != null) {
+    // Allow logging the type of fit.
+    // The counts are also used to order the paths for lazy multi-path evaluation.
+    if (logger != null || config.getFitConfiguration().isLazyMultiPath()) {
       counter = new FitTypeCounter();
     }
 
+    final boolean collectMetrics = config.getFitConfiguration().isCollectMetrics();
+    metrics = (collectMetrics) ? new FitMetrics() : null;
+    workerMetrics = new ArrayList<>();
+
     // Create the workers
 
     // Note - Copy the configuration for each worker.
@@ -125,6 +225,9 @@ public class FitEngine {
     final FitConfiguration fitConfiguration = config.getFitConfiguration();
     final Calibration calibration = fitConfiguration.getCalibration();
     final PSF psf = fitConfiguration.getPsf();
+    warmStartCache = (fitConfiguration.isWarmStart())
+        ? new WarmStartCache(fitConfiguration.getWarmStartDistance())
+        : null;
 
     for (int i = 0; i < threads; i++) {
       final FitEngineConfiguration copy =
@@ -132,12 +235,39 @@ public class FitEngine {
       // Copy anything else not in a proto object
       copy.getFitConfiguration().copySettings(fitConfiguration);
 
-      final FitWorker worker = new FitWorker(copy, results, jobs);
+      final FitWorker worker = new FitWorker(copy, results, fitJobs);
       // Note - Copy the spot filter for each worker.
       worker.setSearchParameters(getSpotFilter(), fitting);
       worker.setCounter(counter);
+      worker.setWarmStartCache(warmStartCache);
+      addMetrics(worker, collectMetrics);
       workers.add(worker);
     }
+
+    for (int i = 0; i < preprocessThreads; i++) {
+      final FitEngineConfiguration copy =
+          new FitEngineConfiguration(fitEngineSettings, calibration, psf);
+      copy.getFitConfiguration().copySettings(fitConfiguration);
+
+      final FitWorker worker = new FitWorker(copy, results, jobs);
+      worker.setSearchParameters(getSpotFilter(), fitting);
+      addMetrics(worker, collectMetrics);
+      preprocessWorkers.add(new PreprocessWorker(worker, jobs, fitJobs));
+    }
+  }
+
+  /**
+   * Add metrics to the worker.
+   *
+   * @param worker the worker
+   * @param collectMetrics true to collect metrics
+   */
+  private void addMetrics(FitWorker worker, boolean collectMetrics) {
+    if (collectMetrics) {
+      final FitMetrics workerMetric = new FitMetrics();
+      worker.setMetrics(workerMetric);
+      workerMetrics.add(workerMetric);
+    }
   }
 
   /**
@@ -166,11 +296,32 @@ public class FitEngine {
    */
   public static FitEngine create(FitEngineConfiguration config, PeakResults results, int threads,
       FitQueue queueType, int queueSize) {
+    return create(config, results, threads, 0, queueType, queueSize);
+  }
+
+  /**
+   * Create a new FitEngine.
+   *
+   * <p>If the number of pre-processing threads is positive the engine runs as a two-stage
+   * pipeline. The pre-processing threads identify the candidates in each frame and pass the frame
+   * to the fitting threads.
+   *
+   * @param config The fit configuration
+   * @param results Output results (must be thread safe if using multiple threads)
+   * @param threads The number of threads to use for fitting (set to 1 if less than 1)
+   * @param preprocessThreads The number of threads to use for pre-processing (0 to disable)
+   * @param queueType Specify the queue behaviour
+   * @param queueSize The size of the queue
+   * @return the fit engine
+   */
+  public static FitEngine create(FitEngineConfiguration config, PeakResults results, int threads,
+      int preprocessThreads, FitQueue queueType, int queueSize) {
     if (threads < 1) {
       threads = 1;
       queueSize = 3;
     }
-    final FitEngine fitEngine = new FitEngine(config, results, threads, queueType, queueSize);
+    final FitEngine fitEngine = new FitEngine(config, results, threads,
+        Math.max(0, preprocessThreads), queueType, queueSize);
     fitEngine.start();
     return fitEngine;
   }
@@ -185,6 +336,12 @@ public class FitEngine {
       threads.add(t);
       t.start();
     }
+    preprocessThreads = new ArrayList<>(preprocessWorkers.size());
+    for (final PreprocessWorker worker : preprocessWorkers) {
+      final Thread t = new Thread(worker);
+      preprocessThreads.add(t);
+      t.start();
+    }
   }
 
   /**
@@ -201,28 +358,91 @@ public class FitEngine {
     // Check the output is still OK. If no output then there is no point running any calculations.
     if (results.isActive()) {
       // Allow the jobs to create a small backlog since some frames may process faster
-      if (queueType == FitQueue.IGNORE && jobs.size() > workers.size() * 1.5) {
+      if (queueType == FitQueue.IGNORE && getBacklog() > workers.size() * 1.5) {
         return;
       }
 
-      put(job);
+      if (metrics != null) {
+        metrics.record(Metric.QUEUE_DEPTH, jobs.size());
+      }
+      put(jobs, job);
+    }
+  }
+
+  /**
+   * Gets the number of frames waiting to be fit. In a pipeline this includes the frames waiting
+   * for either stage.
+   *
+   * @return the backlog
+   */
+  private int getBacklog() {
+    return (jobs == fitJobs) ? jobs.size() : jobs.size() + fitJobs.size();
+  }
+
+  /**
+   * Adds the work to the queue.
+   *
+   * @param queue The queue
+   * @param job The job
+   */
+  private static void put(BlockingQueue<FitJob> queue, FitJob job) {
+    try {
+      queue.put(job);
+    } catch (final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new ConcurrentRuntimeException("Unexpected interruption", ex);
     }
   }
 
   /**
-   * Adds the work to the current queue.
+   * Adds the work to the queue, waiting a short time if necessary for space to become available.
    *
+   * @param queue The queue
    * @param job The job
+   * @return true if added
    */
-  private void put(FitJob job) {
+  private static boolean offer(BlockingQueue<FitJob> queue, FitJob job) {
     try {
-      jobs.put(job);
+      return queue.offer(job, WAIT_MS, TimeUnit.MILLISECONDS);
     } catch (final InterruptedException ex) {
       Thread.currentThread().interrupt();
       throw new ConcurrentRuntimeException("Unexpected interruption", ex);
     }
   }
 
+  /**
+   * Add a shutdown signal to the queue for each thread, waiting if necessary for space to become
+   * available. The wait is abandoned if all the threads have stopped, e.g. due to an error in a
+   * worker.
+   *
+   * @param queue The queue
+   * @param threads The threads
+   */
+  private static void signalEnd(BlockingQueue<FitJob> queue, List<Thread> threads) {
+    for (int i = 0; i < threads.size(); i++) {
+      while (!offer(queue, EMPTY_JOB)) {
+        if (!isAlive(threads)) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks if any of the threads are alive.
+   *
+   * @param threads The threads
+   * @return true if alive
+   */
+  private static boolean isAlive(List<Thread> threads) {
+    for (final Thread thread : threads) {
+      if (thread.isAlive()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Signal that no more fitting work will be added to the queue.
    *
@@ -243,38 +463,45 @@ public class FitEngine {
       for (final FitWorker worker : workers) {
         worker.finish();
       }
+    }
+
+    endPreprocess(now);
 
+    if (now) {
       // Workers may be waiting for a job.
       // Add null jobs if the queue is not at capacity so they can be collected by alive workers.
       // If there are already jobs then the worker will stop due to the finish() signal.
       for (int i = 0; i < threads.size(); i++) {
         // non-blocking add to queue
-        if (!jobs.offer(EMPTY_JOB)) {
+        if (!fitJobs.offer(EMPTY_JOB)) {
           // At capacity so stop adding more
           break;
         }
       }
     } else {
       // Finish all the worker threads by passing in a null job
-      for (int i = 0; i < threads.size(); i++) {
-        put(EMPTY_JOB); // blocking add to queue
-      }
+      signalEnd(fitJobs, threads);
     }
 
     // Collect all the threads
+    savedMultiFits = 0;
+    warmStarts = 0;
     for (int i = 0; i < threads.size(); i++) {
       try {
         threads.get(i).join();
         time += workers.get(i).getTime();
+        savedMultiFits += workers.get(i).getSavedMultiFits();
+        warmStarts += workers.get(i).getWarmStarts();
       } catch (final InterruptedException ex) {
         Thread.currentThread().interrupt();
         Logger.getLogger(getClass().getName()).log(Level.SEVERE, "Unexpected interruption", ex);
         throw new ConcurrentRuntimeException(ex);
       }
     }
+    time += preprocessTime;
 
     // Output this to the log
-    if (counter != null) {
+    if (counter != null && logger != null) {
       // Get the stats we want...
 
       // Note: The total localisations may be less than 'fit single' + 2 * 'fit doublet':
@@ -307,11 +534,83 @@ public class FitEngine {
           FitType.MULTI_OK | FitType.MULTI_DOUBLET_OK | FitType.DOUBLET_OK), ok);
       report("FailMultiFitDoublet", counter.get(FitType.OK | FitType.MULTI | FitType.DOUBLET_OK,
           FitType.MULTI_OK | FitType.MULTI_DOUBLET_OK), ok);
+
+      if (savedMultiFits != 0) {
+        logger.info(() -> "Lazy multi-path saved multi fits = " + savedMultiFits);
+      }
+      if (warmStarts != 0) {
+        logger.info(() -> "Warm start estimates = " + warmStarts);
+      }
     }
 
     threads.clear();
   }
 
+  /**
+   * Signal that no more work will be added to the pre-processing queue and wait for the
+   * pre-processing threads to stop.
+   *
+   * @param now Stop the work immediately, otherwise finish all work in the queue
+   */
+  private void endPreprocess(boolean now) {
+    preprocessTime = 0;
+    preprocessBlockedTime = 0;
+    if (preprocessThreads.isEmpty()) {
+      return;
+    }
+
+    if (now) {
+      stopPreprocess();
+      for (int i = 0; i < preprocessThreads.size(); i++) {
+        if (!jobs.offer(EMPTY_JOB)) {
+          break;
+        }
+      }
+    } else {
+      for (int i = 0; i < preprocessThreads.size(); i++) {
+        while (!offer(jobs, EMPTY_JOB) && isAlive(preprocessThreads)) {
+          // The queue is full. The pre-processing workers cannot progress if the fitting
+          // workers have stopped.
+          if (!isAlive(threads)) {
+            stopPreprocess();
+          }
+        }
+      }
+    }
+
+    for (int i = 0; i < preprocessThreads.size(); i++) {
+      try {
+        final Thread thread = preprocessThreads.get(i);
+        thread.join(WAIT_MS);
+        while (thread.isAlive()) {
+          // Release a worker waiting for space on the fitting queue if the fitting has stopped
+          if (!isAlive(threads)) {
+            stopPreprocess();
+          }
+          thread.join(WAIT_MS);
+        }
+        final PreprocessWorker worker = preprocessWorkers.get(i);
+        preprocessTime += worker.worker.getPreprocessTime();
+        preprocessBlockedTime += worker.blockedTime;
+      } catch (final InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        Logger.getLogger(getClass().getName()).log(Level.SEVERE, "Unexpected interruption", ex);
+        throw new ConcurrentRuntimeException(ex);
+      }
+    }
+
+    preprocessThreads.clear();
+  }
+
+  /**
+   * Signal the pre-processing workers to stop.
+   */
+  private void stopPreprocess() {
+    for (final PreprocessWorker worker : preprocessWorkers) {
+      worker.finished = true;
+    }
+  }
+
   private void report(String name, int count, int total) {
     LoggerUtils.log(logger, Level.INFO, "%s %d / %d = %.2f", name, count, total,
         (100.00 * count) / total);
@@ -326,6 +625,103 @@ public class FitEngine {
     return time;
   }
 
+  /**
+   * Gets the total time used by the pre-processing workers in a pipeline. This is included in the
+   * total fitting time.
+   *
+   * @return the total pre-processing time
+   */
+  public long getPreprocessTime() {
+    return preprocessTime;
+  }
+
+  /**
+   * Gets the total time the pre-processing workers in a pipeline were blocked waiting for space in
+   * the fitting queue. A large value indicates the fitting stage is the bottleneck.
+   *
+   * @return the total blocked time
+   */
+  public long getPreprocessBlockedTime() {
+    return preprocessBlockedTime;
+  }
+
+  /**
+   * Gets the number of multi fits that were not computed due to lazy multi-path evaluation.
+   *
+   * @return the number of saved multi fits
+   * @see FitConfiguration#setLazyMultiPath(boolean)
+   */
+  public long getSavedMultiFits() {
+    return savedMultiFits;
+  }
+
+  /**
+   * Gets the number of candidates with an initial estimate from the fitted parameters of the
+   * previous frame.
+   *
+   * @return the number of warm starts
+   * @see FitConfiguration#setWarmStartDistance(double)
+   */
+  public long getWarmStarts() {
+    return warmStarts;
+  }
+
+  /**
+   * Gets the cache used to warm-start the fitting of each frame. The cache records the number of
+   * frames that found the results of the previous frame.
+   *
+   * @return the warm start cache (or null if disabled)
+   * @see WarmStartCache#getHits()
+   */
+  public WarmStartCache getWarmStartCache() {
+    return warmStartCache;
+  }
+
+  /**
+   * Gets a snapshot of the metrics combined from all the workers. This can be called during or
+   * after a run. A snapshot during a run is approximate as the workers may be recording.
+   *
+   * <p>Metrics are collected if enabled in the fit configuration.
+   *
+   * @return the metrics (or null if not collecting metrics)
+   * @see FitConfiguration#setCollectMetrics(boolean)
+   * @see FitMetrics#toJson()
+   * @see FitMetrics#toCsv()
+   */
+  public FitMetrics getMetrics() {
+    if (metrics == null) {
+      return null;
+    }
+    final List<FitMetrics> list = new ArrayList<>(workerMetrics.size() + 1);
+    list.add(metrics);
+    list.addAll(workerMetrics);
+    return FitMetrics.merge(list);
+  }
+
+  /**
+   * Set the budget for fitting each frame. This is shared by all the fitting workers. Frames with
+   * candidates skipped due to an exhausted budget are reported by the budget. The skipped
+   * candidates are not refit.
+   *
+   * @param frameBudget the frame budget (set to null to disable)
+   * @see FitWorker#setFrameBudget(FrameBudget)
+   * @see FrameBudget#pollSkipped()
+   */
+  public void setFrameBudget(FrameBudget frameBudget) {
+    for (final FitWorker worker : workers) {
+      worker.setFrameBudget(frameBudget);
+    }
+  }
+
+  /**
+   * Checks if the engine is running as a two-stage pipeline.
+   *
+   * @return true if using a pipeline
+   */
+  public boolean isPipeline() {
+    return !preprocessWorkers.isEmpty();
+  }
+
   /**
    * If false then the engine can be shutdown by using {@link #end(boolean)}.
    *
@@ -341,6 +737,6 @@ public class FitEngine {
    * @return True if there are no jobs queued.
    */
   public boolean isQueueEmpty() {
-    return jobs.isEmpty();
+    return jobs.isEmpty() && fitJobs.isEmpty();
   }
 }
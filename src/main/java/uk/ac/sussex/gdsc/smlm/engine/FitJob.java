@@ -84,6 +84,9 @@ public class FitJob {
   /** The status. */
   Status status = Status.PENDING;
 
+  /** The pre-processed frame. Used when the job is run through a pipeline. */
+  PreprocessedFrame preprocessed;
+
   /**
    * Constructor with data. Exceptions are thrown if invalid bounds or data are passed.
    *
@@ -0,0 +1,394 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.engine;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collect metrics for the fitting engine.
+ *
+ * <p>Each metric is a histogram of values using power of 2 bins. Stage metrics record the latency
+ * in nanoseconds. Recording is designed for a single writer thread, e.g. each fit worker has its
+ * own instance. The values can be read by any thread during recording to create a snapshot. The
+ * snapshot is approximate if recording is in progress.
+ */
+public class FitMetrics {
+  /**
+   * The metrics.
+   */
+  public enum Metric {
+    /** The latency to remove the camera bias and gain. */
+    CAMERA_CORRECTION("ns"),
+    /** The latency to identify candidates using the spot filter. */
+    SPOT_FILTER("ns"),
+    /** The latency to estimate the noise. */
+    NOISE_ESTIMATION("ns"),
+    /** The latency to construct the candidate grid for neighbour lookup. */
+    NEIGHBOUR_GRID("ns"),
+    /** The latency to find the neighbours of a candidate. */
+    NEIGHBOUR_LOOKUP("ns"),
+    /** The latency of a single fit. */
+    FIT_SINGLE("ns"),
+    /** The latency of a multi fit. */
+    FIT_MULTI("ns"),
+    /** The latency of a doublet fit from the single fit. */
+    FIT_DOUBLET("ns"),
+    /** The latency of a doublet fit from the multi fit. */
+    FIT_MULTI_DOUBLET("ns"),
+    /** The latency to compute the residuals quadrant analysis score. */
+    QUADRANT_ANALYSIS("ns"),
+    /** The latency to filter a frame excluding the time for fitting. */
+    FILTER("ns"),
+    /** The latency to pass the results of a frame to the output. */
+    RESULT_OUTPUT("ns"),
+    /** The solver iterations per fit. */
+    ITERATIONS("count"),
+    /** The function evaluations per fit. */
+    EVALUATIONS("count"),
+    /** The depth of the job queue when a job is added. */
+    QUEUE_DEPTH("count"),
+    /** The depth of the fitting queue when a pre-processed job is added to a pipeline. */
+    FIT_QUEUE_DEPTH("count");
+
+    private final String unit;
+
+    Metric(String unit) {
+      this.unit = unit;
+    }
+
+    /**
+     * Gets the unit.
+     *
+     * @return the unit
+     */
+    public String getUnit() {
+      return unit;
+    }
+  }
+
+  /** The number of metrics. */
+  private static final int METRICS = Metric.values().length;
+
+  /** The histograms. */
+  private final Histogram[] histograms;
+
+  /**
+   * A histogram of positive values using bins of power of 2. Bin {@code i} contains values in the
+   * range {@code [2^(i-1), 2^i)}; bin 0 contains zero (and negative values).
+   */
+  public static final class Histogram {
+    /** The number of bins. */
+    public static final int BINS = Long.SIZE;
+
+    // Indices for the statistics after the bins
+    private static final int COUNT = BINS;
+    private static final int SUM = BINS + 1;
+    private static final int MAX = BINS + 2;
+
+    /** The bin counts followed by the statistics. */
+    private final AtomicLongArray data;
+
+    /**
+     * Create an instance.
+     */
+    Histogram() {
+      data = new AtomicLongArray(BINS + 3);
+    }
+
+    /**
+     * Record the value. This is not thread safe for concurrent writers.
+     *
+     * @param value the value
+     */
+    void record(long value) {
+      final int bin = getBin(value);
+      // Single writer so use an ordered write
+      data.lazySet(bin, data.get(bin) + 1);
+      data.lazySet(COUNT, data.get(COUNT) + 1);
+      data.lazySet(SUM, data.get(SUM) + value);
+      if (value > data.get(MAX)) {
+        data.lazySet(MAX, value);
+      }
+    }
+
+    /**
+     * Add the values from the other histogram.
+     *
+     * @param other the other
+     */
+    void add(Histogram other) {
+      for (int i = 0; i < MAX; i++) {
+        data.addAndGet(i, other.data.get(i));
+      }
+      final long max = other.data.get(MAX);
+      if (max > data.get(MAX)) {
+        data.set(MAX, max);
+      }
+    }
+
+    /**
+     * Gets the bin for the value.
+     *
+     * @param value the value
+     * @return the bin
+     */
+    static int getBin(long value) {
+      return value <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * Gets the upper bound (exclusive) of the bin.
+     *
+     * @param bin the bin
+     * @return the upper bound
+     */
+    public static long getUpperBound(int bin) {
+      return bin >= Long.SIZE - 1 ? Long.MAX_VALUE : 1L << bin;
+    }
+
+    /**
+     * Gets the count of values in the bin.
+     *
+     * @param bin the bin
+     * @return the count
+     */
+    public long getBinCount(int bin) {
+      return data.get(bin);
+    }
+
+    /**
+     * Gets the number of values.
+     *
+     * @return the count
+     */
+    public long getCount() {
+      return data.get(COUNT);
+    }
+
+    /**
+     * Gets the sum of the values.
+     *
+     * @return the sum
+     */
+    public long getSum() {
+      return data.get(SUM);
+    }
+
+    /**
+     * Gets the maximum value.
+     *
+     * @return the max
+     */
+    public long getMax() {
+      return data.get(MAX);
+    }
+
+    /**
+     * Gets the mean of the values.
+     *
+     * @return the mean
+     */
+    public double getMean() {
+      final long count = getCount();
+      return count == 0 ? 0 : (double) getSum() / count;
+    }
+
+    /**
+     * Gets an upper bound for the quantile of the values. This is the upper bound of the bin
+     * containing the quantile, or the maximum value if lower.
+     *
+     * @param quantile the quantile (in the range 0 to 1)
+     * @return the quantile upper bound
+     */
+    public long getQuantile(double quantile) {
+      final long count = getCount();
+      if (count == 0) {
+        return 0;
+      }
+      final long target = Math.max(1, (long) Math.ceil(quantile * count));
+      long sum = 0;
+      for (int i = 0; i < BINS; i++) {
+        sum += data.get(i);
+        if (sum >= target) {
+          return Math.min(getUpperBound(i) - 1, getMax());
+        }
+      }
+      return getMax();
+    }
+  }
+
+  /**
+   * Create an instance.
+   */
+  public FitMetrics() {
+    histograms = new Histogram[METRICS];
+    for (int i = 0; i < METRICS; i++) {
+      histograms[i] = new Histogram();
+    }
+  }
+
+  /**
+   * Record the value for the metric. This is not thread safe for concurrent writers.
+   *
+   * @param metric the metric
+   * @param value the value
+   */
+  public void record(Metric metric, long value) {
+    histograms[metric.ordinal()].record(value);
+  }
+
+  /**
+   * Record the latency of the stage since the start time. This is not thread safe for concurrent
+   * writers.
+   *
+   * @param metric the metric
+   * @param start the start time (from {@link System#nanoTime()})
+   */
+  public void recordSince(Metric metric, long start) {
+    histograms[metric.ordinal()].record(System.nanoTime() - start);
+  }
+
+  /**
+   * Gets the histogram for the metric.
+   *
+   * @param metric the metric
+   * @return the histogram
+   */
+  public Histogram get(Metric metric) {
+    return histograms[metric.ordinal()];
+  }
+
+  /**
+   * Add the values from the other metrics.
+   *
+   * @param other the other
+   */
+  private void add(FitMetrics other) {
+    for (int i = 0; i < METRICS; i++) {
+      histograms[i].add(other.histograms[i]);
+    }
+  }
+
+  /**
+   * Create a snapshot of the current metrics.
+   *
+   * @return the snapshot
+   */
+  public FitMetrics snapshot() {
+    final FitMetrics snapshot = new FitMetrics();
+    snapshot.add(this);
+    return snapshot;
+  }
+
+  /**
+   * Create a snapshot of the combined metrics.
+   *
+   * @param metrics the metrics
+   * @return the snapshot
+   */
+  public static FitMetrics merge(Collection<FitMetrics> metrics) {
+    final FitMetrics snapshot = new FitMetrics();
+    metrics.forEach(snapshot::add);
+    return snapshot;
+  }
+
+  /**
+   * Convert the metrics to JSON. Each metric has a summary and the non-zero histogram bins. Bins
+   * are identified using their exclusive upper bound.
+   *
+   * @return the JSON string
+   */
+  public String toJson() {
+    final StringBuilder sb = new StringBuilder(1024).append('{');
+    for (final Metric metric : Metric.values()) {
+      final Histogram h = get(metric);
+      if (metric.ordinal() != 0) {
+        sb.append(',');
+      }
+      sb.append(System.lineSeparator());
+      sb.append("  \"").append(metric.name()).append("\": {");
+      sb.append("\"unit\": \"").append(metric.getUnit()).append('"');
+      appendSummary(sb, h, true);
+      sb.append(", \"bins\": {");
+      boolean first = true;
+      for (int i = 0; i < Histogram.BINS; i++) {
+        final long count = h.getBinCount(i);
+        if (count != 0) {
+          if (!first) {
+            sb.append(", ");
+          }
+          first = false;
+          sb.append('"').append(Histogram.getUpperBound(i)).append("\": ").append(count);
+        }
+      }
+      sb.append("}}");
+    }
+    return sb.append(System.lineSeparator()).append('}').toString();
+  }
+
+  /**
+   * Convert the metrics to CSV. Each metric is a row with the summary statistics.
+   *
+   * @return the CSV string
+   */
+  public String toCsv() {
+    final StringBuilder sb = new StringBuilder(1024);
+    sb.append("Metric,Unit,Count,Sum,Mean,Max,P50,P90,P99").append(System.lineSeparator());
+    for (final Metric metric : Metric.values()) {
+      sb.append(metric.name()).append(',').append(metric.getUnit());
+      appendSummary(sb, get(metric), false);
+      sb.append(System.lineSeparator());
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Append the summary statistics.
+   *
+   * @param sb the string builder
+   * @param h the histogram
+   * @param json true to use JSON name-value pairs; otherwise comma delimited values
+   */
+  private static void appendSummary(StringBuilder sb, Histogram h, boolean json) {
+    appendStatistic(sb, "count", Long.toString(h.getCount()), json);
+    appendStatistic(sb, "sum", Long.toString(h.getSum()), json);
+    appendStatistic(sb, "mean", String.format(Locale.ROOT, "%.3f", h.getMean()), json);
+    appendStatistic(sb, "max", Long.toString(h.getMax()), json);
+    appendStatistic(sb, "p50", Long.toString(h.getQuantile(0.5)), json);
+    appendStatistic(sb, "p90", Long.toString(h.getQuantile(0.9)), json);
+    appendStatistic(sb, "p99", Long.toString(h.getQuantile(0.99)), json);
+  }
+
+  private static void appendStatistic(StringBuilder sb, String name, String value,
+      boolean json) {
+    if (json) {
+      sb.append(", \"").append(name).append("\": ").append(value);
+    } else {
+      sb.append(',').append(value);
+    }
+  }
+}
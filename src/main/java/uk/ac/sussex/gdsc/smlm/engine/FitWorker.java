@@ -53,11 +53,12 @@ import uk.ac.sussex.gdsc.smlm.data.config.PSFProtos.PSF;
 import uk.ac.sussex.gdsc.smlm.data.config.PSFProtos.PSFType;
 import uk.ac.sussex.gdsc.smlm.data.config.PsfHelper;
 import uk.ac.sussex.gdsc.smlm.engine.FitConfiguration.PeakResultValidationData;
+import uk.ac.sussex.gdsc.smlm.engine.FitMetrics.Metric;
 import uk.ac.sussex.gdsc.smlm.engine.FitParameters.FitTask;
 import uk.ac.sussex.gdsc.smlm.filters.BlockAverageDataProcessor;
 import uk.ac.sussex.gdsc.smlm.filters.MaximaSpotFilter;
 import uk.ac.sussex.gdsc.smlm.filters.Spot;
-import uk.ac.sussex.gdsc.smlm.filters.SpotScoreComparator;
+import uk.ac.sussex.gdsc.smlm.filters.SpotRanker;
 import uk.ac.sussex.gdsc.smlm.fitting.FastGaussian2DFitter;
 import uk.ac.sussex.gdsc.smlm.fitting.FitResult;
 import uk.ac.sussex.gdsc.smlm.fitting.FitStatus;
@@ -72,6 +73,8 @@ import uk.ac.sussex.gdsc.smlm.function.gaussian.FastGaussianOverlapAnalysis;
 import uk.ac.sussex.gdsc.smlm.function.gaussian.Gaussian2DFunction;
 import uk.ac.sussex.gdsc.smlm.ij.settings.SettingsManager;
 import uk.ac.sussex.gdsc.smlm.model.camera.CameraModel;
+import uk.ac.sussex.gdsc.smlm.model.camera.PerPixelCameraModel;
+import uk.ac.sussex.gdsc.smlm.model.camera.PerPixelCameraModelTables;
 import uk.ac.sussex.gdsc.smlm.results.AttributePeakResult;
 import uk.ac.sussex.gdsc.smlm.results.ExtendedPeakResult;
 import uk.ac.sussex.gdsc.smlm.results.Gaussian2DPeakResultHelper;
@@ -79,6 +82,7 @@ import uk.ac.sussex.gdsc.smlm.results.IdPeakResult;
 import uk.ac.sussex.gdsc.smlm.results.PeakResult;
 import uk.ac.sussex.gdsc.smlm.results.PeakResultHelper;
 import uk.ac.sussex.gdsc.smlm.results.PeakResults;
+import uk.ac.sussex.gdsc.smlm.results.count.BudgetFailCounter;
 import uk.ac.sussex.gdsc.smlm.results.count.FailCounter;
 import uk.ac.sussex.gdsc.smlm.results.filter.BasePreprocessedPeakResult.ResultType;
 import uk.ac.sussex.gdsc.smlm.results.filter.CoordinateStore;
@@ -127,7 +131,20 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
   private final Logger logger;
   private Logger debugLogger;
   private FitTypeCounter counter;
+  private FitMetrics metrics;
+  /** The time spent fitting within the current frame. */
+  private long frameFitTime;
   private long time;
+  private long preprocessTime;
+  private boolean singleFirst;
+  private long savedMultiFits;
+  private volatile FrameBudget frameBudget;
+  /** Working arrays for fitting candidates. These must not escape the current candidate. */
+  private final FitWorkerArena arena = new FitWorkerArena();
+  private WarmStartCache warmStartCache;
+  private long warmStarts;
+  /** The total number of function evaluations. */
+  private long evaluations;
 
   private MaximaSpotFilter spotFilter;
   private Rectangle lastBounds;
@@ -188,6 +205,11 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
   private static final byte FILTER_RANK_MINIMAL = (byte) 0;
   private static final byte FILTER_RANK_PRIMARY = (byte) 1;
 
+  /** The frame interval to use the full multi-path evaluation order when using lazy evaluation. */
+  private static final int LAZY_MULTI_PATH_SAMPLE_INTERVAL = 10;
+  /** The minimum number of fitted candidates to use lazy multi-path evaluation. */
+  private static final int LAZY_MULTI_PATH_MIN_SAMPLES = 100;
+
   /** Flag to indicate that the data is in raw count units (not photon-eletcrons). */
   private final boolean isFitCameraCounts;
 
@@ -384,6 +406,11 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
       return failCounter.isOk();
     }
 
+    @Override
+    public boolean isTerminated() {
+      return failCounter.isTerminated();
+    }
+
     @Override
     public FailCounter newCounter() {
       throw new IllegalStateException("Cannot record to a new instance");
@@ -527,40 +554,23 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
     // Used for debugging
     // if (logger == null) logger = new gdsc.fitting.logging.ConsoleLogger();
 
-    // Crop to the ROI
-    cc = new CoordinateConverter(job.bounds);
-    // Note if the bounds change for efficient caching.
-    newBounds = !cc.dataBounds.equals(lastBounds);
-    if (newBounds) {
-      lastBounds = cc.dataBounds;
-    }
+    initialiseFrame(job);
     final int width = cc.dataBounds.width;
     final int height = cc.dataBounds.height;
-    borderLimitX = width - border;
-    borderLimitY = height - border;
-    data = job.data;
-    dataEstimator = null; // This is tied to the input data
-
-    // 06-Jun-2017
-    // The data model was changed to store the signal in photons.
-    // This allows support for per-pixel bias and gain (sCMOS cameras).
-
-    // Remove the bias and gain. This is done for all solvers except:
-    // - the legacy MLE solvers which model camera amplification
-    // - the basic LVM solver without a camera calibration
-
-    // Note: Assume that the camera model has been correctly initialised to be
-    // relative to the global origin.
-    if (isFitCameraCounts) {
-      cameraModel.removeBias(cc.dataBounds, data);
-    } else {
-      cameraModel.removeBiasAndGain(cc.dataBounds, data);
-    }
 
     final FitParameters params = job.getFitParameters();
     this.endT = (params != null) ? params.endT : -1;
 
-    candidates = indentifySpots(job, width, height, params);
+    // The frame may have been pre-processed by a worker in a pipeline
+    PreprocessedFrame frame = job.preprocessed;
+    if (frame == null) {
+      frame = preprocessFrame(job, params);
+    } else {
+      job.preprocessed = null;
+    }
+    candidates = frame.candidates;
+    sliceResults = frame.sliceResults;
+    dataEstimator = frame.dataEstimator;
 
     if (candidates.getSize() == 0) {
       finishJob(job, start);
@@ -582,7 +592,7 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
       noise = params.noise;
       fitConfig.setNoise(noise);
     } else if (calculateNoise) {
-      noise = estimateNoise();
+      noise = frame.noise;
       fitConfig.setNoise(noise);
     }
 
@@ -663,6 +673,7 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
         // results are not generated we must generate them. This is done in the complete(int)
         // method if we set the benchmarking flag.
         benchmarking = true;
+        singleFirst = false;
 
         // Filter using the benchmark filter
         filter = params.benchmarkFilter;
@@ -684,6 +695,8 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
               createMinimalFilter(fitConfig.getPrecisionMethod()), config.getResidualsThreshold());
         }
         filter = this.filter;
+        singleFirst = isLazySingleFirst();
+        filter.setSingleFirst(singleFirst);
       }
 
       // If we are benchmarking then do not generate results dynamically since we will store all
@@ -728,7 +741,20 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
         FileUtils.save(String.format("/tmp/candidates.%d.xml", slice), sb.toString());
       }
 
+      if (warmStartCache != null && !benchmarking) {
+        seedWarmStartEstimates();
+      }
+
       FailCounter failCounter = config.getFailCounter();
+      // Limit the fitting using the frame budget
+      final FrameBudget budget = frameBudget;
+      BudgetFailCounter budgetCounter = null;
+      if (budget != null && !benchmarking) {
+        budgetCounter = budget.createCounter(this::getEvaluations, failCounter);
+        failCounter = budgetCounter;
+      }
+      frameFitTime = 0;
+      final long timer = startTimer();
       if (!benchmarking && params != null && params.pass != null) {
         // We want to store the pass/fail for consecutive candidates
         params.pass = new boolean[candidates.getLength()];
@@ -737,6 +763,15 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
       } else {
         filter.select(multiPathResults, failCounter, true, store, coordinateStore);
       }
+      if (metrics != null) {
+        // Exclude the time for fitting performed dynamically during filtering
+        metrics.record(Metric.FILTER, System.nanoTime() - timer - frameFitTime);
+      }
+      if (budgetCounter != null) {
+        // Candidates are only counted if fitting would have continued without the budget
+        budget.addSkipped(slice, budgetCounter);
+        budget.update(System.nanoTime() - start);
+      }
 
       // Note: We go deeper into the candidate list than max candidate
       // for any candidate where we have a good fit result as an estimate.
@@ -754,6 +789,9 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
           sliceResults.push(createResult(offsetx, offsety, fitted.get(i)));
         }
       }
+      if (warmStartCache != null && !benchmarking) {
+        storeWarmStartParameters(fitted);
+      }
 
       if (logger != null) {
         LoggerUtils.log(logger, Level.INFO, "Slice %d: %d / %d = %s", slice, success,
@@ -761,11 +799,92 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
       }
     }
 
+    final long timer = startTimer();
     this.results.addAll(sliceResults);
+    recordTime(Metric.RESULT_OUTPUT, timer);
 
     finishJob(job, start);
   }
 
+  /**
+   * Pre-process the frame specified by the fit job. This removes the camera bias and gain,
+   * identifies the candidate spots and estimates the noise. The result is stored in the job for
+   * fitting by a subsequent call to {@link #run(FitJob)}, possibly by a different worker.
+   *
+   * <p>This is used by the first stage of a pipeline to allow spot identification for a frame to
+   * run concurrently with fitting of other frames.
+   *
+   * @param job The fit job
+   */
+  void preprocess(FitJob job) {
+    final long start = System.nanoTime();
+    this.job = job;
+    this.slice = job.slice;
+    initialiseFrame(job);
+    job.preprocessed = preprocessFrame(job, job.getFitParameters());
+    preprocessTime += System.nanoTime() - start;
+  }
+
+  /**
+   * Initialise the data for the frame specified by the fit job.
+   *
+   * @param job The fit job
+   */
+  private void initialiseFrame(FitJob job) {
+    // Crop to the ROI
+    cc = new CoordinateConverter(job.bounds);
+    // Note if the bounds change for efficient caching.
+    newBounds = !cc.dataBounds.equals(lastBounds);
+    if (newBounds) {
+      lastBounds = cc.dataBounds;
+    }
+    borderLimitX = cc.dataBounds.width - border;
+    borderLimitY = cc.dataBounds.height - border;
+    data = job.data;
+    dataEstimator = null; // This is tied to the input data
+  }
+
+  /**
+   * Pre-process the current frame.
+   *
+   * @param job The fit job
+   * @param params The fit parameters
+   * @return the pre-processed frame
+   */
+  private PreprocessedFrame preprocessFrame(FitJob job, FitParameters params) {
+    // 06-Jun-2017
+    // The data model was changed to store the signal in photons.
+    // This allows support for per-pixel bias and gain (sCMOS cameras).
+
+    // Remove the bias and gain. This is done for all solvers except:
+    // - the legacy MLE solvers which model camera amplification
+    // - the basic LVM solver without a camera calibration
+
+    // Note: Assume that the camera model has been correctly initialised to be
+    // relative to the global origin.
+    long timer = startTimer();
+    if (isFitCameraCounts) {
+      cameraModel.removeBias(cc.dataBounds, data);
+    } else {
+      cameraModel.removeBiasAndGain(cc.dataBounds, data);
+    }
+    timer = recordTime(Metric.CAMERA_CORRECTION, timer);
+
+    final CandidateList frameCandidates =
+        indentifySpots(job, cc.dataBounds.width, cc.dataBounds.height, params);
+    timer = recordTime(Metric.SPOT_FILTER, timer);
+
+    // The noise is only required if there are candidates to fit
+    float frameNoise = Float.NaN;
+    if (frameCandidates.getSize() != 0 && (params == null || Float.isNaN(params.noise))
+        && calculateNoise) {
+      frameNoise = estimateNoise();
+      recordTime(Metric.NOISE_ESTIMATION, timer);
+    }
+
+    return new PreprocessedFrame(frameCandidates, sliceResults, frameNoise, dataEstimator);
+  }
+
   private CandidateList indentifySpots(FitJob job, int width, int height, FitParameters params) {
     Spot[] spots = null;
     int maxCandidate = 0;
@@ -808,7 +927,7 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
           spots[n] = new Spot(x, y, intensity);
         }
         // Sort the maxima
-        Arrays.sort(spots, SpotScoreComparator.getInstance());
+        SpotRanker.sort(spots);
       }
     }
 
@@ -860,6 +979,47 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
     return spotFilter;
   }
 
+  /**
+   * Seed the estimates for the candidates using the fitted parameters from the previous frame. The
+   * estimates have the lowest rank and are replaced by any estimate from fitting the current frame.
+   */
+  private void seedWarmStartEstimates() {
+    final WarmStartCache.FrameResults previous = warmStartCache.takePrevious(slice);
+    if (previous == null) {
+      return;
+    }
+    // Convert the candidate to the global reference frame. The estimates are stored relative to
+    // the data bounds without the pixel offset.
+    estimateOffsetx = -cc.dataBounds.x - 0.5;
+    estimateOffsety = -cc.dataBounds.y - 0.5;
+    for (int i = 0, len = candidates.getLength(); i < len; i++) {
+      final Candidate candidate = candidates.get(i);
+      final float[] p = previous.findClosest(candidate.x - estimateOffsetx,
+          candidate.y - estimateOffsety);
+      if (p != null) {
+        // Use the maximum precision so any fitted estimate will be preferred
+        storeEstimate(i, SimpleArrayUtils.toDouble(p), Double.MAX_VALUE, FILTER_RANK_MINIMAL);
+        warmStarts++;
+      }
+    }
+  }
+
+  /**
+   * Store the parameters of the fitted candidates to warm-start the next frame. The parameters
+   * must be in the global reference frame.
+   *
+   * @param fitted the fitted candidates
+   */
+  private void storeWarmStartParameters(CandidateList fitted) {
+    final LocalList<float[]> params = new LocalList<>(fitted.getSize());
+    for (int i = 0; i < fitted.getSize(); i++) {
+      if (fitted.get(i).fit) {
+        params.add(fitted.get(i).params.clone());
+      }
+    }
+    warmStartCache.put(slice, params.toArray(new float[0][]));
+  }
+
   private void finishJob(FitJob job, final long start) {
     time += System.nanoTime() - start;
     job.finished();
@@ -880,10 +1040,12 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
 
     final int width = cc.dataBounds.width;
     final int height = cc.dataBounds.height;
+    final long timer = startTimer();
     gridManager = new CandidateGridManager(width, height, 2 * fitting + 1);
     for (int i = 0; i < length; i++) {
       gridManager.putCandidateOnGrid(candidates.get(i));
     }
+    recordTime(Metric.NEIGHBOUR_GRID, timer);
 
     if (newBounds) {
       // Allow weighted smoothing for the background estimation
@@ -1264,9 +1426,11 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
 
       // Analyse neighbours and include them in the fit if they are within a set height of this
       // peak.
+      final long timer = startTimer();
       resetNeighbours();
       neighbours =
           findNeighboursInRegion(regionBounds, candidateId, (float) getFittingBackgroundSingle());
+      recordFitTime(Metric.NEIGHBOUR_LOOKUP, timer);
 
       if (benchmarking) {
         // When benchmarking we may compute additional results after the main filtering routine
@@ -1328,7 +1492,7 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
       if (precomputedFittedNeighbourCount == -1) {
         precomputedFittedNeighbourCount = 0;
         if (fittedNeighbourCount > 0) {
-          precomputed = new boolean[fittedNeighbourCount];
+          precomputed = arena.getBooleans(FitWorkerArena.PRECOMPUTED, fittedNeighbourCount);
 
           // The fitted result will be relative to (0,0) in the fit data and already
           // have an offset applied so that 0.5 is the centre of a pixel. (Note: the
@@ -1364,8 +1528,9 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
 
         // Pre-compute the already fitted peaks.
 
-        precomputedFunctionParamsMulti =
-            new double[1 + PARAMETERS_PER_PEAK * precomputedFittedNeighbourCount];
+        precomputedFunctionParamsMulti = arena.getDoubles(FitWorkerArena.PRECOMPUTED_PARAMS_MULTI,
+            1 + PARAMETERS_PER_PEAK * precomputedFittedNeighbourCount);
+        precomputedFunctionParamsMulti[Gaussian2DFunction.BACKGROUND] = 0;
         for (int i = 0, j = 0; i < fittedNeighbourCount; i++) {
           if (!precomputed[i]) {
             continue;
@@ -1388,6 +1553,22 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
       return precomputedFittedNeighboursMulti;
     }
 
+    /**
+     * Checks if the multi fit was skipped. This is true if the single fit was computed and a multi
+     * fit is possible but was not computed.
+     *
+     * @return true if the multi fit was skipped
+     */
+    boolean isMultiSkipped() {
+      if (computedMulti || resultSingle == null || neighbours == 0
+          || !config.isIncludeNeighbours()) {
+        return false;
+      }
+      // Match the neighbours used in getResultMulti() after precomputation
+      return candidateNeighbourCount + fittedNeighbourCount
+          - getPrecomputedNeighbourCount() != 0;
+    }
+
     MultiPathFitResult.FitResult getResultMulti() {
       if (computedMulti) {
         return resultMulti;
@@ -1454,17 +1635,16 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
           (backgroundCount == 0) ? getFittingBackgroundSingle() : background / backgroundCount;
 
       // Support bounds on the known fitted peaks
-      final double[] lower = new double[params.length];
-      final double[] upper = new double[params.length];
-      for (int i = 0; i < lower.length; i++) {
-        lower[i] = Double.NEGATIVE_INFINITY;
-        upper[i] = Double.POSITIVE_INFINITY;
-      }
+      final double[] lower = arena.getDoubles(FitWorkerArena.LOWER_BOUNDS, params.length);
+      final double[] upper = arena.getDoubles(FitWorkerArena.UPPER_BOUNDS, params.length);
+      Arrays.fill(lower, Double.NEGATIVE_INFINITY);
+      Arrays.fill(upper, Double.POSITIVE_INFINITY);
 
       // Note: If difference-of-smoothing is performed the heights have background subtracted so
       // it must be added back
 
-      final boolean[] amplitudeEstimate = new boolean[npeaks];
+      final boolean[] amplitudeEstimate =
+          arena.getBooleans(FitWorkerArena.AMPLITUDE_ESTIMATE, npeaks);
 
       // The main peak. We use a close estimate if we have one.
       amplitudeEstimate[0] = getEstimate(candidates.get(candidateId), params, 0, true);
@@ -1625,6 +1805,7 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
       fitConfig.setPrecomputedFunctionValues(precomputedFittedNeighboursMulti);
       final FitResult fitResult = gf.fit(region, width, height, npeaks, params, amplitudeEstimate,
           params[Gaussian2DFunction.BACKGROUND] == 0);
+      recordFit(fitResult);
       fitConfig.setPrecomputedFunctionValues(null);
       valueMulti = getFitValue();
       gf.setBounds(null, null);
@@ -2652,8 +2833,9 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
 
         // Utils.display("Region", region, width, height);
 
-        precomputedFunctionParamsSingle =
-            new double[1 + PARAMETERS_PER_PEAK * fittedNeighbourCount];
+        precomputedFunctionParamsSingle = arena.getDoubles(FitWorkerArena.PRECOMPUTED_PARAMS_SINGLE,
+            1 + PARAMETERS_PER_PEAK * fittedNeighbourCount);
+        precomputedFunctionParamsSingle[Gaussian2DFunction.BACKGROUND] = 0;
         for (int i = 0, j = 0; i < fittedNeighbourCount; i++, j += PARAMETERS_PER_PEAK) {
           // Check if within the region
           if (!precomputed[i]) {
@@ -2684,7 +2866,7 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
       params[Gaussian2DFunction.BACKGROUND] =
           (backgroundCount == 0) ? getFittingBackgroundSingle() : background / backgroundCount;
 
-      final boolean[] amplitudeEstimate = new boolean[1];
+      final boolean[] amplitudeEstimate = arena.getBooleans(FitWorkerArena.AMPLITUDE_ESTIMATE, 1);
 
       // Re-use an estimate if we have it. Note that this may be quite far from the candidate.
       amplitudeEstimate[0] = getEstimate(candidates.get(candidateId), params, 0, false);
@@ -2770,6 +2952,7 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
       fitConfig.setPrecomputedFunctionValues(precomputedFittedNeighboursSingle);
       final FitResult fitResult = gf.fit(region, width, height, 1, params, amplitudeEstimate,
           params[Gaussian2DFunction.BACKGROUND] == 0);
+      recordFit(fitResult);
       fitConfig.setPrecomputedFunctionValues(null);
       valueSingle = getFitValue();
       updateResult(fitResult);
@@ -3266,7 +3449,7 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
       // get the state.
       final boolean isComputeResiduals = gf.isComputeResiduals();
       gf.setComputeResiduals(false);
-      final boolean[] amplitudeEstimate = new boolean[2];
+      final boolean[] amplitudeEstimate = arena.getBooleans(FitWorkerArena.AMPLITUDE_ESTIMATE, 2);
       final DynamicPeakResultValidationData validationData =
           new DynamicPeakResultValidationData(2) {
             @Override
@@ -3278,6 +3461,7 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
       fitConfig.setPrecomputedFunctionValues(precomputedFunctionValues);
       final FitResult newFitResult = gf.fit(region, width, height, 2, doubletParams,
           amplitudeEstimate, doubletParams[Gaussian2DFunction.BACKGROUND] == 0);
+      recordFit(newFitResult);
       fitConfig.setPrecomputedFunctionValues(null);
       gf.setComputeResiduals(isComputeResiduals);
 
@@ -3396,8 +3580,8 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
         // Allow the shift to span half of the fitted window.
         final double halfWindow = 0.5 * Math.min(regionBounds.width, regionBounds.height);
 
-        final int[] position = new int[2];
-        final int[] candidateIndex = new int[2];
+        final int[] position = arena.getInts(FitWorkerArena.POSITION, 2);
+        final int[] candidateIndex = arena.getInts(FitWorkerArena.CANDIDATE_INDEX, 2);
         int peakCount = 0;
         NEXT_PEAK: for (int n = 0; n < 2; n++) {
           final int offset = n * Gaussian2DFunction.PARAMETERS_PER_PEAK;
@@ -4020,6 +4204,26 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
     return time;
   }
 
+  /**
+   * Gets the number of multi fits that were not computed due to lazy multi-path evaluation.
+   *
+   * @return the number of saved multi fits
+   * @see FitConfiguration#setLazyMultiPath(boolean)
+   */
+  public long getSavedMultiFits() {
+    return savedMultiFits;
+  }
+
+  /**
+   * Gets the total time used for pre-processing frames for a pipeline. This is not included in
+   * {@link #getTime()}.
+   *
+   * @return the total time used for pre-processing.
+   */
+  public long getPreprocessTime() {
+    return preprocessTime;
+  }
+
   /**
    * Signal that the worker should end.
    */
@@ -4079,6 +4283,171 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
     }
   }
 
+  /**
+   * Set the metrics. This can be used to collect the latency of each stage of the fitting process.
+   * The metrics must only be updated by the thread running this worker.
+   *
+   * @param metrics the metrics
+   */
+  public void setMetrics(FitMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Gets the metrics.
+   *
+   * @return the metrics (or null)
+   */
+  public FitMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Start a timer if collecting metrics.
+   *
+   * @return the start time
+   */
+  private long startTimer() {
+    return (metrics == null) ? 0 : System.nanoTime();
+  }
+
+  /**
+   * Record the time for the metric if collecting metrics.
+   *
+   * @param metric the metric
+   * @param start the start time
+   * @return the current time
+   */
+  private long recordTime(Metric metric, long start) {
+    if (metrics == null) {
+      return 0;
+    }
+    final long now = System.nanoTime();
+    metrics.record(metric, now - start);
+    return now;
+  }
+
+  /**
+   * Record the time for the metric if collecting metrics. The time is part of the time spent
+   * fitting candidates during filtering of the frame.
+   *
+   * @param metric the metric
+   * @param start the start time
+   */
+  private void recordFitTime(Metric metric, long start) {
+    if (metrics != null) {
+      final long time = System.nanoTime() - start;
+      metrics.record(metric, time);
+      frameFitTime += time;
+    }
+  }
+
+  /**
+   * Record the evaluations of the fit. The iterations and evaluations are added to the metrics if
+   * collecting metrics.
+   *
+   * @param fitResult the fit result
+   */
+  private void recordFit(FitResult fitResult) {
+    if (fitResult != null) {
+      evaluations += fitResult.getEvaluations();
+      if (metrics != null) {
+        metrics.record(Metric.ITERATIONS, fitResult.getIterations());
+        metrics.record(Metric.EVALUATIONS, fitResult.getEvaluations());
+      }
+    }
+  }
+
+  /**
+   * Gets the total number of function evaluations used for fitting.
+   *
+   * @return the evaluations
+   */
+  long getEvaluations() {
+    return evaluations;
+  }
+
+  /**
+   * Set the cache used to warm-start the fitting of each frame using the fitted parameters of the
+   * previous frame. This is not used when benchmarking.
+   *
+   * @param warmStartCache the warm start cache (set to null to disable)
+   */
+  public void setWarmStartCache(WarmStartCache warmStartCache) {
+    this.warmStartCache = warmStartCache;
+  }
+
+  /**
+   * Gets the cache used to warm-start the fitting of each frame.
+   *
+   * @return the warm start cache (or null)
+   */
+  public WarmStartCache getWarmStartCache() {
+    return warmStartCache;
+  }
+
+  /**
+   * Gets the number of candidates with an initial estimate from the previous frame.
+   *
+   * @return the warm starts
+   */
+  public long getWarmStarts() {
+    return warmStarts;
+  }
+
+  /**
+   * Set the budget for fitting each frame. Candidates are processed in order until the budget is
+   * exhausted. The budget is adapted using the time taken for each frame. This is not used when
+   * benchmarking.
+   *
+   * @param frameBudget the frame budget (set to null to disable)
+   */
+  public void setFrameBudget(FrameBudget frameBudget) {
+    this.frameBudget = frameBudget;
+  }
+
+  /**
+   * Gets the budget for fitting each frame.
+   *
+   * @return the frame budget (or null)
+   */
+  public FrameBudget getFrameBudget() {
+    return frameBudget;
+  }
+
+  /**
+   * Gets the arena of working arrays used to fit candidates.
+   *
+   * @return the arena
+   */
+  FitWorkerArena getArena() {
+    return arena;
+  }
+
+  /**
+   * Check if the single fit should be evaluated first for the current frame. This uses the
+   * statistics of the fit paths selected in previous frames. The single fit is evaluated first if
+   * lazy multi-path evaluation is enabled and the single fit is the path most frequently selected.
+   *
+   * <p>The full evaluation order is used periodically so the statistics include the outcome of the
+   * multi fit.
+   *
+   * @return true if the single fit should be evaluated first
+   */
+  private boolean isLazySingleFirst() {
+    if (!fitConfig.isLazyMultiPath() || counter == null
+        || slice % LAZY_MULTI_PATH_SAMPLE_INTERVAL == 0) {
+      return false;
+    }
+    final int ok = counter.getSet(FitType.OK);
+    if (ok < LAZY_MULTI_PATH_MIN_SAMPLES) {
+      return false;
+    }
+    final int multi =
+        counter.getSet(FitType.MULTI_OK) + counter.getSet(FitType.MULTI_DOUBLET_OK);
+    return ok - multi > multi;
+  }
+
   @Override
   public int getFrame() {
     return slice;
@@ -4163,15 +4532,23 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
           final Rectangle bounds = new Rectangle(regionBounds);
           bounds.x += cc.dataBounds.x;
           bounds.y += cc.dataBounds.y;
-          final float[] v = (isFitCameraCounts) ? cameraModel.getVariance(bounds)
-              : cameraModel.getNormalisedVariance(bounds);
-          // Convert to double
-          if (ArrayUtils.getLength(varG2) != v.length) {
-            varG2 = SimpleArrayUtils.toDouble(v);
+          if (cameraModel instanceof PerPixelCameraModel) {
+            // Copy directly from the precomputed tables re-using space
+            final PerPixelCameraModelTables.Region tableRegion =
+                ((PerPixelCameraModel) cameraModel).getRegion(bounds);
+            varG2 = (isFitCameraCounts) ? tableRegion.getVariance(varG2)
+                : tableRegion.getNormalisedVariance(varG2);
           } else {
-            // Re-use space
-            for (int i = 0; i < v.length; i++) {
-              varG2[i] = v[i];
+            final float[] v = (isFitCameraCounts) ? cameraModel.getVariance(bounds)
+                : cameraModel.getNormalisedVariance(bounds);
+            // Convert to double
+            if (ArrayUtils.getLength(varG2) != v.length) {
+              varG2 = SimpleArrayUtils.toDouble(v);
+            } else {
+              // Re-use space
+              for (int i = 0; i < v.length; i++) {
+                varG2[i] = v[i];
+              }
             }
           }
         } else {
@@ -4210,7 +4587,9 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
     public FitResult getMultiFitResult() {
       FitResult result = super.getMultiFitResult();
       if (result == null && isValid) {
+        final long timer = startTimer();
         result = spotFitter.getResultMulti();
+        recordFitTime(Metric.FIT_MULTI, timer);
         setMultiFitResult(result);
         if (result != null) {
           fitType.setMulti(true);
@@ -4228,7 +4607,9 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
     public double getMultiQaScore() {
       double score = super.getMultiQaScore();
       if (score == NO_QA_SCORE && isValid) {
+        final long timer = startTimer();
         score = spotFitter.getQaScoreMulti();
+        recordFitTime(Metric.QUADRANT_ANALYSIS, timer);
         this.setMultiQaScore(score);
       }
       return score;
@@ -4238,7 +4619,9 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
     public FitResult getMultiDoubletFitResult() {
       FitResult result = super.getMultiDoubletFitResult();
       if (result == null && isValid) {
+        final long timer = startTimer();
         result = spotFitter.getResultDoubletMulti(config.getResidualsThreshold());
+        recordFitTime(Metric.FIT_MULTI_DOUBLET, timer);
         setMultiDoubletFitResult(result);
         fitType.setMultiDoublet(spotFitter.computedDoubletMulti);
       }
@@ -4254,7 +4637,9 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
     public FitResult getSingleFitResult() {
       FitResult result = super.getSingleFitResult();
       if (result == null && isValid) {
+        final long timer = startTimer();
         result = spotFitter.getResultSingle();
+        recordFitTime(Metric.FIT_SINGLE, timer);
         setSingleFitResult(result);
       }
       return result;
@@ -4264,7 +4649,9 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
     public double getSingleQaScore() {
       double score = super.getSingleQaScore();
       if (score == NO_QA_SCORE && isValid) {
+        final long timer = startTimer();
         score = spotFitter.getQaScoreSingle();
+        recordFitTime(Metric.QUADRANT_ANALYSIS, timer);
         this.setSingleQaScore(score);
       }
       return score;
@@ -4274,7 +4661,9 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
     public FitResult getDoubletFitResult() {
       FitResult result = super.getDoubletFitResult();
       if (result == null && isValid) {
+        final long timer = startTimer();
         result = spotFitter.getResultDoubletSingle(config.getResidualsThreshold());
+        recordFitTime(Metric.FIT_DOUBLET, timer);
         setDoubletFitResult(result);
         fitType.setDoublet(spotFitter.computedDoubletSingle);
       }
@@ -4327,6 +4716,12 @@ public class FitWorker implements Runnable, IMultiPathFitResults, SelectedResult
       job.setMultiPathFitResult(index, dynamicMultiPathFitResult.copy(false));
     }
 
+    // Count the multi fits that were not computed when evaluating the single fit first
+    if (singleFirst && dynamicMultiPathFitResult.isValid
+        && dynamicMultiPathFitResult.spotFitter.isMultiSkipped()) {
+      savedMultiFits++;
+    }
+
     // Send the actual results to the neighbour grid
     if (flushToGrid()) {
       // Count if there were any new results
@@ -0,0 +1,199 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.engine;
+
+import java.util.Arrays;
+
+/**
+ * Provide reusable working arrays for the transient structures used when fitting a candidate.
+ *
+ * <p>The arena is owned by a single {@link FitWorker} and is not thread-safe. Arrays are stored in
+ * numbered slots and pooled by length. An array obtained from a slot is owned by the caller until
+ * the next request for the same slot and length. Arrays must not escape the fitting of the current
+ * candidate, for example to a {@link uk.ac.sussex.gdsc.smlm.results.PeakResult
+ * PeakResult} or a result store; any data that is retained must be copied.
+ *
+ * <p>The contents of a double or integer array are undefined and must be initialised by the
+ * caller. Boolean arrays are cleared to false.
+ *
+ * <p>Pooling can be disabled to allocate a new array for each request. This allows the allocation
+ * saved by the arena to be measured.
+ */
+final class FitWorkerArena {
+  /** The slot for the lower bounds of the multi-peak fit. */
+  static final int LOWER_BOUNDS = 0;
+  /** The slot for the upper bounds of the multi-peak fit. */
+  static final int UPPER_BOUNDS = 1;
+  /** The slot for the parameters of the precomputed neighbours of the multi-peak fit. */
+  static final int PRECOMPUTED_PARAMS_MULTI = 2;
+  /** The slot for the parameters of the precomputed neighbours of the single-peak fit. */
+  static final int PRECOMPUTED_PARAMS_SINGLE = 3;
+  /** The number of double array slots. */
+  private static final int DOUBLE_SLOTS = 4;
+
+  /** The slot for the amplitude estimate flags passed to the fitter. */
+  static final int AMPLITUDE_ESTIMATE = 0;
+  /** The slot for the flags of the precomputed fitted neighbours. */
+  static final int PRECOMPUTED = 1;
+  /** The number of boolean array slots. */
+  private static final int BOOLEAN_SLOTS = 2;
+
+  /** The slot for the peak positions in a doublet fit. */
+  static final int POSITION = 0;
+  /** The slot for the candidate indices in a doublet fit. */
+  static final int CANDIDATE_INDEX = 1;
+  /** The number of integer array slots. */
+  private static final int INT_SLOTS = 2;
+
+  /**
+   * The maximum length of a pooled array. Larger arrays are allocated on request. This limits the
+   * size of the pool when fitting very dense regions.
+   */
+  static final int MAX_POOLED_LENGTH = 1024;
+
+  private final double[][][] doubles = new double[DOUBLE_SLOTS][0][];
+  private final boolean[][][] booleans = new boolean[BOOLEAN_SLOTS][0][];
+  private final int[][][] ints = new int[INT_SLOTS][0][];
+
+  /** The number of requests. */
+  private long requests;
+  /** The number of requests that allocated a new array. */
+  private long allocations;
+  /** Set to true to pool the arrays. */
+  private boolean pooled = true;
+
+  /**
+   * Gets a double array of the given length. The contents are undefined.
+   *
+   * @param slot the slot
+   * @param length the length
+   * @return the array
+   */
+  double[] getDoubles(int slot, int length) {
+    requests++;
+    if (length > MAX_POOLED_LENGTH || !pooled) {
+      allocations++;
+      return new double[length];
+    }
+    double[][] pool = doubles[slot];
+    if (pool.length <= length) {
+      pool = doubles[slot] = Arrays.copyOf(pool, length + 1);
+    }
+    double[] array = pool[length];
+    if (array == null) {
+      allocations++;
+      array = pool[length] = new double[length];
+    }
+    return array;
+  }
+
+  /**
+   * Gets a boolean array of the given length. The contents are cleared to false.
+   *
+   * @param slot the slot
+   * @param length the length
+   * @return the array
+   */
+  boolean[] getBooleans(int slot, int length) {
+    requests++;
+    if (length > MAX_POOLED_LENGTH || !pooled) {
+      allocations++;
+      return new boolean[length];
+    }
+    boolean[][] pool = booleans[slot];
+    if (pool.length <= length) {
+      pool = booleans[slot] = Arrays.copyOf(pool, length + 1);
+    }
+    boolean[] array = pool[length];
+    if (array == null) {
+      allocations++;
+      array = pool[length] = new boolean[length];
+    } else {
+      Arrays.fill(array, false);
+    }
+    return array;
+  }
+
+  /**
+   * Gets an integer array of the given length. The contents are undefined.
+   *
+   * @param slot the slot
+   * @param length the length
+   * @return the array
+   */
+  int[] getInts(int slot, int length) {
+    requests++;
+    if (length > MAX_POOLED_LENGTH || !pooled) {
+      allocations++;
+      return new int[length];
+    }
+    int[][] pool = ints[slot];
+    if (pool.length <= length) {
+      pool = ints[slot] = Arrays.copyOf(pool, length + 1);
+    }
+    int[] array = pool[length];
+    if (array == null) {
+      allocations++;
+      array = pool[length] = new int[length];
+    }
+    return array;
+  }
+
+  /**
+   * Gets the number of array requests.
+   *
+   * @return the requests
+   */
+  long getRequests() {
+    return requests;
+  }
+
+  /**
+   * Gets the number of array requests that allocated a new array.
+   *
+   * @return the allocations
+   */
+  long getAllocations() {
+    return allocations;
+  }
+
+  /**
+   * Checks if arrays are pooled.
+   *
+   * @return true if pooled
+   */
+  boolean isPooled() {
+    return pooled;
+  }
+
+  /**
+   * Set to true to pool the arrays. If false a new array is allocated for each request.
+   *
+   * @param pooled the new pooled flag
+   */
+  void setPooled(boolean pooled) {
+    this.pooled = pooled;
+  }
+}
@@ -0,0 +1,327 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.engine;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import uk.ac.sussex.gdsc.smlm.results.count.BudgetFailCounter;
+import uk.ac.sussex.gdsc.smlm.results.count.FailCounter;
+
+/**
+ * Define a budget for fitting the candidates in each frame. Candidates are fitted in order of the
+ * spot score until the budget is exhausted. The remaining candidates are skipped.
+ *
+ * <p>The budget can be adapted to achieve a target frame rate. After each frame the budget is
+ * scaled by the ratio of the target frame time to the actual frame time. The scale factor for a
+ * single frame is limited to the range [0.5, 2] and the budget is clamped to configured limits.
+ *
+ * <p>Frames with skipped candidates are recorded as a report. These can be collected using
+ * {@link #pollSkipped()}. The number of uncollected reports is limited to
+ * {@link #MAX_SKIPPED_REPORTS}; further reports are discarded. The total number of frames and
+ * candidates that were skipped is always recorded. The skipped candidates are not refit by the fit
+ * engine; the report identifies the frames that were not fully processed.
+ *
+ * <p>This class is thread-safe and can be shared by all the workers of a fit engine.
+ */
+public class FrameBudget {
+  /** The minimum scale factor to adapt the budget after a frame. */
+  private static final double MIN_SCALE = 0.5;
+  /** The maximum scale factor to adapt the budget after a frame. */
+  private static final double MAX_SCALE = 2;
+  /** The maximum number of uncollected reports of frames with skipped candidates. */
+  public static final int MAX_SKIPPED_REPORTS = 1000;
+
+  /**
+   * The type of budget.
+   */
+  public enum BudgetType {
+    /** The elapsed time (in nanoseconds). */
+    TIME,
+    /** The number of function evaluations. */
+    EVALUATIONS;
+  }
+
+  /**
+   * A report of a frame with candidates that were skipped due to an exhausted budget.
+   */
+  public static class SkippedFrame {
+    /** The slice. */
+    public final int slice;
+    /** The number of skipped candidates. */
+    public final int candidates;
+
+    /**
+     * Create an instance.
+     *
+     * @param slice the slice
+     * @param candidates the number of skipped candidates
+     */
+    SkippedFrame(int slice, int candidates) {
+      this.slice = slice;
+      this.candidates = candidates;
+    }
+  }
+
+  private final BudgetType type;
+  private final ConcurrentLinkedQueue<SkippedFrame> skipped = new ConcurrentLinkedQueue<>();
+  /** The size of the skipped queue. */
+  private final AtomicInteger skippedSize = new AtomicInteger();
+  /** The total number of frames with skipped candidates. */
+  private final AtomicLong skippedFrames = new AtomicLong();
+  /** The total number of skipped candidates. */
+  private final AtomicLong skippedCandidates = new AtomicLong();
+  private volatile long budget;
+  private long minBudget;
+  private long maxBudget;
+  /** The target time for a frame (in nanoseconds). Zero to disable adaption. */
+  private long targetFrameTime;
+
+  /**
+   * Create an instance with a fixed budget.
+   *
+   * <p>The budget is limited to the range [budget / 10, budget * 10] if adapting to a target frame
+   * rate.
+   *
+   * @param type the type
+   * @param budget the budget
+   * @throws IllegalArgumentException if the budget is not strictly positive
+   */
+  public FrameBudget(BudgetType type, long budget) {
+    if (type == null) {
+      throw new IllegalArgumentException("Type must not be null");
+    }
+    if (budget <= 0) {
+      throw new IllegalArgumentException("Budget must be strictly positive: " + budget);
+    }
+    this.type = type;
+    this.budget = budget;
+    minBudget = Math.max(1, budget / 10);
+    maxBudget = (budget > Long.MAX_VALUE / 10) ? Long.MAX_VALUE : budget * 10;
+  }
+
+  /**
+   * Gets the type.
+   *
+   * @return the type
+   */
+  public BudgetType getType() {
+    return type;
+  }
+
+  /**
+   * Gets the current budget.
+   *
+   * @return the budget
+   */
+  public long getBudget() {
+    return budget;
+  }
+
+  /**
+   * Sets the limits for the budget when adapting to a target frame rate. The current budget is
+   * clamped to the limits.
+   *
+   * @param minBudget the minimum budget
+   * @param maxBudget the maximum budget
+   * @throws IllegalArgumentException if the minimum is not strictly positive or above the maximum
+   */
+  public synchronized void setBudgetLimits(long minBudget, long maxBudget) {
+    if (minBudget <= 0 || minBudget > maxBudget) {
+      throw new IllegalArgumentException(
+          "Invalid budget limits: [" + minBudget + ", " + maxBudget + "]");
+    }
+    this.minBudget = minBudget;
+    this.maxBudget = maxBudget;
+    budget = clamp(budget);
+  }
+
+  /**
+   * Gets the minimum budget.
+   *
+   * @return the minimum budget
+   */
+  public long getMinBudget() {
+    return minBudget;
+  }
+
+  /**
+   * Gets the maximum budget.
+   *
+   * @return the maximum budget
+   */
+  public long getMaxBudget() {
+    return maxBudget;
+  }
+
+  /**
+   * Sets the target frame rate. Each worker processes a frame in parallel so the target time for
+   * a frame on a single worker is the number of workers divided by the frame rate.
+   *
+   * <p>Set the frame rate to zero to disable adaption of the budget.
+   *
+   * @param framesPerSecond the frames per second
+   * @param threads the number of fitting threads
+   * @throws IllegalArgumentException if the frame rate is negative or the threads are not strictly
+   *         positive
+   */
+  public synchronized void setTargetFrameRate(double framesPerSecond, int threads) {
+    if (!(framesPerSecond >= 0) || threads <= 0) {
+      throw new IllegalArgumentException(
+          "Invalid frame rate: " + framesPerSecond + " fps using " + threads + " threads");
+    }
+    targetFrameTime = (framesPerSecond == 0) ? 0
+        : (long) (threads * TimeUnit.SECONDS.toNanos(1) / framesPerSecond);
+  }
+
+  /**
+   * Gets the target frame time for a single worker (in nanoseconds).
+   *
+   * @return the target frame time (or zero if not adapting the budget)
+   */
+  public long getTargetFrameTime() {
+    return targetFrameTime;
+  }
+
+  /**
+   * Create a fail counter to track the budget for a frame. The counter must be reset at the start
+   * of the frame.
+   *
+   * @param evaluations the number of function evaluations (used for an evaluation budget)
+   * @return the fail counter
+   */
+  public BudgetFailCounter createCounter(LongSupplier evaluations) {
+    return createCounter(evaluations, null);
+  }
+
+  /**
+   * Create a fail counter to track the budget for a frame that limits another fail counter. The
+   * counter must be reset at the start of the frame.
+   *
+   * @param evaluations the number of function evaluations (used for an evaluation budget)
+   * @param counter the counter limited by the budget (can be null)
+   * @return the fail counter
+   * @see BudgetFailCounter#create(LongSupplier, long, FailCounter)
+   */
+  public BudgetFailCounter createCounter(LongSupplier evaluations, FailCounter counter) {
+    final LongSupplier usage = (type == BudgetType.TIME) ? System::nanoTime : evaluations;
+    return BudgetFailCounter.create(usage, budget, counter);
+  }
+
+  /**
+   * Update the budget using the time taken to process a frame. This has no effect if there is no
+   * target frame rate.
+   *
+   * @param frameTime the frame time (in nanoseconds)
+   */
+  public synchronized void update(long frameTime) {
+    if (targetFrameTime == 0 || frameTime <= 0) {
+      return;
+    }
+    final double scale =
+        Math.min(MAX_SCALE, Math.max(MIN_SCALE, (double) targetFrameTime / frameTime));
+    budget = clamp((long) Math.ceil(budget * scale));
+  }
+
+  private long clamp(long value) {
+    return Math.min(maxBudget, Math.max(minBudget, value));
+  }
+
+  /**
+   * Record a frame with candidates that were skipped due to an exhausted budget. The report is
+   * discarded if the maximum number of uncollected reports has been reached.
+   *
+   * @param slice the slice
+   * @param candidates the number of skipped candidates
+   */
+  public void addSkipped(int slice, int candidates) {
+    skippedFrames.incrementAndGet();
+    skippedCandidates.addAndGet(candidates);
+    if (skippedSize.incrementAndGet() > MAX_SKIPPED_REPORTS) {
+      skippedSize.decrementAndGet();
+      return;
+    }
+    skipped.add(new SkippedFrame(slice, candidates));
+  }
+
+  /**
+   * Record the frame if the counter was stopped by the exhausted budget with skipped candidates.
+   *
+   * @param slice the slice
+   * @param counter the counter used to process the frame
+   * @return true if the frame was recorded
+   */
+  public boolean addSkipped(int slice, BudgetFailCounter counter) {
+    final int candidates = counter.getExhaustedFailCount();
+    if (candidates != 0) {
+      addSkipped(slice, candidates);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Retrieve and remove the next frame with skipped candidates.
+   *
+   * @return the skipped frame (or null if none)
+   */
+  public SkippedFrame pollSkipped() {
+    final SkippedFrame frame = skipped.poll();
+    if (frame != null) {
+      skippedSize.decrementAndGet();
+    }
+    return frame;
+  }
+
+  /**
+   * Gets the number of frames with skipped candidates that have not been retrieved.
+   *
+   * @return the skipped frame count
+   */
+  public int getSkippedSize() {
+    return skippedSize.get();
+  }
+
+  /**
+   * Gets the total number of frames with skipped candidates. This includes reports that have been
+   * retrieved or discarded.
+   *
+   * @return the skipped frame count
+   */
+  public long getSkippedFrames() {
+    return skippedFrames.get();
+  }
+
+  /**
+   * Gets the total number of candidates skipped due to an exhausted budget.
+   *
+   * @return the skipped candidate count
+   */
+  public long getSkippedCandidates() {
+    return skippedCandidates.get();
+  }
+}
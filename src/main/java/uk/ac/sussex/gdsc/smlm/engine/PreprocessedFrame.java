@@ -0,0 +1,61 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.engine;
+
+import uk.ac.sussex.gdsc.core.utils.LocalList;
+import uk.ac.sussex.gdsc.smlm.results.PeakResult;
+
+/**
+ * Stores the result of pre-processing a frame for fitting: the candidate spots and the noise.
+ */
+class PreprocessedFrame {
+  /** The candidates. */
+  final CandidateList candidates;
+
+  /** The list to store the results for the frame. */
+  final LocalList<PeakResult> sliceResults;
+
+  /** The noise (NaN if not computed). */
+  final float noise;
+
+  /** The data estimator (can be null). */
+  final DataEstimator dataEstimator;
+
+  /**
+   * Create an instance.
+   *
+   * @param candidates the candidates
+   * @param sliceResults the slice results
+   * @param noise the noise
+   * @param dataEstimator the data estimator
+   */
+  PreprocessedFrame(CandidateList candidates, LocalList<PeakResult> sliceResults, float noise,
+      DataEstimator dataEstimator) {
+    this.candidates = candidates;
+    this.sliceResults = sliceResults;
+    this.noise = noise;
+    this.dataEstimator = dataEstimator;
+  }
+}
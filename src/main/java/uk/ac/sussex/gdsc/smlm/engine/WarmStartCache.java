@@ -0,0 +1,277 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import uk.ac.sussex.gdsc.smlm.function.gaussian.Gaussian2DFunction;
+
+/**
+ * Cache the fitted parameters of each frame to warm-start the fitting of the next frame.
+ *
+ * <p>Fluorophores are often on for several consecutive frames. The fitted parameters from frame
+ * N-1 can be used as initial estimates for candidates in frame N that are within a distance
+ * tolerance of a previous localisation.
+ *
+ * <p>The cache is thread-safe and can be shared by all the workers of a fit engine. Frames are
+ * fitted concurrently and a frame is only warm-started if the previous frame has been completed.
+ * A worker does not wait for the previous frame. The fraction of frames that are warm-started is
+ * reduced as the number of workers increases and can be measured using the number of requests
+ * and hits for the previous frame. The results when using multiple threads may vary between runs.
+ *
+ * <p>The parameters are stored using the Gaussian 2D parameter layout in the global coordinate
+ * frame, i.e. the centre of a pixel is at an offset of 0.5.
+ */
+public class WarmStartCache {
+  /**
+   * The maximum number of frames before the most recent frame that are retained. A frame is
+   * normally removed when the next frame is fitted. This removes frames that are never used, e.g.
+   * if the next frame is not processed.
+   */
+  private static final int MAX_FRAME_LAG = 64;
+
+  private final double distance;
+  private final ConcurrentHashMap<Integer, FrameResults> frames = new ConcurrentHashMap<>();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+
+  /**
+   * The fitted parameters of a frame stored in a spatial grid.
+   *
+   * <p>The parameters are sorted by grid cell. The storage is proportional to the number of
+   * parameters and not the area of the frame. A search uses a binary search of the sorted cells
+   * for each row of the adjacent cells.
+   */
+  public static final class FrameResults {
+    private final double distance2;
+    private final double cellSize;
+    private final float minx;
+    private final float miny;
+    /** The grid cell key of each parameter (in ascending order). */
+    private final long[] keys;
+    /** The parameters sorted by cell. */
+    private final float[][] params;
+
+    /**
+     * Create an instance.
+     *
+     * @param params the parameters
+     * @param distance the distance tolerance
+     */
+    FrameResults(float[][] params, double distance) {
+      distance2 = distance * distance;
+      cellSize = Math.max(1, distance);
+      float xmin = Float.POSITIVE_INFINITY;
+      float ymin = Float.POSITIVE_INFINITY;
+      for (final float[] p : params) {
+        xmin = Math.min(xmin, p[Gaussian2DFunction.X_POSITION]);
+        ymin = Math.min(ymin, p[Gaussian2DFunction.Y_POSITION]);
+      }
+      minx = xmin;
+      miny = ymin;
+
+      this.params = params.clone();
+      Arrays.sort(this.params, (p1, p2) -> Long.compare(getKey(p1), getKey(p2)));
+      keys = new long[params.length];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = getKey(this.params[i]);
+      }
+    }
+
+    /**
+     * Gets the key for the grid cell of the parameters. Cells are ordered by row then column.
+     *
+     * @param p the parameters
+     * @return the key
+     */
+    private long getKey(float[] p) {
+      // Positions are above the minimum so the cell is positive. The int cast saturates.
+      return getKey((int) ((p[Gaussian2DFunction.Y_POSITION] - miny) / cellSize),
+          (int) ((p[Gaussian2DFunction.X_POSITION] - minx) / cellSize));
+    }
+
+    private static long getKey(long cy, long cx) {
+      return (cy << 32) | cx;
+    }
+
+    /**
+     * Find the closest parameters within the distance tolerance of the position.
+     *
+     * @param x the x position
+     * @param y the y position
+     * @return the parameters (or null)
+     */
+    public float[] findClosest(double x, double y) {
+      // The cell size is at least the distance so search the adjacent cells.
+      // Use floor to handle positions below the minimum.
+      final long cx = (long) Math.floor((x - minx) / cellSize);
+      final long cy = (long) Math.floor((y - miny) / cellSize);
+      final long imin = Math.max(0, cx - 1);
+      final long imax = Math.min(Integer.MAX_VALUE, cx + 1);
+      if (imin > imax) {
+        return null;
+      }
+      float[] closest = null;
+      double min = distance2;
+      for (long j = Math.max(0, cy - 1), jmax = Math.min(Integer.MAX_VALUE, cy + 1); j <= jmax;
+          j++) {
+        final long upper = getKey(j, imax);
+        for (int k = lowerBound(keys, getKey(j, imin)); k < keys.length && keys[k] <= upper;
+            k++) {
+          final float[] p = params[k];
+          final double dx = p[Gaussian2DFunction.X_POSITION] - x;
+          final double dy = p[Gaussian2DFunction.Y_POSITION] - y;
+          final double d2 = dx * dx + dy * dy;
+          if (d2 <= min) {
+            min = d2;
+            closest = p;
+          }
+        }
+      }
+      return closest;
+    }
+
+    /**
+     * Find the index of the first key that is not less than the value.
+     *
+     * @param keys the keys (in ascending order)
+     * @param value the value
+     * @return the index (or the length if all keys are less than the value)
+     */
+    private static int lowerBound(long[] keys, long value) {
+      int lo = 0;
+      int hi = keys.length;
+      while (lo < hi) {
+        final int mid = (lo + hi) >>> 1;
+        if (keys[mid] < value) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+
+    /**
+     * Gets the number of stored parameters.
+     *
+     * @return the size
+     */
+    public int size() {
+      return params.length;
+    }
+  }
+
+  /**
+   * Create an instance.
+   *
+   * @param distance the distance tolerance (in pixels) between a candidate and a previous
+   *        localisation
+   * @throws IllegalArgumentException if the distance is not strictly positive
+   */
+  public WarmStartCache(double distance) {
+    if (!(distance > 0 && distance <= Double.MAX_VALUE)) {
+      throw new IllegalArgumentException("Distance must be strictly positive: " + distance);
+    }
+    this.distance = distance;
+  }
+
+  /**
+   * Gets the distance tolerance.
+   *
+   * @return the distance
+   */
+  public double getDistance() {
+    return distance;
+  }
+
+  /**
+   * Store the fitted parameters for the frame. The parameters must not be modified after they are
+   * stored.
+   *
+   * @param frame the frame
+   * @param params the parameters
+   */
+  public void put(int frame, float[][] params) {
+    if (params.length != 0) {
+      frames.put(frame, new FrameResults(params, distance));
+    }
+    // Remove old frames
+    final int limit = frame - MAX_FRAME_LAG;
+    frames.keySet().removeIf(f -> f < limit);
+  }
+
+  /**
+   * Retrieve and remove the fitted parameters for the frame before the given frame.
+   *
+   * @param frame the frame
+   * @return the previous frame results (or null)
+   */
+  public FrameResults takePrevious(int frame) {
+    requests.incrementAndGet();
+    final FrameResults results = frames.remove(frame - 1);
+    if (results != null) {
+      hits.incrementAndGet();
+    }
+    return results;
+  }
+
+  /**
+   * Gets the number of requests for the previous frame.
+   *
+   * @return the requests
+   */
+  public long getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * Gets the number of requests for the previous frame that found the results.
+   *
+   * @return the hits
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Gets the number of frames in the cache.
+   *
+   * @return the size
+   */
+  public int size() {
+    return frames.size();
+  }
+
+  /**
+   * Clear the cache. This resets the count of requests and hits.
+   */
+  public void clear() {
+    frames.clear();
+    requests.set(0);
+    hits.set(0);
+  }
+}
@@ -25,11 +25,21 @@
 package uk.ac.sussex.gdsc.smlm.filters;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import uk.ac.sussex.gdsc.core.filters.NonMaximumSuppression;
+import uk.ac.sussex.gdsc.core.utils.LocalList;
+import uk.ac.sussex.gdsc.core.utils.concurrent.ConcurrencyUtils;
 
 /**
  * Identifies candidate spots (local maxima) in an image using non-maximum suppression.
+ *
+ * <p>The non-maximum suppression can be performed in parallel over horizontal strips of the image
+ * using {@link #setExecutor(ExecutorService, int)}. Each strip is processed with a halo of rows
+ * from the adjacent strips so that maxima at the strip boundaries are identified using the same
+ * neighbourhood as a single pass over the image.
  */
 public abstract class MaximaSpotFilter extends SpotFilter {
   private final int search;
@@ -37,6 +47,13 @@ public abstract class MaximaSpotFilter extends SpotFilter {
   private final NonMaximumSuppression nms;
   private float[] data2;
 
+  /** The executor service used for strip-parallel non-maximum suppression. */
+  private ExecutorService executor;
+  /** The number of strips for strip-parallel non-maximum suppression. */
+  private int strips;
+  /** The non-maximum suppression for each strip (created on demand). */
+  private NonMaximumSuppression[] stripNms;
+
   /**
    * Create the spot filter.
    *
@@ -67,6 +84,9 @@ public abstract class MaximaSpotFilter extends SpotFilter {
     search = source.search;
     border = source.border;
     nms = source.nms.copy();
+    // The executor is shared
+    executor = source.executor;
+    strips = source.strips;
   }
 
   @Override
@@ -117,9 +137,147 @@ public abstract class MaximaSpotFilter extends SpotFilter {
     // Check upper limits are safe
     final int n = Math.min(search, Math.min(width, height));
     final int validBorder = Math.min(this.border, Math.min(width, height) / 2);
+    if (executor != null && strips > 1) {
+      final int[] maxima = getMaximaInStrips(data, width, height, n, validBorder);
+      if (maxima != null) {
+        return maxima;
+      }
+    }
     return nms.blockFindInternal(data, width, height, n, validBorder);
   }
 
+  /**
+   * Find the indices of the maxima in parallel over horizontal strips.
+   *
+   * <p>The strip boundaries are aligned to the (n+1) blocks used by the non-maximum suppression
+   * starting from the border. Each strip is extended by a halo of {@code n + 1 + border} rows so
+   * that the first row of the extended strip is also block aligned. The neighbourhood of each
+   * pixel in the strip, and the block boundaries, are then the same as when processing the
+   * entire image. Maxima found in the halo are discarded. The strips are merged in order.
+   *
+   * @param data the data
+   * @param width the width
+   * @param height the height
+   * @param n the search width
+   * @param border the border
+   * @return Indices of the maxima (or null if the image is too small to split into strips)
+   */
+  private int[] getMaximaInStrips(float[] data, int width, int height, int n, int border) {
+    final int blockSize = n + 1;
+    final int halo = blockSize + border;
+    // Use strips that are at least as large as the halo
+    final int blockRows = ceil(height, blockSize);
+    final int stripRows = Math.max(ceil(halo, blockSize), ceil(blockRows, strips)) * blockSize;
+    final int count = ceil(height - border, stripRows);
+    if (count < 2) {
+      return null;
+    }
+
+    if (stripNms == null || stripNms.length < count) {
+      stripNms = new NonMaximumSuppression[count];
+      stripNms[0] = nms;
+      for (int i = 1; i < count; i++) {
+        stripNms[i] = nms.copy();
+      }
+    }
+
+    final int[][] results = new int[count][];
+    final List<Future<?>> futures = new LocalList<>(count - 1);
+    for (int i = 1; i < count; i++) {
+      final int strip = i;
+      futures.add(executor.submit(() -> {
+        results[strip] = findMaxima(stripNms[strip], data, width, height, n, border,
+            border + strip * stripRows, border + (strip + 1) * stripRows, halo);
+      }));
+    }
+    // Process the first strip in the current thread
+    results[0] = findMaxima(nms, data, width, height, n, border, 0, border + stripRows, halo);
+    ConcurrencyUtils.waitForCompletionUnchecked(futures);
+
+    int size = 0;
+    for (final int[] result : results) {
+      size += result.length;
+    }
+    final int[] maxima = new int[size];
+    size = 0;
+    for (final int[] result : results) {
+      System.arraycopy(result, 0, maxima, size, result.length);
+      size += result.length;
+    }
+    return maxima;
+  }
+
+  /**
+   * Find the indices of the maxima in the strip.
+   *
+   * @param nms the non-maximum suppression
+   * @param data the data
+   * @param width the width
+   * @param height the height
+   * @param n the search width
+   * @param border the border
+   * @param y0 the first row of the strip (inclusive)
+   * @param y1 the last row of the strip (exclusive)
+   * @param halo the number of additional rows above and below the strip
+   * @return Indices of the maxima in the strip
+   */
+  private static int[] findMaxima(NonMaximumSuppression nms, float[] data, int width, int height,
+      int n, int border, int y0, int y1, int halo) {
+    final int last = Math.min(height, y1);
+    final int start = Math.max(0, y0 - halo);
+    final int end = Math.min(height, last + halo);
+    final float[] strip = Arrays.copyOfRange(data, start * width, end * width);
+    final int[] maxima = nms.blockFindInternal(strip, width, end - start, n, border);
+    // Convert to image indices and discard maxima in the halo
+    final int lower = (y0 - start) * width;
+    final int upper = (last - start) * width;
+    final int offset = start * width;
+    int size = 0;
+    for (final int index : maxima) {
+      if (index >= lower && index < upper) {
+        maxima[size++] = index + offset;
+      }
+    }
+    return Arrays.copyOf(maxima, size);
+  }
+
+  private static int ceil(int value, int divisor) {
+    return (value + divisor - 1) / divisor;
+  }
+
+  /**
+   * Sets the executor service used to perform non-maximum suppression in parallel over horizontal
+   * strips of the image. The current thread processes the first strip.
+   *
+   * <p>Use a null executor or less than 2 strips to disable strip-parallel processing. The
+   * executor is shared with any copy of the filter.
+   *
+   * @param executor the executor
+   * @param strips the number of strips
+   */
+  public void setExecutor(ExecutorService executor, int strips) {
+    this.executor = executor;
+    this.strips = strips;
+  }
+
+  /**
+   * Gets the executor service used to perform strip-parallel non-maximum suppression.
+   *
+   * @return the executor
+   */
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Gets the number of strips for strip-parallel non-maximum suppression.
+   *
+   * @return the strips
+   */
+  public int getStrips() {
+    return strips;
+  }
+
   /**
    * Gets the search width for maxima (maximum must be the highest point in a 2n+1 region).
    *
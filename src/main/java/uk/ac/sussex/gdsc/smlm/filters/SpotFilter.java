@@ -99,20 +99,43 @@ public abstract class SpotFilter {
    * List and then rank the candidate spots in the data.
    *
    * <p>The list will be in the order defined by sorting the candidates using the score in
-   * descending order.
+   * descending order. Candidates with the same score are in the order they are found.
    *
    * @param data The data
    * @param width The width of the data
    * @param height The height of the data
    * @return The candidate spots (may be an empty array but will not be null)
+   * @see SpotRanker#sort(Spot[])
    */
   public Spot[] rank(float[] data, int width, int height) {
     final Spot[] spots = find(data, width, height);
     if (spots == null) {
       return new Spot[0];
     }
-    Arrays.sort(spots, SpotScoreComparator.getInstance());
-    return spots;
+    return SpotRanker.sort(spots);
+  }
+
+  /**
+   * List and then rank the candidate spots in the data, returning only the top-k candidates.
+   *
+   * <p>The list will be in the order defined by sorting the candidates using the score in
+   * descending order. This uses a partial selection of the top-k candidates which is faster than
+   * {@link #rank(float[], int, int)} when k is much smaller than the number of candidates.
+   *
+   * @param data The data
+   * @param width The width of the data
+   * @param height The height of the data
+   * @param maxCandidates The maximum number of candidates to return
+   * @return The candidate spots (may be an empty array but will not be null)
+   * @throws IllegalArgumentException if the maximum candidates is negative
+   * @see SpotRanker#top(Spot[], int)
+   */
+  public Spot[] rank(float[] data, int width, int height, int maxCandidates) {
+    final Spot[] spots = find(data, width, height);
+    if (spots == null) {
+      return new Spot[0];
+    }
+    return SpotRanker.top(spots, maxCandidates);
   }
 
   /**
@@ -0,0 +1,212 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.filters;
+
+import java.util.Arrays;
+
+/**
+ * Ranks candidate spots by score using primitive sort keys.
+ *
+ * <p>Each spot is encoded as a {@code long} key combining the score (in descending order) and the
+ * original position in the input (in ascending order). Sorting the keys reproduces the order of a
+ * stable sort using the {@link SpotScoreComparator} without object comparisons. When only the
+ * top-k spots are required a partial selection is used in place of a full sort.
+ */
+public final class SpotRanker {
+  /** The mask for the lower 32-bits of the key. */
+  private static final long LOWER_MASK = 0xffffffffL;
+
+  /** No public constructor. */
+  private SpotRanker() {}
+
+  /**
+   * Sort the spots using the score in descending order. Spots with the same score maintain their
+   * relative order. The input array is sorted in place.
+   *
+   * @param spots the spots
+   * @return the spots
+   */
+  public static Spot[] sort(Spot[] spots) {
+    if (spots.length > 1) {
+      final long[] keys = createKeys(spots);
+      Arrays.sort(keys);
+      reorder(spots, keys, spots.length);
+    }
+    return spots;
+  }
+
+  /**
+   * Select the top-k spots using the score in descending order. Spots with the same score
+   * maintain their relative order.
+   *
+   * <p>The returned array is sorted and contains {@code min(k, spots.length)} spots. If all the
+   * spots are selected then the input array is sorted in place and returned.
+   *
+   * @param spots the spots
+   * @param k the number of spots to select
+   * @return the top-k spots
+   * @throws IllegalArgumentException if k is negative
+   */
+  public static Spot[] top(Spot[] spots, int k) {
+    if (k < 0) {
+      throw new IllegalArgumentException("Number of spots must be positive: " + k);
+    }
+    if (k >= spots.length) {
+      return sort(spots);
+    }
+    if (k == 0) {
+      return new Spot[0];
+    }
+    final long[] keys = createKeys(spots);
+    select(keys, k);
+    Arrays.sort(keys, 0, k);
+    final Spot[] result = new Spot[k];
+    for (int i = 0; i < k; i++) {
+      result[i] = spots[(int) (keys[i] & LOWER_MASK)];
+    }
+    return result;
+  }
+
+  /**
+   * Creates the sort keys. The upper 32-bits hold the score mapped to an integer whose natural
+   * order is the reverse of {@link Float#compare(float, float)}; the lower 32-bits hold the index.
+   *
+   * @param spots the spots
+   * @return the keys
+   */
+  private static long[] createKeys(Spot[] spots) {
+    final long[] keys = new long[spots.length];
+    for (int i = 0; i < spots.length; i++) {
+      keys[i] = ((long) ~toSortableInt(spots[i].getScore()) << 32) | i;
+    }
+    return keys;
+  }
+
+  /**
+   * Convert the value to an integer whose natural order matches
+   * {@link Float#compare(float, float)}.
+   *
+   * @param value the value
+   * @return the integer
+   */
+  static int toSortableInt(float value) {
+    final int bits = Float.floatToIntBits(value);
+    // Flip the magnitude bits of negative values so more negative values are smaller
+    return bits ^ ((bits >> 31) & 0x7fffffff);
+  }
+
+  /**
+   * Reorder the spots using the index in the lower 32-bits of the sorted keys.
+   *
+   * @param spots the spots
+   * @param keys the keys
+   * @param size the size
+   */
+  private static void reorder(Spot[] spots, long[] keys, int size) {
+    final Spot[] copy = spots.clone();
+    for (int i = 0; i < size; i++) {
+      spots[i] = copy[(int) (keys[i] & LOWER_MASK)];
+    }
+  }
+
+  /**
+   * Partially sort the keys so that the smallest k keys are in {@code [0, k)}. The keys are
+   * assumed to be unique.
+   *
+   * @param keys the keys
+   * @param k the number of keys to select (must be in {@code [1, keys.length)})
+   */
+  private static void select(long[] keys, int k) {
+    int left = 0;
+    int right = keys.length - 1;
+    // Limit the number of partition steps to avoid quadratic worst-case performance
+    int limit = 2 * (32 - Integer.numberOfLeadingZeros(keys.length));
+    while (right > left) {
+      if (--limit < 0) {
+        Arrays.sort(keys, left, right + 1);
+        return;
+      }
+      final int p = partition(keys, left, right);
+      if (p == k) {
+        return;
+      }
+      if (p < k) {
+        left = p;
+      } else {
+        right = p - 1;
+      }
+    }
+  }
+
+  /**
+   * Partition the range using the median of three as a pivot. On return all keys in
+   * {@code [left, p)} are less than all keys in {@code [p, right]}.
+   *
+   * @param keys the keys
+   * @param left the left index (inclusive)
+   * @param right the right index (inclusive)
+   * @return the partition point p (in {@code (left, right]})
+   */
+  private static int partition(long[] keys, int left, int right) {
+    final int mid = (left + right) >>> 1;
+    // Sort left, mid, right so the pivot is the median and the ends are sentinels
+    if (keys[mid] < keys[left]) {
+      swap(keys, mid, left);
+    }
+    if (keys[right] < keys[left]) {
+      swap(keys, right, left);
+    }
+    if (keys[right] < keys[mid]) {
+      swap(keys, right, mid);
+    }
+    if (right - left < 3) {
+      // Fully sorted
+      return mid + 1;
+    }
+    final long pivot = keys[mid];
+    int i = left;
+    int j = right;
+    for (;;) {
+      do {
+        i++;
+      } while (keys[i] < pivot);
+      do {
+        j--;
+      } while (keys[j] > pivot);
+      if (i >= j) {
+        break;
+      }
+      swap(keys, i, j);
+    }
+    // All keys in [left, i) are <= pivot; the pivot is within this range
+    return i == left ? left + 1 : i;
+  }
+
+  private static void swap(long[] keys, int i, int j) {
+    final long tmp = keys[i];
+    keys[i] = keys[j];
+    keys[j] = tmp;
+  }
+}
@@ -0,0 +1,608 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.fitting.linear;
+
+/**
+ * Solves (one) linear equation, A x = b, for a symmetric positive definite matrix A using a
+ * Cholesky decomposition A = L L<sup>T</sup>.
+ *
+ * <p>The matrix is a packed row-major array of size n*n. Only the lower triangle of A is read and A
+ * is not modified. Matrices of dimension 3 to 7 use unrolled decomposition and substitution. Other
+ * sizes use a generic loop implementation. The workspace is reused between calls so repeat solves
+ * of the same dimension do not allocate memory.
+ *
+ * <p>The factor of the last successful decomposition is retained and can be used to compute the
+ * inverse of A.
+ *
+ * <p>This class is not thread safe.
+ */
+public class CholeskyLinearSolver {
+  /** The minimum size for the unrolled solvers. */
+  public static final int MIN_UNROLLED = 3;
+  /** The maximum size for the unrolled solvers. */
+  public static final int MAX_UNROLLED = 7;
+
+  /** The lower triangle factor L (packed row-major). */
+  private double[] factor = new double[0];
+  /** The workspace for inversion. */
+  private double[] work = new double[0];
+  /** The size of the last successful decomposition. */
+  private int size;
+
+  // Allow matrix name A and vector names b & x for equation A x = b
+  // CHECKSTYLE.OFF: ParameterName
+
+  /**
+   * Solves (one) linear equation, A x = b.
+   *
+   * <p>On output b replaced by x. Matrix A is not modified. If the decomposition fails then b is
+   * not modified.
+   *
+   * @param a the matrix A (packed row-major, length {@code n*n})
+   * @param b the vector b
+   * @param n the number of columns/rows
+   * @return False if the matrix is not positive definite (no solution)
+   */
+  public boolean solve(double[] a, double[] b, int n) {
+    size = 0;
+    if (factor.length < n * n) {
+      factor = new double[n * n];
+    }
+    final boolean result;
+    switch (n) {
+      case 3:
+        result = solve3(a, b);
+        break;
+      case 4:
+        result = solve4(a, b);
+        break;
+      case 5:
+        result = solve5(a, b);
+        break;
+      case 6:
+        result = solve6(a, b);
+        break;
+      case 7:
+        result = solve7(a, b);
+        break;
+      default:
+        result = solveGeneric(a, b, n);
+        break;
+    }
+    if (result) {
+      size = n;
+    }
+    return result;
+  }
+
+  /**
+   * Computes the inverse of the matrix A passed into the last successful solve method.
+   *
+   * @param out the output inverse (packed row-major, length {@code n*n})
+   * @return False if the last solve attempt failed, or inversion produces non finite values
+   */
+  public boolean invertLastA(double[] out) {
+    final int n = size;
+    if (n == 0) {
+      return false;
+    }
+    if (work.length < n * n) {
+      work = new double[n * n];
+    }
+    final double[] l = factor;
+    final double[] linv = work;
+
+    // Invert the lower triangle
+    for (int j = 0; j < n; j++) {
+      linv[j * n + j] = 1.0 / l[j * n + j];
+      for (int i = j + 1; i < n; i++) {
+        double sum = 0;
+        for (int k = j; k < i; k++) {
+          sum -= l[i * n + k] * linv[k * n + j];
+        }
+        linv[i * n + j] = sum / l[i * n + i];
+      }
+    }
+
+    // A^-1 = L^-T L^-1
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j <= i; j++) {
+        double sum = 0;
+        for (int k = i; k < n; k++) {
+          sum += linv[k * n + i] * linv[k * n + j];
+        }
+        if (!Double.isFinite(sum)) {
+          return false;
+        }
+        out[i * n + j] = sum;
+        out[j * n + i] = sum;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Solve A x = b for a matrix of any size.
+   *
+   * @param a the matrix A
+   * @param b the vector b (replaced by x)
+   * @param n the number of columns/rows
+   * @return true, if successful
+   */
+  private boolean solveGeneric(double[] a, double[] b, int n) {
+    if (n < 1) {
+      return false;
+    }
+    final double[] l = factor;
+    // Cholesky-Banachiewicz decomposition (row by row)
+    for (int i = 0; i < n; i++) {
+      final int ri = i * n;
+      for (int j = 0; j < i; j++) {
+        final int rj = j * n;
+        double sum = a[ri + j];
+        for (int k = 0; k < j; k++) {
+          sum -= l[ri + k] * l[rj + k];
+        }
+        l[ri + j] = sum / l[rj + j];
+      }
+      double sum = a[ri + i];
+      for (int k = 0; k < i; k++) {
+        sum -= l[ri + k] * l[ri + k];
+      }
+      if (!(sum > 0)) {
+        return false;
+      }
+      l[ri + i] = Math.sqrt(sum);
+    }
+    // Forward substitution: L y = b
+    for (int i = 0; i < n; i++) {
+      final int ri = i * n;
+      double sum = b[i];
+      for (int k = 0; k < i; k++) {
+        sum -= l[ri + k] * b[k];
+      }
+      b[i] = sum / l[ri + i];
+    }
+    // Back substitution: L^T x = y
+    for (int i = n; i-- > 0;) {
+      double sum = b[i];
+      for (int k = i + 1; k < n; k++) {
+        sum -= l[k * n + i] * b[k];
+      }
+      b[i] = sum / l[i * n + i];
+    }
+    return true;
+  }
+
+  /**
+   * Solve A x = b for a 3x3 matrix.
+   *
+   * @param a the matrix A
+   * @param b the vector b (replaced by x)
+   * @return true, if successful
+   */
+  private boolean solve3(double[] a, double[] b) {
+    final double d0 = a[0];
+    if (!(d0 > 0)) {
+      return false;
+    }
+    final double l00 = Math.sqrt(d0);
+    final double r0 = 1.0 / l00;
+    final double l10 = a[3] * r0;
+    final double l20 = a[6] * r0;
+    final double d1 = a[4] - l10 * l10;
+    if (!(d1 > 0)) {
+      return false;
+    }
+    final double l11 = Math.sqrt(d1);
+    final double r1 = 1.0 / l11;
+    final double l21 = (a[7] - l20 * l10) * r1;
+    final double d2 = a[8] - l20 * l20 - l21 * l21;
+    if (!(d2 > 0)) {
+      return false;
+    }
+    final double l22 = Math.sqrt(d2);
+    final double r2 = 1.0 / l22;
+    // Forward substitution: L y = b
+    final double y0 = b[0] * r0;
+    final double y1 = (b[1] - l10 * y0) * r1;
+    final double y2 = (b[2] - l20 * y0 - l21 * y1) * r2;
+    // Back substitution: L^T x = y
+    b[2] = y2 * r2;
+    b[1] = (y1 - l21 * b[2]) * r1;
+    b[0] = (y0 - l10 * b[1] - l20 * b[2]) * r0;
+    // Store the factor for inversion
+    final double[] l = factor;
+    l[0] = l00;
+    l[3] = l10;
+    l[4] = l11;
+    l[6] = l20;
+    l[7] = l21;
+    l[8] = l22;
+    return true;
+  }
+
+  /**
+   * Solve A x = b for a 4x4 matrix.
+   *
+   * @param a the matrix A
+   * @param b the vector b (replaced by x)
+   * @return true, if successful
+   */
+  private boolean solve4(double[] a, double[] b) {
+    final double d0 = a[0];
+    if (!(d0 > 0)) {
+      return false;
+    }
+    final double l00 = Math.sqrt(d0);
+    final double r0 = 1.0 / l00;
+    final double l10 = a[4] * r0;
+    final double l20 = a[8] * r0;
+    final double l30 = a[12] * r0;
+    final double d1 = a[5] - l10 * l10;
+    if (!(d1 > 0)) {
+      return false;
+    }
+    final double l11 = Math.sqrt(d1);
+    final double r1 = 1.0 / l11;
+    final double l21 = (a[9] - l20 * l10) * r1;
+    final double l31 = (a[13] - l30 * l10) * r1;
+    final double d2 = a[10] - l20 * l20 - l21 * l21;
+    if (!(d2 > 0)) {
+      return false;
+    }
+    final double l22 = Math.sqrt(d2);
+    final double r2 = 1.0 / l22;
+    final double l32 = (a[14] - l30 * l20 - l31 * l21) * r2;
+    final double d3 = a[15] - l30 * l30 - l31 * l31 - l32 * l32;
+    if (!(d3 > 0)) {
+      return false;
+    }
+    final double l33 = Math.sqrt(d3);
+    final double r3 = 1.0 / l33;
+    // Forward substitution: L y = b
+    final double y0 = b[0] * r0;
+    final double y1 = (b[1] - l10 * y0) * r1;
+    final double y2 = (b[2] - l20 * y0 - l21 * y1) * r2;
+    final double y3 = (b[3] - l30 * y0 - l31 * y1 - l32 * y2) * r3;
+    // Back substitution: L^T x = y
+    b[3] = y3 * r3;
+    b[2] = (y2 - l32 * b[3]) * r2;
+    b[1] = (y1 - l21 * b[2] - l31 * b[3]) * r1;
+    b[0] = (y0 - l10 * b[1] - l20 * b[2] - l30 * b[3]) * r0;
+    // Store the factor for inversion
+    final double[] l = factor;
+    l[0] = l00;
+    l[4] = l10;
+    l[5] = l11;
+    l[8] = l20;
+    l[9] = l21;
+    l[10] = l22;
+    l[12] = l30;
+    l[13] = l31;
+    l[14] = l32;
+    l[15] = l33;
+    return true;
+  }
+
+  /**
+   * Solve A x = b for a 5x5 matrix.
+   *
+   * @param a the matrix A
+   * @param b the vector b (replaced by x)
+   * @return true, if successful
+   */
+  private boolean solve5(double[] a, double[] b) {
+    final double d0 = a[0];
+    if (!(d0 > 0)) {
+      return false;
+    }
+    final double l00 = Math.sqrt(d0);
+    final double r0 = 1.0 / l00;
+    final double l10 = a[5] * r0;
+    final double l20 = a[10] * r0;
+    final double l30 = a[15] * r0;
+    final double l40 = a[20] * r0;
+    final double d1 = a[6] - l10 * l10;
+    if (!(d1 > 0)) {
+      return false;
+    }
+    final double l11 = Math.sqrt(d1);
+    final double r1 = 1.0 / l11;
+    final double l21 = (a[11] - l20 * l10) * r1;
+    final double l31 = (a[16] - l30 * l10) * r1;
+    final double l41 = (a[21] - l40 * l10) * r1;
+    final double d2 = a[12] - l20 * l20 - l21 * l21;
+    if (!(d2 > 0)) {
+      return false;
+    }
+    final double l22 = Math.sqrt(d2);
+    final double r2 = 1.0 / l22;
+    final double l32 = (a[17] - l30 * l20 - l31 * l21) * r2;
+    final double l42 = (a[22] - l40 * l20 - l41 * l21) * r2;
+    final double d3 = a[18] - l30 * l30 - l31 * l31 - l32 * l32;
+    if (!(d3 > 0)) {
+      return false;
+    }
+    final double l33 = Math.sqrt(d3);
+    final double r3 = 1.0 / l33;
+    final double l43 = (a[23] - l40 * l30 - l41 * l31 - l42 * l32) * r3;
+    final double d4 = a[24] - l40 * l40 - l41 * l41 - l42 * l42 - l43 * l43;
+    if (!(d4 > 0)) {
+      return false;
+    }
+    final double l44 = Math.sqrt(d4);
+    final double r4 = 1.0 / l44;
+    // Forward substitution: L y = b
+    final double y0 = b[0] * r0;
+    final double y1 = (b[1] - l10 * y0) * r1;
+    final double y2 = (b[2] - l20 * y0 - l21 * y1) * r2;
+    final double y3 = (b[3] - l30 * y0 - l31 * y1 - l32 * y2) * r3;
+    final double y4 = (b[4] - l40 * y0 - l41 * y1 - l42 * y2 - l43 * y3) * r4;
+    // Back substitution: L^T x = y
+    b[4] = y4 * r4;
+    b[3] = (y3 - l43 * b[4]) * r3;
+    b[2] = (y2 - l32 * b[3] - l42 * b[4]) * r2;
+    b[1] = (y1 - l21 * b[2] - l31 * b[3] - l41 * b[4]) * r1;
+    b[0] = (y0 - l10 * b[1] - l20 * b[2] - l30 * b[3] - l40 * b[4]) * r0;
+    // Store the factor for inversion
+    final double[] l = factor;
+    l[0] = l00;
+    l[5] = l10;
+    l[6] = l11;
+    l[10] = l20;
+    l[11] = l21;
+    l[12] = l22;
+    l[15] = l30;
+    l[16] = l31;
+    l[17] = l32;
+    l[18] = l33;
+    l[20] = l40;
+    l[21] = l41;
+    l[22] = l42;
+    l[23] = l43;
+    l[24] = l44;
+    return true;
+  }
+
+  /**
+   * Solve A x = b for a 6x6 matrix.
+   *
+   * @param a the matrix A
+   * @param b the vector b (replaced by x)
+   * @return true, if successful
+   */
+  private boolean solve6(double[] a, double[] b) {
+    final double d0 = a[0];
+    if (!(d0 > 0)) {
+      return false;
+    }
+    final double l00 = Math.sqrt(d0);
+    final double r0 = 1.0 / l00;
+    final double l10 = a[6] * r0;
+    final double l20 = a[12] * r0;
+    final double l30 = a[18] * r0;
+    final double l40 = a[24] * r0;
+    final double l50 = a[30] * r0;
+    final double d1 = a[7] - l10 * l10;
+    if (!(d1 > 0)) {
+      return false;
+    }
+    final double l11 = Math.sqrt(d1);
+    final double r1 = 1.0 / l11;
+    final double l21 = (a[13] - l20 * l10) * r1;
+    final double l31 = (a[19] - l30 * l10) * r1;
+    final double l41 = (a[25] - l40 * l10) * r1;
+    final double l51 = (a[31] - l50 * l10) * r1;
+    final double d2 = a[14] - l20 * l20 - l21 * l21;
+    if (!(d2 > 0)) {
+      return false;
+    }
+    final double l22 = Math.sqrt(d2);
+    final double r2 = 1.0 / l22;
+    final double l32 = (a[20] - l30 * l20 - l31 * l21) * r2;
+    final double l42 = (a[26] - l40 * l20 - l41 * l21) * r2;
+    final double l52 = (a[32] - l50 * l20 - l51 * l21) * r2;
+    final double d3 = a[21] - l30 * l30 - l31 * l31 - l32 * l32;
+    if (!(d3 > 0)) {
+      return false;
+    }
+    final double l33 = Math.sqrt(d3);
+    final double r3 = 1.0 / l33;
+    final double l43 = (a[27] - l40 * l30 - l41 * l31 - l42 * l32) * r3;
+    final double l53 = (a[33] - l50 * l30 - l51 * l31 - l52 * l32) * r3;
+    final double d4 = a[28] - l40 * l40 - l41 * l41 - l42 * l42 - l43 * l43;
+    if (!(d4 > 0)) {
+      return false;
+    }
+    final double l44 = Math.sqrt(d4);
+    final double r4 = 1.0 / l44;
+    final double l54 = (a[34] - l50 * l40 - l51 * l41 - l52 * l42 - l53 * l43) * r4;
+    final double d5 = a[35] - l50 * l50 - l51 * l51 - l52 * l52 - l53 * l53 - l54 * l54;
+    if (!(d5 > 0)) {
+      return false;
+    }
+    final double l55 = Math.sqrt(d5);
+    final double r5 = 1.0 / l55;
+    // Forward substitution: L y = b
+    final double y0 = b[0] * r0;
+    final double y1 = (b[1] - l10 * y0) * r1;
+    final double y2 = (b[2] - l20 * y0 - l21 * y1) * r2;
+    final double y3 = (b[3] - l30 * y0 - l31 * y1 - l32 * y2) * r3;
+    final double y4 = (b[4] - l40 * y0 - l41 * y1 - l42 * y2 - l43 * y3) * r4;
+    final double y5 = (b[5] - l50 * y0 - l51 * y1 - l52 * y2 - l53 * y3 - l54 * y4) * r5;
+    // Back substitution: L^T x = y
+    b[5] = y5 * r5;
+    b[4] = (y4 - l54 * b[5]) * r4;
+    b[3] = (y3 - l43 * b[4] - l53 * b[5]) * r3;
+    b[2] = (y2 - l32 * b[3] - l42 * b[4] - l52 * b[5]) * r2;
+    b[1] = (y1 - l21 * b[2] - l31 * b[3] - l41 * b[4] - l51 * b[5]) * r1;
+    b[0] = (y0 - l10 * b[1] - l20 * b[2] - l30 * b[3] - l40 * b[4] - l50 * b[5]) * r0;
+    // Store the factor for inversion
+    final double[] l = factor;
+    l[0] = l00;
+    l[6] = l10;
+    l[7] = l11;
+    l[12] = l20;
+    l[13] = l21;
+    l[14] = l22;
+    l[18] = l30;
+    l[19] = l31;
+    l[20] = l32;
+    l[21] = l33;
+    l[24] = l40;
+    l[25] = l41;
+    l[26] = l42;
+    l[27] = l43;
+    l[28] = l44;
+    l[30] = l50;
+    l[31] = l51;
+    l[32] = l52;
+    l[33] = l53;
+    l[34] = l54;
+    l[35] = l55;
+    return true;
+  }
+
+  /**
+   * Solve A x = b for a 7x7 matrix.
+   *
+   * @param a the matrix A
+   * @param b the vector b (replaced by x)
+   * @return true, if successful
+   */
+  private boolean solve7(double[] a, double[] b) {
+    final double d0 = a[0];
+    if (!(d0 > 0)) {
+      return false;
+    }
+    final double l00 = Math.sqrt(d0);
+    final double r0 = 1.0 / l00;
+    final double l10 = a[7] * r0;
+    final double l20 = a[14] * r0;
+    final double l30 = a[21] * r0;
+    final double l40 = a[28] * r0;
+    final double l50 = a[35] * r0;
+    final double l60 = a[42] * r0;
+    final double d1 = a[8] - l10 * l10;
+    if (!(d1 > 0)) {
+      return false;
+    }
+    final double l11 = Math.sqrt(d1);
+    final double r1 = 1.0 / l11;
+    final double l21 = (a[15] - l20 * l10) * r1;
+    final double l31 = (a[22] - l30 * l10) * r1;
+    final double l41 = (a[29] - l40 * l10) * r1;
+    final double l51 = (a[36] - l50 * l10) * r1;
+    final double l61 = (a[43] - l60 * l10) * r1;
+    final double d2 = a[16] - l20 * l20 - l21 * l21;
+    if (!(d2 > 0)) {
+      return false;
+    }
+    final double l22 = Math.sqrt(d2);
+    final double r2 = 1.0 / l22;
+    final double l32 = (a[23] - l30 * l20 - l31 * l21) * r2;
+    final double l42 = (a[30] - l40 * l20 - l41 * l21) * r2;
+    final double l52 = (a[37] - l50 * l20 - l51 * l21) * r2;
+    final double l62 = (a[44] - l60 * l20 - l61 * l21) * r2;
+    final double d3 = a[24] - l30 * l30 - l31 * l31 - l32 * l32;
+    if (!(d3 > 0)) {
+      return false;
+    }
+    final double l33 = Math.sqrt(d3);
+    final double r3 = 1.0 / l33;
+    final double l43 = (a[31] - l40 * l30 - l41 * l31 - l42 * l32) * r3;
+    final double l53 = (a[38] - l50 * l30 - l51 * l31 - l52 * l32) * r3;
+    final double l63 = (a[45] - l60 * l30 - l61 * l31 - l62 * l32) * r3;
+    final double d4 = a[32] - l40 * l40 - l41 * l41 - l42 * l42 - l43 * l43;
+    if (!(d4 > 0)) {
+      return false;
+    }
+    final double l44 = Math.sqrt(d4);
+    final double r4 = 1.0 / l44;
+    final double l54 = (a[39] - l50 * l40 - l51 * l41 - l52 * l42 - l53 * l43) * r4;
+    final double l64 = (a[46] - l60 * l40 - l61 * l41 - l62 * l42 - l63 * l43) * r4;
+    final double d5 = a[40] - l50 * l50 - l51 * l51 - l52 * l52 - l53 * l53 - l54 * l54;
+    if (!(d5 > 0)) {
+      return false;
+    }
+    final double l55 = Math.sqrt(d5);
+    final double r5 = 1.0 / l55;
+    final double l65 = (a[47] - l60 * l50 - l61 * l51 - l62 * l52 - l63 * l53 - l64 * l54) * r5;
+    final double d6 = a[48] - l60 * l60 - l61 * l61 - l62 * l62 - l63 * l63 - l64 * l64 - l65 * l65;
+    if (!(d6 > 0)) {
+      return false;
+    }
+    final double l66 = Math.sqrt(d6);
+    final double r6 = 1.0 / l66;
+    // Forward substitution: L y = b
+    final double y0 = b[0] * r0;
+    final double y1 = (b[1] - l10 * y0) * r1;
+    final double y2 = (b[2] - l20 * y0 - l21 * y1) * r2;
+    final double y3 = (b[3] - l30 * y0 - l31 * y1 - l32 * y2) * r3;
+    final double y4 = (b[4] - l40 * y0 - l41 * y1 - l42 * y2 - l43 * y3) * r4;
+    final double y5 = (b[5] - l50 * y0 - l51 * y1 - l52 * y2 - l53 * y3 - l54 * y4) * r5;
+    final double y6 = (b[6] - l60 * y0 - l61 * y1 - l62 * y2 - l63 * y3 - l64 * y4 - l65 * y5) * r6;
+    // Back substitution: L^T x = y
+    b[6] = y6 * r6;
+    b[5] = (y5 - l65 * b[6]) * r5;
+    b[4] = (y4 - l54 * b[5] - l64 * b[6]) * r4;
+    b[3] = (y3 - l43 * b[4] - l53 * b[5] - l63 * b[6]) * r3;
+    b[2] = (y2 - l32 * b[3] - l42 * b[4] - l52 * b[5] - l62 * b[6]) * r2;
+    b[1] = (y1 - l21 * b[2] - l31 * b[3] - l41 * b[4] - l51 * b[5] - l61 * b[6]) * r1;
+    b[0] = (y0 - l10 * b[1] - l20 * b[2] - l30 * b[3] - l40 * b[4] - l50 * b[5] - l60 * b[6]) * r0;
+    // Store the factor for inversion
+    final double[] l = factor;
+    l[0] = l00;
+    l[7] = l10;
+    l[8] = l11;
+    l[14] = l20;
+    l[15] = l21;
+    l[16] = l22;
+    l[21] = l30;
+    l[22] = l31;
+    l[23] = l32;
+    l[24] = l33;
+    l[28] = l40;
+    l[29] = l41;
+    l[30] = l42;
+    l[31] = l43;
+    l[32] = l44;
+    l[35] = l50;
+    l[36] = l51;
+    l[37] = l52;
+    l[38] = l53;
+    l[39] = l54;
+    l[40] = l55;
+    l[42] = l60;
+    l[43] = l61;
+    l[44] = l62;
+    l[45] = l63;
+    l[46] = l64;
+    l[47] = l65;
+    l[48] = l66;
+    return true;
+  }
+}
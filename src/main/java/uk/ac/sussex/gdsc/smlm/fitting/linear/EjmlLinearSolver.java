@@ -46,12 +46,22 @@ import uk.ac.sussex.gdsc.core.utils.DoubleEquality;
  * speed. If the solver fails then a pseudo inverse solver is used so that a solution can be found.
  * For example the first solver may fail if zeros occur on the diagonal of the matrix, for example
  * if no gradient is available for a parameter.
+ *
+ * <p>The default solve method uses an allocation-free Cholesky solver for small matrices before
+ * the EJML solvers. This avoids the overhead of the generic EJML solvers for the small matrices
+ * typically used in fitting.
  */
 public class EjmlLinearSolver {
   // Allow matrix name A and vector names b & x for equation A x = b
   // CHECKSTYLE.OFF: MemberName
   // CHECKSTYLE.OFF: ParameterName
 
+  /**
+   * The default maximum size for the small matrix solver. This is the size of a multi-peak fit of 3
+   * elliptical Gaussians.
+   */
+  public static final int DEFAULT_MAX_SMALL_SOLVER_SIZE = 19;
+
   /**
    * Solve the matrix using direct inversion.
    */
@@ -131,6 +141,21 @@ public class EjmlLinearSolver {
   /** The last successful solver. */
   private LinearSolver<DenseMatrix64F> lastSuccessfulSolver;
 
+  /** The Cholesky solver used for small matrices. */
+  private CholeskyLinearSolver smallSolver;
+
+  /** Set to true if the last solve used the small matrix solver. */
+  private boolean lastSmallSolve;
+
+  /** Set to true to use the small matrix solver. */
+  private boolean useSmallSolver = true;
+
+  /** The maximum size for the small matrix solver. */
+  private int maxSmallSolverSize = DEFAULT_MAX_SMALL_SOLVER_SIZE;
+
+  /** The copy of b used for error checking the small matrix solver. */
+  private double[] bcopy;
+
   /** The vector x. */
   private DenseMatrix64F x;
 
@@ -429,13 +454,26 @@ public class EjmlLinearSolver {
    * @return true, if successful
    */
   private boolean validate(DenseMatrix64F A, DenseMatrix64F x, DenseMatrix64F b) {
+    return validate(A.data, x.data, b.data, b.numRows);
+  }
+
+  /**
+   * Check that the solution for x satisfies A x = b within the error tolerance.
+   *
+   * @param a the matrix A
+   * @param x the x
+   * @param b the b
+   * @param n the number of columns/rows
+   * @return true, if successful
+   */
+  private boolean validate(double[] a, double[] x, double[] b, int n) {
     // Compute A x = b
-    for (int i = 0, index = 0; i < b.numRows; i++) {
+    for (int i = 0, index = 0; i < n; i++) {
       double bi = 0;
-      for (int j = 0; j < b.numRows; j++) {
-        bi += A.data[index++] * x.data[j];
+      for (int j = 0; j < n; j++) {
+        bi += a[index++] * x[j];
       }
-      if (!equal.almostEqualRelativeOrAbsolute(b.data[i], bi)) {
+      if (!equal.almostEqualRelativeOrAbsolute(b[i], bi)) {
         return false;
       }
     }
@@ -450,11 +488,20 @@ public class EjmlLinearSolver {
    * <p>Solve using the CholeskyLDLT method or, if that fails (due to a singular matrix), the
    * PseudoInverse decomposition.
    *
+   * <p>If the matrix is small then an allocation-free Cholesky solver is used in place of the
+   * EJML CholeskyLDLT solver.
+   *
    * @param A the matrix A
    * @param b the vector b
    * @return False if the equation is singular (no solution)
+   * @see #setUseSmallSolver(boolean)
    */
   public boolean solve(DenseMatrix64F A, DenseMatrix64F b) {
+    if (useSmallSolver && A.numCols <= maxSmallSolverSize
+        && solveSmall(A.data, b.data, A.numCols)) {
+      return true;
+    }
+
     createSolver(A.numCols);
 
     // Speed tests show the Cholesky solver marginally outperforms the
@@ -485,6 +532,81 @@ public class EjmlLinearSolver {
     return false;
   }
 
+  /**
+   * Solves (one) linear equation, A x = b using the small matrix solver.
+   *
+   * <p>On output b replaced by x. Matrix A is not modified. If the solve fails then b is not
+   * modified.
+   *
+   * @param a the matrix A
+   * @param b the vector b
+   * @param n the number of columns/rows
+   * @return False if the equation is not positive definite or the solution is invalid
+   */
+  private boolean solveSmall(double[] a, double[] b, int n) {
+    lastSuccessfulSolver = null;
+    lastSmallSolve = false;
+    if (smallSolver == null) {
+      smallSolver = new CholeskyLinearSolver();
+    }
+    if (errorChecking) {
+      if (bcopy == null || bcopy.length < n) {
+        bcopy = new double[n];
+      }
+      System.arraycopy(b, 0, bcopy, 0, n);
+      if (!smallSolver.solve(a, b, n)) {
+        return false;
+      }
+      if (!validate(a, b, bcopy, n)) {
+        // Restore for the subsequent solve attempt
+        System.arraycopy(bcopy, 0, b, 0, n);
+        return false;
+      }
+    } else if (!smallSolver.solve(a, b, n)) {
+      return false;
+    }
+    lastSmallSolve = true;
+    return true;
+  }
+
+  /**
+   * Checks if the small matrix solver is used in the default solve method.
+   *
+   * @return true if using the small matrix solver
+   */
+  public boolean isUseSmallSolver() {
+    return useSmallSolver;
+  }
+
+  /**
+   * Set to true to use the small matrix solver in the default solve method. The solver is an
+   * allocation-free Cholesky solver with unrolled implementations for matrices of size 3 to 7.
+   *
+   * @param useSmallSolver true to use the small matrix solver
+   * @see CholeskyLinearSolver
+   */
+  public void setUseSmallSolver(boolean useSmallSolver) {
+    this.useSmallSolver = useSmallSolver;
+  }
+
+  /**
+   * Gets the maximum size for the small matrix solver.
+   *
+   * @return the maximum size
+   */
+  public int getMaxSmallSolverSize() {
+    return maxSmallSolverSize;
+  }
+
+  /**
+   * Sets the maximum size for the small matrix solver. Larger matrices use the EJML solvers.
+   *
+   * @param maxSmallSolverSize the new maximum size
+   */
+  public void setMaxSmallSolverSize(int maxSmallSolverSize) {
+    this.maxSmallSolverSize = maxSmallSolverSize;
+  }
+
   /**
    * Checks if a solve may modify A.
    *
@@ -509,6 +631,9 @@ public class EjmlLinearSolver {
    * @return False if the last solve attempt failed, or inversion produces non finite values
    */
   public boolean invertLastA(DenseMatrix64F A) {
+    if (lastSmallSolve) {
+      return smallSolver.invertLastA(A.data);
+    }
     if (lastSuccessfulSolver == null) {
       return false;
     }
@@ -540,6 +665,7 @@ public class EjmlLinearSolver {
    */
   private boolean initialiseSolver(LinearSolver<DenseMatrix64F> solver, DenseMatrix64F A) {
     lastSuccessfulSolver = null;
+    lastSmallSolve = false;
     if (!solver.setA(A)) {
       return false;
     }
@@ -1143,6 +1269,14 @@ public class EjmlLinearSolver {
    * @return False if the last solve attempt failed, or inversion produces non finite values
    */
   public boolean invertLastA(double[][] a) {
+    if (lastSmallSolve) {
+      final DenseMatrix64F inv = new DenseMatrix64F(a.length, a.length);
+      if (!smallSolver.invertLastA(inv.data)) {
+        return false;
+      }
+      toSquareData(inv, a);
+      return true;
+    }
     if (lastSuccessfulSolver == null) {
       return false;
     }
@@ -1378,6 +1512,9 @@ public class EjmlLinearSolver {
    * @return False if the last solve attempt failed, or inversion produces non finite values
    */
   public boolean invertLastA(double[] a) {
+    if (lastSmallSolve) {
+      return smallSolver.invertLastA(a);
+    }
     if (lastSuccessfulSolver == null) {
       return false;
     }
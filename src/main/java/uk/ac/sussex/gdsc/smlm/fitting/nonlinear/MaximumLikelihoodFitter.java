@@ -53,9 +53,11 @@ import uk.ac.sussex.gdsc.smlm.fitting.FitStatus;
 import uk.ac.sussex.gdsc.smlm.function.FixedNonLinearFunction;
 import uk.ac.sussex.gdsc.smlm.function.LikelihoodWrapper;
 import uk.ac.sussex.gdsc.smlm.function.NonLinearFunction;
+import uk.ac.sussex.gdsc.smlm.function.PoissonGammaGaussianFunction.ConvolutionMode;
 import uk.ac.sussex.gdsc.smlm.function.PoissonGammaGaussianLikelihoodWrapper;
 import uk.ac.sussex.gdsc.smlm.function.PoissonGaussianLikelihoodWrapper;
 import uk.ac.sussex.gdsc.smlm.function.PoissonLikelihoodWrapper;
+import uk.ac.sussex.gdsc.smlm.function.TabulatedPoissonGammaGaussianFunction;
 import uk.ac.sussex.gdsc.smlm.math3.optim.nonlinear.scalar.gradient.BfgsOptimizer;
 import uk.ac.sussex.gdsc.smlm.math3.optim.nonlinear.scalar.gradient.BoundedNonLinearConjugateGradientOptimizer;
 import uk.ac.sussex.gdsc.smlm.math3.optim.nonlinear.scalar.gradient.BoundedNonLinearConjugateGradientOptimizer.Formula;
@@ -291,6 +293,7 @@ public class MaximumLikelihoodFitter extends MleBaseFunctionSolver {
   private LikelihoodFunction likelihoodFunction = LikelihoodFunction.POISSON;
   private double alpha;
   private double sigma;
+  private double tableMaxExpected;
 
   private boolean gradientLineMinimisation = true;
   private double relativeThreshold = 1e-4;
@@ -645,8 +648,15 @@ public class MaximumLikelihoodFitter extends MleBaseFunctionSolver {
     switch (likelihoodFunction) {
       case POISSON_GAMMA_GAUSSIAN:
         // Poisson-Gamma-Gaussian - EM-CCD data
-        maximumLikelihoodFunction =
-            new PoissonGammaGaussianLikelihoodWrapper(function, a, y, n, myAlpha, sigma);
+        if (tableMaxExpected > 0) {
+          // Use the shared table with the default convolution mode of the exact function
+          maximumLikelihoodFunction = new PoissonGammaGaussianLikelihoodWrapper(function, a, y, n,
+              TabulatedPoissonGammaGaussianFunction.create(myAlpha, sigma,
+                  ConvolutionMode.APPROXIMATION, tableMaxExpected));
+        } else {
+          maximumLikelihoodFunction =
+              new PoissonGammaGaussianLikelihoodWrapper(function, a, y, n, myAlpha, sigma);
+        }
         break;
 
       case POISSON_GAUSSIAN:
@@ -784,6 +794,30 @@ public class MaximumLikelihoodFitter extends MleBaseFunctionSolver {
     this.sigma = sigma;
   }
 
+  /**
+   * Gets the maximum expected value (in photons) for the tabulated Poisson-Gamma-Gaussian
+   * likelihood function.
+   *
+   * @return the maximum expected value for the table (zero if disabled)
+   * @see TabulatedPoissonGammaGaussianFunction
+   */
+  public double getTableMaxExpected() {
+    return tableMaxExpected;
+  }
+
+  /**
+   * Sets the maximum expected value (in photons) for the tabulated Poisson-Gamma-Gaussian
+   * likelihood function. If positive the Poisson-Gamma-Gaussian likelihood is evaluated using a
+   * shared precomputed table with interpolation; expected values outside the table are computed
+   * exactly. Set to zero to disable.
+   *
+   * @param tableMaxExpected the maximum expected value for the table
+   * @see TabulatedPoissonGammaGaussianFunction
+   */
+  public void setTableMaxExpected(double tableMaxExpected) {
+    this.tableMaxExpected = tableMaxExpected;
+  }
+
   /**
    * This setting applies to the conjugate gradient method of the Maximum Likelihood Estimator.
    *
@@ -0,0 +1,503 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.function;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import org.apache.commons.lang3.concurrent.ConcurrentRuntimeException;
+import uk.ac.sussex.gdsc.smlm.data.config.FisherProtos.AlphaSample;
+import uk.ac.sussex.gdsc.smlm.data.config.FisherProtos.PoissonFisherInformationCache;
+import uk.ac.sussex.gdsc.smlm.data.config.FisherProtos.PoissonFisherInformationData;
+
+/**
+ * A global cache of interpolated Poisson Fisher information functions for camera noise models.
+ *
+ * <p>The Fisher information of a Poisson distribution convolved with camera noise is expensive to
+ * compute by numerical integration. This cache computes the relative Fisher information (alpha)
+ * over a range of the Poisson mean on first use for each camera (type, gain, noise) key and
+ * provides an {@link InterpolatedPoissonFisherInformation} for the curve. The curve samples are
+ * stored using the {@code PoissonFisherInformationData} message of the fisher.proto format and can
+ * be persisted to a file.
+ *
+ * <p>The cache is the single owner of the cache file. New curves are written to the file when
+ * computed, or when {@link #flush()} is called after adding data. The most recent
+ * {@link #MAX_PERSISTED_DATA} curves for each camera type are written to the file. The file is
+ * written outside of any lock on the cached data using a temporary file that replaces the cache
+ * file.
+ *
+ * <p>The cache is thread-safe. A missing curve is computed by the first thread to request it
+ * outside of any lock on the cache; concurrent requests for the same curve wait for the single
+ * computation. Each call to obtain a function returns a new copy that can be used by a single
+ * thread.
+ */
+public final class FisherInformationCache {
+  /** The minimum exponent (log10 of the mean) for the computed curve. */
+  public static final double MIN_EXPONENT = -6;
+  /** The maximum exponent (log10 of the mean) for the computed curve. */
+  public static final double MAX_EXPONENT = 2;
+  /** The exponent increment for the computed curve. */
+  public static final double EXPONENT_INCREMENT = 0.5;
+  /** The maximum number of curves for each camera type to write to the cache file. */
+  public static final int MAX_PERSISTED_DATA = 10;
+
+  private static final Logger logger = Logger.getLogger(FisherInformationCache.class.getName());
+
+  /** The global instance. */
+  private static final FisherInformationCache INSTANCE = new FisherInformationCache();
+
+  /** The curve data. */
+  private final ConcurrentHashMap<Key, DataEntry> data = new ConcurrentHashMap<>();
+
+  /** The sequence number used to order the data by age. */
+  private final AtomicLong sequence = new AtomicLong();
+
+  /** Set to true when the data has changed since the last write to the cache file. */
+  private volatile boolean dirty;
+
+  /** The interpolated functions. Each is created once by the first thread to request it. */
+  private final ConcurrentHashMap<Key, FutureTask<InterpolatedPoissonFisherInformation>> functions =
+      new ConcurrentHashMap<>();
+
+  /** The file used to persist the data. */
+  private volatile Path cacheFile;
+
+  /**
+   * The camera type. The number is the type stored in the {@code PoissonFisherInformationData}.
+   */
+  public enum CameraType {
+    /** CCD camera has Poisson shot noise and Gaussian read noise. */
+    CCD(1),
+    /**
+     * EM-CCD camera has Poisson shot noise, a Gamma distribution model for EM-gain and Gaussian
+     * read noise.
+     */
+    EM_CCD(3);
+
+    private final int number;
+
+    CameraType(int number) {
+      this.number = number;
+    }
+
+    /**
+     * Gets the number of the type.
+     *
+     * @return the number
+     */
+    public int getNumber() {
+      return number;
+    }
+
+    /**
+     * Get the camera type for the number.
+     *
+     * @param number the number
+     * @return the camera type (or null)
+     */
+    public static CameraType forNumber(int number) {
+      for (final CameraType type : values()) {
+        if (type.number == number) {
+          return type;
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Class for hashing the Fisher information settings.
+   */
+  private static final class Key {
+    final int type;
+    final double gain;
+    final double noise;
+
+    Key(int type, double gain, double noise) {
+      this.type = type;
+      this.gain = gain;
+      this.noise = noise;
+    }
+
+    Key(PoissonFisherInformationData data) {
+      this(data.getType(), data.getGain(), data.getNoise());
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = type;
+      hash = 31 * hash + Double.hashCode(gain);
+      hash = 31 * hash + Double.hashCode(noise);
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key key = (Key) obj;
+      return type == key.type && gain == key.gain && noise == key.noise;
+    }
+  }
+
+  /**
+   * The curve data and the sequence number when it was added to the cache.
+   */
+  private static final class DataEntry {
+    final PoissonFisherInformationData data;
+    final long sequence;
+
+    DataEntry(PoissonFisherInformationData data, long sequence) {
+      this.data = data;
+      this.sequence = sequence;
+    }
+  }
+
+  /** No public constructor. */
+  private FisherInformationCache() {}
+
+  /**
+   * Gets the global instance.
+   *
+   * @return the instance
+   */
+  public static FisherInformationCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Sets the file used to persist the cache. Any data in the file is loaded into the cache. New
+   * curves computed by the cache are written to the file.
+   *
+   * <p>The file format is a length delimited {@code PoissonFisherInformationCache} message.
+   *
+   * @param file the file (set to null to disable persistence)
+   */
+  public synchronized void setCacheFile(Path file) {
+    cacheFile = file;
+    if (file != null && Files.exists(file)) {
+      try (InputStream in = Files.newInputStream(file)) {
+        final PoissonFisherInformationCache cache =
+            PoissonFisherInformationCache.parseDelimitedFrom(in);
+        if (cache != null) {
+          // The file is ordered by age, oldest first
+          cache.getDataList().forEach(this::putDataInternal);
+        }
+      } catch (final IOException ex) {
+        logger.log(Level.WARNING, ex, () -> "Unable to read the Fisher information cache: " + file);
+      }
+    }
+  }
+
+  /**
+   * Gets the file used to persist the cache.
+   *
+   * @return the file (or null)
+   */
+  public Path getCacheFile() {
+    return cacheFile;
+  }
+
+  /**
+   * Add the data to the cache. This replaces any existing data for the same (type, gain, noise)
+   * key.
+   *
+   * <p>The data is not written to the cache file until {@link #flush()} is called.
+   *
+   * @param fisherData the data
+   */
+  public void putData(PoissonFisherInformationData fisherData) {
+    putDataInternal(fisherData);
+    dirty = true;
+  }
+
+  private void putDataInternal(PoissonFisherInformationData fisherData) {
+    final Key key = new Key(fisherData);
+    data.put(key, new DataEntry(fisherData, sequence.getAndIncrement()));
+    // Invalidate the function
+    functions.remove(key);
+  }
+
+  /**
+   * Gets the data from the cache.
+   *
+   * @param type the type
+   * @param gain the gain
+   * @param noise the noise
+   * @return the data (or null)
+   */
+  public PoissonFisherInformationData getData(CameraType type, double gain, double noise) {
+    final DataEntry entry = data.get(new Key(type.getNumber(), gain, noise));
+    return entry == null ? null : entry.data;
+  }
+
+  /**
+   * Gets the data from the cache. All data in the cache is returned.
+   *
+   * @return the data
+   */
+  public PoissonFisherInformationCache getData() {
+    final PoissonFisherInformationCache.Builder builder =
+        PoissonFisherInformationCache.newBuilder();
+    data.values().forEach(entry -> builder.addData(entry.data));
+    return builder.build();
+  }
+
+  /**
+   * Clear the cache. This does not modify the cache file.
+   */
+  public void clear() {
+    data.clear();
+    functions.clear();
+    dirty = false;
+  }
+
+  /**
+   * Gets the Fisher information function for the camera. If the curve is not in the cache it is
+   * computed (using multiple threads) and added to the cache. This may be slow for an EM-CCD
+   * camera.
+   *
+   * <p>A newly computed curve is written to the cache file (if set) after it has been added to the
+   * cache.
+   *
+   * @param type the type
+   * @param gain the gain (count/electron)
+   * @param noise the noise (in counts)
+   * @return the Fisher information
+   * @throws IllegalArgumentException If the gain or noise are invalid for the type
+   */
+  public InterpolatedPoissonFisherInformation getFisherInformation(CameraType type, double gain,
+      double noise) {
+    final Key key = new Key(type.getNumber(), gain, noise);
+    FutureTask<InterpolatedPoissonFisherInformation> task = functions.get(key);
+    if (task == null) {
+      final FutureTask<InterpolatedPoissonFisherInformation> newTask =
+          new FutureTask<>(() -> createFunction(type, key));
+      task = functions.putIfAbsent(key, newTask);
+      if (task == null) {
+        task = newTask;
+        // Compute outside the map lock
+        newTask.run();
+        flush();
+      }
+    }
+    try {
+      return task.get().copy();
+    } catch (final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new ConcurrentRuntimeException("Unexpected interruption", ex);
+    } catch (final ExecutionException ex) {
+      // Allow a later attempt to create the function
+      functions.remove(key, task);
+      final Throwable cause = ex.getCause();
+      if (cause instanceof IllegalArgumentException) {
+        throw (IllegalArgumentException) cause;
+      }
+      throw new ConcurrentRuntimeException(cause);
+    }
+  }
+
+  /**
+   * Create the function. The data is computed if not present in the cache.
+   *
+   * @param type the type
+   * @param key the key
+   * @return the function
+   */
+  private InterpolatedPoissonFisherInformation createFunction(CameraType type, Key key) {
+    final DataEntry entry = data.get(key);
+    final PoissonFisherInformationData fisherData;
+    if (entry == null) {
+      fisherData = computeData(type, key);
+      data.put(key, new DataEntry(fisherData, sequence.getAndIncrement()));
+      dirty = true;
+    } else {
+      fisherData = entry.data;
+    }
+
+    // Convert the samples to base e
+    final int size = fisherData.getAlphaSampleCount();
+    final double[][] samples = new double[size][];
+    final double scale = Math.log(10);
+    for (int i = 0; i < size; i++) {
+      final AlphaSample sample = fisherData.getAlphaSample(i);
+      samples[i] = new double[] {sample.getLog10Mean() * scale, sample.getAlpha()};
+    }
+    Arrays.sort(samples, (o1, o2) -> Double.compare(o1[0], o2[0]));
+    final double[] logU = new double[size];
+    final double[] alpha = new double[size];
+    for (int i = 0; i < size; i++) {
+      logU[i] = samples[i][0];
+      alpha[i] = samples[i][1];
+    }
+    return new InterpolatedPoissonFisherInformation(logU, alpha, type == CameraType.CCD,
+        createUpperFunction(type, key));
+  }
+
+  /**
+   * Compute the data.
+   *
+   * @param type the type
+   * @param key the key
+   * @return the data
+   */
+  private static PoissonFisherInformationData computeData(CameraType type, Key key) {
+    final BasePoissonFisherInformation fi = createFunction(type, key.gain, key.noise);
+    final int size = (int) Math.round((MAX_EXPONENT - MIN_EXPONENT) / EXPONENT_INCREMENT) + 1;
+    final double[] alpha = new double[size];
+    IntStream.range(0, size).parallel().forEach(i -> {
+      final double photons = Math.pow(10, MIN_EXPONENT + i * EXPONENT_INCREMENT);
+      alpha[i] = fi.copy().getAlpha(photons);
+    });
+    final PoissonFisherInformationData.Builder builder = PoissonFisherInformationData.newBuilder();
+    builder.setType(key.type);
+    builder.setGain(key.gain);
+    builder.setNoise(key.noise);
+    final AlphaSample.Builder sample = AlphaSample.newBuilder();
+    for (int i = 0; i < size; i++) {
+      sample.setLog10Mean(MIN_EXPONENT + i * EXPONENT_INCREMENT);
+      sample.setAlpha(alpha[i]);
+      builder.addAlphaSample(sample);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Creates the function to compute the Fisher information.
+   *
+   * @param type the type
+   * @param gain the gain
+   * @param noise the noise
+   * @return the Fisher information
+   */
+  private static BasePoissonFisherInformation createFunction(CameraType type, double gain,
+      double noise) {
+    if (type == CameraType.CCD) {
+      final PoissonGaussianFisherInformation fi = new PoissonGaussianFisherInformation(
+          noise / gain, PoissonGaussianFisherInformation.DEFAULT_SAMPLING);
+      fi.setMeanThreshold(1000);
+      return fi;
+    }
+    final PoissonGammaGaussianFisherInformation fi = new PoissonGammaGaussianFisherInformation(
+        gain, noise, PoissonGammaGaussianFisherInformation.DEFAULT_SAMPLING);
+    fi.setMeanThreshold(Double.MAX_VALUE);
+    return fi;
+  }
+
+  /**
+   * Creates the function to compute the Fisher information above the interpolation range.
+   *
+   * @param type the type
+   * @param key the key
+   * @return the Fisher information
+   */
+  private static BasePoissonFisherInformation createUpperFunction(CameraType type, Key key) {
+    if (type == CameraType.CCD) {
+      return new PoissonGaussianApproximationFisherInformation(key.noise / key.gain);
+    }
+    return new HalfPoissonFisherInformation();
+  }
+
+  /**
+   * Write the cache to the cache file (if set) if the data has changed since the last write. The
+   * most recent {@link #MAX_PERSISTED_DATA} curves for each camera type are written.
+   *
+   * <p>The data is written to a temporary file that then replaces the cache file. Concurrent calls
+   * are serialised.
+   *
+   * @return true if the file was written
+   */
+  public synchronized boolean flush() {
+    final Path file = cacheFile;
+    if (file == null || !dirty) {
+      return false;
+    }
+    dirty = false;
+    // Youngest first
+    final DataEntry[] entries = data.values().toArray(new DataEntry[0]);
+    Arrays.sort(entries, (o1, o2) -> Long.compare(o2.sequence, o1.sequence));
+    // Limit the number of each type
+    final TIntIntHashMap counts = new TIntIntHashMap();
+    int size = 0;
+    for (final DataEntry entry : entries) {
+      if (counts.adjustOrPutValue(entry.data.getType(), 1, 1) <= MAX_PERSISTED_DATA) {
+        entries[size++] = entry;
+      }
+    }
+    final PoissonFisherInformationCache.Builder cache = PoissonFisherInformationCache.newBuilder();
+    // Write oldest first so the order is preserved when loaded
+    for (int i = size; i-- > 0;) {
+      cache.addData(entries[i].data);
+    }
+    Path tmp = null;
+    try {
+      final Path dir = file.toAbsolutePath().getParent();
+      tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+      try (OutputStream out = Files.newOutputStream(tmp)) {
+        cache.build().writeDelimitedTo(out);
+      }
+      try {
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (final AtomicMoveNotSupportedException ex) {
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+      return true;
+    } catch (final IOException ex) {
+      logger.log(Level.WARNING, ex, () -> "Unable to write the Fisher information cache: " + file);
+      deleteQuietly(tmp);
+      // Allow a retry
+      dirty = true;
+    }
+    return false;
+  }
+
+  private static void deleteQuietly(Path path) {
+    if (path != null) {
+      try {
+        Files.deleteIfExists(path);
+      } catch (final IOException ignored) {
+        // Ignore
+      }
+    }
+  }
+}
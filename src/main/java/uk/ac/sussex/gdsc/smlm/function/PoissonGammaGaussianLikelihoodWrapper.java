@@ -51,7 +51,7 @@ package uk.ac.sussex.gdsc.smlm.function;
  * chosen observed value.
  */
 public class PoissonGammaGaussianLikelihoodWrapper extends LikelihoodWrapper {
-  private final PoissonGammaGaussianFunction pgg;
+  private final LogLikelihoodFunction pgg;
 
   /**
    * Initialise the function.
@@ -74,6 +74,28 @@ public class PoissonGammaGaussianLikelihoodWrapper extends LikelihoodWrapper {
     pgg = new PoissonGammaGaussianFunction(alpha, sd);
   }
 
+  /**
+   * Initialise the function using a tabulated Poisson-Gamma-Gaussian likelihood. The function
+   * instance is not thread-safe and must not be shared with other threads; the table it uses is
+   * shared.
+   *
+   * <p>The input parameters must be the full parameters for the non-linear function. Only those
+   * parameters with gradient indices should be passed in to the functions to obtain the value (and
+   * gradient).
+   *
+   * @param function The function to be used to calculated the expected values (if modelling EMCCD
+   *        data this should evaluate the value without the bias)
+   * @param parameters The initial parameters for the function
+   * @param data The observed values (if using EMCCD data the bias should be subtracted)
+   * @param dataSize The number of observed values
+   * @param pgg The tabulated Poisson-Gamma-Gaussian function
+   */
+  public PoissonGammaGaussianLikelihoodWrapper(NonLinearFunction function, double[] parameters,
+      double[] data, int dataSize, TabulatedPoissonGammaGaussianFunction pgg) {
+    super(function, parameters, data, dataSize);
+    this.pgg = pgg;
+  }
+
   @Override
   public double computeLikelihood() {
     // Compute the negative log-likelihood
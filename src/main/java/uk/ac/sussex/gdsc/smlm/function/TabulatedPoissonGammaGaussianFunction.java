@@ -0,0 +1,604 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.function;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.stream.IntStream;
+import org.apache.commons.lang3.concurrent.ConcurrentRuntimeException;
+import org.apache.commons.math3.util.FastMath;
+import uk.ac.sussex.gdsc.smlm.function.PoissonGammaGaussianFunction.ConvolutionMode;
+
+/**
+ * Compute the likelihood of a Poisson-Gamma-Gaussian distribution using a precomputed table of the
+ * log-likelihood.
+ *
+ * <p>The exact {@link PoissonGammaGaussianFunction} numerically convolves the Poisson-Gamma with
+ * the Gaussian for every (observed, expected) pair. This class tabulates the log-likelihood on a
+ * regular grid of the observed value (x) and the log of the expected value (log(u)) and evaluates
+ * using bicubic (Catmull-Rom) spline interpolation. The accuracy is controlled by the grid
+ * spacing. Values outside the table range, or within cells adjacent to non-finite table values, are
+ * computed using the exact function.
+ *
+ * <p>Tables are built once per unique combination of the gain, read noise, convolution mode and
+ * grid settings and shared between all instances. Construction of the table is performed in
+ * parallel outside of any lock on the shared tables; concurrent requests for the same table wait
+ * for the single construction. If the table would be larger than {@link #MAX_TABLE_SIZE} it is not
+ * built and all values are computed using the exact function. The shared tables are held in a
+ * least-recently-used cache limited to {@link #MAX_CACHE_SIZE} values; an evicted table remains in
+ * use by any existing instance.
+ *
+ * <p>The maximum interpolation error of the table is estimated when it is built. If this is above
+ * the error tolerance then the table is not used and all values are computed using the exact
+ * function.
+ *
+ * <p>Note that an instance is not thread-safe as the exact function used outside the table range
+ * holds working state. Create an instance per thread; the table is shared.
+ *
+ * @see PoissonGammaGaussianFunction
+ */
+public class TabulatedPoissonGammaGaussianFunction
+    implements LikelihoodFunction, LogLikelihoodFunction {
+  /** The default minimum expected value (in photons). */
+  public static final double DEFAULT_MIN_EXPECTED = 1e-2;
+  /** The default step for the log of the expected value. */
+  public static final double DEFAULT_LOG_EXPECTED_STEP = 0.05;
+  /** The maximum number of values in a table. Larger tables use the exact function. */
+  public static final int MAX_TABLE_SIZE = 1 << 23;
+  /** The maximum number of values in all the shared tables. */
+  public static final long MAX_CACHE_SIZE = 2L * MAX_TABLE_SIZE;
+  /** The default tolerance for the estimated maximum absolute error of the log-likelihood. */
+  public static final double DEFAULT_MAX_ERROR = 0.5;
+
+  /** The range of the Gaussian read noise to include below zero (in SD units). */
+  private static final double NOISE_RANGE = 5;
+  /** The range of the Poisson noise to include above the maximum expected (in SD units). */
+  private static final double POISSON_RANGE = 5;
+
+  /**
+   * The shared tables in access order. Each table is built once by the first thread to request it.
+   * All access must synchronize on the map.
+   */
+  private static final LinkedHashMap<TableKey, FutureTask<Table>> TABLES =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  /** The number of values in the shared tables. Guarded by the lock on the tables. */
+  private static long cacheSize;
+
+  /** The table (or null if the table size is above the maximum). */
+  private final Table table;
+
+  /** The exact function used outside the range of the table. */
+  private final PoissonGammaGaussianFunction exact;
+
+  /**
+   * The key identifying a table.
+   */
+  private static final class TableKey {
+    final double alpha;
+    final double sigma;
+    final ConvolutionMode mode;
+    final double minExpected;
+    final double maxExpected;
+    final double logExpectedStep;
+    final double observedStep;
+    final int hash;
+    /** The observed value at index 0. */
+    final double minX;
+    /** The log expected value at index 0. */
+    final double minLogU;
+    /** The number of observed values. */
+    final long nx;
+    /** The number of log expected values. */
+    final long nu;
+
+    TableKey(double alpha, double sigma, ConvolutionMode mode, double minExpected,
+        double maxExpected, double logExpectedStep, double observedStep) {
+      this.alpha = alpha;
+      this.sigma = sigma;
+      this.mode = mode;
+      this.minExpected = minExpected;
+      this.maxExpected = maxExpected;
+      this.logExpectedStep = logExpectedStep;
+      this.observedStep = observedStep;
+      hash = Objects.hash(alpha, sigma, mode, minExpected, maxExpected, logExpectedStep,
+          observedStep);
+      // Pad by 1 node on each side for the cubic interpolation
+      minX = -Math.ceil(NOISE_RANGE * sigma / observedStep + 1) * observedStep;
+      final double maxX =
+          (1 / alpha) * (maxExpected + POISSON_RANGE * Math.sqrt(maxExpected))
+              + NOISE_RANGE * sigma;
+      nx = (long) Math.ceil((maxX - minX) / observedStep) + 3;
+      minLogU = Math.log(minExpected) - logExpectedStep;
+      nu = (long) Math.ceil((Math.log(maxExpected) - minLogU) / logExpectedStep) + 3;
+    }
+
+    /**
+     * Gets the table size. This may be above the maximum array size.
+     *
+     * @return the size
+     */
+    double getSize() {
+      // Use a double to avoid long overflow
+      return (double) nx * nu;
+    }
+
+    /**
+     * Gets the table size. Only valid if the size is below the maximum table size.
+     *
+     * @return the size
+     */
+    long getTableSize() {
+      return nx * nu;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof TableKey)) {
+        return false;
+      }
+      final TableKey other = (TableKey) obj;
+      //@formatter:off
+      return Double.compare(alpha, other.alpha) == 0 &&
+          Double.compare(sigma, other.sigma) == 0 &&
+          mode == other.mode &&
+          Double.compare(minExpected, other.minExpected) == 0 &&
+          Double.compare(maxExpected, other.maxExpected) == 0 &&
+          Double.compare(logExpectedStep, other.logExpectedStep) == 0 &&
+          Double.compare(observedStep, other.observedStep) == 0;
+      //@formatter:on
+    }
+  }
+
+  /**
+   * The table of the log-likelihood. The table is immutable.
+   */
+  private static final class Table {
+    /** The observed value at index 0. */
+    final double minX;
+    /** The observed step. */
+    final double dx;
+    /** The log expected value at index 0. */
+    final double minLogU;
+    /** The log expected step. */
+    final double du;
+    /** The number of observed values. */
+    final int nx;
+    /** The number of log expected values. */
+    final int nu;
+    /** The log-likelihood values. Packed as [u][x]. Non-finite values are stored as NaN. */
+    final double[] values;
+    /** The estimated maximum absolute error of the interpolation. */
+    final double maxError;
+
+    /**
+     * Create the table. The table size must be below the maximum table size.
+     *
+     * @param key the key
+     */
+    Table(TableKey key) {
+      dx = key.observedStep;
+      du = key.logExpectedStep;
+      minX = key.minX;
+      minLogU = key.minLogU;
+      // The size has been checked against the maximum table size
+      nx = (int) key.nx;
+      nu = (int) key.nu;
+      values = new double[nx * nu];
+      IntStream.range(0, nu).parallel().forEach(j -> {
+        final PoissonGammaGaussianFunction f = createFunction(key);
+        final double u = FastMath.exp(minLogU + j * du);
+        for (int i = 0, index = j * nx; i < nx; i++, index++) {
+          final double ll = f.logLikelihood(minX + i * dx, u);
+          values[index] = Double.isFinite(ll) ? ll : Double.NaN;
+        }
+      });
+      maxError = estimateError(key);
+    }
+
+    /**
+     * Estimate the maximum absolute error of the interpolation using the centre of a subset of the
+     * table cells.
+     *
+     * @param key the key
+     * @return the maximum error
+     */
+    private double estimateError(TableKey key) {
+      final PoissonGammaGaussianFunction f = createFunction(key);
+      double max = 0;
+      final int stride = 7;
+      for (int j = 1; j < nu - 2; j += stride) {
+        final double logU = minLogU + (j + 0.5) * du;
+        final double u = FastMath.exp(logU);
+        for (int i = 1; i < nx - 2; i += stride) {
+          final double x = minX + (i + 0.5) * dx;
+          final double e = f.logLikelihood(x, u);
+          final double o = interpolate(x, logU);
+          if (Double.isFinite(e) && !Double.isNaN(o)) {
+            max = Math.max(max, Math.abs(e - o));
+          }
+        }
+      }
+      return max;
+    }
+
+    /**
+     * Interpolate the log-likelihood. Returns NaN if the point is outside the interpolation range
+     * or adjacent to a non-finite table value.
+     *
+     * @param x the observed value
+     * @param logU the log of the expected value
+     * @return the log-likelihood
+     */
+    double interpolate(double x, double logU) {
+      final double tx = (x - minX) / dx;
+      final double tu = (logU - minLogU) / du;
+      // Require 1 node either side of the cell. The negation is used to catch NaN.
+      if (!(tx >= 1 && tu >= 1)) {
+        return Double.NaN;
+      }
+      final int i = (int) tx;
+      final int j = (int) tu;
+      if (i >= nx - 2 || j >= nu - 2) {
+        return Double.NaN;
+      }
+      final double fx = tx - i;
+      final double fu = tu - j;
+      int index = (j - 1) * nx + i - 1;
+      final double v0 = cubic(values, index, fx);
+      index += nx;
+      final double v1 = cubic(values, index, fx);
+      index += nx;
+      final double v2 = cubic(values, index, fx);
+      index += nx;
+      final double v3 = cubic(values, index, fx);
+      return cubic(v0, v1, v2, v3, fu);
+    }
+
+    private static double cubic(double[] values, int index, double t) {
+      return cubic(values[index], values[index + 1], values[index + 2], values[index + 3], t);
+    }
+
+    /**
+     * Catmull-Rom cubic spline interpolation between p1 and p2.
+     *
+     * @param p0 the value at node -1
+     * @param p1 the value at node 0
+     * @param p2 the value at node 1
+     * @param p3 the value at node 2
+     * @param t the fraction between node 0 and 1
+     * @return the value
+     */
+    private static double cubic(double p0, double p1, double p2, double p3, double t) {
+      return p1 + 0.5 * t
+          * (p2 - p0 + t * (2 * p0 - 5 * p1 + 4 * p2 - p3 + t * (3 * (p1 - p2) + p3 - p0)));
+    }
+  }
+
+  /**
+   * Instantiates a new tabulated poisson gamma gaussian function.
+   *
+   * @param table the table
+   * @param exact the exact function
+   */
+  private TabulatedPoissonGammaGaussianFunction(Table table, PoissonGammaGaussianFunction exact) {
+    this.table = table;
+    this.exact = exact;
+  }
+
+  /**
+   * Create a new instance. The observed step is set using {@link #getDefaultObservedStep(double,
+   * double)}. The table is used if the estimated error is within {@link #DEFAULT_MAX_ERROR}.
+   *
+   * @param alpha Inverse gain of the EMCCD chip
+   * @param sd The Gaussian standard deviation at readout
+   * @param mode the convolution mode
+   * @param maxExpected the maximum expected value (in photons) to tabulate
+   * @return the function
+   * @throws IllegalArgumentException If the gain is below 1 or the table settings are invalid
+   */
+  public static TabulatedPoissonGammaGaussianFunction create(double alpha, double sd,
+      ConvolutionMode mode, double maxExpected) {
+    return create(alpha, sd, mode, DEFAULT_MIN_EXPECTED, maxExpected, DEFAULT_LOG_EXPECTED_STEP,
+        getDefaultObservedStep(alpha, sd));
+  }
+
+  /**
+   * Create a new instance. The table is shared with any other instance created using the same
+   * parameters. The table is used if the estimated error is within {@link #DEFAULT_MAX_ERROR}.
+   *
+   * @param alpha Inverse gain of the EMCCD chip
+   * @param sd The Gaussian standard deviation at readout
+   * @param mode the convolution mode
+   * @param minExpected the minimum expected value (in photons) to tabulate
+   * @param maxExpected the maximum expected value (in photons) to tabulate
+   * @param logExpectedStep the step for the log of the expected value
+   * @param observedStep the step for the observed value
+   * @return the function
+   * @throws IllegalArgumentException If the gain is below 1 or the table settings are invalid
+   * @see #create(double, double, ConvolutionMode, double, double, double, double, double)
+   */
+  public static TabulatedPoissonGammaGaussianFunction create(double alpha, double sd,
+      ConvolutionMode mode, double minExpected, double maxExpected, double logExpectedStep,
+      double observedStep) {
+    return create(alpha, sd, mode, minExpected, maxExpected, logExpectedStep, observedStep,
+        DEFAULT_MAX_ERROR);
+  }
+
+  /**
+   * Create a new instance. The table is shared with any other instance created using the same
+   * parameters.
+   *
+   * <p>The table covers the observed values from below zero (to include the read noise) to above
+   * the maximum expected value (to include the Poisson noise). The accuracy of the interpolation
+   * is controlled by the step size for the observed value and the log of the expected value.
+   * Smaller steps increase accuracy but increase the table size and the construction time. If
+   * the table size is above {@link #MAX_TABLE_SIZE} then no table is created and the function
+   * computes all values using the exact function.
+   *
+   * <p>If the estimated maximum absolute error of the interpolated log-likelihood is above the
+   * error tolerance then the table is not used and the function computes all values using the
+   * exact function. The table remains shared for use with a higher tolerance.
+   *
+   * @param alpha Inverse gain of the EMCCD chip
+   * @param sd The Gaussian standard deviation at readout
+   * @param mode the convolution mode
+   * @param minExpected the minimum expected value (in photons) to tabulate
+   * @param maxExpected the maximum expected value (in photons) to tabulate
+   * @param logExpectedStep the step for the log of the expected value
+   * @param observedStep the step for the observed value
+   * @param maxError the tolerance for the estimated maximum absolute error of the log-likelihood
+   * @return the function
+   * @throws IllegalArgumentException If the gain is below 1 or the table settings are invalid
+   */
+  public static TabulatedPoissonGammaGaussianFunction create(double alpha, double sd,
+      ConvolutionMode mode, double minExpected, double maxExpected, double logExpectedStep,
+      double observedStep, double maxError) {
+    final TableKey key = createKey(alpha, sd, mode, minExpected, maxExpected, logExpectedStep,
+        observedStep);
+    if (!(maxError >= 0)) {
+      throw new IllegalArgumentException("Maximum error must be positive: " + maxError);
+    }
+    Table table = key.getSize() > MAX_TABLE_SIZE ? null : getTable(key);
+    if (table != null && table.maxError > maxError) {
+      table = null;
+    }
+    return new TabulatedPoissonGammaGaussianFunction(table, createFunction(key));
+  }
+
+  /**
+   * Gets the shared table. The table is constructed by the first caller outside of the map lock.
+   * Other callers requesting the same table wait for the construction to complete.
+   *
+   * @param key the key
+   * @return the table
+   */
+  private static Table getTable(TableKey key) {
+    FutureTask<Table> task;
+    boolean run = false;
+    synchronized (TABLES) {
+      task = TABLES.get(key);
+      if (task == null) {
+        task = new FutureTask<>(() -> new Table(key));
+        TABLES.put(key, task);
+        cacheSize += key.getTableSize();
+        evictTables(key);
+        run = true;
+      }
+    }
+    if (run) {
+      task.run();
+    }
+    try {
+      return task.get();
+    } catch (final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new ConcurrentRuntimeException("Unexpected interruption", ex);
+    } catch (final ExecutionException ex) {
+      // Allow a later attempt to rebuild the table
+      synchronized (TABLES) {
+        if (TABLES.get(key) == task) {
+          TABLES.remove(key);
+          cacheSize -= key.getTableSize();
+        }
+      }
+      throw new ConcurrentRuntimeException(ex.getCause());
+    }
+  }
+
+  /**
+   * Evict the least recently used tables until the cache size is within the maximum. The most
+   * recent table is not evicted. Must be called when holding the lock on the tables.
+   *
+   * @param latest the latest key
+   */
+  private static void evictTables(TableKey latest) {
+    final Iterator<Map.Entry<TableKey, FutureTask<Table>>> iter = TABLES.entrySet().iterator();
+    while (cacheSize > MAX_CACHE_SIZE && iter.hasNext()) {
+      final TableKey key = iter.next().getKey();
+      if (key != latest) {
+        iter.remove();
+        cacheSize -= key.getTableSize();
+      }
+    }
+  }
+
+  private static TableKey createKey(double alpha, double sd, ConvolutionMode mode,
+      double minExpected, double maxExpected, double logExpectedStep, double observedStep) {
+    // Validate the parameters using the exact function
+    final PoissonGammaGaussianFunction f = new PoissonGammaGaussianFunction(alpha, sd);
+    if (!(minExpected > 0 && minExpected < maxExpected && maxExpected <= Double.MAX_VALUE)) {
+      throw new IllegalArgumentException(
+          "Invalid expected range: " + minExpected + " to " + maxExpected);
+    }
+    if (!(logExpectedStep > 0 && logExpectedStep <= Double.MAX_VALUE)) {
+      throw new IllegalArgumentException("Log expected step must be positive: " + logExpectedStep);
+    }
+    if (!(observedStep > 0 && observedStep <= Double.MAX_VALUE)) {
+      throw new IllegalArgumentException("Observed step must be positive: " + observedStep);
+    }
+    return new TableKey(f.getAlpha(), f.getSigma(), Objects.requireNonNull(mode, "mode"),
+        minExpected, maxExpected, logExpectedStep, observedStep);
+  }
+
+  private static PoissonGammaGaussianFunction createFunction(TableKey key) {
+    final PoissonGammaGaussianFunction f = new PoissonGammaGaussianFunction(key.alpha, key.sigma);
+    f.setConvolutionMode(key.mode);
+    return f;
+  }
+
+  /**
+   * Gets the default observed step. This is a fraction of the smaller of the read noise and the
+   * gain as the likelihood varies on the scale of the noise at low counts and the scale of the gain
+   * at high counts.
+   *
+   * @param alpha Inverse gain of the EMCCD chip
+   * @param sd The Gaussian standard deviation at readout
+   * @return the default observed step
+   */
+  public static double getDefaultObservedStep(double alpha, double sd) {
+    final double gain = 1 / Math.abs(alpha);
+    final double scale = Math.min(Math.abs(sd), gain);
+    return Math.max(0.5, scale / 4);
+  }
+
+  /**
+   * Clear the shared tables.
+   */
+  public static void clearTables() {
+    synchronized (TABLES) {
+      TABLES.clear();
+      cacheSize = 0;
+    }
+  }
+
+  /**
+   * Gets the number of values in the shared tables.
+   *
+   * @return the cache size
+   */
+  public static long getCacheSize() {
+    synchronized (TABLES) {
+      return cacheSize;
+    }
+  }
+
+  /**
+   * Checks if the function uses a table. This is false if the table size was above the maximum, or
+   * the estimated error was above the tolerance, and all values are computed using the exact
+   * function.
+   *
+   * @return true if tabulated
+   */
+  public boolean isTabulated() {
+    return table != null;
+  }
+
+  /**
+   * Gets the estimated maximum absolute error of the interpolated log-likelihood. This is computed
+   * using the centre of a subset of the table cells when the table is constructed. Returns zero if
+   * the function is not tabulated (including when the error is above the tolerance).
+   *
+   * @return the maximum error
+   */
+  public double getMaximumError() {
+    return table == null ? 0 : table.maxError;
+  }
+
+  /**
+   * Gets the table size. Returns zero if the function is not tabulated.
+   *
+   * @return the table size
+   */
+  public int getTableSize() {
+    return table == null ? 0 : table.values.length;
+  }
+
+  /**
+   * Gets the alpha.
+   *
+   * @return the alpha
+   */
+  public double getAlpha() {
+    return exact.getAlpha();
+  }
+
+  /**
+   * Gets the sigma.
+   *
+   * @return the sigma
+   */
+  public double getSigma() {
+    return exact.getSigma();
+  }
+
+  /**
+   * Gets the convolution mode.
+   *
+   * @return the convolution mode
+   */
+  public ConvolutionMode getConvolutionMode() {
+    return exact.getConvolutionMode();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The likelihood is computed as the exponential of the interpolated log-likelihood.
+   */
+  @Override
+  public double likelihood(double obs, double exp) {
+    if (table != null && exp > 0) {
+      final double ll = table.interpolate(obs, Math.log(exp));
+      if (!Double.isNaN(ll)) {
+        return FastMath.exp(ll);
+      }
+    }
+    return exact.likelihood(obs, exp);
+  }
+
+  @Override
+  public double logLikelihood(double obs, double exp) {
+    if (table != null && exp > 0) {
+      final double ll = table.interpolate(obs, Math.log(exp));
+      if (!Double.isNaN(ll)) {
+        return ll;
+      }
+    }
+    return exact.logLikelihood(obs, exp);
+  }
+}
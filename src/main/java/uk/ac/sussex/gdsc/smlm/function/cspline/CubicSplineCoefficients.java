@@ -0,0 +1,395 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.function.cspline;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import uk.ac.sussex.gdsc.core.math.interpolation.CustomTricubicFunction;
+import uk.ac.sussex.gdsc.core.math.interpolation.CustomTricubicFunctionUtils;
+
+/**
+ * Stores the coefficients of the tricubic spline nodes for one z-plane of a cubic spline in a
+ * contiguous primitive buffer. Each node has 64 coefficients {@code a[i + 4 * j + 16 * k]} for the
+ * power {@code x^i * y^j * z^k}. The nodes are stored in YX order.
+ *
+ * <p>The buffer can be a view of a memory-mapped file.
+ */
+abstract class CubicSplineCoefficients {
+  /** The number of coefficients per node. */
+  static final int NODE_SIZE = 64;
+
+  /** The number of nodes. */
+  final int nodes;
+
+  /**
+   * Single precision coefficients.
+   */
+  static final class FloatCoefficients extends CubicSplineCoefficients {
+    private final FloatBuffer data;
+    /** The backing array of a heap buffer (or null). */
+    private final float[] array;
+    /** The offset of the buffer in the backing array. */
+    private final int offset;
+
+    /**
+     * Create an instance.
+     *
+     * @param data the data
+     */
+    FloatCoefficients(FloatBuffer data) {
+      super(data.limit() / NODE_SIZE);
+      this.data = data;
+      if (data.hasArray()) {
+        array = data.array();
+        offset = data.arrayOffset();
+      } else {
+        array = null;
+        offset = 0;
+      }
+    }
+
+    @Override
+    boolean isSinglePrecision() {
+      return true;
+    }
+
+    @Override
+    void getNode(int node, double[] a) {
+      final int from = node * NODE_SIZE;
+      if (array != null) {
+        for (int i = 0, j = offset + from; i < NODE_SIZE; i++, j++) {
+          a[i] = array[j];
+        }
+      } else {
+        for (int i = 0, j = from; i < NODE_SIZE; i++, j++) {
+          a[i] = data.get(j);
+        }
+      }
+    }
+
+    @Override
+    CustomTricubicFunction getFunction(int node) {
+      final float[] a = new float[NODE_SIZE];
+      for (int i = 0, j = node * NODE_SIZE; i < NODE_SIZE; i++, j++) {
+        a[i] = data.get(j);
+      }
+      return CustomTricubicFunctionUtils.create(a);
+    }
+
+    @Override
+    ByteBuffer toBytes(ByteOrder order) {
+      final ByteBuffer bytes = ByteBuffer.allocate(data.limit() * Float.BYTES).order(order);
+      final FloatBuffer source = data.duplicate();
+      source.clear();
+      bytes.asFloatBuffer().put(source);
+      return bytes;
+    }
+  }
+
+  /**
+   * Double precision coefficients.
+   */
+  static final class DoubleCoefficients extends CubicSplineCoefficients {
+    private final DoubleBuffer data;
+    /** The backing array of a heap buffer (or null). */
+    private final double[] array;
+    /** The offset of the buffer in the backing array. */
+    private final int offset;
+
+    /**
+     * Create an instance.
+     *
+     * @param data the data
+     */
+    DoubleCoefficients(DoubleBuffer data) {
+      super(data.limit() / NODE_SIZE);
+      this.data = data;
+      if (data.hasArray()) {
+        array = data.array();
+        offset = data.arrayOffset();
+      } else {
+        array = null;
+        offset = 0;
+      }
+    }
+
+    @Override
+    boolean isSinglePrecision() {
+      return false;
+    }
+
+    @Override
+    void getNode(int node, double[] a) {
+      final int from = node * NODE_SIZE;
+      if (array != null) {
+        System.arraycopy(array, offset + from, a, 0, NODE_SIZE);
+      } else {
+        for (int i = 0, j = from; i < NODE_SIZE; i++, j++) {
+          a[i] = data.get(j);
+        }
+      }
+    }
+
+    @Override
+    CustomTricubicFunction getFunction(int node) {
+      final double[] a = new double[NODE_SIZE];
+      for (int i = 0, j = node * NODE_SIZE; i < NODE_SIZE; i++, j++) {
+        a[i] = data.get(j);
+      }
+      return CustomTricubicFunctionUtils.create(a);
+    }
+
+    @Override
+    ByteBuffer toBytes(ByteOrder order) {
+      final ByteBuffer bytes = ByteBuffer.allocate(data.limit() * Double.BYTES).order(order);
+      final DoubleBuffer source = data.duplicate();
+      source.clear();
+      bytes.asDoubleBuffer().put(source);
+      return bytes;
+    }
+  }
+
+  /**
+   * Create an instance.
+   *
+   * @param nodes the number of nodes
+   */
+  CubicSplineCoefficients(int nodes) {
+    this.nodes = nodes;
+  }
+
+  /**
+   * Create the coefficients for the z-plane of spline nodes. The precision is taken from the first
+   * node.
+   *
+   * @param plane the plane
+   * @return the coefficients
+   */
+  static CubicSplineCoefficients create(CustomTricubicFunction[] plane) {
+    if (plane[0].isSinglePrecision()) {
+      final float[] data = new float[plane.length * NODE_SIZE];
+      final float[] a = new float[NODE_SIZE];
+      for (int i = 0; i < plane.length; i++) {
+        plane[i].getCoefficients(a);
+        System.arraycopy(a, 0, data, i * NODE_SIZE, NODE_SIZE);
+      }
+      return new FloatCoefficients(FloatBuffer.wrap(data));
+    }
+    final double[] data = new double[plane.length * NODE_SIZE];
+    final double[] a = new double[NODE_SIZE];
+    for (int i = 0; i < plane.length; i++) {
+      plane[i].getCoefficients(a);
+      System.arraycopy(a, 0, data, i * NODE_SIZE, NODE_SIZE);
+    }
+    return new DoubleCoefficients(DoubleBuffer.wrap(data));
+  }
+
+  /**
+   * Checks if is single precision.
+   *
+   * @return true, if is single precision
+   */
+  abstract boolean isSinglePrecision();
+
+  /**
+   * Copy the 64 coefficients of the node into the array. The buffer is read using absolute indices
+   * and no buffer view is created.
+   *
+   * @param node the node
+   * @param a the coefficients (length 64)
+   */
+  abstract void getNode(int node, double[] a);
+
+  /**
+   * Create a tricubic function for the node.
+   *
+   * @param node the node
+   * @return the function
+   */
+  abstract CustomTricubicFunction getFunction(int node);
+
+  /**
+   * Copy the coefficients to a byte buffer with the given byte order. The buffer is ready for
+   * writing.
+   *
+   * @param order the byte order
+   * @return the bytes
+   */
+  abstract ByteBuffer toBytes(ByteOrder order);
+
+  /**
+   * Compute the power table {@code [1, x, x^2, x^3]}.
+   *
+   * @param x the x (range 0-1)
+   * @param table the table
+   */
+  static void computePowerTable(double x, double[] table) {
+    table[0] = 1;
+    table[1] = x;
+    table[2] = x * x;
+    table[3] = x * x * x;
+  }
+
+  /**
+   * Compute the power table for the first derivative {@code [0, 1, 2x, 3x^2]}.
+   *
+   * @param x the x (range 0-1)
+   * @param table the table
+   */
+  static void computePowerTable1(double x, double[] table) {
+    table[0] = 0;
+    table[1] = 1;
+    table[2] = 2 * x;
+    table[3] = 3 * x * x;
+  }
+
+  /**
+   * Compute the power table for the second derivative {@code [0, 0, 2, 6x]}.
+   *
+   * @param x the x (range 0-1)
+   * @param table the table
+   */
+  static void computePowerTable2(double x, double[] table) {
+    table[0] = 0;
+    table[1] = 0;
+    table[2] = 2;
+    table[3] = 6 * x;
+  }
+
+  /**
+   * Compute the table of the 64 power products {@code px[i] * py[j] * pz[k]} stored at index
+   * {@code i + 4 * j + 16 * k}. The table is computed once for the fractional position within the
+   * node and reused for all nodes evaluated at the same position.
+   *
+   * @param px the x power table
+   * @param py the y power table
+   * @param pz the z power table
+   * @param table the table (length 64)
+   */
+  static void computePowerTable(double[] px, double[] py, double[] pz, double[] table) {
+    int index = 0;
+    for (int k = 0; k < 4; k++) {
+      for (int j = 0; j < 4; j++) {
+        final double pyz = py[j] * pz[k];
+        table[index] = px[0] * pyz;
+        table[index + 1] = px[1] * pyz;
+        table[index + 2] = px[2] * pyz;
+        table[index + 3] = px[3] * pyz;
+        index += 4;
+      }
+    }
+  }
+
+  /**
+   * Compute the value of the node.
+   *
+   * @param a the node coefficients
+   * @param table the power table
+   * @return the value
+   */
+  static double value(double[] a, double[] table) {
+    double result = 0;
+    for (int i = 0; i < NODE_SIZE; i++) {
+      result += a[i] * table[i];
+    }
+    return result;
+  }
+
+  /**
+   * Compute the value and first-order derivatives of the node.
+   *
+   * @param a the node coefficients
+   * @param table the power table
+   * @param tableX the power table for the x first derivative
+   * @param tableY the power table for the y first derivative
+   * @param tableZ the power table for the z first derivative
+   * @param df the first derivatives (XYZ)
+   * @return the value
+   */
+  static double value(double[] a, double[] table, double[] tableX, double[] tableY,
+      double[] tableZ, double[] df) {
+    double result = 0;
+    double dx = 0;
+    double dy = 0;
+    double dz = 0;
+    for (int i = 0; i < NODE_SIZE; i++) {
+      final double ai = a[i];
+      result += ai * table[i];
+      dx += ai * tableX[i];
+      dy += ai * tableY[i];
+      dz += ai * tableZ[i];
+    }
+    df[0] = dx;
+    df[1] = dy;
+    df[2] = dz;
+    return result;
+  }
+
+  /**
+   * Compute the value, first- and second-order derivatives of the node.
+   *
+   * @param a the node coefficients
+   * @param table the power table
+   * @param tableX the power table for the x first derivative
+   * @param tableY the power table for the y first derivative
+   * @param tableZ the power table for the z first derivative
+   * @param tableXx the power table for the x second derivative
+   * @param tableYy the power table for the y second derivative
+   * @param tableZz the power table for the z second derivative
+   * @param df the first derivatives (XYZ)
+   * @param d2f the second derivatives (XYZ)
+   * @return the value
+   */
+  static double value(double[] a, double[] table, double[] tableX, double[] tableY,
+      double[] tableZ, double[] tableXx, double[] tableYy, double[] tableZz, double[] df,
+      double[] d2f) {
+    double result = 0;
+    double dx = 0;
+    double dy = 0;
+    double dz = 0;
+    double dxx = 0;
+    double dyy = 0;
+    double dzz = 0;
+    for (int i = 0; i < NODE_SIZE; i++) {
+      final double ai = a[i];
+      result += ai * table[i];
+      dx += ai * tableX[i];
+      dy += ai * tableY[i];
+      dz += ai * tableZ[i];
+      dxx += ai * tableXx[i];
+      dyy += ai * tableYy[i];
+      dzz += ai * tableZz[i];
+    }
+    df[0] = dx;
+    df[1] = dy;
+    df[2] = dz;
+    d2f[0] = dxx;
+    d2f[1] = dyy;
+    d2f[2] = dzz;
+    return result;
+  }
+}
@@ -32,6 +32,12 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import uk.ac.sussex.gdsc.core.data.procedures.TrivalueProcedure;
 import uk.ac.sussex.gdsc.core.logging.Ticker;
 import uk.ac.sussex.gdsc.core.logging.TrackProgress;
@@ -43,14 +49,29 @@ import uk.ac.sussex.gdsc.core.math.interpolation.FloatCustomTricubicFunction;
 
 /**
  * Stores a cubic spline data.
+ *
+ * <p>The data is stored either as a tricubic function for each node or using a flat layout of 64
+ * coefficients per node in contiguous primitive buffers (one per z-plane). The flat layout can be
+ * saved to and memory-mapped from a binary file.
  */
 public class CubicSplineData {
+  /** The magic number for the flat layout file format. */
+  private static final int MAGIC = 0x43535044;
+  /** The version of the flat layout file format. */
+  private static final int VERSION = 1;
+  /** The size of the header of the flat layout file format. */
+  private static final int HEADER_SIZE = 32;
+
   /** The maxx. */
   final int maxx;
   /** The maxy. */
   final int maxy;
-  /** The splines. */
-  final CustomTricubicFunction[][] splines;
+  /** The maxz. */
+  final int maxz;
+  /** The splines. This is created on demand for the flat layout. */
+  volatile CustomTricubicFunction[][] splines;
+  /** The coefficients of each z-plane using a flat layout (or null). */
+  final CubicSplineCoefficients[] coefficients;
 
   /**
    * Instantiates a new cubic spline data.
@@ -71,7 +92,9 @@ public class CubicSplineData {
     }
     this.maxx = maxx;
     this.maxy = maxy;
+    this.maxz = splines.length;
     this.splines = splines;
+    coefficients = null;
   }
 
   /**
@@ -85,7 +108,23 @@ public class CubicSplineData {
   private CubicSplineData(int maxx, int maxy, CustomTricubicFunction[][] splines, boolean dummy) {
     this.maxx = maxx;
     this.maxy = maxy;
+    this.maxz = splines.length;
     this.splines = splines;
+    coefficients = null;
+  }
+
+  /**
+   * Instantiates a new cubic spline data using a flat layout.
+   *
+   * @param maxx the maxx
+   * @param maxy the maxy
+   * @param coefficients the coefficients of each z-plane
+   */
+  private CubicSplineData(int maxx, int maxy, CubicSplineCoefficients[] coefficients) {
+    this.maxx = maxx;
+    this.maxy = maxy;
+    this.maxz = coefficients.length;
+    this.coefficients = coefficients;
   }
 
   /**
@@ -98,10 +137,10 @@ public class CubicSplineData {
   public CubicSplineData(CustomTricubicInterpolatingFunction function) {
     maxx = function.getMaxXSplinePosition() + 1;
     maxy = function.getMaxYSplinePosition() + 1;
-    final int maxz = function.getMaxZSplinePosition() + 1;
+    maxz = function.getMaxZSplinePosition() + 1;
 
     final int size = maxx * maxy;
-    splines = new CustomTricubicFunction[maxz][size];
+    final CustomTricubicFunction[][] splines = new CustomTricubicFunction[maxz][size];
 
     for (int z = 0; z < splines.length; z++) {
       for (int y = 0, i = 0; y < maxy; y++) {
@@ -110,6 +149,8 @@ public class CubicSplineData {
         }
       }
     }
+    this.splines = splines;
+    coefficients = null;
   }
 
   /**
@@ -118,9 +159,74 @@ public class CubicSplineData {
    * @return true, if is single precision
    */
   public boolean isSinglePrecision() {
+    if (coefficients != null) {
+      return coefficients[0].isSinglePrecision();
+    }
     return splines[0][0] instanceof FloatCustomTricubicFunction;
   }
 
+  /**
+   * Checks if the data uses a flat layout of coefficients.
+   *
+   * @return true if using a flat layout
+   */
+  public boolean isFlatLayout() {
+    return coefficients != null;
+  }
+
+  /**
+   * Convert the data to a flat layout of 64 coefficients per node in contiguous primitive buffers.
+   * The precision is unchanged. Returns this instance if already using a flat layout.
+   *
+   * <p>A {@link CubicSplineFunction} created using data with a flat layout evaluates directly
+   * against the coefficient buffers.
+   *
+   * @return the data with a flat layout
+   */
+  public CubicSplineData toFlatLayout() {
+    if (coefficients != null) {
+      return this;
+    }
+    final CubicSplineCoefficients[] planes = new CubicSplineCoefficients[maxz];
+    for (int z = 0; z < maxz; z++) {
+      planes[z] = CubicSplineCoefficients.create(splines[z]);
+    }
+    return new CubicSplineData(maxx, maxy, planes);
+  }
+
+  /**
+   * Gets the splines. These are created on demand from the flat layout.
+   *
+   * @return the splines
+   */
+  CustomTricubicFunction[][] getSplines() {
+    CustomTricubicFunction[][] result = splines;
+    if (result == null) {
+      result = createSplines();
+    }
+    return result;
+  }
+
+  /**
+   * Creates the splines from the flat layout.
+   *
+   * @return the splines
+   */
+  private synchronized CustomTricubicFunction[][] createSplines() {
+    CustomTricubicFunction[][] result = splines;
+    if (result == null) {
+      final int size = maxx * maxy;
+      result = new CustomTricubicFunction[maxz][size];
+      for (int z = 0; z < maxz; z++) {
+        for (int i = 0; i < size; i++) {
+          result[z][i] = coefficients[z].getFunction(i);
+        }
+      }
+      splines = result;
+    }
+    return result;
+  }
+
   private static interface SplineWriter {
     void write(DataOutput out, CustomTricubicFunction function) throws IOException;
   }
@@ -196,7 +302,6 @@ public class CubicSplineData {
    */
   public void write(OutputStream outputStream, TrackProgress progress) throws IOException {
     // Write dimensions
-    final int maxz = splines.length;
     final Ticker ticker = Ticker.createStarted(progress, (long) maxx * maxy * maxz, false);
     final BufferedOutputStream buffer = new BufferedOutputStream(outputStream);
     final DataOutput out = new DataOutputStream(buffer);
@@ -206,13 +311,32 @@ public class CubicSplineData {
     // Write precision
     final boolean singlePrecision = isSinglePrecision();
     out.writeBoolean(singlePrecision);
-    final SplineWriter writer =
-        (singlePrecision) ? new FloatSplineWriter() : new DoubleSplineWriter();
     final int size = maxx * maxy;
-    for (int z = 0; z < maxz; z++) {
-      for (int i = 0; i < size; i++) {
-        writer.write(out, splines[z][i]);
-        ticker.tick();
+    if (coefficients != null) {
+      // Write direct from the flat layout
+      final double[] node = new double[CubicSplineCoefficients.NODE_SIZE];
+      for (int z = 0; z < maxz; z++) {
+        final CubicSplineCoefficients plane = coefficients[z];
+        for (int i = 0; i < size; i++) {
+          plane.getNode(i, node);
+          for (final double value : node) {
+            if (singlePrecision) {
+              out.writeFloat((float) value);
+            } else {
+              out.writeDouble(value);
+            }
+          }
+          ticker.tick();
+        }
+      }
+    } else {
+      final SplineWriter writer =
+          (singlePrecision) ? new FloatSplineWriter() : new DoubleSplineWriter();
+      for (int z = 0; z < maxz; z++) {
+        for (int i = 0; i < size; i++) {
+          writer.write(out, splines[z][i]);
+          ticker.tick();
+        }
       }
     }
     buffer.flush();
@@ -291,7 +415,93 @@ public class CubicSplineData {
    * @return the max Z
    */
   public int getMaxZ() {
-    return splines.length;
+    return maxz;
+  }
+
+  /**
+   * Save the data to a binary file using a flat layout in native byte order. The file can be
+   * memory-mapped using {@link #load(Path)}.
+   *
+   * @param path the path
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public void save(Path path) throws IOException {
+    final CubicSplineData flat = toFlatLayout();
+    final boolean singlePrecision = isSinglePrecision();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+      header.putInt(MAGIC).putInt(VERSION).putInt(maxx).putInt(maxy).putInt(maxz)
+          .putInt(singlePrecision ? Float.BYTES : Double.BYTES).putInt(0).putInt(0);
+      header.flip();
+      writeFully(channel, header);
+      for (final CubicSplineCoefficients plane : flat.coefficients) {
+        writeFully(channel, plane.toBytes(ByteOrder.nativeOrder()));
+      }
+    }
+  }
+
+  /**
+   * Write the buffer fully to the channel.
+   *
+   * @param channel the channel
+   * @param buffer the buffer
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Load the data from a binary file saved using {@link #save(Path)}. Each z-plane of coefficients
+   * is memory-mapped read-only so the data is not copied to the heap and the file pages can be
+   * shared between processes.
+   *
+   * @param path the path
+   * @return the tricubic spline data (using a flat layout)
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public static CubicSplineData load(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+      while (header.hasRemaining() && channel.read(header) >= 0) {
+        // Read the header
+      }
+      header.flip();
+      if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+        throw new IOException("Not a cubic spline data file");
+      }
+      if (header.getInt() != VERSION) {
+        throw new IOException("Unsupported cubic spline data file version");
+      }
+      final int maxx = header.getInt();
+      final int maxy = header.getInt();
+      final int maxz = header.getInt();
+      final int bytes = header.getInt();
+      if (maxx < 1 || maxy < 1 || maxz < 1 || (bytes != Float.BYTES && bytes != Double.BYTES)) {
+        throw new IOException("Invalid cubic spline data file header");
+      }
+      final long planeLength = (long) maxx * maxy * CubicSplineCoefficients.NODE_SIZE * bytes;
+      if (planeLength > Integer.MAX_VALUE) {
+        throw new IOException("Cubic spline data z-plane is too large to map");
+      }
+      if (channel.size() != HEADER_SIZE + planeLength * maxz) {
+        throw new IOException("Cubic spline data file is the incorrect size");
+      }
+      final CubicSplineCoefficients[] planes = new CubicSplineCoefficients[maxz];
+      for (int z = 0; z < maxz; z++) {
+        final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+            HEADER_SIZE + z * planeLength, planeLength);
+        mapped.order(ByteOrder.nativeOrder());
+        planes[z] = (bytes == Float.BYTES)
+            ? new CubicSplineCoefficients.FloatCoefficients(mapped.asFloatBuffer())
+            : new CubicSplineCoefficients.DoubleCoefficients(mapped.asDoubleBuffer());
+      }
+      // The mapping remains valid after the channel is closed
+      return new CubicSplineData(maxx, maxy, planes);
+    }
   }
 
   /**
@@ -393,6 +603,7 @@ public class CubicSplineData {
     }
 
     // Write interpolated values
+    final CustomTricubicFunction[][] splines = getSplines();
     for (int z = 0; z <= maxz; z++) {
       final CustomTricubicFunction[] xySplines = splines[zp[z]];
       for (int y = 0; y <= maxy; y++) {
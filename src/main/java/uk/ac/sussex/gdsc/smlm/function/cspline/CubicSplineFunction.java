@@ -100,9 +100,12 @@ public abstract class CubicSplineFunction implements Gradient2Function {
   /** Max size of spline data in the z-dimension. */
   protected final int maxSz;
 
-  /** The tricubic spline packed as Z * YX arrays. */
+  /** The tricubic spline packed as Z * YX arrays. This is null if using a flat layout. */
   protected final CustomTricubicFunction[][] splines;
 
+  /** The tricubic spline coefficients for each z-plane using a flat layout (or null). */
+  final CubicSplineCoefficients[] coefficients;
+
   /** The target range in the x-dimension. */
   protected final int maxx;
 
@@ -302,7 +305,7 @@ public abstract class CubicSplineFunction implements Gradient2Function {
       ix0 = ix - scale * ix1 - scale;
       iy0 = iy - scale * iy1 - scale;
       // Store the xy splines for the z position
-      xySplines = splines[iz];
+      setZPlane(iz);
 
       // Set the working flag for all x
       for (int i = 0, xindex = ix0; i < maxx; i++) {
@@ -331,6 +334,15 @@ public abstract class CubicSplineFunction implements Gradient2Function {
       return true;
     }
 
+    /**
+     * Sets the z-plane of the spline nodes used for evaluation.
+     *
+     * @param iz the z-plane index
+     */
+    void setZPlane(int iz) {
+      xySplines = splines[iz];
+    }
+
     /**
      * Reset for iteration through YX-order.
      */
@@ -431,7 +443,7 @@ public abstract class CubicSplineFunction implements Gradient2Function {
      */
     public double value(int x) {
       yxindex += scale; // pre-increment
-      return (activeX[x]) ? tiByS2 * computeValue(xySplines[yxindex]) : 0;
+      return (activeX[x]) ? tiByS2 * computeNodeValue(yxindex) : 0;
     }
 
     /**
@@ -445,7 +457,7 @@ public abstract class CubicSplineFunction implements Gradient2Function {
     public double value(int x, double[] gradient1) {
       yxindex += scale; // pre-increment
       if (activeX[x]) {
-        final double v = computeValue1(xySplines[yxindex]);
+        final double v = computeNodeValue1(yxindex);
         // Copy the gradients into the correct position and account for the intensity.
         // Negate the gradients as a shift of the position moves the spline the
         // other direction. Also scale the gradients appropriately.
@@ -475,7 +487,7 @@ public abstract class CubicSplineFunction implements Gradient2Function {
     public double value(int x, double[] gradient1, double[] gradient2) {
       yxindex += scale; // pre-increment
       if (activeX[x]) {
-        final double v = computeValue2(xySplines[yxindex]);
+        final double v = computeNodeValue2(yxindex);
         // Copy the gradients into the correct position and account for the intensity.
         // Negate the gradients as a shift of the position moves the spline the
         // other direction. Also scale the gradients appropriately.
@@ -499,6 +511,39 @@ public abstract class CubicSplineFunction implements Gradient2Function {
       return 0;
     }
 
+    /**
+     * Compute the value of the spline node at the given index in the current z-plane.
+     *
+     * @param index the index
+     * @return the value
+     */
+    double computeNodeValue(int index) {
+      return computeValue(xySplines[index]);
+    }
+
+    /**
+     * Compute the value and first-order derivatives of the spline node at the given index in the
+     * current z-plane. The derivatives are stored in {@link TargetSpline#dfda}.
+     *
+     * @param index the index
+     * @return the value
+     */
+    double computeNodeValue1(int index) {
+      return computeValue1(xySplines[index]);
+    }
+
+    /**
+     * Compute the value, first- and second-order derivatives of the spline node at the given index
+     * in the current z-plane. The derivatives are stored in {@link TargetSpline#dfda} and
+     * {@link TargetSpline#d2fda2}.
+     *
+     * @param index the index
+     * @return the value
+     */
+    double computeNodeValue2(int index) {
+      return computeValue2(xySplines[index]);
+    }
+
     /**
      * Compute the value.
      *
@@ -630,6 +675,124 @@ public abstract class CubicSplineFunction implements Gradient2Function {
     }
   }
 
+  /**
+   * Computation of the target spline directly against the flat layout of the spline coefficients.
+   */
+  protected class FlatTargetSpline extends TargetSpline {
+    private final double[] position = new double[3];
+    private final double[] px = new double[4];
+    private final double[] py = new double[4];
+    private final double[] pz = new double[4];
+    private final double[] px1 = new double[4];
+    private final double[] py1 = new double[4];
+    private final double[] pz1 = new double[4];
+    private final double[] px2 = new double[4];
+    private final double[] py2 = new double[4];
+    private final double[] pz2 = new double[4];
+    /** The power products for the current XYZ. These are reused for all nodes of the peak. */
+    private final double[] table = new double[CubicSplineCoefficients.NODE_SIZE];
+    private final double[] tableX = new double[CubicSplineCoefficients.NODE_SIZE];
+    private final double[] tableY = new double[CubicSplineCoefficients.NODE_SIZE];
+    private final double[] tableZ = new double[CubicSplineCoefficients.NODE_SIZE];
+    private final double[] tableXx = new double[CubicSplineCoefficients.NODE_SIZE];
+    private final double[] tableYy = new double[CubicSplineCoefficients.NODE_SIZE];
+    private final double[] tableZz = new double[CubicSplineCoefficients.NODE_SIZE];
+    /** Working space for the coefficients of the current node. */
+    private final double[] node = new double[CubicSplineCoefficients.NODE_SIZE];
+    /** The spline positions for the current XYZ (created on demand). */
+    private final CubicSplinePosition[] positions = new CubicSplinePosition[3];
+    private CubicSplineCoefficients plane;
+
+    @Override
+    void setZPlane(int iz) {
+      plane = coefficients[iz];
+    }
+
+    @Override
+    public void computePowerTable(double x, double y, double z, int order) {
+      position[0] = x;
+      position[1] = y;
+      position[2] = z;
+      positions[0] = positions[1] = positions[2] = null;
+      CubicSplineCoefficients.computePowerTable(x, px);
+      CubicSplineCoefficients.computePowerTable(y, py);
+      CubicSplineCoefficients.computePowerTable(z, pz);
+      CubicSplineCoefficients.computePowerTable(px, py, pz, table);
+      if (order > 0) {
+        CubicSplineCoefficients.computePowerTable1(x, px1);
+        CubicSplineCoefficients.computePowerTable1(y, py1);
+        CubicSplineCoefficients.computePowerTable1(z, pz1);
+        CubicSplineCoefficients.computePowerTable(px1, py, pz, tableX);
+        CubicSplineCoefficients.computePowerTable(px, py1, pz, tableY);
+        CubicSplineCoefficients.computePowerTable(px, py, pz1, tableZ);
+        if (order == 2) {
+          CubicSplineCoefficients.computePowerTable2(x, px2);
+          CubicSplineCoefficients.computePowerTable2(y, py2);
+          CubicSplineCoefficients.computePowerTable2(z, pz2);
+          CubicSplineCoefficients.computePowerTable(px2, py, pz, tableXx);
+          CubicSplineCoefficients.computePowerTable(px, py2, pz, tableYy);
+          CubicSplineCoefficients.computePowerTable(px, py, pz2, tableZz);
+        }
+      }
+    }
+
+    @Override
+    double computeNodeValue(int index) {
+      plane.getNode(index, node);
+      return CubicSplineCoefficients.value(node, table);
+    }
+
+    @Override
+    double computeNodeValue1(int index) {
+      plane.getNode(index, node);
+      return CubicSplineCoefficients.value(node, table, tableX, tableY, tableZ, dfda);
+    }
+
+    @Override
+    double computeNodeValue2(int index) {
+      plane.getNode(index, node);
+      return CubicSplineCoefficients.value(node, table, tableX, tableY, tableZ, tableXx, tableYy,
+          tableZz, dfda, d2fda2);
+    }
+
+    /**
+     * Gets the spline position for the dimension. The position is reused until the next call to
+     * {@link #computePowerTable(double, double, double, int)}.
+     *
+     * @param dimension the dimension
+     * @return the position
+     */
+    private CubicSplinePosition getPosition(int dimension) {
+      CubicSplinePosition p = positions[dimension];
+      if (p == null) {
+        p = new CubicSplinePosition(position[dimension]);
+        positions[dimension] = p;
+      }
+      return p;
+    }
+
+    @Override
+    public double computeValue(CustomTricubicFunction customTricubicFunction) {
+      return customTricubicFunction.value(getPosition(0), getPosition(1), getPosition(2));
+    }
+
+    @Override
+    public double computeValue1(CustomTricubicFunction customTricubicFunction) {
+      return customTricubicFunction.value(getPosition(0), getPosition(1), getPosition(2), dfda);
+    }
+
+    @Override
+    public double computeValue2(CustomTricubicFunction customTricubicFunction) {
+      return customTricubicFunction.value(getPosition(0), getPosition(1), getPosition(2), dfda,
+          d2fda2);
+    }
+
+    @Override
+    public boolean isNodeBoundary(int dimension) {
+      return CustomTricubicFunction.isBoundary(getPosition(dimension));
+    }
+  }
+
   /**
    * Instantiates a new cubic spline function.
    *
@@ -640,12 +803,13 @@ public abstract class CubicSplineFunction implements Gradient2Function {
    *         origin
    */
   public CubicSplineFunction(CubicSplineData splineData, int maxx, int maxy) {
-    this.splines = splineData.splines;
+    this.coefficients = splineData.coefficients;
+    this.splines = (coefficients == null) ? splineData.getSplines() : null;
     this.maxx = (maxx < 1) ? 1 : maxx;
     this.maxy = (maxy < 1) ? 1 : maxy;
     maxSx = splineData.maxx;
     maxSy = splineData.maxy;
-    maxSz = splines.length;
+    maxSz = splineData.maxz;
     // Centre in the middle, assuming the min is zero
     cx = (maxSx / 2.0);
     cy = (maxSy / 2.0);
@@ -668,18 +832,32 @@ public abstract class CubicSplineFunction implements Gradient2Function {
    */
   public CubicSplineFunction(CubicSplineData splineData, int maxx, int maxy, double cx, double cy,
       double cz, int scale) {
-    this.splines = splineData.splines;
+    this.coefficients = splineData.coefficients;
+    this.splines = (coefficients == null) ? splineData.getSplines() : null;
     this.maxx = (maxx < 1) ? 1 : maxx;
     this.maxy = (maxy < 1) ? 1 : maxy;
     maxSx = splineData.maxx;
     maxSy = splineData.maxy;
-    maxSz = splines.length;
+    maxSz = splineData.maxz;
     this.cx = cx;
     this.cy = cy;
     this.cz = cz;
     setScale(scale);
   }
 
+  /**
+   * Creates the target spline used to evaluate a spline at a target position. This uses the flat
+   * layout of the spline coefficients if available, otherwise the precision of the spline nodes.
+   *
+   * @return the target spline
+   */
+  protected TargetSpline createTargetSpline() {
+    if (coefficients != null) {
+      return new FlatTargetSpline();
+    }
+    return (splines[0][0].isSinglePrecision()) ? new FloatTargetSpline() : new DoubleTargetSpline();
+  }
+
   /**
    * Update function bounds.
    */
@@ -138,9 +138,8 @@ public class MultiCubicSplineFunction extends CubicSplineFunction {
     if (targetSplines.length < numberOfSplines) {
       int index = targetSplines.length;
       targetSplines = Arrays.copyOf(targetSplines, numberOfSplines); // Preserve memory space
-      final boolean sp = splines[0][0].isSinglePrecision();
       while (index < numberOfSplines) {
-        targetSplines[index++] = (sp) ? new FloatTargetSpline() : new DoubleTargetSpline();
+        targetSplines[index++] = createTargetSpline();
       }
       working = new TargetSpline[numberOfSplines];
       workingY = new TargetSpline[numberOfSplines];
@@ -56,8 +56,7 @@ public class SingleCubicSplineFunction extends CubicSplineFunction {
    */
   public SingleCubicSplineFunction(CubicSplineData splineData, int maxx, int maxy) {
     super(splineData, maxx, maxy);
-    targetSpline =
-        (splines[0][0].isSinglePrecision()) ? new FloatTargetSpline() : new DoubleTargetSpline();
+    targetSpline = createTargetSpline();
   }
 
   /**
@@ -76,8 +75,7 @@ public class SingleCubicSplineFunction extends CubicSplineFunction {
   public SingleCubicSplineFunction(CubicSplineData splineData, int maxx, int maxy, double cx,
       double cy, double cz, int scale) {
     super(splineData, maxx, maxy, cx, cy, cz, scale);
-    targetSpline =
-        (splines[0][0].isSinglePrecision()) ? new FloatTargetSpline() : new DoubleTargetSpline();
+    targetSpline = createTargetSpline();
   }
 
   @Override
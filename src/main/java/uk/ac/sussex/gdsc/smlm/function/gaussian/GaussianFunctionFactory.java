@@ -36,6 +36,8 @@ import uk.ac.sussex.gdsc.smlm.function.gaussian.erf.SingleFixedErfGaussian2DFunc
 import uk.ac.sussex.gdsc.smlm.function.gaussian.erf.SingleFreeCircularErfGaussian2DFunction;
 import uk.ac.sussex.gdsc.smlm.function.gaussian.erf.SingleNbCircularErfGaussian2DFunction;
 import uk.ac.sussex.gdsc.smlm.function.gaussian.erf.SingleNbFreeCircularErfGaussian2DFunction;
+import uk.ac.sussex.gdsc.smlm.function.gaussian.erf.SparseMultiCircularErfGaussian2DFunction;
+import uk.ac.sussex.gdsc.smlm.function.gaussian.erf.SparseMultiFreeCircularErfGaussian2DFunction;
 
 /**
  * Creates the appropriate Gaussian function.
@@ -122,6 +124,16 @@ public class GaussianFunctionFactory {
    */
   public static final int FIT_ERF_ASTIGMATISM = FIT_BACKGROUND | FIT_Z | FIT_SIGNAL | FIT_ERF;
 
+  /**
+   * Restrict the evaluation of each peak of a multi-peak ERF Gaussian function to a support of k
+   * standard deviations around the centre. This is supported for the circle and free circle
+   * functions with a background. The function is non-smooth at the edge of the support.
+   *
+   * @see SparseMultiCircularErfGaussian2DFunction
+   * @see SparseMultiFreeCircularErfGaussian2DFunction
+   */
+  public static final int FIT_SPARSE = 0x00000400;
+
   // -=-=-=-=-=-=-=-=-=-=-=-=-
   // Flags for simple Gaussian functions.
   // These are evaluated using a single exponential at the centre of the pixel.
@@ -278,11 +290,15 @@ public class GaussianFunctionFactory {
         if ((flags & FIT_BACKGROUND) != 0) {
           // Independent X/Y width
           if ((flags & FIT_Y_WIDTH) != 0) {
-            return new MultiFreeCircularErfGaussian2DFunction(numberOfPeaks, maxx, maxy);
+            return ((flags & FIT_SPARSE) != 0)
+                ? new SparseMultiFreeCircularErfGaussian2DFunction(numberOfPeaks, maxx, maxy)
+                : new MultiFreeCircularErfGaussian2DFunction(numberOfPeaks, maxx, maxy);
           }
           // Combined X/Y width
           if ((flags & FIT_X_WIDTH) != 0) {
-            return new MultiCircularErfGaussian2DFunction(numberOfPeaks, maxx, maxy);
+            return ((flags & FIT_SPARSE) != 0)
+                ? new SparseMultiCircularErfGaussian2DFunction(numberOfPeaks, maxx, maxy)
+                : new MultiCircularErfGaussian2DFunction(numberOfPeaks, maxx, maxy);
           }
           // Z-depth function
           if ((flags & FIT_Z) != 0) {
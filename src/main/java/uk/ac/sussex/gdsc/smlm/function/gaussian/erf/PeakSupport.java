@@ -0,0 +1,224 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.function.gaussian.erf;
+
+import java.util.Arrays;
+import uk.ac.sussex.gdsc.smlm.function.ValueProcedure;
+
+/**
+ * Define the support of each peak of a multi-peak function as a bounding box. The function value
+ * of the peak is treated as zero outside the box.
+ *
+ * <p>The bounds are stored for each peak as [lower, upper) in the x and y dimensions.
+ */
+final class PeakSupport {
+  /** The number of standard deviations from the centre used for the support. */
+  final double range;
+  /** The lower x bound (inclusive). */
+  final int[] xlo;
+  /** The upper x bound (exclusive). */
+  final int[] xhi;
+  /** The lower y bound (inclusive). */
+  final int[] ylo;
+  /** The upper y bound (exclusive). */
+  final int[] yhi;
+
+  /**
+   * Create an instance.
+   *
+   * @param numberOfPeaks the number of peaks
+   * @param range the number of standard deviations from the centre used for the support
+   */
+  PeakSupport(int numberOfPeaks, double range) {
+    this.range = range;
+    xlo = new int[numberOfPeaks];
+    xhi = new int[numberOfPeaks];
+    ylo = new int[numberOfPeaks];
+    yhi = new int[numberOfPeaks];
+  }
+
+  /**
+   * Validate the range.
+   *
+   * @param range the range
+   * @return the range
+   * @throws IllegalArgumentException if the range is not strictly positive
+   */
+  static double validateRange(double range) {
+    if (!(range > 0)) {
+      throw new IllegalArgumentException("Range must be strictly positive: " + range);
+    }
+    return range;
+  }
+
+  /**
+   * Sets the support for the peak. The centre uses the pixel coordinates where pixel i covers the
+   * interval [i, i+1).
+   *
+   * @param n the peak
+   * @param tx the x centre
+   * @param ty the y centre
+   * @param sx the x standard deviation
+   * @param sy the y standard deviation
+   * @param maxx the maximum x
+   * @param maxy the maximum y
+   */
+  void set(int n, double tx, double ty, double sx, double sy, int maxx, int maxy) {
+    xlo[n] = lower(tx - range * sx, maxx);
+    xhi[n] = upper(tx + range * sx, maxx);
+    ylo[n] = lower(ty - range * sy, maxy);
+    yhi[n] = upper(ty + range * sy, maxy);
+  }
+
+  private static int lower(double value, int max) {
+    // Use the full range for invalid values
+    if (!(value > 0)) {
+      return 0;
+    }
+    return (value >= max) ? max : (int) value;
+  }
+
+  private static int upper(double value, int max) {
+    // Use the full range for invalid values
+    if (!(value < max)) {
+      return max;
+    }
+    return (value <= 0) ? 0 : (int) Math.ceil(value);
+  }
+
+  /**
+   * Checks if the peak support includes the x position.
+   *
+   * @param n the peak
+   * @param x the x
+   * @return true if inside the support
+   */
+  boolean containsX(int n, int x) {
+    return x >= xlo[n] && x < xhi[n];
+  }
+
+  /**
+   * Checks if the peak support includes the y position.
+   *
+   * @param n the peak
+   * @param y the y
+   * @return true if inside the support
+   */
+  boolean containsY(int n, int y) {
+    return y >= ylo[n] && y < yhi[n];
+  }
+
+  /**
+   * Set the values of the x-dimension tables outside the support of the peak to zero. Null tables
+   * are ignored.
+   *
+   * @param n the peak
+   * @param maxx the maximum x
+   * @param tables the tables
+   */
+  void clipX(int n, int maxx, double[]... tables) {
+    clip(n * maxx, xlo[n], xhi[n], maxx, tables);
+  }
+
+  /**
+   * Set the values of the y-dimension tables outside the support of the peak to zero. Null tables
+   * are ignored.
+   *
+   * @param n the peak
+   * @param maxy the maximum y
+   * @param tables the tables
+   */
+  void clipY(int n, int maxy, double[]... tables) {
+    clip(n * maxy, ylo[n], yhi[n], maxy, tables);
+  }
+
+  private static void clip(int offset, int lo, int hi, int max, double[][] tables) {
+    for (final double[] table : tables) {
+      if (table != null) {
+        Arrays.fill(table, offset, offset + lo, 0);
+        Arrays.fill(table, offset + hi, offset + max, 0);
+      }
+    }
+  }
+
+  /**
+   * Compute the function values. The value of each peak is accumulated over the support of the
+   * peak.
+   *
+   * @param tb the background
+   * @param tI the intensity of each peak
+   * @param deltaEx the x-dimension integral tables
+   * @param deltaEy the y-dimension integral tables
+   * @param maxx the maximum x
+   * @param maxy the maximum y
+   * @param values the values (length maxx * maxy)
+   */
+  // CHECKSTYLE.OFF: ParameterName
+  void computeValues(double tb, double[] tI, double[] deltaEx, double[] deltaEy, int maxx,
+      int maxy, double[] values) {
+    // CHECKSTYLE.ON: ParameterName
+    Arrays.fill(values, 0, maxx * maxy, tb);
+    for (int n = 0; n < tI.length; n++) {
+      final int xoffset = n * maxx;
+      final int yoffset = n * maxy;
+      for (int y = ylo[n]; y < yhi[n]; y++) {
+        final double tI_deltaEy = tI[n] * deltaEy[yoffset + y];
+        for (int x = xlo[n], i = y * maxx + x; x < xhi[n]; x++, i++) {
+          values[i] += tI_deltaEy * deltaEx[xoffset + x];
+        }
+      }
+    }
+  }
+
+  /**
+   * Pass the function values to the procedure.
+   *
+   * @param values the values
+   * @param size the size
+   * @param procedure the procedure
+   */
+  static void forEach(double[] values, int size, ValueProcedure procedure) {
+    for (int i = 0; i < size; i++) {
+      procedure.execute(values[i]);
+    }
+  }
+
+  /**
+   * Find the peaks with a support that includes the y position.
+   *
+   * @param y the y
+   * @param active the active peaks
+   * @return the number of active peaks
+   */
+  int getActivePeaks(int y, int[] active) {
+    int count = 0;
+    for (int n = 0; n < ylo.length; n++) {
+      if (containsY(n, y)) {
+        active[count++] = n;
+      }
+    }
+    return count;
+  }
+}
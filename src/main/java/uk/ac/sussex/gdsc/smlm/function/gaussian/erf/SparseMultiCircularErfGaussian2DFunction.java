@@ -0,0 +1,213 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.function.gaussian.erf;
+
+import java.util.Arrays;
+import uk.ac.sussex.gdsc.smlm.function.Gradient1Procedure;
+import uk.ac.sussex.gdsc.smlm.function.ValueProcedure;
+import uk.ac.sussex.gdsc.smlm.function.gaussian.Gaussian2DFunction;
+
+/**
+ * Evaluates a 2-dimensional Gaussian function for multiple peaks. The evaluation of each peak is
+ * restricted to a bounding box of k standard deviations around the centre (the support). The peak
+ * is zero outside the support.
+ *
+ * <p>The function values are accumulated per peak over the support and the gradients are computed
+ * only for the peaks whose support includes the current row. This reduces the cost for large fit
+ * regions containing many peaks from O(P*N) towards O(N + P*k^2*s^2), for P peaks, N pixels and
+ * standard deviation s.
+ *
+ * <p>The second order gradients are evaluated over the entire region using the clipped tables.
+ * The {@link #integral(double[])} is the analytic integral of the unclipped function.
+ *
+ * <p>Note: The clip at k standard deviations makes the function non-smooth. The function and its
+ * gradients are discontinuous when a pixel boundary enters or leaves the support as the peak
+ * position or width changes. The discontinuity is of the order of the tail mass of the Gaussian
+ * beyond k standard deviations and is negligible for the default range. A small range may
+ * prevent convergence of a gradient based fitter.
+ *
+ * @see uk.ac.sussex.gdsc.smlm.function.gaussian.GaussianFunctionFactory#FIT_SPARSE
+ */
+public class SparseMultiCircularErfGaussian2DFunction
+    extends MultiCircularErfGaussian2DFunction {
+  /** The default number of standard deviations from the centre used for the support. */
+  public static final double DEFAULT_RANGE = 5;
+
+  /** The peak support. */
+  private final PeakSupport support;
+
+  /** Working space for the function values. */
+  private double[] values;
+
+  /**
+   * Constructor using the default range.
+   *
+   * @param numberOfPeaks The number of peaks
+   * @param maxx The maximum x value of the 2-dimensional data (used to unpack a linear index into
+   *        coordinates)
+   * @param maxy The maximum y value of the 2-dimensional data (used to unpack a linear index into
+   *        coordinates)
+   */
+  public SparseMultiCircularErfGaussian2DFunction(int numberOfPeaks, int maxx, int maxy) {
+    this(numberOfPeaks, maxx, maxy, DEFAULT_RANGE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param numberOfPeaks The number of peaks
+   * @param maxx The maximum x value of the 2-dimensional data (used to unpack a linear index into
+   *        coordinates)
+   * @param maxy The maximum y value of the 2-dimensional data (used to unpack a linear index into
+   *        coordinates)
+   * @param range The number of standard deviations from the centre used for the support
+   * @throws IllegalArgumentException if the range is not strictly positive
+   */
+  public SparseMultiCircularErfGaussian2DFunction(int numberOfPeaks, int maxx, int maxy,
+      double range) {
+    super(numberOfPeaks, maxx, maxy);
+    support = new PeakSupport(numberOfPeaks, PeakSupport.validateRange(range));
+  }
+
+  /**
+   * Gets the number of standard deviations from the centre used for the support.
+   *
+   * @return the range
+   */
+  public double getRange() {
+    return support.range;
+  }
+
+  @Override
+  public ErfGaussian2DFunction copy() {
+    return new SparseMultiCircularErfGaussian2DFunction(numberOfPeaks, maxx, maxy,
+        support.range);
+  }
+
+  @Override
+  public void initialise0(double[] a) {
+    super.initialise0(a);
+    clip(a, new double[][] {deltaEx}, new double[][] {deltaEy});
+  }
+
+  @Override
+  public void initialise1(double[] a) {
+    super.initialise1(a);
+    clip(a, new double[][] {deltaEx, duDtx, duDtsx}, new double[][] {deltaEy, duDty, duDtsy});
+  }
+
+  @Override
+  public void initialise2(double[] a) {
+    super.initialise2(a);
+    clip(a, new double[][] {deltaEx, duDtx, duDtsx, d2uDtx2, d2uDtsx2},
+        new double[][] {deltaEy, duDty, duDtsy, d2uDty2, d2uDtsy2});
+  }
+
+  @Override
+  public void initialiseExtended2(double[] a) {
+    super.initialiseExtended2(a);
+    clip(a, new double[][] {deltaEx, duDtx, duDtsx, d2uDtx2, d2uDtsx2, d2deltaExDtsxDx},
+        new double[][] {deltaEy, duDty, duDtsy, d2uDty2, d2uDtsy2, d2deltaEyDtsyDy});
+  }
+
+  /**
+   * Compute the support of each peak and set the tables to zero outside the support.
+   *
+   * @param a the parameters
+   * @param xtables the x-dimension tables
+   * @param ytables the y-dimension tables
+   */
+  private void clip(double[] a, double[][] xtables, double[][] ytables) {
+    for (int n = 0, i = 0; n < numberOfPeaks; n++, i += PARAMETERS_PER_PEAK) {
+      // Offset by 0.5 to match the tables
+      final double tx = a[i + Gaussian2DFunction.X_POSITION] + 0.5;
+      final double ty = a[i + Gaussian2DFunction.Y_POSITION] + 0.5;
+      final double s = Math.abs(a[i + Gaussian2DFunction.X_SD]);
+      support.set(n, tx, ty, s, s, maxx, maxy);
+      support.clipX(n, maxx, xtables);
+      support.clipY(n, maxy, ytables);
+    }
+  }
+
+  @Override
+  public void forEach(ValueProcedure procedure) {
+    final int size = size();
+    if (values == null) {
+      values = new double[size];
+    }
+    support.computeValues(tb, tI, deltaEx, deltaEy, maxx, maxy, values);
+    PeakSupport.forEach(values, size, procedure);
+  }
+
+  @Override
+  public double[] computeValues(double[] variables) {
+    initialise0(variables);
+    final double[] result = new double[size()];
+    support.computeValues(tb, tI, deltaEx, deltaEy, maxx, maxy, result);
+    return result;
+  }
+
+  @Override
+  public void forEach(Gradient1Procedure procedure) {
+    final double[] duda = new double[getNumberOfGradients()];
+    duda[0] = 1.0;
+    final int[] active = new int[numberOfPeaks];
+    for (int y = 0; y < maxy; y++) {
+      // Zero the gradients of peaks that are no longer active
+      for (int n = 0; n < numberOfPeaks; n++) {
+        if (y == support.yhi[n]) {
+          final int a = 1 + n * 4;
+          Arrays.fill(duda, a, a + 4, 0);
+        }
+      }
+      final int count = support.getActivePeaks(y, active);
+      // Zero the gradients of active peaks from the end of the previous row
+      for (int k = 0; k < count; k++) {
+        final int a = 1 + active[k] * 4;
+        Arrays.fill(duda, a, a + 4, 0);
+      }
+      for (int x = 0; x < maxx; x++) {
+        double value = tb;
+        for (int k = 0; k < count; k++) {
+          final int n = active[k];
+          int a = 1 + n * 4;
+          if (support.containsX(n, x)) {
+            final int xx = n * maxx + x;
+            final int yy = n * maxy + y;
+            duda[a] = deltaEx[xx] * deltaEy[yy];
+            value += tI[n] * duda[a++];
+            duda[a++] = duDtx[xx] * deltaEy[yy];
+            duda[a++] = duDty[yy] * deltaEx[xx];
+            duda[a] = duDtsx[xx] * deltaEy[yy] + duDtsy[yy] * deltaEx[xx];
+          } else if (x == support.xhi[n]) {
+            // Zero the gradients after the support
+            Arrays.fill(duda, a, a + 4, 0);
+          }
+        }
+        procedure.execute(value, duda);
+      }
+    }
+  }
+}
@@ -0,0 +1,499 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.ij.plugins;
+
+import ij.Prefs;
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import uk.ac.sussex.gdsc.core.ij.ImageJUtils;
+import uk.ac.sussex.gdsc.core.ij.SimpleImageJTrackProgress;
+import uk.ac.sussex.gdsc.core.logging.NullTrackProgress;
+import uk.ac.sussex.gdsc.core.logging.TrackProgress;
+import uk.ac.sussex.gdsc.core.logging.TrackProgressAdaptor;
+import uk.ac.sussex.gdsc.core.utils.LocalList;
+import uk.ac.sussex.gdsc.core.utils.MathUtils;
+import uk.ac.sussex.gdsc.core.utils.TextUtils;
+import uk.ac.sussex.gdsc.core.utils.ValidationUtils;
+import uk.ac.sussex.gdsc.core.utils.concurrent.ConcurrencyUtils;
+import uk.ac.sussex.gdsc.smlm.data.config.ResultsProtos.ResultsFileFormat;
+import uk.ac.sussex.gdsc.smlm.data.config.ResultsProtos.ResultsImageType;
+import uk.ac.sussex.gdsc.smlm.data.config.ResultsProtos.ResultsSettings;
+import uk.ac.sussex.gdsc.smlm.engine.FitEngineConfiguration;
+import uk.ac.sussex.gdsc.smlm.results.ImageSource;
+
+/**
+ * Fit a batch of image sources without user interaction using {@link PeakFit}.
+ *
+ * <p>Each source is fitted using a copy of the template configuration. The results are streamed
+ * to a binary results file in the output directory named using the source name. The configuration
+ * is parsed once and the fitting code is shared across the batch; this avoids the repeated set-up
+ * of running a macro for each image.
+ *
+ * <p>Sources can be processed concurrently. The total thread budget, and the total pre-processing
+ * thread budget, are divided evenly between the sources that are processed at the same time. The
+ * pre-processing threads are set explicitly for each source; the saved PeakFit settings are not
+ * used. Sources must have unique names to avoid overwriting results.
+ *
+ * <p>Each source reports progress to the batch which shows the aggregate progress of all sources.
+ * The ImageJ progress bar is not updated directly by each source.
+ */
+public class BatchPeakFit {
+  private final FitEngineConfiguration config;
+  private final ResultsSettings resultsSettings;
+  private int threads = Prefs.getThreads();
+  private int preprocessThreads;
+  private int concurrentSources = 1;
+  private boolean silent;
+  private TrackProgress progress = SimpleImageJTrackProgress.getInstance();
+
+  /**
+   * Fit a single source.
+   */
+  @FunctionalInterface
+  interface SourceFitter {
+    /**
+     * Fit the source.
+     *
+     * @param source the source
+     * @param numberOfThreads the number of threads
+     * @param numberOfPreprocessThreads the number of pre-processing threads
+     * @param progress the progress tracker for the source
+     * @return the result
+     */
+    Result fit(ImageSource source, int numberOfThreads, int numberOfPreprocessThreads,
+        TrackProgress progress);
+  }
+
+  /**
+   * Aggregate the progress of each source into the progress of the batch.
+   */
+  private static class BatchProgress {
+    final TrackProgress progress;
+    /** The progress fraction of each source. */
+    final double[] fractions;
+    double sum;
+    int done;
+
+    BatchProgress(TrackProgress progress, int size) {
+      this.progress = progress;
+      fractions = new double[size];
+    }
+
+    /**
+     * Update the progress of the source.
+     *
+     * @param index the source index
+     * @param fraction the fraction complete
+     */
+    synchronized void update(int index, double fraction) {
+      final double value = MathUtils.clip(0, 1, fraction);
+      // Progress cannot go backwards
+      if (value > fractions[index]) {
+        sum += value - fractions[index];
+        fractions[index] = value;
+        progress.progress(sum / fractions.length);
+      }
+    }
+
+    /**
+     * Mark the source as complete.
+     *
+     * @param index the source index
+     * @param name the source name
+     */
+    synchronized void complete(int index, String name) {
+      update(index, 1);
+      done++;
+      progress.status("Fitted %s (%d / %d)", name, done, fractions.length);
+    }
+
+    /**
+     * Create the progress tracker for the source.
+     *
+     * @param index the source index
+     * @return the progress tracker
+     */
+    TrackProgress create(int index) {
+      return new TrackProgressAdaptor() {
+        @Override
+        public void progress(double fraction) {
+          update(index, fraction);
+        }
+
+        @Override
+        public void progress(long position, long total) {
+          update(index, (double) position / total);
+        }
+
+        @Override
+        public boolean isProgress() {
+          return true;
+        }
+      };
+    }
+  }
+
+  /**
+   * The result of fitting a single source.
+   */
+  public static class Result {
+    private final String name;
+    private final boolean success;
+    private final int frames;
+    private final int size;
+    private final long time;
+    private final long runTime;
+
+    /**
+     * Create an instance.
+     *
+     * @param name the name
+     * @param success the success flag
+     * @param frames the frames
+     * @param size the size
+     * @param time the time
+     * @param runTime the run time
+     */
+    Result(String name, boolean success, int frames, int size, long time, long runTime) {
+      this.name = name;
+      this.success = success;
+      this.frames = frames;
+      this.size = size;
+      this.time = time;
+      this.runTime = runTime;
+    }
+
+    /**
+     * Gets the source name.
+     *
+     * @return the name
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Checks if the source was successfully initialised for fitting.
+     *
+     * @return true if successful
+     */
+    public boolean isSuccess() {
+      return success;
+    }
+
+    /**
+     * Gets the number of frames in the source.
+     *
+     * @return the frames
+     */
+    public int getFrames() {
+      return frames;
+    }
+
+    /**
+     * Gets the total number of localisations.
+     *
+     * @return the size
+     */
+    public int getSize() {
+      return size;
+    }
+
+    /**
+     * Gets the total fitting time in nanoseconds.
+     *
+     * @return the time
+     */
+    public long getTime() {
+      return time;
+    }
+
+    /**
+     * Gets the total run time in nanoseconds. This includes reading the image source.
+     *
+     * @return the run time
+     */
+    public long getRunTime() {
+      return runTime;
+    }
+
+    /**
+     * Gets the throughput in frames per second using the run time.
+     *
+     * @return the frames per second
+     */
+    public double getFramesPerSecond() {
+      return (runTime > 0) ? frames * 1e9 / runTime : 0;
+    }
+  }
+
+  /**
+   * Create an instance.
+   *
+   * <p>The results settings are updated to write binary results files to the output directory. No
+   * other result outputs are used.
+   *
+   * @param config the template fitting configuration
+   * @param resultsSettings the results settings (can be null)
+   * @param outputDirectory the output directory
+   * @throws IllegalArgumentException if the output directory does not exist
+   */
+  public BatchPeakFit(FitEngineConfiguration config, ResultsSettings resultsSettings,
+      String outputDirectory) {
+    ValidationUtils.checkArgument(new File(outputDirectory).isDirectory(),
+        "Output directory does not exist: %s", outputDirectory);
+    this.config = config;
+    final ResultsSettings.Builder builder = (resultsSettings == null)
+        ? ResultsSettings.newBuilder()
+        : resultsSettings.toBuilder();
+    builder.setLogProgress(false);
+    builder.getResultsFileSettingsBuilder().setFileFormat(ResultsFileFormat.BINARY)
+        .setResultsDirectory(outputDirectory);
+    builder.getResultsImageSettingsBuilder().setImageType(ResultsImageType.DRAW_NONE);
+    builder.getResultsTableSettingsBuilder().setShowTable(false);
+    builder.getResultsInMemorySettingsBuilder().setInMemory(false);
+    this.resultsSettings = builder.build();
+  }
+
+  /**
+   * Fit the sources. Sources are processed in order.
+   *
+   * @param sources the sources
+   * @return the results for each source
+   * @throws IllegalArgumentException if the source names are not unique
+   */
+  public Result[] run(List<? extends ImageSource> sources) {
+    return run(sources, this::run);
+  }
+
+  /**
+   * Fit the sources using the fitter. Sources are started in order.
+   *
+   * @param sources the sources
+   * @param fitter the fitter
+   * @return the results for each source
+   * @throws IllegalArgumentException if the source names are not unique
+   */
+  Result[] run(List<? extends ImageSource> sources, SourceFitter fitter) {
+    checkUniqueNames(sources);
+    final Result[] results = new Result[sources.size()];
+    final BatchProgress batchProgress = new BatchProgress(progress, results.length);
+    final int workers = Math.min(concurrentSources, results.length);
+    if (workers <= 1) {
+      for (int i = 0; i < results.length; i++) {
+        results[i] = run(sources.get(i), i, threads, preprocessThreads, fitter, batchProgress);
+      }
+      return results;
+    }
+
+    // Divide the thread budget between the concurrent sources
+    final int threadsPerSource = Math.max(1, threads / workers);
+    final int preprocessThreadsPerSource = preprocessThreads / workers;
+    final ExecutorService executor = Executors.newFixedThreadPool(workers);
+    try {
+      final List<Future<?>> futures = new LocalList<>(results.length);
+      for (int i = 0; i < results.length; i++) {
+        final int index = i;
+        futures.add(executor.submit(() -> results[index] = run(sources.get(index), index,
+            threadsPerSource, preprocessThreadsPerSource, fitter, batchProgress)));
+      }
+      ConcurrencyUtils.waitForCompletionUnchecked(futures);
+    } finally {
+      executor.shutdown();
+    }
+    return results;
+  }
+
+  /**
+   * Check the source names are unique. The name is used for the results file.
+   *
+   * @param sources the sources
+   * @throws IllegalArgumentException if the source names are not unique
+   */
+  private static void checkUniqueNames(List<? extends ImageSource> sources) {
+    final Set<String> names = new HashSet<>();
+    for (final ImageSource source : sources) {
+      ValidationUtils.checkArgument(names.add(source.getName()), "Duplicate source name: %s",
+          source.getName());
+    }
+  }
+
+  /**
+   * Fit the source and record the progress.
+   *
+   * @param source the source
+   * @param index the source index
+   * @param numberOfThreads the number of threads
+   * @param numberOfPreprocessThreads the number of pre-processing threads
+   * @param fitter the fitter
+   * @param batchProgress the batch progress
+   * @return the result
+   */
+  private static Result run(ImageSource source, int index, int numberOfThreads,
+      int numberOfPreprocessThreads, SourceFitter fitter, BatchProgress batchProgress) {
+    final Result result = fitter.fit(source, numberOfThreads, numberOfPreprocessThreads,
+        batchProgress.create(index));
+    batchProgress.complete(index, source.getName());
+    return result;
+  }
+
+  /**
+   * Fit the source.
+   *
+   * @param source the source
+   * @param numberOfThreads the number of threads
+   * @param numberOfPreprocessThreads the number of pre-processing threads
+   * @param sourceProgress the progress tracker for the source
+   * @return the result
+   */
+  private Result run(ImageSource source, int numberOfThreads, int numberOfPreprocessThreads,
+      TrackProgress sourceProgress) {
+    final PeakFit peakFit = new PeakFit(config.createCopy(), resultsSettings);
+    peakFit.setSilent(true);
+    peakFit.setNumberOfThreads(numberOfThreads);
+    peakFit.setNumberOfPreprocessThreads(numberOfPreprocessThreads);
+    peakFit.setTrackProgress(sourceProgress);
+    if (!peakFit.initialise(source, null, false)) {
+      if (!silent) {
+        ImageJUtils.log("%s : Failed to initialise", source.getName());
+      }
+      return new Result(source.getName(), false, 0, 0, 0, 0);
+    }
+    final int frames = source.getFrames();
+    peakFit.run();
+    final Result result = new Result(source.getName(), true, frames, peakFit.getSize(),
+        peakFit.getTime(), peakFit.getRunTime());
+    if (!silent) {
+      ImageJUtils.log("%s : %s, %s. Fitting time = %s. Run time = %s (%s frames/s)",
+          result.getName(), TextUtils.pleural(frames, "frame"),
+          TextUtils.pleural(result.getSize(), "localisation"),
+          TextUtils.nanosToString(result.getTime()), TextUtils.nanosToString(result.getRunTime()),
+          MathUtils.rounded(result.getFramesPerSecond()));
+    }
+    return result;
+  }
+
+  /**
+   * Gets the total number of fitting threads.
+   *
+   * @return the threads
+   */
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * Sets the total number of fitting threads. This is divided between the concurrent sources.
+   *
+   * @param threads the new threads
+   */
+  public void setThreads(int threads) {
+    ValidationUtils.checkStrictlyPositive(threads, "threads");
+    this.threads = threads;
+  }
+
+  /**
+   * Gets the total number of pre-processing threads.
+   *
+   * @return the pre-processing threads
+   */
+  public int getPreprocessThreads() {
+    return preprocessThreads;
+  }
+
+  /**
+   * Sets the total number of pre-processing threads. This is divided between the concurrent
+   * sources; a source with no pre-processing threads does not use a fitting pipeline. The default
+   * is zero.
+   *
+   * @param preprocessThreads the new pre-processing threads
+   */
+  public void setPreprocessThreads(int preprocessThreads) {
+    ValidationUtils.checkPositive(preprocessThreads, "preprocessThreads");
+    this.preprocessThreads = preprocessThreads;
+  }
+
+  /**
+   * Gets the number of sources to process concurrently.
+   *
+   * @return the concurrent sources
+   */
+  public int getConcurrentSources() {
+    return concurrentSources;
+  }
+
+  /**
+   * Sets the number of sources to process concurrently.
+   *
+   * @param concurrentSources the new concurrent sources
+   */
+  public void setConcurrentSources(int concurrentSources) {
+    ValidationUtils.checkStrictlyPositive(concurrentSources, "concurrentSources");
+    this.concurrentSources = concurrentSources;
+  }
+
+  /**
+   * Checks if is silent. If true, do not log the result for each source.
+   *
+   * @return true, if is silent
+   */
+  public boolean isSilent() {
+    return silent;
+  }
+
+  /**
+   * Sets the silent option. If true, do not log the result for each source.
+   *
+   * @param silent the new silent
+   */
+  public void setSilent(boolean silent) {
+    this.silent = silent;
+  }
+
+  /**
+   * Gets the progress tracker for the batch.
+   *
+   * @return the progress tracker
+   */
+  public TrackProgress getTrackProgress() {
+    return progress;
+  }
+
+  /**
+   * Sets the progress tracker for the batch. This receives the aggregate progress of all the
+   * sources and a status message as each source completes. The default uses the ImageJ progress
+   * bar.
+   *
+   * @param progress the new progress tracker
+   */
+  public void setTrackProgress(TrackProgress progress) {
+    this.progress = NullTrackProgress.createIfNull(progress);
+  }
+}
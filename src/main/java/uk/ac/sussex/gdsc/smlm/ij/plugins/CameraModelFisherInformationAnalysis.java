@@ -57,6 +57,7 @@ import uk.ac.sussex.gdsc.smlm.data.config.FisherProtos.PoissonFisherInformationC
 import uk.ac.sussex.gdsc.smlm.data.config.FisherProtos.PoissonFisherInformationData;
 import uk.ac.sussex.gdsc.smlm.data.config.GUIProtos.CameraModelFisherInformationAnalysisSettings;
 import uk.ac.sussex.gdsc.smlm.function.BasePoissonFisherInformation;
+import uk.ac.sussex.gdsc.smlm.function.FisherInformationCache;
 import uk.ac.sussex.gdsc.smlm.function.HalfPoissonFisherInformation;
 import uk.ac.sussex.gdsc.smlm.function.InterpolatedPoissonFisherInformation;
 import uk.ac.sussex.gdsc.smlm.function.PoissonFisherInformation;
@@ -79,9 +80,6 @@ public class CameraModelFisherInformationAnalysis implements PlugIn {
 
   private static final String[] POINT_OPTION = {"None", "X", "Circle", "Box", "Cross"};
 
-  /** The maximum number of fisher information curves to save to file. */
-  private static final int MAX_DATA_TO_FILE = 10;
-
   private static final CameraType[] cameraTypeValues = CameraType.values();
 
   private static final String[] cameraTypes = SettingsManager.getNames((Object[]) cameraTypeValues);
@@ -92,12 +90,12 @@ public class CameraModelFisherInformationAnalysis implements PlugIn {
   private static final boolean debug = System.getProperty("gdsc.smlm.debug") != null;
 
   static {
-    final PoissonFisherInformationCache cacheData = new SettingsManager.ConfigurationReader<>(
-        PoissonFisherInformationCache.getDefaultInstance()).read();
-    if (cacheData != null) {
-      for (final PoissonFisherInformationData data : cacheData.getDataList()) {
-        cache.put(new FiKey(data), data);
-      }
+    // The stored curves are shared with the global cache which owns the settings file
+    final FisherInformationCache fisherCache = FisherInformationCache.getInstance();
+    fisherCache.setCacheFile(
+        SettingsManager.getSettingsFile(PoissonFisherInformationCache.class).toPath());
+    for (final PoissonFisherInformationData data : fisherCache.getData().getDataList()) {
+      cache.put(new FiKey(data), data);
     }
   }
 
@@ -170,12 +168,6 @@ public class CameraModelFisherInformationAnalysis implements PlugIn {
    * Class for hashing the Fisher information settings.
    */
   private static class FiKey {
-    /**
-     * The time stamp. This is not part of the hashcode. It is used to ensure only the latest
-     * computations are saved to disk.
-     */
-    final long timeStamp = System.currentTimeMillis();
-
     final int type;
     final double gain;
     final double noise;
@@ -306,26 +298,11 @@ public class CameraModelFisherInformationAnalysis implements PlugIn {
     }
     cache.put(key, data);
 
-    // Also save EM-CCD data to file
-    if (type == CameraType.EM_CCD) {
-      final int t = type.ordinal();
-      // Get the EM-CCD keys
-      final LocalList<FiKey> list = new LocalList<>(cache.size());
-      for (final FiKey k : cache.keySet()) {
-        if (k.type == t) {
-          list.add(k);
-        }
-      }
-      if (list.size() > MAX_DATA_TO_FILE) {
-        // Sort by age - Youngest first
-        list.sort((o1, o2) -> Long.compare(o2.timeStamp, o1.timeStamp));
-      }
-      final PoissonFisherInformationCache.Builder cacheData =
-          PoissonFisherInformationCache.newBuilder();
-      for (int i = Math.min(list.size(), MAX_DATA_TO_FILE); i-- > 0;) {
-        cacheData.addData(cache.get(list.unsafeGet(i)));
-      }
-      SettingsManager.writeSettings(cacheData);
+    // Save to file using the global cache
+    if (FisherInformationCache.CameraType.forNumber(key.type) != null) {
+      final FisherInformationCache fisherCache = FisherInformationCache.getInstance();
+      fisherCache.putData(data);
+      fisherCache.flush();
     }
   }
 
@@ -70,6 +70,7 @@ import uk.ac.sussex.gdsc.core.ij.HistogramPlot;
 import uk.ac.sussex.gdsc.core.ij.HistogramPlot.HistogramPlotBuilder;
 import uk.ac.sussex.gdsc.core.ij.ImageJTrackProgress;
 import uk.ac.sussex.gdsc.core.ij.ImageJUtils;
+import uk.ac.sussex.gdsc.core.ij.SeriesOpener;
 import uk.ac.sussex.gdsc.core.ij.gui.ExtendedGenericDialog;
 import uk.ac.sussex.gdsc.core.ij.io.CustomTiffEncoder;
 import uk.ac.sussex.gdsc.core.ij.plugin.WindowOrganiser;
@@ -129,6 +130,7 @@ public class CmosAnalysis implements PlugIn {
     String modelName;
     boolean rollingAlgorithm;
     boolean reuseProcessedData;
+    boolean parallelFileReading;
     double offset;
     double variance;
     double gain;
@@ -180,6 +182,7 @@ public class CmosAnalysis implements PlugIn {
       modelName = source.modelName;
       rollingAlgorithm = source.rollingAlgorithm;
       reuseProcessedData = source.reuseProcessedData;
+      parallelFileReading = source.parallelFileReading;
       offset = source.offset;
       variance = source.variance;
       gain = source.gain;
@@ -431,20 +434,126 @@ public class CmosAnalysis implements PlugIn {
       if (bitDepth == 0) {
         bitDepth = ImageJUtils.getBitDepth(pixels);
       }
-      // Most likely first
-      if (bitDepth == 16) {
-        moment.addUnsigned((short[]) pixels);
-      } else if (bitDepth == 32) {
-        moment.add((float[]) pixels);
-      } else if (bitDepth == 8) {
-        moment.addUnsigned((byte[]) pixels);
-      } else {
-        throw new IllegalStateException("Unsupported bit depth");
-      }
+      add(moment, pixels, bitDepth);
       ticker.tick();
     }
   }
 
+  /**
+   * Used to allow multi-threading of the analysis by reading a contiguous range of the image files
+   * in the series. Each worker reads its own files and accumulates a private moment that is merged
+   * when all workers have finished.
+   */
+  private static class ShardWorker implements Runnable {
+    final Ticker ticker;
+    final SeriesImageSource source;
+    final String path;
+    final int width;
+    final int height;
+    final ArrayMoment moment;
+    /** The first frame if already read from the source; otherwise the source is opened. */
+    Object pixels;
+    volatile boolean finished;
+    volatile String errorMessage;
+
+    ShardWorker(Ticker ticker, SeriesImageSource source, Object pixels, String path, int width,
+        int height, ArrayMoment moment) {
+      this.ticker = ticker;
+      this.source = source;
+      this.pixels = pixels;
+      this.path = path;
+      this.width = width;
+      this.height = height;
+      this.moment = moment.newInstance();
+    }
+
+    @Override
+    public void run() {
+      try {
+        Object next = pixels;
+        pixels = null;
+        if (next == null) {
+          if (!source.open()) {
+            errorMessage = "Failed to open image series: " + path;
+            return;
+          }
+          next = source.nextRaw();
+        }
+        if (width != source.getWidth() || height != source.getHeight()) {
+          errorMessage = "Image width/height mismatch in image series: " + path
+              + String.format("\n \nExpected %dx%d, Found %dx%d", width, height,
+                  source.getWidth(), source.getHeight());
+          return;
+        }
+        int bitDepth = 0;
+        for (; next != null && !finished; next = source.nextRaw()) {
+          if (ImageJUtils.isInterrupted()) {
+            break;
+          }
+          if (bitDepth == 0) {
+            bitDepth = ImageJUtils.getBitDepth(next);
+          }
+          add(moment, next, bitDepth);
+          ticker.tick();
+        }
+      } finally {
+        source.close();
+        finished = true;
+      }
+    }
+  }
+
+  /**
+   * Adds the pixels to the moment.
+   *
+   * @param moment the moment
+   * @param pixels the pixels
+   * @param bitDepth the bit depth
+   * @throws IllegalStateException If the bit depth is not supported
+   */
+  private static void add(ArrayMoment moment, Object pixels, int bitDepth) {
+    // Most likely first
+    if (bitDepth == 16) {
+      moment.addUnsigned((short[]) pixels);
+    } else if (bitDepth == 32) {
+      moment.add((float[]) pixels);
+    } else if (bitDepth == 8) {
+      moment.addUnsigned((byte[]) pixels);
+    } else {
+      throw new IllegalStateException("Unsupported bit depth");
+    }
+  }
+
+  /**
+   * Split the files into contiguous shards with approximately equal total size. The shards are
+   * returned as the index of the first file of each shard followed by the total number of files,
+   * i.e. shard {@code i} contains files {@code [shards[i], shards[i+1])}.
+   *
+   * @param sizes the file sizes
+   * @param numberOfShards the maximum number of shards
+   * @return the shard boundaries
+   */
+  static int[] createShards(long[] sizes, int numberOfShards) {
+    final int n = Math.max(1, Math.min(numberOfShards, sizes.length));
+    long total = 0;
+    for (final long size : sizes) {
+      total += size;
+    }
+    final int[] shards = new int[n + 1];
+    int shard = 1;
+    long sum = 0;
+    for (int i = 0; i < sizes.length && shard < n; i++) {
+      sum += sizes[i];
+      // Close the shard when the cumulative size reaches the target for the shard.
+      // Ensure enough files remain for the remaining shards.
+      if ((double) sum * n >= (double) total * shard || sizes.length - (i + 1) == n - shard) {
+        shards[shard++] = i + 1;
+      }
+    }
+    shards[n] = sizes.length;
+    return shards;
+  }
+
   /**
    * Gets the last number of threads used in the input dialog.
    *
@@ -728,6 +837,7 @@ public class CmosAnalysis implements PlugIn {
         + "Otherwise the camera is assumed to produce a maximum of 16-bit unsigned data.", 80));
     gd.addCheckbox("Rolling_algorithm", settings.rollingAlgorithm);
     gd.addCheckbox("Re-use_processed_data", settings.reuseProcessedData);
+    gd.addCheckbox("Parallel_file_reading", settings.parallelFileReading);
     gd.showDialog();
 
     if (gd.wasCanceled()) {
@@ -737,6 +847,7 @@ public class CmosAnalysis implements PlugIn {
     setThreads((int) gd.getNextNumber());
     settings.rollingAlgorithm = gd.getNextBoolean();
     settings.reuseProcessedData = gd.getNextBoolean();
+    settings.parallelFileReading = gd.getNextBoolean();
 
     return true;
   }
@@ -824,9 +935,28 @@ public class CmosAnalysis implements PlugIn {
         // So the bar remains at 99% when workers have finished use frames + 1
         final Ticker ticker = ImageJUtils.createTicker(source.getFrames() + 1L, nThreads);
 
+        // Optionally split the files into shards that are read in parallel.
+        final String[] files = (settings.parallelFileReading) ? getFiles(sd) : null;
+        final int[] shards =
+            (files != null && files.length > 1) ? createShards(getSizes(files), nThreads) : null;
+
         // Open the first frame to get the bit depth.
         // Assume the first pixels are not empty as the source is open.
-        Object pixels = source.nextRaw();
+        // When sharding the first frame is read from the first shard and passed to its worker.
+        SeriesImageSource firstShard = null;
+        Object pixels;
+        if (shards != null) {
+          source.close();
+          firstShard = new SeriesImageSource(sd.name, Arrays.copyOf(files, shards[1]));
+          if (!firstShard.open()) {
+            error = true;
+            IJ.error(TITLE, "Failed to open image series: " + files[0]);
+            break;
+          }
+          pixels = firstShard.nextRaw();
+        } else {
+          pixels = source.nextRaw();
+        }
         final int bitDepth = ImageJUtils.getBitDepth(pixels);
 
         ArrayMoment moment;
@@ -840,8 +970,23 @@ public class CmosAnalysis implements PlugIn {
           moment = new SimpleArrayMoment();
         }
 
+        if (shards != null) {
+          IJ.showStatus("Analysing " + sd.name + " using "
+              + TextUtils.pleural(shards.length - 1, "shard"));
+          final String message = analyseShards(executor, ticker, sd.name, files, shards, width,
+              height, moment, firstShard, pixels);
+          if (message != null) {
+            error = true;
+            if (!message.isEmpty()) {
+              IJ.error(TITLE, message);
+            }
+            break;
+          }
+          pixels = null;
+        }
+
         final BlockingQueue<Object> jobs = new ArrayBlockingQueue<>(nThreads * 2);
-        for (int i = 0; i < nThreads; i++) {
+        for (int i = 0; pixels != null && i < nThreads; i++) {
           final ImageWorker worker = new ImageWorker(ticker, jobs, moment);
           workers.add(worker);
           futures.add(executor.submit(worker));
@@ -1020,6 +1165,102 @@ public class CmosAnalysis implements PlugIn {
         .log("Analysis time = " + TextUtils.millisToString(System.currentTimeMillis() - start));
   }
 
+  /**
+   * Gets the full path of the image files in the sub-directory.
+   *
+   * @param sd the sub-directory
+   * @return the files
+   */
+  private static String[] getFiles(SubDir sd) {
+    final SeriesOpener series = new SeriesOpener(sd.path.getPath());
+    final String[] names = series.getImageList();
+    for (int i = 0; i < names.length; i++) {
+      names[i] = new File(series.getPath(), names[i]).getPath();
+    }
+    return names;
+  }
+
+  /**
+   * Gets the size of the files.
+   *
+   * @param files the files
+   * @return the sizes
+   */
+  private static long[] getSizes(String[] files) {
+    final long[] sizes = new long[files.length];
+    for (int i = 0; i < files.length; i++) {
+      sizes[i] = new File(files[i]).length();
+    }
+    return sizes;
+  }
+
+  /**
+   * Analyse the image files by splitting them into contiguous shards processed in parallel. Each
+   * shard is read by a separate image source and accumulated into a private moment. The moments
+   * are merged into the provided moment when all shards are complete.
+   *
+   * <p>The source for the first shard has already been opened and its first frame decoded. The
+   * frame is added by the worker for the first shard which continues reading from the open source.
+   *
+   * @param executor the executor
+   * @param ticker the ticker
+   * @param name the name of the series
+   * @param files the files
+   * @param shards the shard boundaries (see {@link #createShards(long[], int)})
+   * @param width the image width
+   * @param height the image height
+   * @param moment the moment
+   * @param firstShard the open source for the first shard
+   * @param pixels the first frame of the first shard
+   * @return null if successful; otherwise the error message (empty if cancelled)
+   */
+  static String analyseShards(ExecutorService executor, Ticker ticker, String name,
+      String[] files, int[] shards, int width, int height, ArrayMoment moment,
+      SeriesImageSource firstShard, Object pixels) {
+    final int count = shards.length - 1;
+    final LocalList<Future<?>> futures = new LocalList<>(count);
+    final LocalList<ShardWorker> workers = new LocalList<>(count);
+    for (int i = 0; i < count; i++) {
+      final ShardWorker worker = (i == 0)
+          ? new ShardWorker(ticker, firstShard, pixels, files[0], width, height, moment)
+          : new ShardWorker(ticker,
+              new SeriesImageSource(name, Arrays.copyOfRange(files, shards[i], shards[i + 1])),
+              null, files[shards[i]], width, height, moment);
+      workers.add(worker);
+      futures.add(executor.submit(worker));
+    }
+
+    // Wait for all to finish while monitoring for cancellation
+    String message = null;
+    try {
+      ConcurrencyUtils.waitForCompletionUnchecked(futures);
+    } catch (final ConcurrentRuntimeException ex) {
+      message = "Failed to analyse image series: " + name;
+    }
+    if (message == null) {
+      for (final ShardWorker w : workers) {
+        if (w.errorMessage != null) {
+          message = w.errorMessage;
+          break;
+        }
+      }
+    }
+    if (message == null && ImageJUtils.isInterrupted()) {
+      message = "";
+    }
+    if (message != null) {
+      workers.stream().forEach(worker -> worker.finished = true);
+      futures.stream().forEach(future -> future.cancel(true));
+      return message;
+    }
+
+    // Merge the per-shard statistics
+    for (final ShardWorker w : workers) {
+      moment.add(w.moment);
+    }
+    return null;
+  }
+
   private static void showHistogram(String name, double[] values, int bins, Statistics stats,
       WindowOrganiser wo) {
     final DoubleData data = DoubleData.wrap(values);
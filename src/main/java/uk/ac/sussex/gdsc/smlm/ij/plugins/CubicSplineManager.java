@@ -39,7 +39,12 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
@@ -82,6 +87,10 @@ import uk.ac.sussex.gdsc.smlm.results.PeakResult;
  */
 public class CubicSplineManager implements PlugIn {
   private static final String TITLE = "Cubic Spline Manager";
+  /** The extension of the memory-mapped copy of the spline data. */
+  private static final String FLAT_EXTENSION = ".flat";
+  /** The sub-directory of the settings directory for the memory-mapped copies. */
+  private static final String FLAT_DIRECTORY = "cspline";
 
   private static AtomicReference<String> directory = new AtomicReference<>("");
   private static AtomicReference<String> filename = new AtomicReference<>("");
@@ -331,6 +340,7 @@ public class CubicSplineManager implements PlugIn {
     try (FileOutputStream os = new FileOutputStream(filename)) {
       psfModel.imagePsf.writeDelimitedTo(os);
       psfModel.splineData.write(os, SimpleImageJTrackProgress.getInstance());
+      saveFlat(psfModel.splineData, filename);
 
       saveResource(psfModel, filename, getName(filename));
 
@@ -389,8 +399,11 @@ public class CubicSplineManager implements PlugIn {
     try (InputStream is = new BufferedInputStream(new FileInputStream(filename))) {
       IJ.showStatus("Loading cubic spline: " + name);
       final ImagePSF imagePsf = ImagePSF.parseDelimitedFrom(is);
-      final CubicSplineData function =
-          CubicSplineData.read(is, SimpleImageJTrackProgress.getInstance());
+      CubicSplineData function = loadFlat(filename);
+      if (function == null) {
+        function = CubicSplineData.read(is, SimpleImageJTrackProgress.getInstance()).toFlatLayout();
+        saveFlat(function, filename);
+      }
 
       return new CubicSplinePsf(imagePsf, function);
     } catch (final Exception ex) {
@@ -402,6 +415,70 @@ public class CubicSplineManager implements PlugIn {
     return null;
   }
 
+  /**
+   * Gets the path of the memory-mapped copy of the spline data for the model file. The copy is held
+   * in the settings directory, not alongside the model, so models can be loaded from read-only
+   * locations. The name is made unique using a hash of the absolute model path.
+   *
+   * @param filename the model filename
+   * @return the path
+   */
+  private static Path getFlatPath(String filename) {
+    final String model = new File(filename).getAbsolutePath();
+    return Paths.get(SettingsManager.getSettingsDirectory(), FLAT_DIRECTORY,
+        getName(filename) + '-' + Integer.toHexString(model.hashCode()) + FLAT_EXTENSION);
+  }
+
+  /**
+   * Load the memory-mapped copy of the spline data for the model file. Returns null if the copy
+   * does not exist or is older than the model file.
+   *
+   * @param filename the model filename
+   * @return the spline data (or null)
+   */
+  private static CubicSplineData loadFlat(String filename) {
+    final File model = new File(filename);
+    final File flat = getFlatPath(filename).toFile();
+    if (flat.isFile() && flat.lastModified() >= model.lastModified()) {
+      try {
+        return CubicSplineData.load(flat.toPath());
+      } catch (final IOException ex) {
+        ImageJUtils.log("Failed to load spline data from file: %s. %s", flat, ex.getMessage());
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Save a memory-mapped copy of the spline data for the model file in the settings directory. This
+   * is a cache to speed up loading; failure is logged and otherwise ignored.
+   *
+   * <p>The data is written to a temporary file that replaces any existing copy. An existing copy
+   * may be mapped by a loaded model and must not be truncated.
+   *
+   * @param data the spline data
+   * @param filename the model filename
+   */
+  private static void saveFlat(CubicSplineData data, String filename) {
+    final Path flat = getFlatPath(filename);
+    Path tmp = null;
+    try {
+      final Path dir = Files.createDirectories(flat.toAbsolutePath().getParent());
+      tmp = Files.createTempFile(dir, "cspline", ".tmp");
+      data.save(tmp);
+      Files.move(tmp, flat, StandardCopyOption.REPLACE_EXISTING);
+    } catch (final IOException ex) {
+      ImageJUtils.log("Failed to save spline data to file: %s. %s", flat, ex.getMessage());
+      if (tmp != null) {
+        try {
+          Files.deleteIfExists(tmp);
+        } catch (final IOException ignored) {
+          // Ignore
+        }
+      }
+    }
+  }
+
   /**
    * List the spline models.
    *
@@ -52,6 +52,7 @@ import uk.ac.sussex.gdsc.smlm.ij.results.ImageJImagePeakResults;
 import uk.ac.sussex.gdsc.smlm.ij.results.ImagePeakResultsFactory;
 import uk.ac.sussex.gdsc.smlm.results.MemoryPeakResults;
 import uk.ac.sussex.gdsc.smlm.results.PeakResult;
+import uk.ac.sussex.gdsc.smlm.results.RipleysFunction;
 import uk.ac.sussex.gdsc.smlm.results.procedures.StandardResultProcedure;
 import uk.ac.sussex.gdsc.smlm.results.procedures.XyrResultProcedure;
 
@@ -737,20 +738,27 @@ public class DensityImage implements PlugIn {
     settings.incrementR = gd.getNextNumber();
     settings.confidenceIntervals = gd.getNextBoolean();
 
-    if (settings.minR > settings.maxR || settings.incrementR < 0 || gd.invalidNumber()) {
+    if (settings.minR < 0 || settings.minR > settings.maxR || settings.incrementR < 0
+        || gd.invalidNumber()) {
       IJ.error(TITLE, "Invalid radius parameters");
       return;
     }
 
-    final DensityManager dm = createDensityManager(results);
-    final double[][] values = calculateLScores(dm);
+    if (MemoryPeakResults.isEmpty(results)) {
+      throw new IllegalArgumentException("Results are null or empty");
+    }
+    final StandardResultProcedure sp = new StandardResultProcedure(results, DistanceUnit.PIXEL);
+    sp.getXy();
+    final double[] radii = createRadii();
+    final double[][] values =
+        calculateLScores(new RipleysFunction(sp.x, sp.y, results.getBounds()), radii);
 
     // 99% confidence intervals
     final int iterations = (settings.confidenceIntervals) ? 99 : 0;
     double[] upper = null;
     double[] lower = null;
     final Rectangle bounds = results.getBounds();
-    final double area = (double) bounds.width * bounds.height;
+    final Rectangle randomBounds = new Rectangle(bounds.width, bounds.height);
     // Use a uniform distribution for the coordinates
     final HaltonSequenceGenerator dist = new HaltonSequenceGenerator(2);
     dist.skipTo(SeedFactory.createInt());
@@ -766,7 +774,7 @@ public class DensityImage implements PlugIn {
         x[j] = (float) (d[0] * bounds.width);
         y[j] = (float) (d[1] * bounds.height);
       }
-      final double[][] values2 = calculateLScores(new DensityManager(x, y, area));
+      final double[][] values2 = calculateLScores(new RipleysFunction(x, y, randomBounds), radii);
       if (upper == null || lower == null) {
         upper = values2[1];
         lower = upper.clone();
@@ -821,22 +829,24 @@ public class DensityImage implements PlugIn {
     return max;
   }
 
-  private double[][] calculateLScores(DensityManager dm) {
-    final TDoubleArrayList x = new TDoubleArrayList();
-    final TDoubleArrayList y = new TDoubleArrayList();
-    x.add(0.0);
-    y.add(0.0);
-
+  private double[] createRadii() {
+    final TDoubleArrayList radii = new TDoubleArrayList();
     for (double r = settings.minR; r < settings.maxR; r += settings.incrementR) {
-      final double l = dm.ripleysLFunction(r);
-      x.add(r);
-      final double score = (r > 0) ? (l - r) / r : 0;
-      y.add(score);
+      radii.add(r);
     }
+    return radii.toArray();
+  }
 
-    final double[][] values = new double[2][];
-    values[0] = x.toArray();
-    values[1] = y.toArray();
+  private static double[][] calculateLScores(RipleysFunction rf, double[] radii) {
+    // Compute all radii in a single pass
+    final double[] l = rf.lfunction(radii);
+
+    final double[][] values = new double[2][radii.length + 1];
+    for (int i = 0; i < radii.length; i++) {
+      final double r = radii[i];
+      values[0][i + 1] = r;
+      values[1][i + 1] = (r > 0) ? (l[i] - r) / r : 0;
+    }
     return values;
   }
 }
@@ -403,6 +403,140 @@ public class DriftCalculator implements PlugIn {
     }
   }
 
+  /**
+   * Cache the block images and their FHT transforms between iterations of the drift calculation. A
+   * block is only rendered and transformed again when the drift applied to any frame in the block
+   * has changed by more than a tolerance.
+   */
+  private static class BlockImageCache {
+    /** The change in drift (in image pixels) below which a block is not rendered again. */
+    static final double TOLERANCE = 0.01;
+
+    final List<ArrayList<Localisation>> blocks;
+    final Rectangle bounds;
+    final float scale;
+    /** The minimum time frame of each block. */
+    final int[] minT;
+    /** The maximum time frame of each block. */
+    final int[] maxT;
+    final ImageProcessor[] images;
+    final Fht[] fhtImages;
+    /** The X drift used to render the current images. */
+    double[] renderedDx;
+    /** The Y drift used to render the current images. */
+    double[] renderedDy;
+
+    BlockImageCache(List<ArrayList<Localisation>> blocks, Rectangle bounds, float scale) {
+      this.blocks = blocks;
+      this.bounds = bounds;
+      this.scale = scale;
+      final int size = blocks.size();
+      minT = new int[size];
+      maxT = new int[size];
+      for (int i = 0; i < size; i++) {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (final Localisation r : blocks.get(i)) {
+          min = Math.min(min, r.time);
+          max = Math.max(max, r.time);
+        }
+        minT[i] = min;
+        maxT[i] = max;
+      }
+      images = new ImageProcessor[size];
+      fhtImages = new Fht[size];
+    }
+
+    int size() {
+      return images.length;
+    }
+
+    /**
+     * Check if the drift has changed for any frame in the block since the image was rendered.
+     *
+     * @param block the block
+     * @param dx the X drift
+     * @param dy the Y drift
+     * @return true if changed
+     */
+    boolean isChanged(int block, double[] dx, double[] dy) {
+      if (images[block] == null) {
+        return true;
+      }
+      final double tolerance = TOLERANCE / scale;
+      for (int t = minT[block]; t <= maxT[block]; t++) {
+        if (Math.abs(dx[t] - renderedDx[t]) > tolerance
+            || Math.abs(dy[t] - renderedDy[t]) > tolerance) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Update the images using the current drift. Only blocks with a changed drift are rendered and
+     * transformed. The rendering and transforms are performed in parallel.
+     *
+     * @param executor the executor
+     * @param dx the X drift
+     * @param dy the Y drift
+     * @param ticker the ticker
+     * @return the reference image of all blocks
+     */
+    FloatProcessor update(ExecutorService executor, double[] dx, double[] dy, Ticker ticker) {
+      final int size = size();
+      final boolean[] changed = new boolean[size];
+      final List<Future<?>> futures = new LinkedList<>();
+      for (int i = 0; i < size; i++) {
+        changed[i] = isChanged(i, dx, dy);
+        if (changed[i]) {
+          futures.add(executor
+              .submit(new ImageBuilder(blocks.get(i), images, i, bounds, scale, dx, dy, ticker)));
+        } else {
+          ticker.tick();
+        }
+      }
+      ConcurrencyUtils.waitForCompletionUnchecked(futures);
+
+      // Store the drift used to render the images
+      if (renderedDx == null) {
+        renderedDx = dx.clone();
+        renderedDy = dy.clone();
+      } else {
+        for (int i = 0; i < size; i++) {
+          if (changed[i]) {
+            final int from = minT[i];
+            final int length = maxT[i] - from + 1;
+            System.arraycopy(dx, from, renderedDx, from, length);
+            System.arraycopy(dy, from, renderedDy, from, length);
+          }
+        }
+      }
+
+      // Build an image with all results.
+      final FloatProcessor allIp = new FloatProcessor(images[0].getWidth(), images[0].getHeight());
+      for (final ImageProcessor ip : images) {
+        allIp.copyBits(ip, 0, 0, Blitter.ADD);
+      }
+
+      // Pre-transform the changed images. The aligner is only used for the FHT size
+      // which is the same for all iterations.
+      final AlignImagesFft aligner = new AlignImagesFft();
+      aligner.initialiseReference(allIp, WindowMethod.NONE, false);
+      futures.clear();
+      for (int i = 0; i < size; i++) {
+        if (changed[i]) {
+          final int index = i;
+          futures.add(executor.submit(() -> {
+            fhtImages[index] = aligner.transformTarget(images[index], WindowMethod.TUKEY);
+          }));
+        }
+      }
+      ConcurrencyUtils.waitForCompletionUnchecked(futures);
+      return allIp;
+    }
+  }
+
   /**
    * Used to precalculate the localisation signal and store it with T,X,Y values.
    */
@@ -1391,8 +1525,10 @@ public class DriftCalculator implements PlugIn {
 
     final double smoothing = updateSmoothingParameter(originalDriftTimePoints);
 
-    double change = calculateDriftUsingFrames(blocks, blockT, bounds, scale, dx, dy,
-        originalDriftTimePoints, smoothing, settings.iterations);
+    final BlockImageCache cache = new BlockImageCache(blocks, bounds, scale);
+
+    double change = calculateDriftUsingFrames(cache, blockT, dx, dy, originalDriftTimePoints,
+        smoothing, settings.iterations);
     if (Double.isNaN(change) || tracker.isEnded()) {
       return null;
     }
@@ -1401,8 +1537,8 @@ public class DriftCalculator implements PlugIn {
     ImageJUtils.log("Drift Calculator : Initial drift " + MathUtils.rounded(change));
 
     for (int i = 1; i <= settings.maxIterations; i++) {
-      change = calculateDriftUsingFrames(blocks, blockT, bounds, scale, dx, dy,
-          originalDriftTimePoints, smoothing, settings.iterations);
+      change = calculateDriftUsingFrames(cache, blockT, dx, dy, originalDriftTimePoints,
+          smoothing, settings.iterations);
       if (Double.isNaN(change)) {
         return null;
       }
@@ -1442,10 +1578,8 @@ public class DriftCalculator implements PlugIn {
    * Calculate the drift by aligning N consecutive frames with the overall image. Update the current
    * drift parameters.
    *
-   * @param blocks the blocks
+   * @param cache the cache of the block images
    * @param blockT the block T
-   * @param bounds the bounds
-   * @param scale the scale
    * @param dx the dx
    * @param dy the dy
    * @param originalDriftTimePoints the original drift time points
@@ -1453,41 +1587,17 @@ public class DriftCalculator implements PlugIn {
    * @param iterations the iterations
    * @return the double
    */
-  private double calculateDriftUsingFrames(ArrayList<ArrayList<Localisation>> blocks, int[] blockT,
-      Rectangle bounds, float scale, double[] dx, double[] dy, double[] originalDriftTimePoints,
-      double smoothing, int iterations) {
+  private double calculateDriftUsingFrames(BlockImageCache cache, int[] blockT, double[] dx,
+      double[] dy, double[] originalDriftTimePoints, double smoothing, int iterations) {
     // Construct images using the current drift
     tracker.status("Constructing images");
 
-    // Built an image for each block of results.
-    final ImageProcessor[] images = new ImageProcessor[blocks.size()];
-
-    final List<Future<?>> futures = new LinkedList<>();
-    final Ticker ticker = Ticker.createStarted(tracker, images.length * 2L, true);
-
-    for (int i = 0; i < images.length; i++) {
-      futures.add(executor
-          .submit(new ImageBuilder(blocks.get(i), images, i, bounds, scale, dx, dy, ticker)));
-    }
-    ConcurrencyUtils.waitForCompletionUnchecked(futures);
-
-    for (int i = 0; i < blocks.size(); i++) {
-      tracker.progress(i, blocks.size());
-      final ImageJImagePeakResults blockImage = newImage(bounds, scale);
-      for (final Localisation r : blocks.get(i)) {
-        blockImage.add(r.time, (float) (r.x + dx[r.time]), (float) (r.y + dy[r.time]), r.signal);
-      }
-      images[i] = getImage(blockImage);
-    }
-
-    // Build an image with all results.
-    final FloatProcessor allIp = new FloatProcessor(images[0].getWidth(), images[0].getHeight());
-    for (final ImageProcessor ip : images) {
-      allIp.copyBits(ip, 0, 0, Blitter.ADD);
-    }
+    // Built an image for each block of results. Only blocks with a changed drift are rendered.
+    final Ticker ticker = Ticker.createStarted(tracker, cache.size() * 2L, true);
+    final FloatProcessor allIp = cache.update(executor, dx, dy, ticker);
 
-    return calculateDrift(blockT, scale, dx, dy, originalDriftTimePoints, smoothing, iterations,
-        images, allIp, true, ticker);
+    return calculateDrift(blockT, cache.scale, dx, dy, originalDriftTimePoints, smoothing,
+        iterations, cache.fhtImages, allIp, true, ticker);
   }
 
   /**
@@ -58,6 +58,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.IntFunction;
@@ -77,6 +78,7 @@ import uk.ac.sussex.gdsc.core.ij.gui.ExtendedGenericDialog.OptionListener;
 import uk.ac.sussex.gdsc.core.ij.gui.OffsetPointRoi;
 import uk.ac.sussex.gdsc.core.ij.process.LutHelper;
 import uk.ac.sussex.gdsc.core.ij.process.LutHelper.LutColour;
+import uk.ac.sussex.gdsc.core.logging.TrackProgress;
 import uk.ac.sussex.gdsc.core.logging.TrackProgressAdaptor;
 import uk.ac.sussex.gdsc.core.utils.BitFlagUtils;
 import uk.ac.sussex.gdsc.core.utils.MathUtils;
@@ -114,10 +116,13 @@ import uk.ac.sussex.gdsc.smlm.engine.FitConfiguration;
 import uk.ac.sussex.gdsc.smlm.engine.FitEngine;
 import uk.ac.sussex.gdsc.smlm.engine.FitEngineConfiguration;
 import uk.ac.sussex.gdsc.smlm.engine.FitJob;
+import uk.ac.sussex.gdsc.smlm.engine.FitMetrics;
 import uk.ac.sussex.gdsc.smlm.engine.FitParameters;
 import uk.ac.sussex.gdsc.smlm.engine.FitParameters.FitTask;
 import uk.ac.sussex.gdsc.smlm.engine.FitQueue;
 import uk.ac.sussex.gdsc.smlm.engine.FitWorker;
+import uk.ac.sussex.gdsc.smlm.engine.FrameBudget;
+import uk.ac.sussex.gdsc.smlm.engine.FrameBudget.BudgetType;
 import uk.ac.sussex.gdsc.smlm.engine.ParameterisedFitJob;
 import uk.ac.sussex.gdsc.smlm.filters.SpotFilter;
 import uk.ac.sussex.gdsc.smlm.fitting.nonlinear.FastMleSteppingFunctionSolver;
@@ -177,6 +182,18 @@ public class PeakFit implements PlugInFilter {
   private PeakResultsList results;
   private long time;
   private long runTime;
+  /** The pre-processing time of a pipelined fit engine (negative if not a pipeline). */
+  private long preprocessTime = -1;
+  private long preprocessBlockedTime;
+  /** The metrics of the fit engine (null if not collected). */
+  private FitMetrics metrics;
+  /** The budget for fitting each frame (null if not used). */
+  private FrameBudget frameBudget;
+  /** The number of candidates with a warm start estimate from the previous frame. */
+  private long warmStarts;
+  private int numberOfThreads;
+  private int numberOfPreprocessThreads = -1;
+  private TrackProgress progress;
   private FitEngineConfiguration config;
   private FitConfiguration fitConfig;
   private ResultsSettings.Builder resultsSettings;
@@ -212,10 +229,15 @@ public class PeakFit implements PlugInFilter {
         new AtomicReference<>(new Settings());
 
     double fractionOfThreads;
+    int preprocessThreads;
+    double targetFrameRate;
     String inputOption;
     boolean showTable;
     boolean showImage;
     boolean fitAcrossAllFrames;
+    boolean lazyMultiPath;
+    double warmStartDistance;
+    boolean logMetrics;
 
     Settings() {
       // Allow 1 thread free.
@@ -227,10 +249,15 @@ public class PeakFit implements PlugInFilter {
 
     Settings(Settings source) {
       fractionOfThreads = source.fractionOfThreads;
+      preprocessThreads = source.preprocessThreads;
+      targetFrameRate = source.targetFrameRate;
       inputOption = source.inputOption;
       showTable = source.showTable;
       showImage = source.showImage;
       fitAcrossAllFrames = source.fitAcrossAllFrames;
+      lazyMultiPath = source.lazyMultiPath;
+      warmStartDistance = source.warmStartDistance;
+      logMetrics = source.logMetrics;
     }
 
     Settings copy() {
@@ -410,6 +437,10 @@ public class PeakFit implements PlugInFilter {
         textIncludeNeighbours = cb.next();
         textNeighbourHeightThreshold = nu.next();
         textResidualsThreshold = nu.next();
+        if (extraOptions) {
+          cb.next(); // Skip over the lazy multi-path option
+          nu.next(); // Skip over the warm start distance option
+        }
         textDuplicateDistance = nu.next();
         textSmartFilter = cb.next();
         textDisableSimpleFilter = cb.next();
@@ -1062,7 +1093,11 @@ public class PeakFit implements PlugInFilter {
    * Show results.
    */
   protected void showResults() {
-    IJ.showProgress(1.0);
+    if (progress != null) {
+      progress.progress(1.0);
+    } else {
+      IJ.showProgress(1.0);
+    }
     if (time >= 0) {
       if (silent) {
         results.end();
@@ -1092,8 +1127,23 @@ public class PeakFit implements PlugInFilter {
         IJ.log(LOG_SPACER);
       }
       IJ.log(message);
+      if (preprocessTime >= 0 && resultsSettings.getLogProgress()) {
+        ImageJUtils.log("Pre-processing time = %s. Time blocked on fitting = %s",
+            TextUtils.nanosToString(preprocessTime),
+            TextUtils.nanosToString(preprocessBlockedTime));
+      }
+      if (warmStarts != 0) {
+        ImageJUtils.log("Warm start estimates = %d", warmStarts);
+      }
+      if (frameBudget != null && frameBudget.getSkippedFrames() != 0) {
+        ImageJUtils.log("Frame budget exhausted: Frames = %d. Skipped candidates = %d",
+            frameBudget.getSkippedFrames(), frameBudget.getSkippedCandidates());
+      }
+      if (metrics != null) {
+        ImageJUtils.log("Fit metrics:%n%s", metrics.toCsv());
+      }
       IJ.showStatus(message);
-    } else {
+    } else if (progress == null) {
       IJ.showStatus("");
     }
   }
@@ -1233,6 +1283,10 @@ public class PeakFit implements PlugInFilter {
       gd.addCheckbox("Include_neighbours", config.isIncludeNeighbours());
       gd.addSlider("Neighbour_height", 0.01, 1, config.getNeighbourHeightThreshold());
       gd.addSlider("Residuals_threshold", 0.01, 1, config.getResidualsThreshold());
+      if (extraOptions) {
+        gd.addCheckbox("Lazy_multi_path", settings.lazyMultiPath);
+        gd.addNumericField("Warm_start_distance", settings.warmStartDistance, 2, 6, "px");
+      }
 
       addDuplicateDistanceOptions(gd, fitEngineConfigurationProvider);
 
@@ -1276,6 +1330,9 @@ public class PeakFit implements PlugInFilter {
     if (extraOptions) {
       gd.addMessage("--- Misc ---");
       gd.addSlider("Fraction_of_threads", 0.1, 1, settings.fractionOfThreads);
+      gd.addNumericField("Preprocess_threads", settings.preprocessThreads, 0);
+      gd.addNumericField("Target_frame_rate", settings.targetFrameRate, 0, 6, "fps");
+      gd.addCheckbox("Log_fit_metrics", settings.logMetrics);
     }
 
     // Add a mouse listener to the config file field
@@ -2427,6 +2484,13 @@ public class PeakFit implements PlugInFilter {
       config.setIncludeNeighbours(gd.getNextBoolean());
       config.setNeighbourHeightThreshold(gd.getNextNumber());
       config.setResidualsThreshold(gd.getNextNumber());
+      if (extraOptions) {
+        settings.lazyMultiPath = gd.getNextBoolean();
+        settings.warmStartDistance = Math.abs(gd.getNextNumber());
+      }
+      // Not stored in the fit configuration settings
+      fitConfig.setLazyMultiPath(settings.lazyMultiPath);
+      fitConfig.setWarmStartDistance(settings.warmStartDistance);
 
       config.setDuplicateDistance(gd.getNextNumber());
 
@@ -2459,7 +2523,11 @@ public class PeakFit implements PlugInFilter {
     resultsSettings.getResultsInMemorySettingsBuilder().setInMemory(gd.getNextBoolean());
     if (extraOptions) {
       settings.fractionOfThreads = Math.abs(gd.getNextNumber());
+      settings.preprocessThreads = (int) Math.abs(gd.getNextNumber());
+      settings.targetFrameRate = Math.abs(gd.getNextNumber());
+      settings.logMetrics = gd.getNextBoolean();
     }
+    fitConfig.setCollectMetrics(settings.logMetrics);
 
     gd.collectOptions();
 
@@ -3002,6 +3070,9 @@ public class PeakFit implements PlugInFilter {
       gd.addNumericField("Max_function_evaluations", fitConfig.getMaxFunctionEvaluations(), 0);
       if (extraOptions) {
         gd.addCheckbox("Gradient_line_minimisation", fitConfig.isGradientLineMinimisation());
+        // Zero to disable the tabulated EM-CCD likelihood
+        gd.addNumericField("Likelihood_table_max_expected",
+            fitConfig.getLikelihoodTableMaxExpected(), 0, 6, "photon");
       }
       gd.showDialog();
       if (gd.wasCanceled()) {
@@ -3022,6 +3093,7 @@ public class PeakFit implements PlugInFilter {
       fitConfig.setMaxFunctionEvaluations((int) gd.getNextNumber());
       if (extraOptions) {
         fitConfig.setGradientLineMinimisation(gd.getNextBoolean());
+        fitConfig.setLikelihoodTableMaxExpected(Math.max(0, gd.getNextNumber()));
       } else {
         // This option is for the Conjugate Gradient optimiser and makes it less stable
         fitConfig.setGradientLineMinimisation(false);
@@ -3506,7 +3578,8 @@ public class PeakFit implements PlugInFilter {
             && bounds.height == source.getHeight()) ? null : bounds;
 
     // Use the FitEngine to allow multi-threading.
-    final FitEngine engine = createFitEngine(getNumberOfThreads(totalFrames));
+    final FitEngine engine =
+        createFitEngine(getNumberOfThreads(totalFrames), getPreprocessThreads());
     if (engine == null) {
       return;
     }
@@ -3534,7 +3607,9 @@ public class PeakFit implements PlugInFilter {
 
       if (++slice % step == 0) {
         final int frames = slice;
-        if (ImageJUtils.showStatus(() -> String.format(format, frames, results.size()))) {
+        if (progress != null) {
+          progress.progress(slice, totalFrames);
+        } else if (ImageJUtils.showStatus(() -> String.format(format, frames, results.size()))) {
           IJ.showProgress(slice, totalFrames);
         }
       }
@@ -3572,6 +3647,10 @@ public class PeakFit implements PlugInFilter {
     engine.end(shutdown);
     time = engine.getTime();
     runTime = System.nanoTime() - runTime;
+    preprocessTime = (engine.isPipeline()) ? engine.getPreprocessTime() : -1;
+    preprocessBlockedTime = engine.getPreprocessBlockedTime();
+    metrics = engine.getMetrics();
+    warmStarts = engine.getWarmStarts();
 
     if (stack != null) {
       ImageJUtils.display("Processed frames", stack);
@@ -3639,10 +3718,50 @@ public class PeakFit implements PlugInFilter {
    * @return the number of threads
    */
   private int getNumberOfThreads(int totalFrames) {
-    final int t = Math.max(1, (int) (settings.fractionOfThreads * Prefs.getThreads()));
+    int t = numberOfThreads;
+    if (t <= 0) {
+      // Settings are only loaded when a dialog is shown
+      final Settings localSettings = (settings == null) ? Settings.load() : settings;
+      t = Math.max(1, (int) (localSettings.fractionOfThreads * Prefs.getThreads()));
+    }
     return Math.min(totalFrames, t);
   }
 
+  /**
+   * Gets the number of threads used to pre-process the frames in a fitting pipeline.
+   *
+   * @return the number of pre-processing threads (0 to disable the pipeline)
+   */
+  private int getPreprocessThreads() {
+    if (numberOfPreprocessThreads >= 0) {
+      return numberOfPreprocessThreads;
+    }
+    // Settings are only loaded when a dialog is shown
+    final Settings localSettings = (settings == null) ? Settings.load() : settings;
+    return localSettings.preprocessThreads;
+  }
+
+  /**
+   * Creates the budget for fitting each frame using the target frame rate. The initial budget is
+   * the target time for a frame on a single worker.
+   *
+   * @param numberOfThreads the number of fitting threads
+   * @return the frame budget (or null if there is no target frame rate)
+   */
+  private FrameBudget createFrameBudget(int numberOfThreads) {
+    // Settings are only loaded when a dialog is shown
+    final Settings localSettings = (settings == null) ? Settings.load() : settings;
+    final double framesPerSecond = localSettings.targetFrameRate;
+    if (framesPerSecond > 0) {
+      final int threads = Math.max(1, numberOfThreads);
+      final long frameTime = (long) (threads * TimeUnit.SECONDS.toNanos(1) / framesPerSecond);
+      final FrameBudget budget = new FrameBudget(BudgetType.TIME, Math.max(1, frameTime));
+      budget.setTargetFrameRate(framesPerSecond, threads);
+      return budget;
+    }
+    return null;
+  }
+
   /**
    * Check if the frame should be ignored (relevant when using interlaced data).
    *
@@ -3743,9 +3862,24 @@ public class PeakFit implements PlugInFilter {
    * @return The fitting engine
    */
   public FitEngine createFitEngine(int numberOfThreads) {
+    return createFitEngine(numberOfThreads, 0);
+  }
+
+  /**
+   * Creates a fitting engine using the current configuration.
+   *
+   * <p>If the number of pre-processing threads is positive the engine runs as a two-stage
+   * pipeline.
+   *
+   * @param numberOfThreads the number of fitting threads
+   * @param preprocessThreads the number of pre-processing threads (0 to disable)
+   * @return The fitting engine
+   */
+  public FitEngine createFitEngine(int numberOfThreads, int preprocessThreads) {
     // Use a blocking queue to enable progress tracking on the IJ progress bar.
     // Use a large queue size to allow images read from disk to be pre-loaded.
-    return createFitEngine(numberOfThreads, FitQueue.BLOCKING, numberOfThreads * 10);
+    return createFitEngine(numberOfThreads, preprocessThreads, FitQueue.BLOCKING,
+        numberOfThreads * 10);
   }
 
   /**
@@ -3757,6 +3891,20 @@ public class PeakFit implements PlugInFilter {
    * @return The fiting engine
    */
   public FitEngine createFitEngine(int numberOfThreads, FitQueue queue, int queueSize) {
+    return createFitEngine(numberOfThreads, 0, queue, queueSize);
+  }
+
+  /**
+   * Creates a fitting engine using the current configuration.
+   *
+   * @param numberOfThreads the number of fitting threads
+   * @param preprocessThreads the number of pre-processing threads (0 to disable)
+   * @param queue the queue
+   * @param queueSize the queue size
+   * @return The fiting engine
+   */
+  public FitEngine createFitEngine(int numberOfThreads, int preprocessThreads, FitQueue queue,
+      int queueSize) {
     // Ensure thread safety
     final PeakResultsList list = (numberOfThreads > 1) ? results.getThreadSafeList() : results;
 
@@ -3768,7 +3916,10 @@ public class PeakFit implements PlugInFilter {
       return null;
     }
 
-    final FitEngine engine = FitEngine.create(config, r, numberOfThreads, queue, queueSize);
+    final FitEngine engine =
+        FitEngine.create(config, r, numberOfThreads, preprocessThreads, queue, queueSize);
+    frameBudget = createFrameBudget(numberOfThreads);
+    engine.setFrameBudget(frameBudget);
 
     // Write settings out to the IJ log
     if (resultsSettings.getLogProgress()) {
@@ -3781,6 +3932,13 @@ public class PeakFit implements PlugInFilter {
       IJ.log("Spot Filter = " + spotFilter.getDescription());
       final int w = 2 * engine.getFitting() + 1;
       ImageJUtils.log("Fit window = %d x %d", w, w);
+      if (engine.isPipeline()) {
+        ImageJUtils.log("Pre-processing threads = %d", preprocessThreads);
+      }
+      if (frameBudget != null) {
+        ImageJUtils.log("Frame budget = %s (adapted to the target frame rate)",
+            TextUtils.nanosToString(frameBudget.getBudget()));
+      }
       if (!fitConfig.isDisableSimpleFilter()) {
         IJ.log("Coordinate shift = "
             + MathUtils.rounded(config.getFitConfiguration().getCoordinateShift()));
@@ -3892,7 +4050,8 @@ public class PeakFit implements PlugInFilter {
         (extraSettings.showProcessedFrames) ? new ImageStack(bounds.width, bounds.height) : null;
 
     // Use the FitEngine to allow multi-threading.
-    final FitEngine engine = createFitEngine(getNumberOfThreads(totalFrames));
+    final FitEngine engine =
+        createFitEngine(getNumberOfThreads(totalFrames), getPreprocessThreads());
     if (engine == null) {
       return;
     }
@@ -3948,6 +4107,10 @@ public class PeakFit implements PlugInFilter {
     engine.end(shutdown.get());
     time = engine.getTime();
     runTime = System.nanoTime() - runTime;
+    preprocessTime = (engine.isPipeline()) ? engine.getPreprocessTime() : -1;
+    preprocessBlockedTime = engine.getPreprocessBlockedTime();
+    metrics = engine.getMetrics();
+    warmStarts = engine.getWarmStarts();
 
     if (stack != null) {
       ImageJUtils.display("Processed frames", stack);
@@ -3976,6 +4139,15 @@ public class PeakFit implements PlugInFilter {
     return time;
   }
 
+  /**
+   * Gets the total run time in nanoseconds. This includes reading the image source.
+   *
+   * @return The total run time in nanoseconds.
+   */
+  public long getRunTime() {
+    return runTime;
+  }
+
   /**
    * Gets the total number of localisations.
    *
@@ -4004,4 +4176,77 @@ public class PeakFit implements PlugInFilter {
   public void setSilent(boolean silent) {
     this.silent = silent;
   }
+
+  /**
+   * Gets the metrics of the fit engine from the last run. Metrics are collected if enabled in the
+   * fit configuration.
+   *
+   * @return the metrics (or null if not collected)
+   * @see FitConfiguration#setCollectMetrics(boolean)
+   */
+  public FitMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Gets the number of fitting threads. If not positive the number of threads is a fraction of the
+   * ImageJ thread count.
+   *
+   * @return the number of threads
+   */
+  public int getNumberOfThreads() {
+    return numberOfThreads;
+  }
+
+  /**
+   * Sets the number of fitting threads. If not positive the number of threads is a fraction of the
+   * ImageJ thread count.
+   *
+   * @param numberOfThreads the new number of threads
+   */
+  public void setNumberOfThreads(int numberOfThreads) {
+    this.numberOfThreads = numberOfThreads;
+  }
+
+  /**
+   * Gets the number of threads used to pre-process the frames in a fitting pipeline. If negative
+   * the number of threads is taken from the saved settings.
+   *
+   * @return the number of pre-processing threads
+   */
+  public int getNumberOfPreprocessThreads() {
+    return numberOfPreprocessThreads;
+  }
+
+  /**
+   * Sets the number of threads used to pre-process the frames in a fitting pipeline. Use zero to
+   * disable the pipeline. If negative the number of threads is taken from the saved settings.
+   *
+   * @param numberOfPreprocessThreads the new number of pre-processing threads
+   */
+  public void setNumberOfPreprocessThreads(int numberOfPreprocessThreads) {
+    this.numberOfPreprocessThreads = numberOfPreprocessThreads;
+  }
+
+  /**
+   * Gets the progress tracker used when fitting the image source.
+   *
+   * @return the progress tracker (or null)
+   */
+  public TrackProgress getTrackProgress() {
+    return progress;
+  }
+
+  /**
+   * Sets the progress tracker used when fitting the image source. If null the ImageJ progress bar
+   * and status line are used.
+   *
+   * <p>Set a tracker when several instances fit concurrently, so that they do not share the
+   * ImageJ progress bar.
+   *
+   * @param progress the new progress tracker
+   */
+  public void setTrackProgress(TrackProgress progress) {
+    this.progress = progress;
+  }
 }
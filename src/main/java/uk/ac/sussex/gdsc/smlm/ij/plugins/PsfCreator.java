@@ -40,7 +40,6 @@ import ij.gui.Roi;
 import ij.io.FileInfo;
 import ij.measure.Calibration;
 import ij.plugin.filter.PlugInFilter;
-import ij.process.Blitter;
 import ij.process.ByteProcessor;
 import ij.process.FloatPolygon;
 import ij.process.FloatProcessor;
@@ -54,6 +53,7 @@ import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.TextField;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -61,10 +61,12 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicReference;
+import org.apache.commons.lang3.concurrent.ConcurrentRuntimeException;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.commons.math3.analysis.interpolation.LoessInterpolator;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
@@ -248,13 +250,7 @@ public class PsfCreator implements PlugInFilter {
   private final SoftLock plotLock3 = new SoftLock();
   private final SoftLock plotLock4 = new SoftLock();
 
-  private boolean[] dmap;
-  private int lastWidth;
-  private int lastHeight;
-  private int minx;
-  private int maxx;
-  private int miny;
-  private int maxy;
+  private volatile IntensityMask intensityMask;
 
   @Override
   public int setup(String arg, ImagePlus imp) {
@@ -542,113 +538,51 @@ public class PsfCreator implements PlugInFilter {
     allResults.setName(TITLE);
     allResults.setBounds(new Rectangle(0, 0, width, height));
     MemoryPeakResults.addResults(allResults);
+    // Without interaction the spots are fitted concurrently, each using a single fitting thread.
+    // The analysis is consumed in spot order so the output matches sequential processing.
+    final boolean headless = !settings.getInteractiveMode();
+    if (threadPool == null) {
+      threadPool = Executors.newFixedThreadPool(Prefs.getThreads());
+    }
+    final List<Future<SpotAnalysis>> analyses = new LocalList<>(spots.length);
+    if (headless) {
+      for (int n = 1; n <= spots.length; n++) {
+        final BasePoint spot = spots[n - 1];
+        analyses.add(
+            threadPool.submit(() -> analyseSpot(spot, stack, width, height, loess, 1)));
+      }
+    }
     for (int n = 1; n <= spots.length; n++) {
-      final BasePoint spot = spots[n - 1];
-      final int x = (int) spot.getX();
-      final int y = (int) spot.getY();
+      final SpotAnalysis spot = headless ? getResult(analyses.get(n - 1))
+          : analyseSpot(spots[n - 1], stack, width, height, loess, Prefs.getThreads());
+      allResults.add(spot.results);
 
-      final MemoryPeakResults results = fitSpot(stack, width, height, x, y);
-      allResults.add(results);
-
-      if (results.size() < 5) {
-        ImageJUtils.log("  Spot %d: Not enough fit results %d", n, results.size());
+      if (spot.z == null) {
+        ImageJUtils.log("  Spot %d: Not enough fit results %d", n, spot.results.size());
         continue;
       }
 
-      // Get the results for the spot centre and width
-      final double[] z = new double[results.size()];
-      final double[] xCoord = new double[z.length];
-      final double[] yCoord = new double[z.length];
-      final double[] sd;
-      final double[] a;
-      final Counter counter = new Counter();
-
-      // We have fit the results so they will be in the preferred units
-      results.forEach(new PeakResultProcedure() {
-        @Override
-        public void execute(PeakResult peak) {
-          final int i = counter.getAndIncrement();
-          z[i] = peak.getFrame();
-          xCoord[i] = peak.getXPosition() - x;
-          yCoord[i] = peak.getYPosition() - y;
-        }
-      });
-
-      final WidthResultProcedure wp = new WidthResultProcedure(results, DistanceUnit.PIXEL);
-      wp.getW();
-      sd = SimpleArrayUtils.toDouble(wp.wx);
-
-      final HeightResultProcedure hp = new HeightResultProcedure(results, IntensityUnit.COUNT);
-      hp.getH();
-      a = SimpleArrayUtils.toDouble(hp.heights);
-
-      // Smooth the amplitude plot
-      final double[] smoothA = loess.smooth(z, a);
-
-      // Find the maximum amplitude
-      int maximumIndex = findMaximumIndex(smoothA);
-
-      // Find the range at a fraction of the max. This is smoothed to find the X/Y centre
-      int start = 0;
-      int stop = smoothA.length - 1;
-      final double limit = smoothA[maximumIndex] * settings.getAmplitudeFraction();
-      for (int j = 0; j < smoothA.length; j++) {
-        if (smoothA[j] > limit) {
-          start = j;
-          break;
-        }
-      }
-      for (int j = smoothA.length; j-- > 0;) {
-        if (smoothA[j] > limit) {
-          stop = j;
-          break;
-        }
-      }
-      averageRange.add(stop - start + 1);
-
-      // Extract xy centre coords and smooth
-      double[] smoothX = new double[stop - start + 1];
-      double[] smoothY = new double[smoothX.length];
-      double[] smoothSd = new double[smoothX.length];
-      final double[] newZ = new double[smoothX.length];
-      for (int j = start, k = 0; j <= stop; j++, k++) {
-        smoothX[k] = xCoord[j];
-        smoothY[k] = yCoord[j];
-        smoothSd[k] = sd[j];
-        newZ[k] = z[j];
-      }
-      smoothX = loess.smooth(newZ, smoothX);
-      smoothY = loess.smooth(newZ, smoothY);
-      smoothSd = loess.smooth(newZ, smoothSd);
-
-      // Since the amplitude is not very consistent move from this peak to the
-      // lowest width which is the in-focus spot.
-      maximumIndex = findMinimumIndex(smoothSd, maximumIndex - start);
-
-      // Find the centre at the amplitude peak
-      final double cx = smoothX[maximumIndex] + x;
-      final double cy = smoothY[maximumIndex] + y;
-      int cz = (int) newZ[maximumIndex];
-      double csd = smoothSd[maximumIndex];
-      double ca = smoothA[maximumIndex + start];
+      averageRange.add(spot.stop - spot.start + 1);
 
       // The average should weight the SD using the signal for each spot
-      averageSd.add(smoothSd[maximumIndex]);
-      averageA.add(ca);
+      averageSd.add(spot.csd);
+      averageA.add(spot.ca);
 
-      if (ignoreSpot(n, z, a, smoothA, xCoord, yCoord, sd, newZ, smoothX, smoothY, smoothSd, cx, cy,
-          cz, csd)) {
+      if (ignoreSpot(n, spot.z, spot.amplitude, spot.smoothA, spot.xCoord, spot.yCoord, spot.sd,
+          spot.newZ, spot.smoothX, spot.smoothY, spot.smoothSd, spot.cx, spot.cy, spot.cz,
+          spot.csd)) {
         ImageJUtils.log("  Spot %d was ignored", n);
         continue;
       }
 
       // Store result - it may have been moved interactively
-      maximumIndex += this.slice - cz;
-      cz = (int) newZ[maximumIndex];
-      csd = smoothSd[maximumIndex];
-      ca = smoothA[maximumIndex + start];
-      ImageJUtils.log("  Spot %d => x=%.2f, y=%.2f, z=%d, sd=%.2f, A=%.2f", n, cx, cy, cz, csd, ca);
-      centres.add(new double[] {cx, cy, cz, csd, n});
+      final int maximumIndex = spot.maximumIndex + this.slice - spot.cz;
+      final int cz = (int) spot.newZ[maximumIndex];
+      final double csd = spot.smoothSd[maximumIndex];
+      final double ca = spot.smoothA[maximumIndex + spot.start];
+      ImageJUtils.log("  Spot %d => x=%.2f, y=%.2f, z=%d, sd=%.2f, A=%.2f", n, spot.cx, spot.cy,
+          cz, csd, ca);
+      centres.add(new double[] {spot.cx, spot.cy, cz, csd, n});
     }
 
     if (settings.getInteractiveMode()) {
@@ -686,44 +620,48 @@ public class PsfCreator implements PlugInFilter {
     // For each spot
     final Statistics stats = new Statistics();
     boolean ok = true;
-    for (int i = 0; ok && i < centres.size(); i++) {
-      final double increment = 1.0 / (stack.getSize() * centres.size());
-      setProgress((double) i / centres.size());
-      final double[] centre = centres.get(i);
-
-      // Extract the spot
-      final float[][] spot = new float[stack.getSize()][];
-      Rectangle regionBounds = null;
-      for (int slice = 1; slice <= stack.getSize(); slice++) {
-        final ImageExtractor ie =
-            ImageExtractor.wrap((float[]) stack.getPixels(slice), width, height);
-        if (regionBounds == null) {
-          regionBounds = ie.getBoxRegionBounds((int) centre[0], (int) centre[1], boxRadius);
+    if (headless) {
+      ok = addToPsf(centres, stack, width, height, maxz, psf, loess, stats);
+    } else {
+      for (int i = 0; ok && i < centres.size(); i++) {
+        final double increment = 1.0 / (stack.getSize() * centres.size());
+        setProgress((double) i / centres.size());
+        final double[] centre = centres.get(i);
+
+        // Extract the spot
+        final float[][] spot = new float[stack.getSize()][];
+        Rectangle regionBounds = null;
+        for (int slice = 1; slice <= stack.getSize(); slice++) {
+          final ImageExtractor ie =
+              ImageExtractor.wrap((float[]) stack.getPixels(slice), width, height);
+          if (regionBounds == null) {
+            regionBounds = ie.getBoxRegionBounds((int) centre[0], (int) centre[1], boxRadius);
+          }
+          spot[slice - 1] = ie.crop(regionBounds);
         }
-        spot[slice - 1] = ie.crop(regionBounds);
-      }
 
-      if (regionBounds == null) {
-        continue; // Empty stack
-      }
+        if (regionBounds == null) {
+          continue; // Empty stack
+        }
 
-      final int n = (int) centre[4];
-      final float b = getBackground(n, spot);
-      if (!subtractBackgroundAndWindow(spot, b, regionBounds.width, regionBounds.height, centre,
-          loess)) {
-        ImageJUtils.log("  Spot %d was ignored", n);
-        continue;
-      }
+        final int n = (int) centre[4];
+        final float b = getBackground(n, spot);
+        if (!subtractBackgroundAndWindow(spot, b, regionBounds.width, regionBounds.height, centre,
+            loess)) {
+          ImageJUtils.log("  Spot %d was ignored", n);
+          continue;
+        }
 
-      stats.add(b);
+        stats.add(b);
 
-      // Adjust the centre using the crop
-      centre[0] -= regionBounds.x;
-      centre[1] -= regionBounds.y;
+        // Adjust the centre using the crop
+        centre[0] -= regionBounds.x;
+        centre[1] -= regionBounds.y;
 
-      // This takes a long time so this should track progress
-      ok = addToPsf(maxz, settings.getMagnification(), psf, centre, spot, regionBounds, increment,
-          settings.getCentreEachSlice());
+        // This takes a long time so this should track progress
+        ok = addToPsf(maxz, settings.getMagnification(), psf, centre, spot, regionBounds, increment,
+            settings.getCentreEachSlice());
+      }
     }
 
     if (settings.getInteractiveMode()) {
@@ -846,8 +784,173 @@ public class PsfCreator implements PlugInFilter {
     return sum / sumW;
   }
 
+  /**
+   * Store the analysis of the fit results for a single spot.
+   */
+  private static class SpotAnalysis {
+    /** The fit results. */
+    final MemoryPeakResults results;
+    /** The frame of each result (null if there are not enough results). */
+    double[] z;
+    double[] xCoord;
+    double[] yCoord;
+    double[] sd;
+    double[] amplitude;
+    double[] smoothA;
+    /** The start of the range above the amplitude fraction. */
+    int start;
+    /** The end of the range above the amplitude fraction. */
+    int stop;
+    double[] newZ;
+    double[] smoothX;
+    double[] smoothY;
+    double[] smoothSd;
+    /** The index of the minimum width within the smoothed range. */
+    int maximumIndex;
+    double cx;
+    double cy;
+    int cz;
+    double csd;
+    double ca;
+
+    SpotAnalysis(MemoryPeakResults results) {
+      this.results = results;
+    }
+  }
+
+  /**
+   * Fit the spot in each frame and find the centre using the minimum of the smoothed PSF width.
+   *
+   * <p>This does not modify the state of the plugin and can be run on multiple spots
+   * concurrently.
+   *
+   * @param spot the spot
+   * @param stack the stack
+   * @param width the width
+   * @param height the height
+   * @param loess the smoothing interpolator
+   * @param threads the number of fitting threads
+   * @return the spot analysis
+   */
+  private SpotAnalysis analyseSpot(BasePoint spot, ImageStack stack, int width, int height,
+      LoessInterpolator loess, int threads) {
+    final int x = (int) spot.getX();
+    final int y = (int) spot.getY();
+
+    final MemoryPeakResults results = fitSpot(stack, width, height, x, y, threads);
+    final SpotAnalysis analysis = new SpotAnalysis(results);
+
+    if (results.size() < 5) {
+      return analysis;
+    }
+
+    // Get the results for the spot centre and width
+    final double[] z = new double[results.size()];
+    final double[] xCoord = new double[z.length];
+    final double[] yCoord = new double[z.length];
+    final Counter counter = new Counter();
+
+    // We have fit the results so they will be in the preferred units
+    results.forEach((PeakResultProcedure) peak -> {
+      final int i = counter.getAndIncrement();
+      z[i] = peak.getFrame();
+      xCoord[i] = peak.getXPosition() - x;
+      yCoord[i] = peak.getYPosition() - y;
+    });
+
+    final WidthResultProcedure wp = new WidthResultProcedure(results, DistanceUnit.PIXEL);
+    wp.getW();
+    final double[] sd = SimpleArrayUtils.toDouble(wp.wx);
+
+    final HeightResultProcedure hp = new HeightResultProcedure(results, IntensityUnit.COUNT);
+    hp.getH();
+    final double[] a = SimpleArrayUtils.toDouble(hp.heights);
+
+    // Smooth the amplitude plot
+    final double[] smoothA = loess.smooth(z, a);
+
+    // Find the maximum amplitude
+    int maximumIndex = findMaximumIndex(smoothA);
+
+    // Find the range at a fraction of the max. This is smoothed to find the X/Y centre
+    int start = 0;
+    int stop = smoothA.length - 1;
+    final double limit = smoothA[maximumIndex] * settings.getAmplitudeFraction();
+    for (int j = 0; j < smoothA.length; j++) {
+      if (smoothA[j] > limit) {
+        start = j;
+        break;
+      }
+    }
+    for (int j = smoothA.length; j-- > 0;) {
+      if (smoothA[j] > limit) {
+        stop = j;
+        break;
+      }
+    }
+
+    // Extract xy centre coords and smooth
+    double[] smoothX = new double[stop - start + 1];
+    double[] smoothY = new double[smoothX.length];
+    double[] smoothSd = new double[smoothX.length];
+    final double[] newZ = new double[smoothX.length];
+    for (int j = start, k = 0; j <= stop; j++, k++) {
+      smoothX[k] = xCoord[j];
+      smoothY[k] = yCoord[j];
+      smoothSd[k] = sd[j];
+      newZ[k] = z[j];
+    }
+    smoothX = loess.smooth(newZ, smoothX);
+    smoothY = loess.smooth(newZ, smoothY);
+    smoothSd = loess.smooth(newZ, smoothSd);
+
+    // Since the amplitude is not very consistent move from this peak to the
+    // lowest width which is the in-focus spot.
+    maximumIndex = findMinimumIndex(smoothSd, maximumIndex - start);
+
+    // Find the centre at the amplitude peak
+    analysis.z = z;
+    analysis.xCoord = xCoord;
+    analysis.yCoord = yCoord;
+    analysis.sd = sd;
+    analysis.amplitude = a;
+    analysis.smoothA = smoothA;
+    analysis.start = start;
+    analysis.stop = stop;
+    analysis.newZ = newZ;
+    analysis.smoothX = smoothX;
+    analysis.smoothY = smoothY;
+    analysis.smoothSd = smoothSd;
+    analysis.maximumIndex = maximumIndex;
+    analysis.cx = smoothX[maximumIndex] + x;
+    analysis.cy = smoothY[maximumIndex] + y;
+    analysis.cz = (int) newZ[maximumIndex];
+    analysis.csd = smoothSd[maximumIndex];
+    analysis.ca = smoothA[maximumIndex + start];
+    return analysis;
+  }
+
+  /**
+   * Gets the result of the computation.
+   *
+   * @param <T> the result type
+   * @param future the future
+   * @return the result
+   * @throws ConcurrentRuntimeException if the computation failed or the thread was interrupted
+   */
+  private static <T> T getResult(Future<T> future) {
+    try {
+      return future.get();
+    } catch (final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new ConcurrentRuntimeException(ex);
+    } catch (final ExecutionException ex) {
+      throw new ConcurrentRuntimeException(ex.getCause());
+    }
+  }
+
   private MemoryPeakResults fitSpot(ImageStack stack, final int width, final int height,
-      final int x, final int y) {
+      final int x, final int y, int threads) {
     Rectangle regionBounds = null;
 
     // Create a fit engine
@@ -857,9 +960,8 @@ public class PsfCreator implements PlugInFilter {
     results.setPsf(fitConfig.getPsf());
     results.setSortAfterEnd(true);
     results.begin();
-    final int threadCount = Prefs.getThreads();
     final FitEngine engine = FitEngine.create(config,
-        SynchronizedPeakResults.create(results, threadCount), threadCount, FitQueue.BLOCKING);
+        SynchronizedPeakResults.create(results, threads), threads, FitQueue.BLOCKING);
 
     // List<ParameterisedFitJob> jobItems = new ArrayList<ParameterisedFitJob>(stack.getSize());
 
@@ -1096,7 +1198,18 @@ public class PsfCreator implements PlugInFilter {
   }
 
   private float getBackground(int n, float[][] spot) {
-    // Get the average value of the first and last n frames
+    final double[] background = computeBackground(spot);
+    logBackground(n, background);
+    return (float) background[2];
+  }
+
+  /**
+   * Compute the background using the average value of the first and last n frames.
+   *
+   * @param spot the spot
+   * @return the mean of the first frames, the last frames and the average
+   */
+  private double[] computeBackground(float[][] spot) {
     final Statistics first = new Statistics();
     final Statistics last = new Statistics();
     for (int i = 0; i < settings.getStartBackgroundFrames(); i++) {
@@ -1106,43 +1219,36 @@ public class PsfCreator implements PlugInFilter {
       last.add(spot[j]);
     }
     final float av = (float) ((first.getSum() + last.getSum()) / (first.getN() + last.getN()));
+    return new double[] {first.getMean(), last.getMean(), av};
+  }
+
+  private void logBackground(int n, double[] background) {
     ImageJUtils.log("  Spot %d Background: First %d = %.2f, Last %d = %.2f, av = %.2f", n,
-        settings.getStartBackgroundFrames(), first.getMean(), settings.getEndBackgroundFrames(),
-        last.getMean(), av);
-    return av;
+        settings.getStartBackgroundFrames(), background[0], settings.getEndBackgroundFrames(),
+        background[1], background[2]);
   }
 
   /**
-   * Subtract the background from the spot, compute the intensity within half the box region
-   * distance from the centre and smooth the intensity profile. In interactive mode the user must
-   * choose to accept the profile or reject. If accepted the smoothed profile is user to normalise
-   * the image and then the image is rolled off to zero using a Tukey window function.
-   *
-   * @param spot the spot
-   * @param background The minimum level, all below this is background and set to zero
-   * @param spotWidth the spot width
-   * @param spotHeight the spot height
-   * @param centre the centre
-   * @param loess The smoothing interpolator
-   * @return True if accepted
+   * Define the pixels within half the box radius from the centre of the spot region.
    */
-  private boolean subtractBackgroundAndWindow(float[][] spot, final float background,
-      final int spotWidth, final int spotHeight, double[] centre, LoessInterpolator loess) {
-    // ImageWindow imageWindow = new ImageWindow();
-    for (int i = 0; i < spot.length; i++) {
-      for (int j = 0; j < spot[i].length; j++) {
-        spot[i][j] = Math.max(spot[i][j] - background, 0);
-      }
-    }
+  private static class IntensityMask {
+    final int width;
+    final int height;
+    final int minx;
+    final int maxx;
+    final int miny;
+    final int maxy;
+    final boolean[] dmap;
 
-    // Create a distance map from the centre
-    if (lastWidth != spotWidth || lastHeight != spotHeight) {
-      final double cx = spotWidth * 0.5;
-      final double cy = spotHeight * 0.5;
+    IntensityMask(int width, int height, int boxRadius) {
+      this.width = width;
+      this.height = height;
+      final double cx = width * 0.5;
+      final double cy = height * 0.5;
       minx = Math.max(0, (int) (cx - boxRadius * 0.5));
-      maxx = Math.min(spotWidth, (int) Math.ceil(cx + boxRadius * 0.5));
+      maxx = Math.min(width, (int) Math.ceil(cx + boxRadius * 0.5));
       miny = Math.max(0, (int) (cy - boxRadius * 0.5));
-      maxy = Math.min(spotHeight, (int) Math.ceil(cy + boxRadius * 0.5));
+      maxy = Math.min(height, (int) Math.ceil(cy + boxRadius * 0.5));
 
       // Precompute square distances
       final double[] dx2 = new double[maxx - minx + 1];
@@ -1162,25 +1268,65 @@ public class PsfCreator implements PlugInFilter {
           dmap[j] = (dx2[i] < limit);
         }
       }
-      lastWidth = spotWidth;
-      lastHeight = spotHeight;
     }
 
-    // Calculate the intensity profile within half the box radius from the centre
-    final double[] xValues = new double[spot.length];
-    final double[] yValues = new double[spot.length];
-    for (int i = 0; i < spot.length; i++) {
-      xValues[i] = i + 1;
+    /**
+     * Sum the data within the mask.
+     *
+     * @param data the data
+     * @return the sum
+     */
+    double sum(float[] data) {
       double sum = 0;
       for (int y = miny, j = 0; y < maxy; y++) {
-        int index = y * spotWidth + minx;
+        int index = y * width + minx;
         for (int x = minx; x < maxx; x++, index++, j++) {
           if (dmap[j]) {
-            sum += spot[i][index];
+            sum += data[index];
           }
         }
       }
-      yValues[i] = sum;
+      return sum;
+    }
+  }
+
+  /**
+   * Subtract the background from the spot, compute the intensity within half the box region
+   * distance from the centre and smooth the intensity profile. In interactive mode the user must
+   * choose to accept the profile or reject. If accepted the smoothed profile is user to normalise
+   * the image and then the image is rolled off to zero using a Tukey window function.
+   *
+   * @param spot the spot
+   * @param background The minimum level, all below this is background and set to zero
+   * @param spotWidth the spot width
+   * @param spotHeight the spot height
+   * @param centre the centre
+   * @param loess The smoothing interpolator
+   * @return True if accepted
+   */
+  private boolean subtractBackgroundAndWindow(float[][] spot, final float background,
+      final int spotWidth, final int spotHeight, double[] centre, LoessInterpolator loess) {
+    // ImageWindow imageWindow = new ImageWindow();
+    for (int i = 0; i < spot.length; i++) {
+      for (int j = 0; j < spot[i].length; j++) {
+        spot[i][j] = Math.max(spot[i][j] - background, 0);
+      }
+    }
+
+    // Create a distance map from the centre.
+    // This is immutable and cached for reuse as spot regions are often the same size.
+    IntensityMask mask = intensityMask;
+    if (mask == null || mask.width != spotWidth || mask.height != spotHeight) {
+      mask = new IntensityMask(spotWidth, spotHeight, boxRadius);
+      intensityMask = mask;
+    }
+
+    // Calculate the intensity profile within half the box radius from the centre
+    final double[] xValues = new double[spot.length];
+    final double[] yValues = new double[spot.length];
+    for (int i = 0; i < spot.length; i++) {
+      xValues[i] = i + 1;
+      yValues[i] = mask.sum(spot[i]);
     }
 
     final double[] newY = loess.smooth(xValues, yValues);
@@ -1256,8 +1402,6 @@ public class PsfCreator implements PlugInFilter {
     // Enlargement size
     final int w = regionBounds.width;
     final int h = regionBounds.height;
-    final int dstWidth = w * magnification;
-    final int dstHeight = h * magnification;
 
     // Multi-thread for speed
     if (threadPool == null) {
@@ -1278,89 +1422,279 @@ public class PsfCreator implements PlugInFilter {
 
         incrementProgress(increment);
 
-        double insertX;
-        double insertY;
+        createSliceInsert(originalSpotData, w, h, magnification, centre, centreEachSlice)
+            .addTo(ip);
+      }));
+
+      if (ImageJUtils.isInterrupted()) {
+        break;
+      }
+    }
 
-        // Enlarge
-        FloatProcessor fp = new FloatProcessor(w, h, originalSpotData, null);
-        fp.setInterpolationMethod(settings.getInterpolationMethod());
-        fp = (FloatProcessor) fp.resize(dstWidth, dstHeight);
+    ConcurrencyUtils.waitForCompletionUnchecked(futures);
 
-        // In the case of Bicubic interpolation check for negative values
-        if (settings.getInterpolationMethod() == ImageProcessor.BICUBIC) {
-          final float[] pixels = (float[]) fp.getPixels();
-          for (int ii = 0; ii < pixels.length; ii++) {
-            if (pixels[ii] < 0) {
-              pixels[ii] = 0;
-            }
+    return !ImageJUtils.isInterrupted();
+  }
+
+  /**
+   * Store the enlarged spot data for a slice and the weights for insertion at the four pixel
+   * offsets surrounding the sub-pixel insert position.
+   */
+  static class SliceInsert {
+    /** The enlarged spot data. */
+    final FloatProcessor fp;
+    /** The lower x insert position. */
+    final int lowerX;
+    /** The lower y insert position. */
+    final int lowerY;
+    /** The weights for the offsets (0,0), (1,0), (0,1), (1,1). */
+    final double[] weights;
+
+    SliceInsert(FloatProcessor fp, double insertX, double insertY) {
+      this.fp = fp;
+      lowerX = (int) insertX;
+      lowerY = (int) insertY;
+
+      final double wx2 = insertX - lowerX;
+      final double wx1 = 1 - wx2;
+      final double wy2 = insertY - lowerY;
+      final double wy1 = 1 - wy2;
+
+      weights = new double[] {wx1 * wy1, wx2 * wy1, wx1 * wy2, wx2 * wy2};
+    }
+
+    /**
+     * Enlarge the spot data for a slice and compute the insert position into the combined PSF.
+     *
+     * @param spotData the spot data
+     * @param w the spot width
+     * @param h the spot height
+     * @param magnification the magnification
+     * @param interpolationMethod the interpolation method
+     * @param comCutOff the centre-of-mass cut-off (fraction of the maximum)
+     * @param centre the centre (relative to the spot region)
+     * @param centreEachSlice Set to true to centre each slice using the centre-of-mass
+     * @return the slice insert
+     */
+    static SliceInsert create(float[] spotData, int w, int h, int magnification,
+        int interpolationMethod, double comCutOff, double[] centre, boolean centreEachSlice) {
+      final int dstWidth = w * magnification;
+      final int dstHeight = h * magnification;
+
+      double insertX;
+      double insertY;
+
+      // Enlarge
+      FloatProcessor fp = new FloatProcessor(w, h, spotData, null);
+      fp.setInterpolationMethod(interpolationMethod);
+      fp = (FloatProcessor) fp.resize(dstWidth, dstHeight);
+
+      // In the case of Bicubic interpolation check for negative values
+      if (interpolationMethod == ImageProcessor.BICUBIC) {
+        final float[] pixels = (float[]) fp.getPixels();
+        for (int ii = 0; ii < pixels.length; ii++) {
+          if (pixels[ii] < 0) {
+            pixels[ii] = 0;
           }
         }
+      }
 
-        // Do all CoM calculations here since we use an interpolation
-        // when resizing and the CoM will move.
-        if (centreEachSlice) {
-          final double[] com = calculateCenterOfMass(fp);
-          // System.out.printf("CoM %d : %f %f vs %f %f\n", slice, com[0], com[1],
-          // centre[0] * magnification, centre[1] * magnification);
-
-          // Get the insert position by subtracting the centre-of-mass of the enlarged image from
-          // the
-          // image centre + allow for a border of 1 pixel * magnification
-          insertX = magnification + dstWidth * 0.5 - com[0];
-          insertY = magnification + dstHeight * 0.5 - com[1];
-          // Utils.log("Insert point = %.2f,%.2f => %.2f,%.2f\n", dstWidth * 0.5 - cx, dstHeight *
-          // 0.5 - cy,
-          // insertX, insertY);
-        } else {
-          // Get the insert position from the stack centre using enlargement
-          insertX = getInsert(centre[0], (int) centre[0], magnification);
-          insertY = getInsert(centre[1], (int) centre[1], magnification);
-          // Utils.log("Insert point = %.2f,%.2f => %.2f,%.2f\n", centre[0] - (int) centre[0],
-          // centre[1] - (int) centre[1], insertX, insertY);
+      // Do all CoM calculations here since we use an interpolation
+      // when resizing and the CoM will move.
+      if (centreEachSlice) {
+        final double[] com = calculateCenterOfMass(fp, comCutOff);
+
+        // Get the insert position by subtracting the centre-of-mass of the enlarged image from
+        // the image centre + allow for a border of 1 pixel * magnification
+        insertX = magnification + dstWidth * 0.5 - com[0];
+        insertY = magnification + dstHeight * 0.5 - com[1];
+      } else {
+        // Get the insert position from the stack centre using enlargement
+        insertX = getInsert(centre[0], (int) centre[0], magnification);
+        insertY = getInsert(centre[1], (int) centre[1], magnification);
+      }
+
+      //// Note: The CoM of the inserted data is never perfect since the bilinear weighting
+      //// interpolates the data and shifts the CoM.
+      return new SliceInsert(fp, insertX, insertY);
+    }
+
+    /**
+     * Add to the combined PSF using the correct offset and the weighting. Data outside the bounds
+     * of the PSF slice is ignored.
+     *
+     * @param ip the PSF slice
+     */
+    void addTo(ImageProcessor ip) {
+      final float[] src = (float[]) fp.getPixels();
+      final float[] dst = (float[]) ip.getPixels();
+      final int srcWidth = fp.getWidth();
+      final int srcHeight = fp.getHeight();
+      final int dstWidth = ip.getWidth();
+      final int dstHeight = ip.getHeight();
+      for (int i = 0; i < 4; i++) {
+        // Single precision weighting as per FloatProcessor.multiply
+        final float weight = (float) weights[i];
+        if (weight <= 0) {
+          continue;
+        }
+        final int xloc = lowerX + (i & 1);
+        final int yloc = lowerY + (i >> 1);
+        // Clip to the destination
+        final int x1 = Math.max(0, -xloc);
+        final int y1 = Math.max(0, -yloc);
+        final int x2 = Math.min(srcWidth, dstWidth - xloc);
+        final int y2 = Math.min(srcHeight, dstHeight - yloc);
+        for (int y = y1; y < y2; y++) {
+          for (int x = x1, si = y * srcWidth + x1, di = (y + yloc) * dstWidth + x1 + xloc; x < x2;
+              x++, si++, di++) {
+            dst[di] += src[si] * weight;
+          }
         }
+      }
+    }
+  }
 
-        // Copy the processor using a weighted image
-        final int lowerX = (int) insertX;
-        final int lowerY = (int) insertY;
-
-        final double wx2 = insertX - lowerX;
-        final double wx1 = 1 - wx2;
-        final double wy2 = insertY - lowerY;
-        final double wy1 = 1 - wy2;
-
-        // Add to the combined PSF using the correct offset and the weighting
-        copyBits(ip, fp, lowerX, lowerY, wx1 * wy1);
-        copyBits(ip, fp, lowerX + 1, lowerY, wx2 * wy1);
-        copyBits(ip, fp, lowerX, lowerY + 1, wx1 * wy2);
-        copyBits(ip, fp, lowerX + 1, lowerY + 1, wx2 * wy2);
-
-        //// Check CoM is correct. This is never perfect since the bilinear weighting
-        //// interpolates the data and shifts the CoM.
-        // ImageProcessor ip2 = ip.createProcessor(ip.getWidth(), ip.getHeight());
-        // copyBits(ip2, fp, lowerX, lowerY, wx1 * wy1);
-        // copyBits(ip2, fp, lowerX + 1, lowerY, wx2 * wy1);
-        // copyBits(ip2, fp, lowerX, lowerY + 1, wx1 * wy2);
-        // copyBits(ip2, fp, lowerX + 1, lowerY + 1, wx2 * wy2);
-        //
-        // double[] com = getCoM((FloatProcessor) ip2);
-        // System.out.printf("Inserted CoM %d : %f %f\n", slice, com[0], com[1]);
-      }));
+  /**
+   * Enlarge the spot data for a slice and compute the insert position into the combined PSF.
+   *
+   * @param spotData the spot data
+   * @param w the spot width
+   * @param h the spot height
+   * @param magnification the magnification
+   * @param centre the centre (relative to the spot region)
+   * @param centreEachSlice Set to true to centre each slice using the centre-of-mass
+   * @return the slice insert
+   */
+  private SliceInsert createSliceInsert(float[] spotData, int w, int h, int magnification,
+      double[] centre, boolean centreEachSlice) {
+    return SliceInsert.create(spotData, w, h, magnification, settings.getInterpolationMethod(),
+        settings.getComCutOff(), centre, centreEachSlice);
+  }
 
-      if (ImageJUtils.isInterrupted()) {
-        break;
+  /**
+   * Store an extracted spot prepared for insertion into the combined PSF.
+   */
+  private static class ExtractedSpot {
+    /** The mean of the first frames, the last frames and the average background. */
+    final double[] background;
+    /** The 1-based slice of the combined PSF for the first spot slice. */
+    final int insertZ;
+    final SliceInsert[] inserts;
+
+    ExtractedSpot(double[] background, int insertZ, SliceInsert[] inserts) {
+      this.background = background;
+      this.insertZ = insertZ;
+      this.inserts = inserts;
+    }
+  }
+
+  /**
+   * Extract the spot from the stack, subtract the background and window, then enlarge each slice
+   * for insertion into the combined PSF.
+   *
+   * <p>This must only be used when not in interactive mode. It does not modify the state of the
+   * plugin and can be run on multiple spots concurrently.
+   *
+   * @param centre the centre (updated to be relative to the spot region)
+   * @param stack the stack
+   * @param width the width
+   * @param height the height
+   * @param maxz the maximum z-centre of all spots
+   * @param loess the smoothing interpolator
+   * @return the extracted spot (or null if the stack is empty)
+   */
+  private ExtractedSpot extractSpot(double[] centre, ImageStack stack, int width, int height,
+      int maxz, LoessInterpolator loess) {
+    final float[][] spot = new float[stack.getSize()][];
+    Rectangle regionBounds = null;
+    for (int slice = 1; slice <= stack.getSize(); slice++) {
+      final ImageExtractor ie =
+          ImageExtractor.wrap((float[]) stack.getPixels(slice), width, height);
+      if (regionBounds == null) {
+        regionBounds = ie.getBoxRegionBounds((int) centre[0], (int) centre[1], boxRadius);
       }
+      spot[slice - 1] = ie.crop(regionBounds);
     }
 
-    ConcurrencyUtils.waitForCompletionUnchecked(futures);
+    if (regionBounds == null) {
+      return null;
+    }
 
-    return !ImageJUtils.isInterrupted();
+    final double[] background = computeBackground(spot);
+    subtractBackgroundAndWindow(spot, (float) background[2], regionBounds.width,
+        regionBounds.height, centre, loess);
+
+    // Adjust the centre using the crop
+    centre[0] -= regionBounds.x;
+    centre[1] -= regionBounds.y;
+
+    final int magnification = settings.getMagnification();
+    final boolean centreEachSlice = settings.getCentreEachSlice();
+    final SliceInsert[] inserts = new SliceInsert[spot.length];
+    for (int i = 0; i < spot.length; i++) {
+      inserts[i] = createSliceInsert(spot[i], regionBounds.width, regionBounds.height,
+          magnification, centre, centreEachSlice);
+      // Release the spot data
+      spot[i] = null;
+    }
+    return new ExtractedSpot(background, maxz - (int) centre[2] + 1, inserts);
+  }
+
+  /**
+   * Extract each spot and add it to the combined PSF.
+   *
+   * <p>Spots are extracted concurrently and added to the PSF in order so the result is the same as
+   * sequential processing. The number of extracted spots held in memory is bounded by twice the
+   * thread count.
+   *
+   * @param centres the centres
+   * @param stack the stack
+   * @param width the width
+   * @param height the height
+   * @param maxz the maximum z-centre of all spots
+   * @param psf the combined psf
+   * @param loess the smoothing interpolator
+   * @param stats the background statistics
+   * @return true if successful; false if interrupted
+   */
+  private boolean addToPsf(List<double[]> centres, ImageStack stack, int width, int height,
+      int maxz, ImageStack psf, LoessInterpolator loess, Statistics stats) {
+    final int size = centres.size();
+    final int limit = 2 * Prefs.getThreads();
+    final ArrayDeque<Future<ExtractedSpot>> queue = new ArrayDeque<>(limit);
+    int next = 0;
+    for (int i = 0; i < size; i++) {
+      while (next < size && queue.size() < limit) {
+        final double[] centre = centres.get(next++);
+        queue.add(threadPool.submit(() -> extractSpot(centre, stack, width, height, maxz, loess)));
+      }
+      final ExtractedSpot spot = getResult(queue.poll());
+      setProgress((double) (i + 1) / size);
+
+      if (ImageJUtils.isInterrupted()) {
+        queue.forEach(f -> f.cancel(true));
+        return false;
+      }
+      if (spot == null) {
+        continue; // Empty stack
+      }
+
+      logBackground((int) centres.get(i)[4], spot.background);
+      stats.add(spot.background[2]);
+
+      for (int j = 0; j < spot.inserts.length; j++) {
+        spot.inserts[j].addTo(psf.getProcessor(spot.insertZ + j));
+      }
+    }
+    return true;
   }
 
-  private double[] calculateCenterOfMass(FloatProcessor fp) {
+  private static double[] calculateCenterOfMass(FloatProcessor fp, double comCutOff) {
     final int h = fp.getHeight();
     final int w = fp.getWidth();
     final float[] data = (float[]) fp.getPixels();
-    final double threshold = MathUtils.max(data) * settings.getComCutOff();
+    final double threshold = MathUtils.max(data) * comCutOff;
     double sumx = 0;
     double sumy = 0;
     double sum = 0;
@@ -1420,15 +1754,6 @@ public class PsfCreator implements PlugInFilter {
     IJ.showProgress(progress);
   }
 
-  private static void copyBits(ImageProcessor ip, FloatProcessor fp, int lowerX, int lowerY,
-      double weight) {
-    if (weight > 0) {
-      fp = (FloatProcessor) fp.duplicate();
-      fp.multiply(weight);
-      ip.copyBits(fp, lowerX, lowerY, Blitter.ADD);
-    }
-  }
-
   /**
    * Normalise the PSF using a given denominator.
    *
@@ -1559,7 +1884,8 @@ public class PsfCreator implements PlugInFilter {
     final double[][] com = new double[2][size];
     final double offset = psf.getWidth() / 2.0;
     for (int i = 0; i < size; i++) {
-      final double[] com2 = calculateCenterOfMass((FloatProcessor) psf.getProcessor(i + 1));
+      final double[] com2 = calculateCenterOfMass((FloatProcessor) psf.getProcessor(i + 1),
+          settings.getComCutOff());
       com[0][i] = com2[0] - offset;
       com[1][i] = com2[1] - offset;
       // if (!Double.isNaN(fitCom[0][i]))
@@ -1874,7 +2200,7 @@ public class PsfCreator implements PlugInFilter {
     // fitConfig.setLog(uk.ac.sussex.gdsc.core.ij.ImageJPluginLoggerHelper.getDefaultLogger());
 
     final MemoryPeakResults results =
-        fitSpot(psfStack, psfStack.getWidth(), psfStack.getHeight(), x, y);
+        fitSpot(psfStack, psfStack.getWidth(), psfStack.getHeight(), x, y, Prefs.getThreads());
 
     if (results.size() < 5) {
       ImageJUtils.log("  Final PSF: Not enough fit results %d", results.size());
@@ -5214,25 +5540,23 @@ public class PsfCreator implements PlugInFilter {
     // Note: For alignment we extract each PSF around the current z-centre
     // so the middle of the stack is the middle of the PSF.
 
-    final List<Future<?>> futures = new LocalList<>(psfs.length);
-
     final Image3DAligner align = new Image3DAligner();
     align.setReference(combined.getImageStack(true));
 
-    final float[][] results = new float[psfs.length][3];
-
+    final ImageStack[] stacks = new ImageStack[psfs.length];
     for (int j = 0; j < psfs.length; j++) {
-      final int jj = j;
-      futures.add(threadPool.submit(() -> {
-        final ExtractedPsf psf = psfs[jj];
-        final double[] result = align.copy().align(psf.getImageStack(true), 10);
-        for (int i = 0; i < 3; i++) {
-          results[jj][i] = (float) -result[i];
-        }
-      }));
+      stacks[j] = psfs[j].getImageStack(true);
     }
 
-    ConcurrencyUtils.waitForCompletionUnchecked(futures);
+    // The reference is transformed once and shared by all the workers
+    final double[][] shifts = align.align(stacks, 10, 1e-2, threadPool, Prefs.getThreads());
+
+    final float[][] results = new float[psfs.length][3];
+    for (int j = 0; j < psfs.length; j++) {
+      for (int i = 0; i < 3; i++) {
+        results[j][i] = (float) -shifts[j][i];
+      }
+    }
 
     //// Debug
     // float[][] results2 = align2D(combined, psfs);
@@ -139,6 +139,7 @@ import uk.ac.sussex.gdsc.smlm.results.Trace;
 import uk.ac.sussex.gdsc.smlm.results.count.Counter;
 import uk.ac.sussex.gdsc.smlm.results.count.FrameCounter;
 import uk.ac.sussex.gdsc.smlm.results.sort.IdFramePeakResultComparator;
+import uk.ac.sussex.gdsc.smlm.utils.RectangleIndex;
 
 /**
  * Analyses the time-correlated activation of traced localisation data.
@@ -196,9 +197,18 @@ public class TcPalmAnalysis implements PlugIn {
   /** The cluster data. */
   private LocalList<ClusterData> clusterData;
 
+  /** The spatial index of the cluster data. */
+  private ClusterIndex clusterIndex;
+
   /** The currently selected clusters. */
   private LocalList<ClusterData> clusters;
 
+  /** The index of the currently selected clusters in the cluster data (in ascending order). */
+  private int[] selectedIndices;
+
+  /** The frame counts of the currently selected clusters. Updated incrementally. */
+  private TIntIntHashMap selectedCounts;
+
   /** The count data of the selected clusters. */
   private CumulativeCountData countData;
 
@@ -453,6 +463,67 @@ public class TcPalmAnalysis implements PlugIn {
     }
   }
 
+  /**
+   * A spatial index of the cluster bounds.
+   */
+  private static class ClusterIndex {
+    /** The cluster data. */
+    final ClusterData[] data;
+    /** The index of the cluster bounds. */
+    final RectangleIndex index;
+
+    ClusterIndex(LocalList<ClusterData> clusterData) {
+      data = clusterData.toArray(new ClusterData[0]);
+      final int size = data.length;
+      final double[] x = new double[size];
+      final double[] y = new double[size];
+      final double[] w = new double[size];
+      final double[] h = new double[size];
+      for (int i = 0; i < size; i++) {
+        final ClusterData c = data[i];
+        x[i] = c.x;
+        y[i] = c.y;
+        w[i] = c.width;
+        h[i] = c.height;
+      }
+      index = new RectangleIndex(x, y, w, h);
+    }
+
+    /**
+     * Select the clusters that match the filter. Only clusters with bounds that overlap the
+     * rectangle are tested.
+     *
+     * @param filter the filter
+     * @param r the rectangle
+     * @return the indices of the selected clusters (in ascending order)
+     */
+    int[] select(BiPredicate<ClusterData, Rectangle2D> filter, Rectangle2D r) {
+      final TIntArrayList selected = new TIntArrayList();
+      index.forEach(r.getMinX(), r.getMinY(), r.getMaxX(), r.getMaxY(), i -> {
+        if (filter.test(data[i], r)) {
+          selected.add(i);
+        }
+      });
+      // Preserve the order of the cluster data
+      selected.sort();
+      return selected.toArray();
+    }
+
+    /**
+     * Gets the clusters.
+     *
+     * @param selected the indices of the selected clusters
+     * @return the clusters
+     */
+    LocalList<ClusterData> get(int[] selected) {
+      final LocalList<ClusterData> list = new LocalList<>(selected.length);
+      for (final int index : selected) {
+        list.add(data[index]);
+      }
+      return list;
+    }
+  }
+
   /**
    * Store the cumulative counts.
    */
@@ -1223,6 +1294,9 @@ public class TcPalmAnalysis implements PlugIn {
 
     // Create the bounds and activation times for each cluster
     clusterData = createClusterData(results);
+    clusterIndex = new ClusterIndex(clusterData);
+    selectedIndices = null;
+    selectedCounts = null;
 
     // Add interactive monitor to the image where clusters can be selected.
     // For all selected clusters show on an Activations-vs-Time plot.
@@ -1603,15 +1677,11 @@ public class TcPalmAnalysis implements PlugIn {
     final Rectangle2D scaledBounds = createScaledBounds(roi);
     final BiPredicate<ClusterData, Rectangle2D> filter = createSelectionFilter(roi, settings);
 
-    clusters = new LocalList<>();
-    clusterData.forEach(c -> {
-      if (filter.test(c, scaledBounds)) {
-        clusters.add(c);
-      }
-    });
+    final int[] selected = clusterIndex.select(filter, scaledBounds);
+    clusters = clusterIndex.get(selected);
 
     // Build total activations data
-    countData = createCumulativeCountData(clusters, true);
+    countData = updateCumulativeCountData(selected);
 
     // Add a table of the clusters.
     final ClusterDataTableModelFrame clustersTable = createGroupsTable();
@@ -1703,6 +1773,54 @@ public class TcPalmAnalysis implements PlugIn {
     return (T t, U u) -> first.test(t, u) && second.test(t, u);
   }
 
+  /**
+   * Update the cumulative count data of the current selection. The frame counts are updated
+   * incrementally by removing clusters no longer selected and adding newly selected clusters.
+   *
+   * @param selected the indices of the selected clusters (in ascending order)
+   * @return the cumulative count data
+   */
+  private CumulativeCountData updateCumulativeCountData(int[] selected) {
+    int[] previousIndices = selectedIndices;
+    TIntIntHashMap all = selectedCounts;
+    if (previousIndices == null || all == null) {
+      previousIndices = new int[0];
+      all = new TIntIntHashMap(maxT - minT + 1);
+    }
+    final TIntIntHashMap counts = all;
+    // Merge the two sorted lists of indices
+    int i = 0;
+    int j = 0;
+    while (i < previousIndices.length || j < selected.length) {
+      final int previousIndex = i < previousIndices.length ? previousIndices[i] : Integer.MAX_VALUE;
+      final int index = j < selected.length ? selected[j] : Integer.MAX_VALUE;
+      if (previousIndex == index) {
+        i++;
+        j++;
+      } else if (previousIndex < index) {
+        // No longer selected
+        clusterIndex.data[previousIndex].results.forEach(peak -> {
+          final int frame = peak.getFrame();
+          if (counts.adjustOrPutValue(frame, -1, 0) <= 0) {
+            counts.remove(frame);
+          }
+        });
+        i++;
+      } else {
+        // Newly selected
+        clusterIndex.data[index].results
+            .forEach(peak -> counts.adjustOrPutValue(peak.getFrame(), 1, 1));
+        j++;
+      }
+    }
+    selectedIndices = selected;
+    selectedCounts = counts;
+    final int[] frames = counts.keys();
+    final int[] values = counts.values();
+    SortUtils.sortData(values, frames, true, false);
+    return new CumulativeCountData(frames, values, true);
+  }
+
   /**
    * Creates the cumulative count data.
    *
@@ -2099,12 +2217,8 @@ public class TcPalmAnalysis implements PlugIn {
       final BiPredicate<ClusterData, Rectangle2D> filter = createSelectionFilter(roi, settings);
 
       // Filter all cluster groups
-      final LocalList<ClusterData> clusters = new LocalList<>();
-      clusterData.forEach(c -> {
-        if (filter.test(c, scaledBounds)) {
-          clusters.add(c);
-        }
-      });
+      final LocalList<ClusterData> clusters =
+          clusterIndex.get(clusterIndex.select(filter, scaledBounds));
 
       // Extract activation bursts
       final CumulativeCountData countData = createCumulativeCountData(clusters, false);
@@ -43,6 +43,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import org.apache.commons.lang3.concurrent.ConcurrentRuntimeException;
@@ -197,6 +199,7 @@ public class BenchmarkSpotFilter implements PlugIn {
     int minSearch;
     int maxSearch;
     double border;
+    boolean stripParallel;
     boolean useCached;
     boolean[] batchPlot;
     int selectionMethod;
@@ -259,6 +262,7 @@ public class BenchmarkSpotFilter implements PlugIn {
       minSearch = source.minSearch;
       maxSearch = source.maxSearch;
       border = source.border;
+      stripParallel = source.stripParallel;
       useCached = source.useCached;
       batchPlot = source.batchPlot.clone();
       selectionMethod = source.selectionMethod;
@@ -1722,6 +1726,7 @@ public class BenchmarkSpotFilter implements PlugIn {
       gd.addSlider("Search_width", 1, 4, settings.search);
     }
     gd.addSlider("Border", 0, 5, settings.border);
+    gd.addCheckbox("Strip_parallel", settings.stripParallel);
 
     gd.addMessage("Scoring options:");
     gd.addCheckbox("Score_relative_distances (to HWHM)", settings.scoreRelativeDistances);
@@ -1792,6 +1797,7 @@ public class BenchmarkSpotFilter implements PlugIn {
       settings.search = gd.getNextNumber();
     }
     settings.border = gd.getNextNumber();
+    settings.stripParallel = gd.getNextBoolean();
     settings.scoreRelativeDistances = gd.getNextBoolean();
     settings.analysisBorder = Math.abs(gd.getNextNumber());
     settings.hardBorder = gd.getNextBoolean();
@@ -1943,37 +1949,53 @@ public class BenchmarkSpotFilter implements PlugIn {
     }
 
     // Create a pool of workers
-    final int nThreads = Prefs.getThreads();
+    int nThreads = Prefs.getThreads();
+    ExecutorService executor = null;
+    if (settings.stripParallel && nThreads > 1) {
+      // Process each frame using all threads over strips of the image
+      executor = Executors.newFixedThreadPool(nThreads - 1);
+      spotFilter.setExecutor(executor, nThreads);
+      nThreads = 1;
+    }
     final BlockingQueue<Integer> jobs = new ArrayBlockingQueue<>(nThreads * 2);
     final List<Worker> workers = new LocalList<>(nThreads);
     final List<Thread> threads = new LocalList<>(nThreads);
-    for (int i = 0; i < nThreads; i++) {
-      final Worker worker = new Worker(jobs, stack, spotFilter, background, simulationCoords);
-      final Thread t = new Thread(worker);
-      workers.add(worker);
-      threads.add(t);
-      t.start();
-    }
+    try {
+      for (int i = 0; i < nThreads; i++) {
+        final Worker worker = new Worker(jobs, stack, spotFilter, background, simulationCoords);
+        final Thread t = new Thread(worker);
+        workers.add(worker);
+        threads.add(t);
+        t.start();
+      }
 
-    // Fit the frames
-    for (int i = 1; i <= stack.getSize(); i++) {
-      put(jobs, i);
-    }
-    // Finish all the worker threads by passing in a null job
-    for (int i = 0; i < threads.size(); i++) {
-      put(jobs, -1);
-    }
+      // Fit the frames
+      for (int i = 1; i <= stack.getSize(); i++) {
+        put(jobs, i);
+      }
+      // Finish all the worker threads by passing in a null job
+      for (int i = 0; i < threads.size(); i++) {
+        put(jobs, -1);
+      }
 
-    // Wait for all to finish
-    for (int i = 0; i < threads.size(); i++) {
-      try {
-        threads.get(i).join();
-      } catch (final InterruptedException ex) {
-        Thread.currentThread().interrupt();
-        throw new ConcurrentRuntimeException("Unexpected interrupt", ex);
+      // Wait for all to finish
+      for (int i = 0; i < threads.size(); i++) {
+        try {
+          threads.get(i).join();
+        } catch (final InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new ConcurrentRuntimeException("Unexpected interrupt", ex);
+        }
+      }
+      threads.clear();
+    } finally {
+      if (executor != null) {
+        // The filter is stored in the results and may be copied for use after the executor is
+        // shutdown so revert to single-threaded processing
+        spotFilter.setExecutor(null, 0);
+        executor.shutdown();
       }
     }
-    threads.clear();
 
     if (ImageJUtils.isInterrupted()) {
       return null;
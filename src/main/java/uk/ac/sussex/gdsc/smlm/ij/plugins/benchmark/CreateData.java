@@ -140,6 +140,7 @@ import uk.ac.sussex.gdsc.smlm.filters.GaussianFilter;
 import uk.ac.sussex.gdsc.smlm.fitting.FisherInformationMatrix;
 import uk.ac.sussex.gdsc.smlm.fitting.UnivariateLikelihoodFisherInformationCalculator;
 import uk.ac.sussex.gdsc.smlm.function.BasePoissonFisherInformation;
+import uk.ac.sussex.gdsc.smlm.function.FisherInformationCache;
 import uk.ac.sussex.gdsc.smlm.function.FunctionHelper;
 import uk.ac.sussex.gdsc.smlm.function.InterpolatedPoissonFisherInformation;
 import uk.ac.sussex.gdsc.smlm.function.PoissonGaussianFisherInformation;
@@ -4583,12 +4584,14 @@ public class CreateData implements PlugIn {
         final InterpolatedPoissonFisherInformation i = CameraModelFisherInformationAnalysis
             .loadFunction(CameraModelFisherInformationAnalysis.CameraType.EM_CCD, amp, readNoise);
         if (i == null) {
-          throw new IllegalStateException(
-              "No stored Fisher information for EM-CCD camera with gain " + amp + " and noise "
-                  + readNoise + "\n \nPlease generate using the "
-                  + CameraModelFisherInformationAnalysis.TITLE);
+          // Compute and store the curve using the global cache
+          IJ.showStatus("Computing Fisher information for EM-CCD camera");
+          fi = FisherInformationCache.getInstance()
+              .getFisherInformation(FisherInformationCache.CameraType.EM_CCD, amp, readNoise);
+          IJ.showStatus("");
+        } else {
+          fi = i;
         }
-        fi = i;
       } else {
         // This is fast enough to compute dynamically.
         // Read noise is in electrons so use directly.
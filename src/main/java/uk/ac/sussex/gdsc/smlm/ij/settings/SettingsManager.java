@@ -752,6 +752,16 @@ public final class SettingsManager {
     return new File(settingsDirectory, clazz.getSimpleName().toLowerCase(Locale.US) + ".settings");
   }
 
+  /**
+   * Gets the settings file used to store the message class in the settings directory.
+   *
+   * @param clazz the message class
+   * @return the file
+   */
+  public static File getSettingsFile(Class<? extends Message> clazz) {
+    return createSettingsFile(clazz);
+  }
+
   /**
    * Write a message to a settings file in the settings directory.
    *
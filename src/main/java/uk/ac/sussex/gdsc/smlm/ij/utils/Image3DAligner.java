@@ -27,6 +27,10 @@ package uk.ac.sussex.gdsc.smlm.ij.utils;
 import ij.ImageStack;
 import ij.process.ImageProcessor;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import org.apache.commons.math3.optim.InitialGuess;
 import org.apache.commons.math3.optim.MaxEval;
@@ -40,8 +44,10 @@ import uk.ac.sussex.gdsc.core.math.interpolation.CustomTricubicFunction;
 import uk.ac.sussex.gdsc.core.math.interpolation.CustomTricubicFunctionUtils;
 import uk.ac.sussex.gdsc.core.utils.DoubleEquality;
 import uk.ac.sussex.gdsc.core.utils.ImageWindow;
+import uk.ac.sussex.gdsc.core.utils.LocalList;
 import uk.ac.sussex.gdsc.core.utils.MathUtils;
 import uk.ac.sussex.gdsc.core.utils.SimpleArrayUtils;
+import uk.ac.sussex.gdsc.core.utils.concurrent.ConcurrencyUtils;
 import uk.ac.sussex.gdsc.smlm.function.cspline.CubicSplineCalculator;
 import uk.ac.sussex.gdsc.smlm.math3.optim.PositionChecker;
 import uk.ac.sussex.gdsc.smlm.math3.optim.nonlinear.scalar.gradient.BfgsOptimizer;
@@ -810,6 +816,102 @@ public class Image3DAligner {
     return align(target, refinements, error);
   }
 
+  /**
+   * Align a batch of images with the reference with sub-pixel accuracy. Compute the translation
+   * required to move each target image onto the reference image for maximum correlation.
+   *
+   * <p>The images are processed by the given number of workers. The transformed reference is
+   * shared by all workers; each worker uses a copy of this aligner and reuses its target and
+   * correlation workspace for all the images it processes.
+   *
+   * @param images the images
+   * @param refinements the maximum number of refinements for sub-pixel accuracy
+   * @param error the error for sub-pixel accuracy (i.e. stop when improvements are less than this
+   *        error)
+   * @param executor the executor (can be null to align on the current thread)
+   * @param threads the number of workers
+   * @return [x,y,z,value] for each image
+   * @throws IllegalArgumentException If any dimension is less than 2, or if larger than the
+   *         initialised reference
+   */
+  public double[][] align(ImageStack[] images, int refinements, double error,
+      ExecutorService executor, int threads) {
+    return align(images.length, (aligner, i) -> aligner.align(images[i], refinements, error),
+        executor, threads);
+  }
+
+  /**
+   * Align a batch of images with the reference with sub-pixel accuracy. Compute the translation
+   * required to move each target image onto the reference image for maximum correlation.
+   *
+   * <p>The images are processed by the given number of workers. The transformed reference is
+   * shared by all workers; each worker uses a copy of this aligner and reuses its target and
+   * correlation workspace for all the images it processes.
+   *
+   * @param images the images
+   * @param refinements the maximum number of refinements for sub-pixel accuracy
+   * @param error the error for sub-pixel accuracy (i.e. stop when improvements are less than this
+   *        error)
+   * @param executor the executor (can be null to align on the current thread)
+   * @param threads the number of workers
+   * @return [x,y,z,value] for each image
+   * @throws IllegalArgumentException If any dimension is less than 2, or if larger than the
+   *         initialised reference
+   */
+  public double[][] align(Image3D[] images, int refinements, double error,
+      ExecutorService executor, int threads) {
+    return align(images.length, (aligner, i) -> aligner.align(images[i], refinements, error),
+        executor, threads);
+  }
+
+  /**
+   * Align a batch of images using workers that pull the next image index from a shared counter.
+   *
+   * @param size the number of images
+   * @param function the alignment function
+   * @param executor the executor (can be null to align on the current thread)
+   * @param threads the number of workers
+   * @return the results
+   */
+  private double[][] align(int size, BatchFunction function, ExecutorService executor,
+      int threads) {
+    final double[][] results = new double[size][];
+    final int workers = Math.min(size, threads);
+    if (executor == null || workers <= 1) {
+      for (int i = 0; i < size; i++) {
+        results[i] = function.align(this, i);
+      }
+      return results;
+    }
+    final AtomicInteger next = new AtomicInteger();
+    final List<Future<?>> futures = new LocalList<>(workers);
+    for (int w = 0; w < workers; w++) {
+      final Image3DAligner aligner = copy();
+      futures.add(executor.submit(() -> {
+        for (int i = next.getAndIncrement(); i < size; i = next.getAndIncrement()) {
+          results[i] = function.align(aligner, i);
+        }
+      }));
+    }
+    ConcurrencyUtils.waitForCompletionUnchecked(futures);
+    return results;
+  }
+
+  /**
+   * Align an image from a batch.
+   */
+  @FunctionalInterface
+  private interface BatchFunction {
+    /**
+     * Align the image.
+     *
+     * @param aligner the aligner
+     * @param index the image index
+     * @return [x,y,z,value]
+     */
+    double[] align(Image3DAligner aligner, int index);
+  }
+
   /**
    * Align the image with the reference with sub-pixel accuracy. Compute the translation required to
    * move the target image onto the reference image for maximum correlation.
@@ -43,6 +43,8 @@ public class PerPixelCameraModel implements CameraModel {
   private final float[] variance;
   // This is computed when required
   private float[] varG2;
+  // This is computed when required
+  private volatile PerPixelCameraModelTables tables;
 
   /**
    * Instantiates a new per pixel camera model.
@@ -212,6 +214,8 @@ public class PerPixelCameraModel implements CameraModel {
   public void setOrigin(int x, int y) {
     cameraBounds.x = x;
     cameraBounds.y = y;
+    // The tables record the origin
+    tables = null;
   }
 
   /**
@@ -336,7 +340,49 @@ public class PerPixelCameraModel implements CameraModel {
    * this method before using the model.
    */
   public void initialise() {
-    getNormalisedVarianceInternal();
+    getTables();
+  }
+
+  /**
+   * Gets the precomputed per-pixel tables. These are created on the first call and shared by all
+   * subsequent callers.
+   *
+   * <p>The tables allow regions of the derived per-pixel values (normalised variance and weights)
+   * to be copied into working arrays without recomputation or intermediate allocation.
+   *
+   * @return the tables
+   */
+  public PerPixelCameraModelTables getTables() {
+    PerPixelCameraModelTables result = tables;
+    if (result == null) {
+      result = createTables();
+    }
+    return result;
+  }
+
+  private synchronized PerPixelCameraModelTables createTables() {
+    PerPixelCameraModelTables result = tables;
+    if (result == null) {
+      result = PerPixelCameraModelTables.create(cameraBounds, bias, gain, variance,
+          getNormalisedVarianceInternal());
+      tables = result;
+    }
+    return result;
+  }
+
+  /**
+   * Gets a view of the region of the precomputed per-pixel tables using the intersection of the
+   * bounds.
+   *
+   * @param bounds the bounds
+   * @return the region
+   * @throws IllegalArgumentException If the bounds are not within the camera bounds
+   * @see #getTables()
+   */
+  public PerPixelCameraModelTables.Region getRegion(Rectangle bounds) {
+    final Rectangle intersection = getIntersection(bounds);
+    return getTables().getRegionInternal(intersection.x, intersection.y, intersection.width,
+        intersection.height);
   }
 
   private float[] getNormalisedVarianceInternal() {
@@ -371,7 +417,7 @@ public class PerPixelCameraModel implements CameraModel {
    */
   @Override
   public float[] getWeights(Rectangle bounds) {
-    return CameraModelUtils.toWeights(getVariance(bounds));
+    return getRegion(bounds).getWeights(null);
   }
 
   /**
@@ -379,7 +425,7 @@ public class PerPixelCameraModel implements CameraModel {
    */
   @Override
   public float[] getNormalisedWeights(Rectangle bounds) {
-    return CameraModelUtils.toWeights(getNormalisedVariance(bounds));
+    return getRegion(bounds).getNormalisedWeights(null);
   }
 
   /**
@@ -0,0 +1,313 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.model.camera;
+
+import java.awt.Rectangle;
+
+/**
+ * Precomputed per-pixel tables for a {@link PerPixelCameraModel}.
+ *
+ * <p>The tables hold the full-frame bias, gain, variance, normalised variance (variance divided by
+ * the gain squared) and the weights (1/variance and 1/[normalised variance]). The
+ * derived values are computed once per model. Regions of the tables can be obtained as
+ * {@link Region} views which copy directly from the full-frame tables into the caller's working
+ * arrays without intermediate allocation.
+ *
+ * <p>The tables are immutable and thread safe.
+ */
+public final class PerPixelCameraModelTables {
+  private static final int BIAS = 0;
+  private static final int GAIN = 1;
+  private static final int VARIANCE = 2;
+  private static final int VAR_G2 = 3;
+  private static final int WEIGHTS = 4;
+  private static final int NORMALISED_WEIGHTS = 5;
+
+  /** The camera bounds. */
+  private final Rectangle bounds;
+  /** The full-frame tables. The weights are null if not precomputed. */
+  private final float[][] tables;
+
+  /**
+   * A view of a region of the per-pixel tables. No data is copied until requested.
+   *
+   * <p>Methods to copy the data accept an optional working array. If this is the correct size it
+   * is reused, otherwise a new array is allocated.
+   */
+  public static final class Region {
+    private final PerPixelCameraModelTables source;
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+
+    /**
+     * Create an instance.
+     *
+     * @param source the source
+     * @param x the x origin relative to the tables
+     * @param y the y origin relative to the tables
+     * @param width the width
+     * @param height the height
+     */
+    Region(PerPixelCameraModelTables source, int x, int y, int width, int height) {
+      this.source = source;
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+    }
+
+    /**
+     * Gets the bounds of the region in the camera coordinate frame.
+     *
+     * @return the bounds
+     */
+    public Rectangle getBounds() {
+      return new Rectangle(source.bounds.x + x, source.bounds.y + y, width, height);
+    }
+
+    /**
+     * Gets the size of the region.
+     *
+     * @return the size
+     */
+    public int size() {
+      return width * height;
+    }
+
+    /**
+     * Gets the bias (in counts).
+     *
+     * @param data the working array (can be null)
+     * @return the bias
+     */
+    public float[] getBias(float[] data) {
+      return copy(BIAS, data);
+    }
+
+    /**
+     * Gets the gain (count/photon).
+     *
+     * @param data the working array (can be null)
+     * @return the gain
+     */
+    public float[] getGain(float[] data) {
+      return copy(GAIN, data);
+    }
+
+    /**
+     * Gets the variance (in counts).
+     *
+     * @param data the working array (can be null)
+     * @return the variance
+     */
+    public float[] getVariance(float[] data) {
+      return copy(VARIANCE, data);
+    }
+
+    /**
+     * Gets the variance (in counts).
+     *
+     * @param data the working array (can be null)
+     * @return the variance
+     */
+    public double[] getVariance(double[] data) {
+      return copy(VARIANCE, data);
+    }
+
+    /**
+     * Gets the normalised variance (variance divided by the gain squared).
+     *
+     * @param data the working array (can be null)
+     * @return the normalised variance
+     */
+    public float[] getNormalisedVariance(float[] data) {
+      return copy(VAR_G2, data);
+    }
+
+    /**
+     * Gets the normalised variance (variance divided by the gain squared).
+     *
+     * @param data the working array (can be null)
+     * @return the normalised variance
+     */
+    public double[] getNormalisedVariance(double[] data) {
+      return copy(VAR_G2, data);
+    }
+
+    /**
+     * Gets the weights (1/variance). Any value of the variance that is not strictly positive is set
+     * to the minimum variance above zero within the region.
+     *
+     * @param data the working array (can be null)
+     * @return the weights
+     * @see CameraModelUtils#toWeights(float[])
+     */
+    public float[] getWeights(float[] data) {
+      if (source.tables[WEIGHTS] != null) {
+        return copy(WEIGHTS, data);
+      }
+      return CameraModelUtils.toWeights(copy(VARIANCE, data));
+    }
+
+    /**
+     * Gets the normalised weights (1/[normalised variance]). Any value of the variance that is not
+     * strictly positive is set to the minimum variance above zero within the region.
+     *
+     * @param data the working array (can be null)
+     * @return the normalised weights
+     * @see CameraModelUtils#toWeights(float[])
+     */
+    public float[] getNormalisedWeights(float[] data) {
+      if (source.tables[NORMALISED_WEIGHTS] != null) {
+        return copy(NORMALISED_WEIGHTS, data);
+      }
+      return CameraModelUtils.toWeights(copy(VAR_G2, data));
+    }
+
+    private float[] copy(int table, float[] data) {
+      final float[] result = (data == null || data.length != size()) ? new float[size()] : data;
+      final float[] values = source.tables[table];
+      final int stride = source.bounds.width;
+      for (int ys = 0, offset = 0; ys < height; ys++, offset += width) {
+        System.arraycopy(values, (ys + y) * stride + x, result, offset, width);
+      }
+      return result;
+    }
+
+    private double[] copy(int table, double[] data) {
+      final double[] result = (data == null || data.length != size()) ? new double[size()] : data;
+      final float[] values = source.tables[table];
+      final int stride = source.bounds.width;
+      for (int ys = 0, i = 0; ys < height; ys++) {
+        for (int xs = 0, index = (ys + y) * stride + x; xs < width; xs++) {
+          result[i++] = values[index++];
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Create an instance.
+   *
+   * @param bounds the bounds
+   * @param tables the tables
+   */
+  private PerPixelCameraModelTables(Rectangle bounds, float[][] tables) {
+    this.bounds = bounds;
+    this.tables = tables;
+  }
+
+  /**
+   * Create the tables from the per-pixel data. The input arrays are not copied and must not be
+   * modified.
+   *
+   * <p>The weights are precomputed if all the variances and gains are strictly positive. The full
+   * frame weights then match the weights computed for any region using
+   * {@link CameraModelUtils#toWeights(float[])}. Otherwise the weights are computed for each
+   * region on demand.
+   *
+   * @param bounds the bounds
+   * @param bias the bias (in counts)
+   * @param gain the gain (count/photon)
+   * @param variance the variance (in counts)
+   * @param varG2 the normalised variance (variance divided by the gain squared)
+   * @return the tables
+   */
+  static PerPixelCameraModelTables create(Rectangle bounds, float[] bias, float[] gain,
+      float[] variance, float[] varG2) {
+    final float[][] tables = new float[NORMALISED_WEIGHTS + 1][];
+    tables[BIAS] = bias;
+    tables[GAIN] = gain;
+    tables[VARIANCE] = variance;
+    tables[VAR_G2] = varG2;
+    if (isStrictlyPositive(variance) && isStrictlyPositive(gain)) {
+      tables[WEIGHTS] = CameraModelUtils.toWeights(variance.clone());
+      tables[NORMALISED_WEIGHTS] = CameraModelUtils.toWeights(varG2.clone());
+    }
+    return new PerPixelCameraModelTables(new Rectangle(bounds), tables);
+  }
+
+  /**
+   * Checks if all the values are strictly positive and finite.
+   *
+   * @param values the values
+   * @return true if strictly positive
+   */
+  private static boolean isStrictlyPositive(float[] values) {
+    for (final float value : values) {
+      if (!(value > 0 && value <= Float.MAX_VALUE)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets the bounds of the camera pixel data.
+   *
+   * @return the bounds
+   */
+  public Rectangle getBounds() {
+    return new Rectangle(bounds);
+  }
+
+  /**
+   * Gets a view of the region of the tables. The bounds must be within the camera bounds.
+   *
+   * @param bounds the bounds
+   * @return the region
+   * @throws IllegalArgumentException If the bounds are not within the camera bounds
+   */
+  public Region getRegion(Rectangle bounds) {
+    if (bounds == null) {
+      throw new IllegalArgumentException("Bounds are null");
+    }
+    // Avoid overflow using a long result
+    final long minx = (long) bounds.x - this.bounds.x;
+    final long miny = (long) bounds.y - this.bounds.y;
+    if (minx < 0 || miny < 0 || bounds.width < 0 || bounds.height < 0
+        || minx + bounds.width > this.bounds.width || miny + bounds.height > this.bounds.height) {
+      throw new IllegalArgumentException("Bounds must be within the camera bounds");
+    }
+    return getRegionInternal((int) minx, (int) miny, bounds.width, bounds.height);
+  }
+
+  /**
+   * Gets a view of the region of the tables. The region is relative to the origin of the tables
+   * and is not checked.
+   *
+   * @param x the x origin relative to the tables
+   * @param y the y origin relative to the tables
+   * @param width the width
+   * @param height the height
+   * @return the region
+   */
+  Region getRegionInternal(int x, int y, int width, int height) {
+    return new Region(this, x, y, width, height);
+  }
+}
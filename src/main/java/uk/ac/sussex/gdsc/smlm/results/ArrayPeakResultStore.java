@@ -29,13 +29,22 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Predicate;
 import org.apache.commons.rng.UniformRandomProvider;
 import uk.ac.sussex.gdsc.core.utils.MemoryUtils;
 import uk.ac.sussex.gdsc.smlm.results.procedures.PeakResultProcedure;
+import uk.ac.sussex.gdsc.smlm.results.sort.FrameIndex;
+import uk.ac.sussex.gdsc.smlm.results.sort.FrameSorter;
 
 /**
  * Stores peak results using an array.
+ *
+ * <p>Sorting the results using a comparator that orders by frame first uses a counting sort on the
+ * frame and creates a frame index. This is available until the store is modified. Note that the
+ * store cannot detect modification of the frame of a stored result.
+ *
+ * @see FrameSorter
  */
 public class ArrayPeakResultStore implements PeakResultStoreList, Serializable {
   private static final long serialVersionUID = 20190319L;
@@ -46,6 +55,9 @@ public class ArrayPeakResultStore implements PeakResultStoreList, Serializable {
   /** The size. */
   private int size;
 
+  /** The frame index. This is reset to null when the store is modified. */
+  private transient FrameIndex frameIndex;
+
   /**
    * Instantiates a new array list peak results store.
    *
@@ -64,6 +76,7 @@ public class ArrayPeakResultStore implements PeakResultStoreList, Serializable {
   public ArrayPeakResultStore(ArrayPeakResultStore store) {
     this.results = store.toArray();
     this.size = store.size;
+    this.frameIndex = store.frameIndex;
   }
 
   /**
@@ -126,6 +139,7 @@ public class ArrayPeakResultStore implements PeakResultStoreList, Serializable {
     }
     size = s + 1;
     r[s] = result;
+    frameIndex = null;
     return true;
   }
 
@@ -155,6 +169,7 @@ public class ArrayPeakResultStore implements PeakResultStoreList, Serializable {
     // Append
     System.arraycopy(results, 0, r, s, length);
     size = s + length;
+    frameIndex = null;
     return true;
   }
 
@@ -191,6 +206,7 @@ public class ArrayPeakResultStore implements PeakResultStoreList, Serializable {
     while (fromIndex++ < toIndex) {
       results[--size] = null;
     }
+    frameIndex = null;
   }
 
   @Override
@@ -239,6 +255,7 @@ public class ArrayPeakResultStore implements PeakResultStoreList, Serializable {
       System.arraycopy(results, index + 1, results, index, numMoved);
     }
     results[--size] = null; // Let gc do its work
+    frameIndex = null;
   }
 
   @Override
@@ -288,6 +305,7 @@ public class ArrayPeakResultStore implements PeakResultStoreList, Serializable {
   @Override
   public void clear() {
     size = 0;
+    frameIndex = null;
   }
 
   @Override
@@ -299,7 +317,30 @@ public class ArrayPeakResultStore implements PeakResultStoreList, Serializable {
 
   @Override
   public void sort(Comparator<PeakResult> comparator) {
-    Arrays.sort(results, 0, size, comparator);
+    sort(comparator, null, 1);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>If the comparator orders by frame first then a counting sort is used and the frame index is
+   * created.
+   *
+   * @see FrameSorter#isFrameComparator(Comparator)
+   */
+  @Override
+  public void sort(Comparator<PeakResult> comparator, ExecutorService executor, int threads) {
+    if (FrameSorter.isFrameComparator(comparator)) {
+      frameIndex = FrameSorter.sort(results, size, comparator, executor, threads);
+    } else {
+      Arrays.sort(results, 0, size, comparator);
+      frameIndex = null;
+    }
+  }
+
+  @Override
+  public FrameIndex getFrameIndex() {
+    return frameIndex;
   }
 
   @Override
@@ -391,6 +432,7 @@ public class ArrayPeakResultStore implements PeakResultStoreList, Serializable {
         elements[i] = null;
       }
       size = newSize;
+      frameIndex = null;
     }
     // The list was modified
     return true;
@@ -426,6 +468,7 @@ public class ArrayPeakResultStore implements PeakResultStoreList, Serializable {
       r[i] = r[j];
       r[j] = tmp;
     }
+    frameIndex = null;
   }
 
   @Override
@@ -25,7 +25,9 @@
 package uk.ac.sussex.gdsc.smlm.results;
 
 import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
 import org.apache.commons.rng.UniformRandomProvider;
+import uk.ac.sussex.gdsc.smlm.results.sort.FrameIndex;
 
 /**
  * Stores peak results and prevents modification.
@@ -71,6 +73,16 @@ public class ImmutablePeakResultStoreList extends ImmutablePeakResultStore
     throw new UnsupportedOperationException(IMMUTABLE_MESSAGE);
   }
 
+  @Override
+  public void sort(Comparator<PeakResult> comparator, ExecutorService executor, int threads) {
+    throw new UnsupportedOperationException(IMMUTABLE_MESSAGE);
+  }
+
+  @Override
+  public FrameIndex getFrameIndex() {
+    return store.getFrameIndex();
+  }
+
   @Override
   public PeakResultStoreList copy() {
     return new ImmutablePeakResultStoreList((PeakResultStoreList) store.copy());
@@ -31,6 +31,7 @@ import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Predicate;
 import org.apache.commons.lang3.ArrayUtils;
 import uk.ac.sussex.gdsc.core.data.DataException;
@@ -74,6 +75,8 @@ import uk.ac.sussex.gdsc.smlm.results.procedures.XyrResultProcedure;
 import uk.ac.sussex.gdsc.smlm.results.procedures.XyzResultProcedure;
 import uk.ac.sussex.gdsc.smlm.results.procedures.XyzrResultProcedure;
 import uk.ac.sussex.gdsc.smlm.results.procedures.ZResultProcedure;
+import uk.ac.sussex.gdsc.smlm.results.sort.FrameIdPeakResultComparator;
+import uk.ac.sussex.gdsc.smlm.results.sort.FrameIndex;
 
 /**
  * Stores peak results in memory.
@@ -251,6 +254,30 @@ public class MemoryPeakResults extends AbstractPeakResults {
     this.results.sort(comparator);
   }
 
+  /**
+   * Sort the results. The sort order uses the frame in ascending order. The sort may use the
+   * executor to process the results in parallel.
+   *
+   * @param executor the executor (can be null)
+   * @param threads the number of threads
+   */
+  public void sort(ExecutorService executor, int threads) {
+    this.results.sort(FrameIdPeakResultComparator.INSTANCE, executor, threads);
+  }
+
+  /**
+   * Gets the frame index. This is available if the results have been sorted by frame and not
+   * modified since. The index allows constant time lookup of the range of results for a frame.
+   *
+   * <p>Note: The index is not updated if the frame of a stored result is changed.
+   *
+   * @return the frame index (or null)
+   * @see #sort()
+   */
+  public FrameIndex getFrameIndex() {
+    return this.results.getFrameIndex();
+  }
+
   /**
    * Convert to an array. This is a new allocation of storage space.
    *
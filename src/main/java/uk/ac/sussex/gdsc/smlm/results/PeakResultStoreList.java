@@ -25,8 +25,10 @@
 package uk.ac.sussex.gdsc.smlm.results;
 
 import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
 import org.apache.commons.rng.UniformRandomProvider;
 import uk.ac.sussex.gdsc.smlm.results.sort.FrameIdPeakResultComparator;
+import uk.ac.sussex.gdsc.smlm.results.sort.FrameIndex;
 
 /**
  * Stores peak results with list access.
@@ -72,6 +74,31 @@ public interface PeakResultStoreList extends PeakResultStore {
    */
   void sort(Comparator<PeakResult> comparator);
 
+  /**
+   * Sort the results. The sort may use the executor to process the results in parallel.
+   *
+   * <p>The default implementation ignores the executor and calls {@link #sort(Comparator)}.
+   *
+   * @param comparator the comparator
+   * @param executor the executor (can be null)
+   * @param threads the number of threads
+   */
+  default void sort(Comparator<PeakResult> comparator, ExecutorService executor, int threads) {
+    sort(comparator);
+  }
+
+  /**
+   * Gets the frame index. This is available if the results have been sorted by frame and not
+   * modified since.
+   *
+   * <p>The default implementation returns null.
+   *
+   * @return the frame index (or null)
+   */
+  default FrameIndex getFrameIndex() {
+    return null;
+  }
+
   /**
    * Shuffle the results.
    *
@@ -0,0 +1,279 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.results;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import uk.ac.sussex.gdsc.core.utils.ValidationUtils;
+
+/**
+ * Compute Ripley's K and L functions for 2D coordinates.
+ *
+ * <p>All pairwise distances up to the maximum radius are found in a single pass using a spatial
+ * grid with a cell size of the maximum radius. Each distance is binned against the requested radii
+ * and the cumulative counts produce K(r) for every radius at once. The grid cells are processed in
+ * parallel. The coordinates are assumed to be within the bounds of the region.
+ *
+ * <p>Edge correction uses the translation correction for a rectangular region: each pair is
+ * weighted by {@code A / ((W - |dx|)(H - |dy|))} where {@code A = W * H} is the area of the region
+ * and {@code (dx, dy)} is the pair offset. This is the inverse of the fraction of the region where
+ * the pair could be translated and remain within the region.
+ */
+public final class RipleysFunction {
+  /** The x coordinates. */
+  private final float[] x;
+  /** The y coordinates. */
+  private final float[] y;
+  /** The bounds of the region. */
+  private final Rectangle2D bounds;
+  /** Set to true to use edge correction. */
+  private boolean edgeCorrection = true;
+
+  /**
+   * Create an instance.
+   *
+   * @param x the x coordinates
+   * @param y the y coordinates
+   * @param bounds the bounds of the region containing the coordinates
+   * @throws IllegalArgumentException If the coordinates are different lengths or the region has no
+   *         area
+   */
+  public RipleysFunction(float[] x, float[] y, Rectangle2D bounds) {
+    ValidationUtils.checkArgument(x.length == y.length, "x and y coordinates length mismatch");
+    ValidationUtils.checkArgument(bounds.getWidth() > 0 && bounds.getHeight() > 0,
+        "Region has no area");
+    this.x = x;
+    this.y = y;
+    this.bounds = bounds;
+  }
+
+  /**
+   * Checks if edge correction is enabled.
+   *
+   * @return true if using edge correction
+   */
+  public boolean isEdgeCorrection() {
+    return edgeCorrection;
+  }
+
+  /**
+   * Set to true to use edge correction.
+   *
+   * @param edgeCorrection the new edge correction
+   */
+  public void setEdgeCorrection(boolean edgeCorrection) {
+    this.edgeCorrection = edgeCorrection;
+  }
+
+  /**
+   * Compute Ripley's K-function for each radius.
+   *
+   * <pre>
+   * K(r) = A / (n (n - 1)) * sum_i sum_j!=i w_ij I(d_ij &lt;= r)
+   * </pre>
+   *
+   * <p>where A is the area, n is the number of points, w_ij is the edge correction weight (1 if
+   * disabled) and I is the indicator function.
+   *
+   * @param radii the radii (must be in ascending order)
+   * @return the K-function values
+   * @throws IllegalArgumentException If the radii are not positive and in ascending order
+   */
+  public double[] kfunction(double[] radii) {
+    checkRadii(radii);
+    final double[] k = new double[radii.length];
+    final int n = x.length;
+    if (n < 2 || radii.length == 0) {
+      return k;
+    }
+    final double[] counts = countPairs(radii);
+    final double area = bounds.getWidth() * bounds.getHeight();
+    final double norm = area / ((double) n * (n - 1));
+    double sum = 0;
+    for (int i = 0; i < k.length; i++) {
+      sum += counts[i];
+      k[i] = sum * norm;
+    }
+    return k;
+  }
+
+  /**
+   * Compute Ripley's L-function for each radius.
+   *
+   * <pre>
+   * L(r) = sqrt(K(r) / pi)
+   * </pre>
+   *
+   * @param radii the radii (must be in ascending order)
+   * @return the L-function values
+   * @throws IllegalArgumentException If the radii are not positive and in ascending order
+   * @see #kfunction(double[])
+   */
+  public double[] lfunction(double[] radii) {
+    final double[] l = kfunction(radii);
+    for (int i = 0; i < l.length; i++) {
+      l[i] = Math.sqrt(l[i] / Math.PI);
+    }
+    return l;
+  }
+
+  /**
+   * Check the radii are positive and in ascending order.
+   *
+   * @param radii the radii
+   */
+  private static void checkRadii(double[] radii) {
+    for (int i = 0; i < radii.length; i++) {
+      ValidationUtils.checkPositive(radii[i], "radius");
+      if (i != 0 && radii[i] < radii[i - 1]) {
+        throw new IllegalArgumentException("Radii are not in ascending order");
+      }
+    }
+  }
+
+  /**
+   * Count the (weighted) ordered pairs with a distance in each radius bin. The bin {@code k}
+   * contains the pairs with a distance {@code r[k-1] < d <= r[k]}.
+   *
+   * @param radii the radii
+   * @return the counts
+   */
+  private double[] countPairs(double[] radii) {
+    final int m = radii.length;
+    final double[] r2 = new double[m];
+    for (int i = 0; i < m; i++) {
+      r2[i] = radii[i] * radii[i];
+    }
+    final double maxR = radii[m - 1];
+    final double maxR2 = r2[m - 1];
+
+    // Assign points to a grid with a cell size of at least the maximum radius
+    final double minx = bounds.getMinX();
+    final double miny = bounds.getMinY();
+    final double width = bounds.getWidth();
+    final double height = bounds.getHeight();
+    final int nx = getCells(width, maxR);
+    final int ny = getCells(height, maxR);
+    final double binWidth = width / nx;
+    final double binHeight = height / ny;
+    final int n = x.length;
+    final int[] cell = new int[n];
+    final int[] cellStart = new int[nx * ny + 1];
+    for (int i = 0; i < n; i++) {
+      final int cx = clip((x[i] - minx) / binWidth, nx);
+      final int cy = clip((y[i] - miny) / binHeight, ny);
+      cell[i] = cy * nx + cx;
+      cellStart[cell[i] + 1]++;
+    }
+    for (int i = 1; i < cellStart.length; i++) {
+      cellStart[i] += cellStart[i - 1];
+    }
+    final int[] next = Arrays.copyOf(cellStart, cellStart.length - 1);
+    final float[] sx = new float[n];
+    final float[] sy = new float[n];
+    for (int i = 0; i < n; i++) {
+      final int j = next[cell[i]]++;
+      sx[j] = x[i];
+      sy[j] = y[i];
+    }
+
+    final boolean correct = edgeCorrection;
+    final double area = width * height;
+
+    // Process each cell against the neighbour cells. Ordered pairs are counted.
+    return IntStream.range(0, nx * ny).parallel().collect(() -> new double[m], (counts, c) -> {
+      final int cx = c % nx;
+      final int cy = c / nx;
+      final int x1 = Math.max(0, cx - 1);
+      final int x2 = Math.min(nx - 1, cx + 1);
+      final int y1 = Math.max(0, cy - 1);
+      final int y2 = Math.min(ny - 1, cy + 1);
+      for (int i = cellStart[c]; i < cellStart[c + 1]; i++) {
+        final float xi = sx[i];
+        final float yi = sy[i];
+        for (int yy = y1; yy <= y2; yy++) {
+          final int end = cellStart[yy * nx + x2 + 1];
+          for (int j = cellStart[yy * nx + x1]; j < end; j++) {
+            if (i == j) {
+              continue;
+            }
+            final double dx = (double) sx[j] - xi;
+            final double dy = (double) sy[j] - yi;
+            final double d2 = dx * dx + dy * dy;
+            if (d2 <= maxR2) {
+              int k = Arrays.binarySearch(r2, d2);
+              if (k < 0) {
+                k = -k - 1;
+              }
+              // Find the first bin for duplicate radii
+              while (k > 0 && r2[k - 1] >= d2) {
+                k--;
+              }
+              if (correct) {
+                final double w = (width - Math.abs(dx)) * (height - Math.abs(dy));
+                if (w > 0) {
+                  counts[k] += area / w;
+                }
+              } else {
+                counts[k]++;
+              }
+            }
+          }
+        }
+      }
+    }, (c1, c2) -> {
+      for (int i = 0; i < m; i++) {
+        c1[i] += c2[i];
+      }
+    });
+  }
+
+  /**
+   * Gets the number of cells to cover the range with a cell size of at least the minimum size.
+   *
+   * @param range the range
+   * @param minSize the minimum cell size
+   * @return the number of cells
+   */
+  private static int getCells(double range, double minSize) {
+    // Limit the grid size. A large grid will have few points per cell.
+    return (int) Math.max(1, Math.min(1 << 12, Math.floor(range / minSize)));
+  }
+
+  /**
+   * Clip the cell index to the range [0, n).
+   *
+   * @param value the value
+   * @param n the number of cells
+   * @return the cell index
+   */
+  private static int clip(double value, int n) {
+    if (value <= 0) {
+      return 0;
+    }
+    return (int) Math.min(n - 1, value);
+  }
+}
@@ -40,6 +40,7 @@ import uk.ac.sussex.gdsc.smlm.data.config.PsfHelper;
 import uk.ac.sussex.gdsc.smlm.data.config.UnitProtos.DistanceUnit;
 import uk.ac.sussex.gdsc.smlm.results.count.Counter;
 import uk.ac.sussex.gdsc.smlm.results.procedures.PeakResultProcedure;
+import uk.ac.sussex.gdsc.smlm.results.sort.FrameIndex;
 
 /**
  * Trace localisations through a time stack to identify single molecules.
@@ -171,8 +172,16 @@ public class TraceManager {
 
     totalTraces = localisations.length;
 
-    // Sort by start time
-    Arrays.sort(localisations, (o1, o2) -> Integer.compare(o1.time, o2.time));
+    // Results sorted by frame have an index of the start of each frame
+    FrameIndex frameIndex = results.getFrameIndex();
+    if (frameIndex != null && frameIndex.size() != totalTraces) {
+      frameIndex = null;
+    }
+
+    if (frameIndex == null) {
+      // Sort by start time
+      Arrays.sort(localisations, (o1, o2) -> Integer.compare(o1.time, o2.time));
+    }
 
     // The algorithm assumes minT is positive
     if (localisations[0].time < 0) {
@@ -191,9 +200,15 @@ public class TraceManager {
 
     indexes = new int[maxT + 2];
     int time = -1;
-    for (int i = 0; i < localisations.length; i++) {
-      while (time < localisations[i].time) {
-        indexes[++time] = i;
+    if (frameIndex == null) {
+      for (int i = 0; i < localisations.length; i++) {
+        while (time < localisations[i].time) {
+          indexes[++time] = i;
+        }
+      }
+    } else {
+      for (int t = 0; t <= maxT; t++) {
+        indexes[t] = frameIndex.getStart(t);
       }
     }
     indexes[maxT + 1] = totalTraces;
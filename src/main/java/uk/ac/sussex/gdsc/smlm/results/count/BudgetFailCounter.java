@@ -0,0 +1,252 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.results.count;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Stop evaluating when a budget is exhausted. The budget is consumed by an external resource, for
+ * example the elapsed time or the number of function evaluations. The budget is measured from the
+ * usage when the counter is reset.
+ *
+ * <p>This counter ignores the pass and fail signals for the purpose of deciding to continue. The
+ * budget is checked by {@link #isOk()}. Once it reports the budget is exhausted the counter is
+ * stopped and counts the number of failures signalled until the next reset.
+ *
+ * <p>The counter can limit another fail counter. The other counter is checked before the budget
+ * and receives the pass and fail signals until the budget stops the counter. The other counter
+ * thus retains the state it had when the budget was exhausted.
+ *
+ * <p>The counter is terminated when stopped by the exhausted budget. This is a hard stop for any
+ * further processing.
+ */
+public class BudgetFailCounter extends BaseFailCounter {
+  /** The usage of the resource. */
+  private final LongSupplier usage;
+
+  /** The counter limited by the budget (can be null). */
+  private final FailCounter counter;
+
+  /** The budget. */
+  private long budget;
+
+  /** The usage when the counter was reset. */
+  private long start;
+
+  /** Set to true when the counter is stopped by the exhausted budget. */
+  private boolean stopped;
+
+  /** The count of failures after the budget was exhausted. */
+  private int exhaustedFailCount;
+
+  /**
+   * Instantiates a new budget fail counter.
+   *
+   * @param usage the usage
+   * @param budget the budget
+   * @param counter the counter limited by the budget (can be null)
+   */
+  private BudgetFailCounter(LongSupplier usage, long budget, FailCounter counter) {
+    this.usage = usage;
+    this.budget = budget;
+    this.counter = counter;
+    start = usage.getAsLong();
+  }
+
+  @Override
+  protected String generateDescription() {
+    return (counter == null) ? "budget=" + budget
+        : "budget=" + budget + ";" + counter.getDescription();
+  }
+
+  /**
+   * Create a budget fail counter using the elapsed time in nanoseconds.
+   *
+   * @param budget the budget (in nanoseconds)
+   * @return the budget fail counter
+   */
+  public static BudgetFailCounter createTimeBudget(long budget) {
+    return create(System::nanoTime, budget);
+  }
+
+  /**
+   * Create a budget fail counter.
+   *
+   * <p>The usage must be a non-decreasing count of the resource consumed.
+   *
+   * @param usage the usage
+   * @param budget the budget
+   * @return the budget fail counter
+   */
+  public static BudgetFailCounter create(LongSupplier usage, long budget) {
+    return create(usage, budget, null);
+  }
+
+  /**
+   * Create a budget fail counter that limits another fail counter.
+   *
+   * <p>The usage must be a non-decreasing count of the resource consumed.
+   *
+   * @param usage the usage
+   * @param budget the budget
+   * @param counter the counter limited by the budget (can be null)
+   * @return the budget fail counter
+   */
+  public static BudgetFailCounter create(LongSupplier usage, long budget, FailCounter counter) {
+    if (usage == null) {
+      throw new IllegalArgumentException("Usage must not be null");
+    }
+    return new BudgetFailCounter(usage, Math.max(0, budget), counter);
+  }
+
+  @Override
+  public void pass() {
+    if (counter != null && !stopped) {
+      counter.pass();
+    }
+  }
+
+  @Override
+  public void pass(int n) {
+    if (counter != null && !stopped) {
+      counter.pass(n);
+    }
+  }
+
+  @Override
+  public void fail() {
+    if (stopped) {
+      exhaustedFailCount++;
+    } else if (counter != null) {
+      counter.fail();
+    }
+  }
+
+  @Override
+  public void fail(int n) {
+    if (n < 0) {
+      throw new IllegalArgumentException("Number of fails must be positive");
+    }
+    if (stopped) {
+      exhaustedFailCount += n;
+    } else if (counter != null) {
+      counter.fail(n);
+    }
+  }
+
+  @Override
+  public boolean isOk() {
+    if (stopped || (counter != null && !counter.isOk())) {
+      return false;
+    }
+    stopped = isExhausted();
+    return !stopped;
+  }
+
+  /**
+   * Checks if the budget is exhausted.
+   *
+   * @return true if exhausted
+   */
+  public boolean isExhausted() {
+    return getUsed() >= budget;
+  }
+
+  /**
+   * Checks if the counter was stopped by the exhausted budget. If true the limited counter was OK
+   * when the budget was exhausted.
+   *
+   * @return true if stopped
+   */
+  public boolean isStopped() {
+    return stopped;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Returns true if the counter was stopped by the exhausted budget.
+   *
+   * @see #isStopped()
+   */
+  @Override
+  public boolean isTerminated() {
+    return stopped;
+  }
+
+  @Override
+  public FailCounter newCounter() {
+    return new BudgetFailCounter(usage, budget, (counter == null) ? null : counter.newCounter());
+  }
+
+  /**
+   * Reset the counter. This resets the start point for the budget usage and the limited counter.
+   */
+  @Override
+  public void reset() {
+    if (counter != null) {
+      counter.reset();
+    }
+    start = usage.getAsLong();
+    stopped = false;
+    exhaustedFailCount = 0;
+  }
+
+  /**
+   * Gets the budget used since the counter was reset.
+   *
+   * @return the used budget
+   */
+  public long getUsed() {
+    return usage.getAsLong() - start;
+  }
+
+  /**
+   * Gets the budget.
+   *
+   * @return the budget
+   */
+  public long getBudget() {
+    return budget;
+  }
+
+  /**
+   * Sets the budget. This can be used to adjust the budget between resets.
+   *
+   * @param budget the new budget
+   */
+  public void setBudget(long budget) {
+    this.budget = Math.max(0, budget);
+  }
+
+  /**
+   * Gets the number of failures signalled after the counter was stopped by the exhausted budget.
+   *
+   * @return the exhausted fail count
+   */
+  public int getExhaustedFailCount() {
+    return exhaustedFailCount;
+  }
+}
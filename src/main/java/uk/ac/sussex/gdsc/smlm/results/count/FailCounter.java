@@ -73,6 +73,18 @@ public interface FailCounter {
    */
   boolean isOk();
 
+  /**
+   * Checks if the analysis must terminate. This is set to true when no further events should be
+   * processed, including events that would be processed irrespective of {@link #isOk()}.
+   *
+   * <p>The default implementation returns false.
+   *
+   * @return true, if the analysis must terminate
+   */
+  default boolean isTerminated() {
+    return false;
+  }
+
   /**
    * Create a duplicate fail counter reset to the initialised state.
    *
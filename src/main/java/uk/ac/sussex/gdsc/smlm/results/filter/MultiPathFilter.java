@@ -72,6 +72,9 @@ public class MultiPathFilter {
   private boolean failExisting;
   @XStreamOmitField
   private boolean failNew;
+  /** Set to true to evaluate the single fit before the multi fit. */
+  @XStreamOmitField
+  private boolean singleFirst;
 
   /**
    * Stores the results that were accepted when filtering a multi-path result. Also stores the fit
@@ -378,6 +381,7 @@ public class MultiPathFilter {
     this.filter = copyFilter(source.filter);
     this.minFilter = copyFilter(source.minFilter);
     this.residualsThreshold = source.residualsThreshold;
+    this.singleFirst = source.singleFirst;
   }
 
   /**
@@ -429,6 +433,34 @@ public class MultiPathFilter {
     return (filter == null) ? null : filter.copy();
   }
 
+  /**
+   * Checks if the single fit is evaluated before the multi fit when selecting results in
+   * {@link #select(IMultiPathFitResults, FailCounter, boolean, SelectedResultStore,
+   * CoordinateStore)}.
+   *
+   * @return true if the single fit is evaluated first
+   */
+  public boolean isSingleFirst() {
+    return singleFirst;
+  }
+
+  /**
+   * Set to true to evaluate the single fit before the multi fit when selecting results in
+   * {@link #select(IMultiPathFitResults, FailCounter, boolean, SelectedResultStore,
+   * CoordinateStore)}.
+   *
+   * <p>If the single fit is accepted for the candidate and is not eligible for doublet fitting then
+   * it is selected and the other fit paths are not evaluated. Otherwise all the paths are evaluated
+   * in the default order. This avoids computing the multi fit for candidates where the single fit
+   * is acceptable. The results may be different from the default order as a multi fit result is
+   * preferred when it is accepted.
+   *
+   * @param singleFirst true to evaluate the single fit first
+   */
+  public void setSingleFirst(boolean singleFirst) {
+    this.singleFirst = singleFirst;
+  }
+
   /**
    * Gets the filter.
    *
@@ -912,6 +944,31 @@ public class MultiPathFilter {
     //@formatter:on
   }
 
+  /**
+   * Select a set of results using the single fit if it is accepted for the candidate and not
+   * eligible for doublet fitting. Otherwise use
+   * {@link #select(MultiPathFitResult, boolean, SelectedResultStore)}.
+   *
+   * @param multiPathResult the multi path result
+   * @param validateCandidates Set to true to validate the candidates
+   * @param store the store
+   * @return The results that are accepted; or null
+   */
+  private @Nullable SelectedResult selectSingleFirst(final MultiPathFitResult multiPathResult,
+      boolean validateCandidates, SelectedResultStore store) {
+    final int candidateId = multiPathResult.getCandidateId();
+    final SelectedResultStore singleStore =
+        (store == null) ? NullSelectedResultStore.INSTANCE : store;
+    final PreprocessedPeakResult[] singleResults = acceptAll(candidateId,
+        multiPathResult.getSingleFitResult(), validateCandidates, singleStore);
+    if (singleResults != null && contains(singleResults, candidateId)
+        && !(residualsThreshold < 1 && multiPathResult.getSingleQaScore() > residualsThreshold)) {
+      return new SelectedResult(singleResults, multiPathResult.getSingleFitResult());
+    }
+    // Evaluate all paths. The single fit result is cached so is not computed again.
+    return select(multiPathResult, validateCandidates, store);
+  }
+
   /**
    * Select a set of peak results.
    *
@@ -921,6 +978,9 @@ public class MultiPathFilter {
    * filters and may be excluded using the coordinate store. Selected results are passed to the
    * selected results store. The fail counter is sent a pass/fail signal for each multi-path result.
    *
+   * <p>No results are processed once the fail counter is
+   * {@link FailCounter#isTerminated() terminated}.
+   *
    * <p>A selected result will be stored for each MultiPathFitResult that is assessed, even if the
    * fitting failed. In this case the list of accepted results will be null.
    *
@@ -983,7 +1043,9 @@ public class MultiPathFilter {
       // }
 
       final boolean evaluateFit = failCounter.isOk();
-      if (evaluateFit || store.isValid(multiPathResult.getCandidateId())) {
+      // A terminated counter is a hard stop. Candidates with an estimate are not evaluated.
+      if (evaluateFit || (!failCounter.isTerminated()
+          && store.isValid(multiPathResult.getCandidateId()))) {
         // if (out != null)
         // {
         // try
@@ -1011,7 +1073,9 @@ public class MultiPathFilter {
         // }
 
         // Assess the result if we are below the fail limit or have an estimate
-        final SelectedResult selectedResult = select(multiPathResult, true, store);
+        final SelectedResult selectedResult = (singleFirst)
+            ? selectSingleFirst(multiPathResult, true, store)
+            : select(multiPathResult, true, store);
         boolean newResult = false;
         if (selectedResult != null) {
           int size = 0;
@@ -0,0 +1,133 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.results.sort;
+
+/**
+ * Stores the offset of each frame within a list of results sorted by frame.
+ *
+ * <p>The results for frame {@code f} are in the range {@code [getStart(f), getEnd(f))}. Lookup of
+ * the range for a frame, or a range of frames, is a constant time operation.
+ *
+ * <p>The index is immutable. It is only valid for the list of results used to create it.
+ *
+ * @see FrameSorter
+ */
+public final class FrameIndex {
+  /** The minimum frame. */
+  private final int minFrame;
+
+  /**
+   * The offset of each frame. The offset for frame {@code f} is at index {@code f - minFrame}. The
+   * final offset is the size of the results.
+   */
+  private final int[] offsets;
+
+  /**
+   * Create an instance.
+   *
+   * @param minFrame the minimum frame
+   * @param offsets the offsets
+   */
+  FrameIndex(int minFrame, int[] offsets) {
+    this.minFrame = minFrame;
+    this.offsets = offsets;
+  }
+
+  /**
+   * Gets the number of results.
+   *
+   * @return the size
+   */
+  public int size() {
+    return offsets[offsets.length - 1];
+  }
+
+  /**
+   * Gets the minimum frame. This is only valid if the size is not zero.
+   *
+   * @return the min frame
+   */
+  public int getMinFrame() {
+    return minFrame;
+  }
+
+  /**
+   * Gets the maximum frame. This is only valid if the size is not zero.
+   *
+   * @return the max frame
+   */
+  public int getMaxFrame() {
+    return minFrame + offsets.length - 2;
+  }
+
+  /**
+   * Gets the index of the first result with a frame equal to or above the given frame.
+   *
+   * @param frame the frame
+   * @return the start index
+   */
+  public int getStart(int frame) {
+    if (frame <= minFrame) {
+      return 0;
+    }
+    final long index = (long) frame - minFrame;
+    return index < offsets.length ? offsets[(int) index] : size();
+  }
+
+  /**
+   * Gets the index after the last result with a frame equal to or below the given frame.
+   *
+   * @param frame the frame
+   * @return the end index (exclusive)
+   */
+  public int getEnd(int frame) {
+    if (frame < minFrame) {
+      return 0;
+    }
+    final long index = (long) frame - minFrame + 1;
+    return index < offsets.length ? offsets[(int) index] : size();
+  }
+
+  /**
+   * Gets the number of results for the frame.
+   *
+   * @param frame the frame
+   * @return the count
+   */
+  public int getCount(int frame) {
+    return getEnd(frame) - getStart(frame);
+  }
+
+  /**
+   * Gets the number of results within the range of frames.
+   *
+   * @param fromFrame the from frame (inclusive)
+   * @param toFrame the to frame (inclusive)
+   * @return the count
+   */
+  public int getCount(int fromFrame, int toFrame) {
+    return fromFrame > toFrame ? 0 : getEnd(toFrame) - getStart(fromFrame);
+  }
+}
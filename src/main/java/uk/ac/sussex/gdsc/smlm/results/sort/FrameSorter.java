@@ -0,0 +1,342 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.results.sort;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import uk.ac.sussex.gdsc.core.utils.LocalList;
+import uk.ac.sussex.gdsc.core.utils.concurrent.ConcurrencyUtils;
+import uk.ac.sussex.gdsc.smlm.results.PeakResult;
+
+/**
+ * Sorts results by frame using a stable counting sort.
+ *
+ * <p>A small number of results are sorted using a comparison sort. Otherwise if the range of
+ * frames is small relative to the number of results then a single counting pass is used.
+ * Otherwise a two pass radix sort using 16-bit digits of the frame is used.
+ *
+ * <p>A {@link FrameIndex} is created if the range of frames is at most 4 times the number of
+ * results. This bounds the memory of the index by the memory of the results.
+ *
+ * <p>Results within the same frame can be ordered using a comparator. This is applied to each
+ * frame independently after the sort by frame. The final order is the same as a stable sort of
+ * all the results using a comparator that orders by frame and then by the secondary comparator,
+ * e.g. {@link FrameIdPeakResultComparator}.
+ *
+ * <p>The counting and sorting within frames can be performed in parallel over contiguous chunks
+ * of the results. The current thread processes the first chunk.
+ */
+public final class FrameSorter {
+  /** The minimum number of results for each chunk when processing in parallel. */
+  private static final int MIN_CHUNK_SIZE = 1 << 14;
+  /** The number of bits in each radix digit. */
+  private static final int RADIX_BITS = 16;
+  /** The mask for a radix digit. */
+  private static final int RADIX_MASK = (1 << RADIX_BITS) - 1;
+  /** The maximum number of results to sort using a comparison sort. */
+  private static final int SMALL_SORT_SIZE = 256;
+  /** The maximum frame range of an index as a multiple of the number of results. */
+  private static final long INDEX_RANGE_FACTOR = 4;
+
+  /** No public constructor. */
+  private FrameSorter() {}
+
+  /**
+   * Checks if the comparator orders results by frame first. Such a comparator can be used as the
+   * comparator for results within each frame.
+   *
+   * @param comparator the comparator
+   * @return true if the comparator orders results by frame first
+   */
+  public static boolean isFrameComparator(Comparator<PeakResult> comparator) {
+    return comparator == FramePeakResultComparator.INSTANCE
+        || comparator == FrameIdPeakResultComparator.INSTANCE
+        || comparator == FrameIntensityPeakResultComparator.INSTANCE
+        || comparator == FrameEndFrameIntensityPeakResultComparator.INSTANCE;
+  }
+
+  /**
+   * Sort the results by frame. The sort is stable.
+   *
+   * @param results the results
+   * @param size the number of results to sort
+   * @return the frame index (or null if the frame range is too large to index)
+   */
+  public static FrameIndex sort(PeakResult[] results, int size) {
+    return sort(results, size, null, null, 1);
+  }
+
+  /**
+   * Sort the results by frame. Results within the same frame are sorted using the comparator. The
+   * sort is stable.
+   *
+   * @param results the results
+   * @param size the number of results to sort
+   * @param comparator the comparator for results within each frame (can be null)
+   * @return the frame index (or null if the frame range is too large to index)
+   */
+  public static FrameIndex sort(PeakResult[] results, int size,
+      Comparator<PeakResult> comparator) {
+    return sort(results, size, comparator, null, 1);
+  }
+
+  /**
+   * Sort the results by frame. Results within the same frame are sorted using the comparator. The
+   * sort is stable.
+   *
+   * <p>Use a null executor or less than 2 threads to sort in the current thread.
+   *
+   * @param results the results
+   * @param size the number of results to sort
+   * @param comparator the comparator for results within each frame (can be null)
+   * @param executor the executor (can be null)
+   * @param threads the number of threads
+   * @return the frame index (or null if the frame range is too large to index)
+   */
+  public static FrameIndex sort(PeakResult[] results, int size, Comparator<PeakResult> comparator,
+      ExecutorService executor, int threads) {
+    if (size == 0) {
+      return new FrameIndex(0, new int[1]);
+    }
+    if (size <= SMALL_SORT_SIZE) {
+      return smallSort(results, size, comparator);
+    }
+    final int chunks =
+        (executor == null) ? 1 : Math.max(1, Math.min(threads, size / MIN_CHUNK_SIZE));
+
+    // Find the frame limits
+    final int[] min = new int[chunks];
+    final int[] max = new int[chunks];
+    execute(executor, chunks, chunk -> {
+      int lower = Integer.MAX_VALUE;
+      int upper = Integer.MIN_VALUE;
+      for (int i = getChunkStart(size, chunks, chunk), end = getChunkStart(size, chunks, chunk + 1);
+          i < end; i++) {
+        final int frame = results[i].getFrame();
+        lower = Math.min(lower, frame);
+        upper = Math.max(upper, frame);
+      }
+      min[chunk] = lower;
+      max[chunk] = upper;
+    });
+    final int minFrame = Arrays.stream(min).min().getAsInt();
+    final int maxFrame = Arrays.stream(max).max().getAsInt();
+    final long range = (long) maxFrame - minFrame + 1;
+
+    final PeakResult[] tmp = new PeakResult[size];
+    FrameIndex index = null;
+    if (isIndexRange(range, size)) {
+      // Single counting pass. This creates the index.
+      final int[] offsets =
+          countingSort(results, tmp, size, minFrame, 0, -1, (int) range, executor, chunks);
+      System.arraycopy(tmp, 0, results, 0, size);
+      index = new FrameIndex(minFrame, offsets);
+    } else {
+      // Radix sort using the low and then high digit of the unsigned frame offset
+      countingSort(results, tmp, size, minFrame, 0, RADIX_MASK, RADIX_MASK + 1, executor, chunks);
+      countingSort(tmp, results, size, minFrame, RADIX_BITS, RADIX_MASK, RADIX_MASK + 1, executor,
+          chunks);
+    }
+
+    if (comparator != null && comparator != FramePeakResultComparator.INSTANCE) {
+      sortFrames(results, size, comparator, executor, chunks);
+    }
+    return index;
+  }
+
+  /**
+   * Checks if the frame range can be indexed for the given number of results.
+   *
+   * @param range the frame range
+   * @param size the number of results
+   * @return true if the range can be indexed
+   */
+  private static boolean isIndexRange(long range, int size) {
+    return range < Integer.MAX_VALUE && range <= INDEX_RANGE_FACTOR * size;
+  }
+
+  /**
+   * Sort the results by frame using a stable comparison sort. Results within the same frame are
+   * sorted using the comparator.
+   *
+   * @param results the results
+   * @param size the number of results to sort
+   * @param comparator the comparator for results within each frame (can be null)
+   * @return the frame index (or null if the frame range is too large to index)
+   */
+  private static FrameIndex smallSort(PeakResult[] results, int size,
+      Comparator<PeakResult> comparator) {
+    Comparator<PeakResult> c = FramePeakResultComparator.INSTANCE;
+    if (comparator != null) {
+      c = isFrameComparator(comparator) ? comparator : c.thenComparing(comparator);
+    }
+    Arrays.sort(results, 0, size, c);
+
+    final int minFrame = results[0].getFrame();
+    final long range = (long) results[size - 1].getFrame() - minFrame + 1;
+    if (!isIndexRange(range, size)) {
+      return null;
+    }
+    // Count the results before each frame
+    final int[] offsets = new int[(int) range + 1];
+    for (int i = 0; i < size; i++) {
+      offsets[results[i].getFrame() - minFrame + 1]++;
+    }
+    for (int i = 1; i < offsets.length; i++) {
+      offsets[i] += offsets[i - 1];
+    }
+    return new FrameIndex(minFrame, offsets);
+  }
+
+  /**
+   * Perform a stable counting sort of the results using a key derived from the frame:
+   *
+   * <pre>
+   * key = ((frame - minFrame) &gt;&gt;&gt; shift) &amp; mask
+   * </pre>
+   *
+   * @param src the source
+   * @param dst the destination
+   * @param size the size
+   * @param minFrame the min frame
+   * @param shift the shift
+   * @param mask the mask
+   * @param buckets the number of buckets (must be above the maximum key)
+   * @param executor the executor
+   * @param chunks the number of chunks
+   * @return the start offset of each bucket (the final offset is the size)
+   */
+  private static int[] countingSort(PeakResult[] src, PeakResult[] dst, int size, int minFrame,
+      int shift, int mask, int buckets, ExecutorService executor, int chunks) {
+    // Limit the chunks so the histograms use a similar memory to the results
+    final int n = (int) Math.max(1, Math.min(chunks, 2L * size / buckets));
+
+    // Histogram for each chunk
+    final int[][] counts = new int[n][buckets];
+    execute(executor, n, chunk -> {
+      final int[] count = counts[chunk];
+      for (int i = getChunkStart(size, n, chunk), end = getChunkStart(size, n, chunk + 1);
+          i < end; i++) {
+        count[((src[i].getFrame() - minFrame) >>> shift) & mask]++;
+      }
+    });
+
+    // Convert the counts to the insertion position for each chunk.
+    // Chunks are processed in order for each key so the sort is stable.
+    final int[] offsets = new int[buckets + 1];
+    int position = 0;
+    for (int key = 0; key < buckets; key++) {
+      offsets[key] = position;
+      for (int chunk = 0; chunk < n; chunk++) {
+        final int count = counts[chunk][key];
+        counts[chunk][key] = position;
+        position += count;
+      }
+    }
+    offsets[buckets] = position;
+
+    // Scatter
+    execute(executor, n, chunk -> {
+      final int[] next = counts[chunk];
+      for (int i = getChunkStart(size, n, chunk), end = getChunkStart(size, n, chunk + 1);
+          i < end; i++) {
+        dst[next[((src[i].getFrame() - minFrame) >>> shift) & mask]++] = src[i];
+      }
+    });
+    return offsets;
+  }
+
+  /**
+   * Sort the results within each frame. The results must be sorted by frame.
+   *
+   * @param results the results
+   * @param size the size
+   * @param comparator the comparator
+   * @param executor the executor
+   * @param chunks the number of chunks
+   */
+  private static void sortFrames(PeakResult[] results, int size, Comparator<PeakResult> comparator,
+      ExecutorService executor, int chunks) {
+    // Align the chunk boundaries to the start of a frame
+    final int[] bounds = new int[chunks + 1];
+    bounds[chunks] = size;
+    for (int chunk = 1; chunk < chunks; chunk++) {
+      int start = Math.max(bounds[chunk - 1], getChunkStart(size, chunks, chunk));
+      while (start > 0 && start < size
+          && results[start].getFrame() == results[start - 1].getFrame()) {
+        start++;
+      }
+      bounds[chunk] = start;
+    }
+    execute(executor, chunks, chunk -> {
+      final int end = bounds[chunk + 1];
+      int start = bounds[chunk];
+      while (start < end) {
+        final int frame = results[start].getFrame();
+        int next = start + 1;
+        while (next < end && results[next].getFrame() == frame) {
+          next++;
+        }
+        if (next - start > 1) {
+          Arrays.sort(results, start, next, comparator);
+        }
+        start = next;
+      }
+    });
+  }
+
+  /**
+   * Gets the start of the chunk.
+   *
+   * @param size the size
+   * @param chunks the number of chunks
+   * @param chunk the chunk
+   * @return the start
+   */
+  private static int getChunkStart(int size, int chunks, int chunk) {
+    return (int) ((long) size * chunk / chunks);
+  }
+
+  /**
+   * Execute the task for each chunk. The first chunk is processed in the current thread.
+   *
+   * @param executor the executor
+   * @param chunks the number of chunks
+   * @param task the task
+   */
+  private static void execute(ExecutorService executor, int chunks, IntConsumer task) {
+    final List<Future<?>> futures = new LocalList<>(chunks - 1);
+    for (int chunk = 1; chunk < chunks; chunk++) {
+      final int c = chunk;
+      futures.add(executor.submit(() -> task.accept(c)));
+    }
+    task.accept(0);
+    ConcurrencyUtils.waitForCompletionUnchecked(futures);
+  }
+}
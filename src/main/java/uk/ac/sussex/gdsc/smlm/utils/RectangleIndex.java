@@ -0,0 +1,238 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.utils;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import uk.ac.sussex.gdsc.core.utils.MathUtils;
+import uk.ac.sussex.gdsc.core.utils.ValidationUtils;
+
+/**
+ * A uniform grid spatial index of axis-aligned rectangles.
+ *
+ * <p>Each rectangle that fits within a grid cell is stored in the cell containing its lower
+ * corner. A search expands the region by one cell to find all such rectangles that may overlap the
+ * region. Rectangles larger than a grid cell are stored in a separate list that is always
+ * searched. This bounds the number of cells visited by a search independent of the size of the
+ * largest rectangle.
+ *
+ * <p>The grid is sized for a small number of rectangles per cell with a capped number of cells in
+ * each dimension.
+ */
+public class RectangleIndex {
+  /** The target average number of rectangles per grid cell. */
+  private static final int ITEMS_PER_CELL = 4;
+  /** The maximum number of grid cells in each dimension. */
+  private static final int MAX_CELLS = 1024;
+
+  /** The minimum x of each rectangle. */
+  private final double[] minX;
+  /** The minimum y of each rectangle. */
+  private final double[] minY;
+  /** The maximum x of each rectangle. */
+  private final double[] maxX;
+  /** The maximum y of each rectangle. */
+  private final double[] maxY;
+  /** The minimum x of the grid. */
+  private final double originX;
+  /** The minimum y of the grid. */
+  private final double originY;
+  /** The width of each grid cell. */
+  private final double cellWidth;
+  /** The height of each grid cell. */
+  private final double cellHeight;
+  /** The number of grid cells in the x dimension. */
+  private final int nx;
+  /** The number of grid cells in the y dimension. */
+  private final int ny;
+  /** The start of each grid cell in the indices. The final entry is the end. */
+  private final int[] cellStart;
+  /** The rectangle indices for each cell (in ascending order within the cell). */
+  private final int[] indices;
+  /** The indices of rectangles larger than a grid cell (in ascending order). */
+  private final int[] large;
+
+  /**
+   * Create an instance.
+   *
+   * @param x the minimum x of each rectangle
+   * @param y the minimum y of each rectangle
+   * @param width the width of each rectangle
+   * @param height the height of each rectangle
+   * @throws IllegalArgumentException If the arrays are not the same length or a width or height is
+   *         negative
+   */
+  public RectangleIndex(double[] x, double[] y, double[] width, double[] height) {
+    final int size = x.length;
+    ValidationUtils.checkArgument(y.length == size && width.length == size
+        && height.length == size, "Array lengths do not match");
+    minX = x.clone();
+    minY = y.clone();
+    maxX = new double[size];
+    maxY = new double[size];
+    double x1 = Double.POSITIVE_INFINITY;
+    double y1 = Double.POSITIVE_INFINITY;
+    double x2 = Double.NEGATIVE_INFINITY;
+    double y2 = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < size; i++) {
+      ValidationUtils.checkArgument(width[i] >= 0 && height[i] >= 0,
+          "Invalid rectangle size: %d", i);
+      maxX[i] = x[i] + width[i];
+      maxY[i] = y[i] + height[i];
+      x1 = Math.min(x1, x[i]);
+      y1 = Math.min(y1, y[i]);
+      x2 = Math.max(x2, x[i]);
+      y2 = Math.max(y2, y[i]);
+    }
+    if (size == 0) {
+      x1 = y1 = x2 = y2 = 0;
+    }
+    originX = x1;
+    originY = y1;
+    nx = ny = MathUtils.clip(1, MAX_CELLS,
+        (int) Math.ceil(Math.sqrt((double) size / ITEMS_PER_CELL)));
+    cellWidth = Math.max((x2 - x1) / nx, Double.MIN_NORMAL);
+    cellHeight = Math.max((y2 - y1) / ny, Double.MIN_NORMAL);
+
+    // Counting sort of the rectangle indices into the grid cells.
+    // Rectangles larger than a cell are assigned to the large list.
+    final int[] cells = new int[size];
+    cellStart = new int[nx * ny + 1];
+    int largeCount = 0;
+    for (int i = 0; i < size; i++) {
+      if (width[i] > cellWidth || height[i] > cellHeight) {
+        cells[i] = -1;
+        largeCount++;
+      } else {
+        cells[i] = getCellY(y[i]) * nx + getCellX(x[i]);
+        cellStart[cells[i] + 1]++;
+      }
+    }
+    for (int i = 1; i < cellStart.length; i++) {
+      cellStart[i] += cellStart[i - 1];
+    }
+    final int[] next = Arrays.copyOf(cellStart, cellStart.length - 1);
+    indices = new int[size - largeCount];
+    large = new int[largeCount];
+    for (int i = 0, j = 0; i < size; i++) {
+      if (cells[i] < 0) {
+        large[j++] = i;
+      } else {
+        indices[next[cells[i]]++] = i;
+      }
+    }
+  }
+
+  private int getCellX(double x) {
+    return MathUtils.clip(0, nx - 1, (int) ((x - originX) / cellWidth));
+  }
+
+  private int getCellY(double y) {
+    return MathUtils.clip(0, ny - 1, (int) ((y - originY) / cellHeight));
+  }
+
+  /**
+   * Get the number of rectangles.
+   *
+   * @return the size
+   */
+  public int size() {
+    return minX.length;
+  }
+
+  /**
+   * Gets the number of grid cells.
+   *
+   * @return the number of cells
+   */
+  int getNumberOfCells() {
+    return nx * ny;
+  }
+
+  /**
+   * Gets the number of rectangles larger than a grid cell.
+   *
+   * @return the number of large rectangles
+   */
+  int getNumberOfLargeRectangles() {
+    return large.length;
+  }
+
+  /**
+   * For each rectangle that intersects the region, pass the index of the rectangle to the action.
+   * Rectangles that touch the region boundary are included. The order is not defined.
+   *
+   * @param x1 the minimum x of the region
+   * @param y1 the minimum y of the region
+   * @param x2 the maximum x of the region
+   * @param y2 the maximum y of the region
+   * @param action the action
+   */
+  public void forEach(double x1, double y1, double x2, double y2, IntConsumer action) {
+    if (minX.length == 0 || x2 < x1 || y2 < y1) {
+      return;
+    }
+    for (final int index : large) {
+      test(index, x1, y1, x2, y2, action);
+    }
+    // A rectangle no larger than a cell has a lower corner within one cell of the region
+    final int cx1 = getCellX(x1 - cellWidth);
+    final int cx2 = getCellX(x2);
+    final int cy1 = getCellY(y1 - cellHeight);
+    final int cy2 = getCellY(y2);
+    for (int cy = cy1; cy <= cy2; cy++) {
+      for (int cx = cx1, cell = cy * nx + cx1; cx <= cx2; cx++, cell++) {
+        for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+          test(indices[i], x1, y1, x2, y2, action);
+        }
+      }
+    }
+  }
+
+  private void test(int index, double x1, double y1, double x2, double y2, IntConsumer action) {
+    if (minX[index] <= x2 && maxX[index] >= x1 && minY[index] <= y2 && maxY[index] >= y1) {
+      action.accept(index);
+    }
+  }
+
+  /**
+   * Find the rectangles that intersect the region. Rectangles that touch the region boundary are
+   * included.
+   *
+   * @param x1 the minimum x of the region
+   * @param y1 the minimum y of the region
+   * @param x2 the maximum x of the region
+   * @param y2 the maximum y of the region
+   * @return the indices of the rectangles (in ascending order)
+   */
+  public int[] search(double x1, double y1, double x2, double y2) {
+    final int[] result = new int[minX.length];
+    final int[] count = {0};
+    forEach(x1, y1, x2, y2, i -> result[count[0]++] = i);
+    final int[] selected = Arrays.copyOf(result, count[0]);
+    Arrays.sort(selected);
+    return selected;
+  }
+}
@@ -0,0 +1,237 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.engine;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.lang3.concurrent.ConcurrentRuntimeException;
+import org.apache.commons.rng.UniformRandomProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import uk.ac.sussex.gdsc.smlm.data.config.CalibrationProtos.CameraType;
+import uk.ac.sussex.gdsc.smlm.results.MemoryPeakResults;
+import uk.ac.sussex.gdsc.smlm.results.PeakResult;
+import uk.ac.sussex.gdsc.test.junit5.RandomSeed;
+import uk.ac.sussex.gdsc.test.junit5.SeededTest;
+import uk.ac.sussex.gdsc.test.rng.RngUtils;
+
+@SuppressWarnings({"javadoc"})
+class FitEngineTest {
+  private static final int SIZE = 32;
+  private static final Duration TIMEOUT = Duration.ofSeconds(20);
+
+  /**
+   * A job that counts when fitting starts. The fitting waits for a signal and can be set to fail.
+   */
+  private static class TestFitJob extends FitJob {
+    private final AtomicInteger started;
+    private final CountDownLatch signal;
+    private final boolean fail;
+
+    TestFitJob(int slice, AtomicInteger started, CountDownLatch signal, boolean fail) {
+      super(slice, new float[SIZE * SIZE], SIZE, SIZE);
+      this.started = started;
+      this.signal = signal;
+      this.fail = fail;
+    }
+
+    @Override
+    public void start() {
+      started.incrementAndGet();
+      if (fail) {
+        throw new IllegalStateException("Failed job: " + getSlice());
+      }
+      try {
+        signal.await();
+      } catch (final InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new ConcurrentRuntimeException(ex);
+      }
+      super.start();
+    }
+  }
+
+  @SeededTest
+  void pipelineResultsMatchEngine(RandomSeed seed) {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    final float[][] frames = new float[20][];
+    for (int i = 0; i < frames.length; i++) {
+      frames[i] = createFrame(rng, 1 + rng.nextInt(8));
+    }
+    final FitEngineConfiguration config = createConfiguration();
+    final MemoryPeakResults expected = fit(config, frames, 0);
+    final MemoryPeakResults actual = fit(config, frames, 1);
+    Assertions.assertNotEquals(0, expected.size());
+    Assertions.assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      final PeakResult r1 = expected.get(i);
+      final PeakResult r2 = actual.get(i);
+      Assertions.assertEquals(r1.getFrame(), r2.getFrame());
+      Assertions.assertArrayEquals(r1.getParameters(), r2.getParameters());
+    }
+  }
+
+  private static FitEngineConfiguration createConfiguration() {
+    final FitEngineConfiguration config = new FitEngineConfiguration();
+    final FitConfiguration fitConfig = config.getFitConfiguration();
+    fitConfig.setCameraType(CameraType.CCD);
+    fitConfig.setBias(0);
+    fitConfig.setGain(1);
+    fitConfig.setReadNoise(1);
+    fitConfig.setNmPerPixel(100);
+    fitConfig.setInitialPeakStdDev(1.2);
+    return config;
+  }
+
+  private static float[] createFrame(UniformRandomProvider rng, int spots) {
+    final float[] data = new float[SIZE * SIZE];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (float) (10 + rng.nextDouble());
+    }
+    for (int n = 0; n < spots; n++) {
+      final double cx = 4 + rng.nextDouble() * (SIZE - 8);
+      final double cy = 4 + rng.nextDouble() * (SIZE - 8);
+      for (int y = 0, i = 0; y < SIZE; y++) {
+        final double dy = y + 0.5 - cy;
+        for (int x = 0; x < SIZE; x++, i++) {
+          final double dx = x + 0.5 - cx;
+          data[i] += (float) (100 * Math.exp(-(dx * dx + dy * dy) / (2 * 1.2 * 1.2)));
+        }
+      }
+    }
+    return data;
+  }
+
+  private static MemoryPeakResults fit(FitEngineConfiguration config, float[][] frames,
+      int preprocessThreads) {
+    final MemoryPeakResults results = new MemoryPeakResults();
+    final FitEngine engine =
+        FitEngine.create(config, results, 1, preprocessThreads, FitQueue.BLOCKING, 3);
+    Assertions.assertEquals(preprocessThreads != 0, engine.isPipeline());
+    for (int i = 0; i < frames.length; i++) {
+      // The data is modified by the engine
+      engine.run(new FitJob(i + 1, frames[i].clone(), SIZE, SIZE));
+    }
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> engine.end(false));
+    Assertions.assertTrue(engine.isThreadsEmpty());
+    if (preprocessThreads != 0) {
+      Assertions.assertNotEquals(0, engine.getPreprocessTime());
+    }
+    return results;
+  }
+
+  @Test
+  void endFinishesAllJobs() {
+    final FitEngine engine = FitEngine.create(createConfiguration(),
+        new MemoryPeakResults(), 2, 1, FitQueue.BLOCKING, 3);
+    final AtomicInteger started = new AtomicInteger();
+    final CountDownLatch signal = new CountDownLatch(0);
+    final FitJob[] jobs = new FitJob[50];
+    for (int i = 0; i < jobs.length; i++) {
+      jobs[i] = new TestFitJob(i + 1, started, signal, false);
+      engine.run(jobs[i]);
+    }
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> engine.end(false));
+    Assertions.assertTrue(engine.isThreadsEmpty());
+    Assertions.assertTrue(engine.isQueueEmpty());
+    Assertions.assertEquals(jobs.length, started.get());
+    for (final FitJob job : jobs) {
+      Assertions.assertEquals(FitJob.Status.FINISHED, job.getStatus());
+    }
+  }
+
+  @Test
+  void endNowDiscardsQueuedJobs() throws InterruptedException {
+    final FitEngine engine = FitEngine.create(createConfiguration(),
+        new MemoryPeakResults(), 1, 1, FitQueue.NON_BLOCKING, 3);
+    final AtomicInteger started = new AtomicInteger();
+    final CountDownLatch signal = new CountDownLatch(1);
+    final int size = 20;
+    for (int i = 0; i < size; i++) {
+      engine.run(new TestFitJob(i + 1, started, signal, false));
+    }
+    // Release the fitting when the engine is waiting for the workers to stop.
+    // The workers have been signalled to finish before the engine waits.
+    final Thread end = new Thread(() -> engine.end(true));
+    final Thread release = new Thread(() -> {
+      Thread.State state = end.getState();
+      while (state == Thread.State.NEW || state == Thread.State.RUNNABLE) {
+        Thread.yield();
+        state = end.getState();
+      }
+      signal.countDown();
+    });
+    release.start();
+    end.start();
+    end.join(TIMEOUT.toMillis());
+    Assertions.assertFalse(end.isAlive());
+    Assertions.assertTrue(engine.isThreadsEmpty());
+    Assertions.assertTrue(started.get() < size);
+  }
+
+  @Test
+  void endReturnsAfterFailedWorker() {
+    assertEndReturnsAfterFailedWorker(0, FitQueue.BLOCKING, 3);
+    assertEndReturnsAfterFailedWorker(1, FitQueue.NON_BLOCKING, 20);
+  }
+
+  private static void assertEndReturnsAfterFailedWorker(int preprocessThreads,
+      FitQueue queueType, int size) {
+    final FitEngine engine = FitEngine.create(createConfiguration(),
+        new MemoryPeakResults(), 1, preprocessThreads, queueType, 3);
+    final AtomicInteger started = new AtomicInteger();
+    final CountDownLatch signal = new CountDownLatch(0);
+    for (int i = 0; i < size; i++) {
+      engine.run(new TestFitJob(i + 1, started, signal, i == 0));
+    }
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> engine.end(false));
+    Assertions.assertTrue(engine.isThreadsEmpty());
+    Assertions.assertEquals(1, started.get());
+  }
+
+  @Test
+  void ignoreQueueCountsFramesWaitingForEitherStage() throws InterruptedException {
+    final FitEngine engine = FitEngine.create(createConfiguration(),
+        new MemoryPeakResults(), 1, 1, FitQueue.IGNORE, 3);
+    final AtomicInteger started = new AtomicInteger();
+    final CountDownLatch signal = new CountDownLatch(1);
+    // Stall the fitting stage
+    engine.run(new TestFitJob(1, started, signal, false));
+    while (started.get() == 0) {
+      Thread.sleep(1);
+    }
+    // Allow time for the pre-processing stage to drain the input queue
+    final int size = 30;
+    for (int i = 0; i < size; i++) {
+      engine.run(new TestFitJob(i + 2, started, signal, false));
+      Thread.sleep(2);
+    }
+    signal.countDown();
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> engine.end(false));
+    // The stalled job, a job being pre-processed and a backlog of 1.5 * threads
+    Assertions.assertTrue(started.get() <= 4, () -> "Fitted " + started.get());
+  }
+}
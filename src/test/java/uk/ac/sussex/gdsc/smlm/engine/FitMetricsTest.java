@@ -0,0 +1,100 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.engine;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import uk.ac.sussex.gdsc.smlm.engine.FitMetrics.Histogram;
+import uk.ac.sussex.gdsc.smlm.engine.FitMetrics.Metric;
+
+@SuppressWarnings({"javadoc"})
+class FitMetricsTest {
+  @Test
+  void testHistogramBin() {
+    Assertions.assertEquals(0, Histogram.getBin(-1));
+    Assertions.assertEquals(0, Histogram.getBin(0));
+    Assertions.assertEquals(1, Histogram.getBin(1));
+    Assertions.assertEquals(2, Histogram.getBin(2));
+    Assertions.assertEquals(2, Histogram.getBin(3));
+    Assertions.assertEquals(3, Histogram.getBin(4));
+    Assertions.assertEquals(Long.SIZE - 1, Histogram.getBin(Long.MAX_VALUE));
+    for (int bin = 1; bin < Long.SIZE - 1; bin++) {
+      final long upper = Histogram.getUpperBound(bin);
+      Assertions.assertEquals(bin, Histogram.getBin(upper - 1));
+      Assertions.assertEquals(bin + 1, Histogram.getBin(upper));
+    }
+  }
+
+  @Test
+  void testRecord() {
+    final FitMetrics metrics = new FitMetrics();
+    final long[] values = {3, 5, 7, 100, 1000};
+    Arrays.stream(values).forEach(v -> metrics.record(Metric.ITERATIONS, v));
+    final Histogram h = metrics.get(Metric.ITERATIONS);
+    Assertions.assertEquals(values.length, h.getCount());
+    Assertions.assertEquals(Arrays.stream(values).sum(), h.getSum());
+    Assertions.assertEquals(1000, h.getMax());
+    Assertions.assertEquals(1115 / 5.0, h.getMean());
+    // Values 5 and 7 are in the bin [4, 8)
+    Assertions.assertEquals(7, h.getQuantile(0.5));
+    Assertions.assertEquals(1000, h.getQuantile(1));
+    Assertions.assertEquals(0, metrics.get(Metric.EVALUATIONS).getCount());
+  }
+
+  @Test
+  void testMerge() {
+    final FitMetrics m1 = new FitMetrics();
+    final FitMetrics m2 = new FitMetrics();
+    m1.record(Metric.FIT_SINGLE, 10);
+    m2.record(Metric.FIT_SINGLE, 30);
+    m2.record(Metric.FIT_MULTI, 50);
+    final FitMetrics merged = FitMetrics.merge(Arrays.asList(m1, m2));
+    Assertions.assertEquals(2, merged.get(Metric.FIT_SINGLE).getCount());
+    Assertions.assertEquals(40, merged.get(Metric.FIT_SINGLE).getSum());
+    Assertions.assertEquals(30, merged.get(Metric.FIT_SINGLE).getMax());
+    Assertions.assertEquals(1, merged.get(Metric.FIT_MULTI).getCount());
+    // The snapshot is independent
+    m1.record(Metric.FIT_SINGLE, 10);
+    Assertions.assertEquals(2, merged.get(Metric.FIT_SINGLE).getCount());
+    Assertions.assertEquals(2, m1.snapshot().get(Metric.FIT_SINGLE).getCount());
+  }
+
+  @Test
+  void testExport() {
+    final FitMetrics metrics = new FitMetrics();
+    metrics.record(Metric.SPOT_FILTER, 1234);
+    final String csv = metrics.toCsv();
+    final String[] lines = csv.split(System.lineSeparator());
+    Assertions.assertEquals(Metric.values().length + 1, lines.length);
+    Assertions.assertTrue(lines[0].startsWith("Metric,Unit,Count"));
+    Assertions.assertTrue(csv.contains("SPOT_FILTER,ns,1,1234,1234.000,1234,"));
+    final String json = metrics.toJson();
+    Assertions.assertTrue(json.startsWith("{"));
+    Assertions.assertTrue(json.endsWith("}"));
+    Assertions.assertTrue(json.contains("\"SPOT_FILTER\": {\"unit\": \"ns\", \"count\": 1"));
+    Assertions.assertTrue(json.contains("\"bins\": {\"2048\": 1}"));
+  }
+}
@@ -0,0 +1,213 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.engine;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.logging.Logger;
+import org.apache.commons.rng.UniformRandomProvider;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import uk.ac.sussex.gdsc.smlm.data.config.CalibrationProtos.CameraType;
+import uk.ac.sussex.gdsc.smlm.results.MemoryPeakResults;
+import uk.ac.sussex.gdsc.test.junit5.RandomSeed;
+import uk.ac.sussex.gdsc.test.junit5.SeededTest;
+import uk.ac.sussex.gdsc.test.junit5.SpeedTag;
+import uk.ac.sussex.gdsc.test.rng.RngUtils;
+import uk.ac.sussex.gdsc.test.utils.TestComplexity;
+import uk.ac.sussex.gdsc.test.utils.TestSettings;
+import uk.ac.sussex.gdsc.test.utils.functions.FunctionUtils;
+
+@SuppressWarnings({"javadoc"})
+class FitWorkerArenaTest {
+  private static final int SIZE = 32;
+  private static Logger logger;
+
+  @BeforeAll
+  public static void beforeAll() {
+    logger = Logger.getLogger(FitWorkerArenaTest.class.getName());
+  }
+
+  @AfterAll
+  public static void afterAll() {
+    logger = null;
+  }
+
+  @Test
+  void testDoublesArePooledByLength() {
+    final FitWorkerArena arena = new FitWorkerArena();
+    final double[] a = arena.getDoubles(FitWorkerArena.LOWER_BOUNDS, 8);
+    Assertions.assertEquals(8, a.length);
+    Assertions.assertSame(a, arena.getDoubles(FitWorkerArena.LOWER_BOUNDS, 8));
+    Assertions.assertNotSame(a, arena.getDoubles(FitWorkerArena.UPPER_BOUNDS, 8));
+    final double[] b = arena.getDoubles(FitWorkerArena.LOWER_BOUNDS, 15);
+    Assertions.assertEquals(15, b.length);
+    Assertions.assertSame(a, arena.getDoubles(FitWorkerArena.LOWER_BOUNDS, 8));
+    Assertions.assertSame(b, arena.getDoubles(FitWorkerArena.LOWER_BOUNDS, 15));
+    Assertions.assertEquals(6, arena.getRequests());
+    Assertions.assertEquals(3, arena.getAllocations());
+  }
+
+  @Test
+  void testBooleansAreCleared() {
+    final FitWorkerArena arena = new FitWorkerArena();
+    final boolean[] a = arena.getBooleans(FitWorkerArena.AMPLITUDE_ESTIMATE, 3);
+    Arrays.fill(a, true);
+    final boolean[] b = arena.getBooleans(FitWorkerArena.AMPLITUDE_ESTIMATE, 3);
+    Assertions.assertSame(a, b);
+    Assertions.assertArrayEquals(new boolean[3], b);
+  }
+
+  @Test
+  void testInts() {
+    final FitWorkerArena arena = new FitWorkerArena();
+    final int[] a = arena.getInts(FitWorkerArena.POSITION, 2);
+    Assertions.assertEquals(2, a.length);
+    Assertions.assertSame(a, arena.getInts(FitWorkerArena.POSITION, 2));
+    Assertions.assertNotSame(a, arena.getInts(FitWorkerArena.CANDIDATE_INDEX, 2));
+  }
+
+  @Test
+  void testLargeArraysAreNotPooled() {
+    final FitWorkerArena arena = new FitWorkerArena();
+    final int length = FitWorkerArena.MAX_POOLED_LENGTH + 1;
+    final double[] a = arena.getDoubles(FitWorkerArena.LOWER_BOUNDS, length);
+    Assertions.assertEquals(length, a.length);
+    Assertions.assertNotSame(a, arena.getDoubles(FitWorkerArena.LOWER_BOUNDS, length));
+    final boolean[] b = arena.getBooleans(FitWorkerArena.PRECOMPUTED, length);
+    Assertions.assertNotSame(b, arena.getBooleans(FitWorkerArena.PRECOMPUTED, length));
+    final int[] c = arena.getInts(FitWorkerArena.POSITION, length);
+    Assertions.assertNotSame(c, arena.getInts(FitWorkerArena.POSITION, length));
+    Assertions.assertEquals(6, arena.getAllocations());
+  }
+
+  @Test
+  void testUnpooledArraysAreAllocated() {
+    final FitWorkerArena arena = new FitWorkerArena();
+    Assertions.assertTrue(arena.isPooled());
+    arena.setPooled(false);
+    Assertions.assertFalse(arena.isPooled());
+    final double[] a = arena.getDoubles(FitWorkerArena.LOWER_BOUNDS, 8);
+    Assertions.assertNotSame(a, arena.getDoubles(FitWorkerArena.LOWER_BOUNDS, 8));
+    final boolean[] b = arena.getBooleans(FitWorkerArena.PRECOMPUTED, 8);
+    Assertions.assertNotSame(b, arena.getBooleans(FitWorkerArena.PRECOMPUTED, 8));
+    final int[] c = arena.getInts(FitWorkerArena.POSITION, 2);
+    Assertions.assertNotSame(c, arena.getInts(FitWorkerArena.POSITION, 2));
+    Assertions.assertEquals(6, arena.getAllocations());
+  }
+
+  /**
+   * Benchmark the allocation rate of the fit worker when fitting frames with and without pooling
+   * of the working arrays in the arena.
+   */
+  @SpeedTag
+  @SeededTest
+  void benchmarkAllocationRate(RandomSeed seed) {
+    Assumptions.assumeTrue(TestSettings.allow(TestComplexity.MEDIUM));
+    final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    Assumptions.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+    Assumptions.assumeTrue(threadBean.isThreadAllocatedMemorySupported()
+        && threadBean.isThreadAllocatedMemoryEnabled());
+
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    final float[][] frames = new float[200][];
+    for (int i = 0; i < frames.length; i++) {
+      frames[i] = createFrame(rng, 1 + rng.nextInt(15));
+    }
+    final FitEngineConfiguration config = createConfiguration();
+    final MemoryPeakResults results = new MemoryPeakResults();
+    final FitWorker worker = new FitWorker(config, results, null);
+    worker.setSearchParameters(config.createSpotFilter(), config.getFittingWidth());
+    final FitWorkerArena arena = worker.getArena();
+    final long threadId = Thread.currentThread().getId();
+
+    // Warm-up both paths
+    arena.setPooled(false);
+    fit(worker, frames);
+    arena.setPooled(true);
+    fit(worker, frames);
+
+    arena.setPooled(false);
+    long before = threadBean.getThreadAllocatedBytes(threadId);
+    fit(worker, frames);
+    final long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+    arena.setPooled(true);
+    final long requests = arena.getRequests();
+    before = threadBean.getThreadAllocatedBytes(threadId);
+    fit(worker, frames);
+    final long pooled = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+    Assertions.assertNotEquals(0, results.size());
+    Assertions.assertNotEquals(requests, arena.getRequests());
+    final long frameRequests = (arena.getRequests() - requests) / frames.length;
+    logger.info(FunctionUtils.getSupplier(
+        "Allocation per frame: new = %d bytes, arena = %d bytes (%d array requests)",
+        allocated / frames.length, pooled / frames.length, frameRequests));
+  }
+
+  private static FitEngineConfiguration createConfiguration() {
+    final FitEngineConfiguration config = new FitEngineConfiguration();
+    final FitConfiguration fitConfig = config.getFitConfiguration();
+    fitConfig.setCameraType(CameraType.CCD);
+    fitConfig.setBias(0);
+    fitConfig.setGain(1);
+    fitConfig.setReadNoise(1);
+    fitConfig.setNmPerPixel(100);
+    fitConfig.setInitialPeakStdDev(1.2);
+    return config;
+  }
+
+  private static float[] createFrame(UniformRandomProvider rng, int spots) {
+    final float[] data = new float[SIZE * SIZE];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (float) (10 + rng.nextDouble());
+    }
+    for (int n = 0; n < spots; n++) {
+      final double cx = 4 + rng.nextDouble() * (SIZE - 8);
+      final double cy = 4 + rng.nextDouble() * (SIZE - 8);
+      for (int y = 0, i = 0; y < SIZE; y++) {
+        final double dy = y + 0.5 - cy;
+        for (int x = 0; x < SIZE; x++, i++) {
+          final double dx = x + 0.5 - cx;
+          data[i] += (float) (100 * Math.exp(-(dx * dx + dy * dy) / (2 * 1.2 * 1.2)));
+        }
+      }
+    }
+    return data;
+  }
+
+  private static void fit(FitWorker worker, float[][] frames) {
+    for (int i = 0; i < frames.length; i++) {
+      // The data is modified by the worker
+      worker.run(new FitJob(i + 1, frames[i].clone(), SIZE, SIZE));
+    }
+  }
+}
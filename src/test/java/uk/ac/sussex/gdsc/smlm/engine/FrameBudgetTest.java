@@ -0,0 +1,210 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import uk.ac.sussex.gdsc.smlm.engine.FrameBudget.BudgetType;
+import uk.ac.sussex.gdsc.smlm.engine.FrameBudget.SkippedFrame;
+import uk.ac.sussex.gdsc.smlm.results.count.BudgetFailCounter;
+import uk.ac.sussex.gdsc.smlm.results.count.ConsecutiveFailCounter;
+import uk.ac.sussex.gdsc.smlm.results.count.FailCounter;
+
+@SuppressWarnings({"javadoc"})
+class FrameBudgetTest {
+  @Test
+  void testConstructorThrows() {
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> new FrameBudget(null, 10));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> new FrameBudget(BudgetType.TIME, 0));
+    final FrameBudget budget = new FrameBudget(BudgetType.TIME, 10);
+    Assertions.assertThrows(IllegalArgumentException.class, () -> budget.setBudgetLimits(0, 10));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> budget.setBudgetLimits(11, 10));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> budget.setTargetFrameRate(-1, 1));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> budget.setTargetFrameRate(Double.NaN, 1));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> budget.setTargetFrameRate(10, 0));
+  }
+
+  @Test
+  void testEvaluationCounter() {
+    final AtomicLong evaluations = new AtomicLong(5);
+    final FrameBudget budget = new FrameBudget(BudgetType.EVALUATIONS, 10);
+    final BudgetFailCounter counter = budget.createCounter(evaluations::get);
+    counter.reset();
+    Assertions.assertTrue(counter.isOk());
+    evaluations.addAndGet(9);
+    counter.fail();
+    Assertions.assertTrue(counter.isOk());
+    Assertions.assertEquals(9, counter.getUsed());
+    evaluations.addAndGet(1);
+    Assertions.assertFalse(counter.isOk());
+    counter.fail();
+    counter.fail(2);
+    counter.pass();
+    Assertions.assertEquals(3, counter.getExhaustedFailCount());
+    counter.reset();
+    Assertions.assertTrue(counter.isOk());
+    Assertions.assertEquals(0, counter.getExhaustedFailCount());
+
+    final BudgetFailCounter counter2 = (BudgetFailCounter) counter.newCounter();
+    Assertions.assertEquals(10, counter2.getBudget());
+    counter2.setBudget(-1);
+    Assertions.assertFalse(counter2.isOk());
+  }
+
+  @Test
+  void testSkippedCandidatesWithConsecutiveFailCounter() {
+    final AtomicLong evaluations = new AtomicLong();
+    final FrameBudget budget = new FrameBudget(BudgetType.EVALUATIONS, 5);
+    final FailCounter configCounter = ConsecutiveFailCounter.create(2);
+    final BudgetFailCounter counter = budget.createCounter(evaluations::get, configCounter);
+
+    // The budget is exhausted when the configured counter would continue
+    select(counter, evaluations, 20, true);
+    Assertions.assertTrue(counter.isStopped());
+    Assertions.assertTrue(configCounter.isOk());
+    Assertions.assertEquals(15, counter.getExhaustedFailCount());
+    Assertions.assertTrue(budget.addSkipped(1, counter));
+
+    // The configured counter stops before the budget is exhausted
+    select(counter, evaluations, 20, false);
+    Assertions.assertFalse(counter.isStopped());
+    Assertions.assertFalse(configCounter.isOk());
+    Assertions.assertEquals(0, counter.getExhaustedFailCount());
+    Assertions.assertFalse(budget.addSkipped(2, counter));
+
+    Assertions.assertEquals(1, budget.getSkippedSize());
+    final SkippedFrame frame = budget.pollSkipped();
+    Assertions.assertEquals(1, frame.slice);
+    Assertions.assertEquals(15, frame.candidates);
+  }
+
+  /**
+   * Simulate the selection of candidates by the multi-path filter. Each candidate is evaluated
+   * using a single function evaluation if the counter is OK; otherwise the candidate fails.
+   */
+  private static void select(FailCounter counter, AtomicLong evaluations, int candidates,
+      boolean pass) {
+    counter.reset();
+    for (int i = 0; i < candidates; i++) {
+      if (counter.isOk()) {
+        evaluations.incrementAndGet();
+        if (pass) {
+          counter.pass();
+        } else {
+          counter.fail();
+        }
+      } else {
+        counter.fail();
+      }
+    }
+  }
+
+  @Test
+  void testUpdate() {
+    final FrameBudget budget = new FrameBudget(BudgetType.TIME, 1000);
+    // No target frame rate
+    budget.update(100);
+    Assertions.assertEquals(1000, budget.getBudget());
+
+    // 4 threads at 4000 fps is 1ms per frame per thread
+    budget.setTargetFrameRate(4000, 4);
+    Assertions.assertEquals(1000000, budget.getTargetFrameTime());
+    // Too slow
+    budget.update(1250000);
+    Assertions.assertEquals(800, budget.getBudget());
+    // Change is limited
+    budget.update(10000000);
+    Assertions.assertEquals(400, budget.getBudget());
+    budget.update(1);
+    Assertions.assertEquals(800, budget.getBudget());
+    // Budget is clamped
+    budget.setBudgetLimits(500, 1200);
+    budget.update(1);
+    Assertions.assertEquals(1200, budget.getBudget());
+    budget.setBudgetLimits(500, 600);
+    Assertions.assertEquals(600, budget.getBudget());
+    budget.update(10000000);
+    Assertions.assertEquals(500, budget.getBudget());
+
+    budget.setTargetFrameRate(0, 4);
+    budget.update(10000000);
+    Assertions.assertEquals(500, budget.getBudget());
+  }
+
+  @Test
+  void testSkipped() {
+    final FrameBudget budget = new FrameBudget(BudgetType.TIME, 1000);
+    Assertions.assertNull(budget.pollSkipped());
+    budget.addSkipped(3, 10);
+    budget.addSkipped(1, 5);
+    Assertions.assertEquals(2, budget.getSkippedSize());
+    SkippedFrame frame = budget.pollSkipped();
+    Assertions.assertEquals(3, frame.slice);
+    Assertions.assertEquals(10, frame.candidates);
+    frame = budget.pollSkipped();
+    Assertions.assertEquals(1, frame.slice);
+    Assertions.assertEquals(5, frame.candidates);
+    Assertions.assertEquals(0, budget.getSkippedSize());
+    Assertions.assertEquals(2, budget.getSkippedFrames());
+    Assertions.assertEquals(15, budget.getSkippedCandidates());
+  }
+
+  @Test
+  void testSkippedReportsAreLimited() {
+    final FrameBudget budget = new FrameBudget(BudgetType.TIME, 1000);
+    final int size = FrameBudget.MAX_SKIPPED_REPORTS;
+    for (int i = 1; i <= size + 10; i++) {
+      budget.addSkipped(i, 2);
+    }
+    Assertions.assertEquals(size, budget.getSkippedSize());
+    Assertions.assertEquals(size + 10, budget.getSkippedFrames());
+    Assertions.assertEquals(2L * (size + 10), budget.getSkippedCandidates());
+    // The earliest reports are retained
+    Assertions.assertEquals(1, budget.pollSkipped().slice);
+    Assertions.assertEquals(size - 1, budget.getSkippedSize());
+    budget.addSkipped(size + 11, 1);
+    Assertions.assertEquals(size, budget.getSkippedSize());
+  }
+
+  @Test
+  void testStoppedCounterIsTerminated() {
+    final AtomicLong evaluations = new AtomicLong();
+    final FrameBudget budget = new FrameBudget(BudgetType.EVALUATIONS, 10);
+    final BudgetFailCounter counter = budget.createCounter(evaluations::get);
+    Assertions.assertTrue(counter.isOk());
+    Assertions.assertFalse(counter.isTerminated());
+    evaluations.set(10);
+    Assertions.assertFalse(counter.isOk());
+    Assertions.assertTrue(counter.isTerminated());
+    counter.reset();
+    Assertions.assertFalse(counter.isTerminated());
+  }
+}
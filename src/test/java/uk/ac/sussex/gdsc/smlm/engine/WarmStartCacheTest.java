@@ -0,0 +1,197 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import org.apache.commons.rng.UniformRandomProvider;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import uk.ac.sussex.gdsc.smlm.engine.WarmStartCache.FrameResults;
+import uk.ac.sussex.gdsc.smlm.function.gaussian.Gaussian2DFunction;
+import uk.ac.sussex.gdsc.test.junit5.RandomSeed;
+import uk.ac.sussex.gdsc.test.junit5.SeededTest;
+import uk.ac.sussex.gdsc.test.rng.RngUtils;
+import uk.ac.sussex.gdsc.test.utils.functions.FunctionUtils;
+
+@SuppressWarnings({"javadoc"})
+class WarmStartCacheTest {
+  private static Logger logger;
+
+  @BeforeAll
+  public static void beforeAll() {
+    logger = Logger.getLogger(WarmStartCacheTest.class.getName());
+  }
+
+  @AfterAll
+  public static void afterAll() {
+    logger = null;
+  }
+
+  @Test
+  void testConstructorThrows() {
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new WarmStartCache(0));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new WarmStartCache(-1));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> new WarmStartCache(Double.NaN));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> new WarmStartCache(Double.POSITIVE_INFINITY));
+  }
+
+  @Test
+  void testTakePrevious() {
+    final WarmStartCache cache = new WarmStartCache(1);
+    cache.put(3, new float[][] {createParams(1, 2)});
+    Assertions.assertEquals(1, cache.size());
+    Assertions.assertNull(cache.takePrevious(3));
+    Assertions.assertNull(cache.takePrevious(5));
+    final FrameResults results = cache.takePrevious(4);
+    Assertions.assertNotNull(results);
+    Assertions.assertEquals(1, results.size());
+    Assertions.assertEquals(0, cache.size());
+    Assertions.assertNull(cache.takePrevious(4));
+    Assertions.assertEquals(4, cache.getRequests());
+    Assertions.assertEquals(1, cache.getHits());
+
+    // Empty frames are not stored
+    cache.put(5, new float[0][]);
+    Assertions.assertEquals(0, cache.size());
+
+    cache.clear();
+    Assertions.assertEquals(0, cache.getRequests());
+    Assertions.assertEquals(0, cache.getHits());
+  }
+
+  @Test
+  void testOldFramesAreRemoved() {
+    final WarmStartCache cache = new WarmStartCache(1);
+    cache.put(1, new float[][] {createParams(1, 2)});
+    cache.put(2, new float[][] {createParams(1, 2)});
+    Assertions.assertEquals(2, cache.size());
+    cache.put(1000, new float[][] {createParams(1, 2)});
+    Assertions.assertEquals(1, cache.size());
+    cache.clear();
+    Assertions.assertEquals(0, cache.size());
+  }
+
+  @SeededTest
+  void testFindClosest(RandomSeed seed) {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    for (final double distance : new double[] {0.5, 1, 2.5}) {
+      final float[][] params = new float[200][];
+      for (int i = 0; i < params.length; i++) {
+        params[i] = createParams(rng.nextFloat() * 50, rng.nextFloat() * 30);
+      }
+      final FrameResults results = new FrameResults(params, distance);
+      for (int n = 0; n < 500; n++) {
+        final double x = rng.nextDouble() * 60 - 5;
+        final double y = rng.nextDouble() * 40 - 5;
+        float[] expected = null;
+        double min = distance * distance;
+        for (final float[] p : params) {
+          final double dx = p[Gaussian2DFunction.X_POSITION] - x;
+          final double dy = p[Gaussian2DFunction.Y_POSITION] - y;
+          final double d2 = dx * dx + dy * dy;
+          if (d2 <= min) {
+            min = d2;
+            expected = p;
+          }
+        }
+        Assertions.assertSame(expected, results.findClosest(x, y));
+      }
+    }
+  }
+
+  @Test
+  void testFindClosestWithSparsePositions() {
+    // The storage does not depend on the area spanned by the positions
+    final float[][] params = {createParams(0, 0), createParams(1e6f, 2e6f),
+        createParams(1e6f + 0.5f, 2e6f), createParams(5e5f, 0)};
+    final FrameResults results = new FrameResults(params, 1);
+    Assertions.assertEquals(4, results.size());
+    Assertions.assertSame(params[0], results.findClosest(-0.5, 0.5));
+    Assertions.assertSame(params[1], results.findClosest(1e6 - 0.25, 2e6));
+    Assertions.assertSame(params[2], results.findClosest(1e6 + 0.75, 2e6 + 0.5));
+    Assertions.assertSame(params[3], results.findClosest(5e5, 1));
+    Assertions.assertNull(results.findClosest(5e5, 2e6));
+    Assertions.assertNull(results.findClosest(-1e300, 0));
+    Assertions.assertNull(results.findClosest(1e300, 1e300));
+  }
+
+  /**
+   * Measure the fraction of frames that are warm-started when frames are processed concurrently.
+   * Each worker takes the next frame, requests the previous frame and then stores the current frame
+   * after a variable processing time. The previous frame is only found if it has been completed.
+   */
+  @SeededTest
+  void testHitRateWithMultipleThreads(RandomSeed seed) throws InterruptedException {
+    final long[] work = new long[200];
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    for (int i = 0; i < work.length; i++) {
+      // 0.1 to 1 ms
+      work[i] = 100000 + rng.nextInt(900000);
+    }
+    for (final int threads : new int[] {1, 2, 4}) {
+      final WarmStartCache cache = new WarmStartCache(1);
+      final AtomicInteger next = new AtomicInteger();
+      final Thread[] workers = new Thread[threads];
+      for (int t = 0; t < threads; t++) {
+        workers[t] = new Thread(() -> {
+          for (int frame = next.getAndIncrement(); frame < work.length;
+              frame = next.getAndIncrement()) {
+            cache.takePrevious(frame);
+            final long end = System.nanoTime() + work[frame];
+            while (System.nanoTime() < end) {
+              Thread.yield();
+            }
+            cache.put(frame, new float[][] {createParams(1, 2)});
+          }
+        });
+        workers[t].start();
+      }
+      for (final Thread worker : workers) {
+        worker.join();
+      }
+      Assertions.assertEquals(work.length, cache.getRequests());
+      final long hits = cache.getHits();
+      if (threads == 1) {
+        Assertions.assertEquals(work.length - 1, hits);
+      } else {
+        Assertions.assertTrue(hits < work.length);
+      }
+      logger.info(FunctionUtils.getSupplier("Threads = %d : Warm-start hit rate = %d / %d",
+          threads, hits, work.length));
+    }
+  }
+
+  private static float[] createParams(float x, float y) {
+    final float[] params = new float[Gaussian2DFunction.PARAMETERS_PER_PEAK + 1];
+    params[Gaussian2DFunction.X_POSITION] = x;
+    params[Gaussian2DFunction.Y_POSITION] = y;
+    return params;
+  }
+}
@@ -0,0 +1,80 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.filters;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.commons.rng.UniformRandomProvider;
+import org.junit.jupiter.api.Assertions;
+import uk.ac.sussex.gdsc.test.junit5.RandomSeed;
+import uk.ac.sussex.gdsc.test.junit5.SeededTest;
+import uk.ac.sussex.gdsc.test.rng.RngUtils;
+
+@SuppressWarnings({"javadoc"})
+class MaximaSpotFilterTest {
+  @SeededTest
+  void stripParallelMaximaMatchSingleThread(RandomSeed seed) {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    final ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      for (final int width : new int[] {17, 64}) {
+        for (final int height : new int[] {13, 64, 101}) {
+          final float[] data = new float[width * height];
+          for (int i = 0; i < data.length; i++) {
+            // Use integer data to create ties
+            data[i] = rng.nextInt(20);
+          }
+          for (final int search : new int[] {1, 2, 3}) {
+            for (final int border : new int[] {0, 1, 4}) {
+              final SingleSpotFilter filter =
+                  new SingleSpotFilter(search, border, new AverageDataProcessor(0, 0));
+              final SingleSpotFilter parallel = filter.copy();
+              parallel.setExecutor(executor, 4);
+              Assertions.assertSame(executor, parallel.copy().getExecutor());
+
+              final Spot[] expected = filter.rank(data.clone(), width, height);
+              final Spot[] actual = parallel.rank(data.clone(), width, height);
+              Assertions.assertArrayEquals(toIndices(expected, width),
+                  toIndices(actual, width), () -> String.format("%dx%d : search=%d, border=%d",
+                      width, height, search, border));
+            }
+          }
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static int[] toIndices(Spot[] spots, int width) {
+    final int[] indices = new int[spots.length];
+    for (int i = 0; i < spots.length; i++) {
+      indices[i] = spots[i].y * width + spots[i].x;
+    }
+    Arrays.sort(indices);
+    return indices;
+  }
+}
@@ -0,0 +1,93 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.filters;
+
+import java.util.Arrays;
+import org.apache.commons.rng.UniformRandomProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import uk.ac.sussex.gdsc.test.junit5.RandomSeed;
+import uk.ac.sussex.gdsc.test.junit5.SeededTest;
+import uk.ac.sussex.gdsc.test.rng.RngUtils;
+
+@SuppressWarnings({"javadoc"})
+class SpotRankerTest {
+  @Test
+  void testSortableIntMatchesFloatCompare() {
+    final float[] values = {Float.NEGATIVE_INFINITY, -Float.MAX_VALUE, -1, -Float.MIN_VALUE, -0.0f,
+        0.0f, Float.MIN_VALUE, 1, Float.MAX_VALUE, Float.POSITIVE_INFINITY, Float.NaN};
+    for (final float v1 : values) {
+      for (final float v2 : values) {
+        Assertions.assertEquals(Integer.signum(Float.compare(v1, v2)),
+            Integer.signum(Integer.compare(SpotRanker.toSortableInt(v1),
+                SpotRanker.toSortableInt(v2))),
+            () -> v1 + " vs " + v2);
+      }
+    }
+  }
+
+  @Test
+  void testTopThrowsWithNegativeK() {
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> SpotRanker.top(new Spot[0], -1));
+  }
+
+  @SeededTest
+  void canSortSpots(RandomSeed seed) {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    for (final int size : new int[] {0, 1, 2, 3, 10, 100, 1000}) {
+      // Use a small range of scores to create ties
+      final Spot[] spots = createSpots(rng, size, 1 + size / 3);
+      final Spot[] expected = spots.clone();
+      Arrays.sort(expected, SpotScoreComparator.getInstance());
+      Assertions.assertArrayEquals(expected, SpotRanker.sort(spots));
+    }
+  }
+
+  @SeededTest
+  void canSelectTopSpots(RandomSeed seed) {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    for (final int size : new int[] {1, 2, 3, 10, 100, 1000}) {
+      for (final int range : new int[] {2, size}) {
+        final Spot[] spots = createSpots(rng, size, range);
+        final Spot[] expected = spots.clone();
+        Arrays.sort(expected, SpotScoreComparator.getInstance());
+        for (final int k : new int[] {0, 1, 2, size / 2, size - 1, size, size + 1}) {
+          final Spot[] top = SpotRanker.top(spots.clone(), k);
+          Assertions.assertArrayEquals(Arrays.copyOf(expected, Math.min(k, size)), top,
+              () -> String.format("size=%d, k=%d", size, k));
+        }
+      }
+    }
+  }
+
+  private static Spot[] createSpots(UniformRandomProvider rng, int size, int range) {
+    final Spot[] spots = new Spot[size];
+    for (int i = 0; i < size; i++) {
+      spots[i] = new Spot(i, 0, rng.nextInt(range) - range / 2);
+    }
+    return spots;
+  }
+}
@@ -0,0 +1,102 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.fitting.linear;
+
+import org.apache.commons.rng.UniformRandomProvider;
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import uk.ac.sussex.gdsc.test.junit5.RandomSeed;
+import uk.ac.sussex.gdsc.test.junit5.SeededTest;
+import uk.ac.sussex.gdsc.test.rng.RngUtils;
+
+@SuppressWarnings({"javadoc"})
+class CholeskyLinearSolverTest {
+  @Test
+  void canSolveLinearEquation() {
+    // Taken from https://en.wikipedia.org/wiki/Positive-definite_matrix
+    final double[] a = {2, -1, 0, -1, 2, -1, 0, -1, 2};
+    final double[] b = {3, 3, 4};
+    final double[] x = {4.75, 6.5, 5.25};
+    final double[] ainv = {0.75, 0.5, 0.25, 0.5, 1, 0.5, 0.25, 0.5, 0.75};
+
+    final CholeskyLinearSolver solver = new CholeskyLinearSolver();
+    Assertions.assertTrue(solver.solve(a, b, 3));
+    Assertions.assertArrayEquals(x, b, 1e-10);
+    final double[] inv = new double[9];
+    Assertions.assertTrue(solver.invertLastA(inv));
+    Assertions.assertArrayEquals(ainv, inv, 1e-10);
+  }
+
+  @Test
+  void cannotSolveNonPositiveDefinite() {
+    final double[] a = {2, -1, 0, -1, 0, -1, 0, -1, 2};
+    final double[] b = {3, 3, 4};
+    final CholeskyLinearSolver solver = new CholeskyLinearSolver();
+    Assertions.assertFalse(solver.solve(a, b, 3));
+    Assertions.assertArrayEquals(new double[] {3, 3, 4}, b, "b should be unchanged");
+    Assertions.assertFalse(solver.invertLastA(new double[9]));
+  }
+
+  @SeededTest
+  void canSolveRandomMatrix(RandomSeed seed) {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    final CholeskyLinearSolver solver = new CholeskyLinearSolver();
+    // Cover the generic and unrolled sizes
+    for (int n = 1; n <= CholeskyLinearSolver.MAX_UNROLLED + 3; n++) {
+      for (int repeat = 0; repeat < 5; repeat++) {
+        // Create a symmetric positive definite matrix A = M M^T + n I
+        final DenseMatrix64F m = new DenseMatrix64F(n, n);
+        for (int i = 0; i < m.data.length; i++) {
+          m.data[i] = rng.nextDouble() * 2 - 1;
+        }
+        final DenseMatrix64F matrix = new DenseMatrix64F(n, n);
+        CommonOps.multTransB(m, m, matrix);
+        for (int i = 0; i < n; i++) {
+          matrix.add(i, i, n);
+        }
+        final double[] b = new double[n];
+        for (int i = 0; i < n; i++) {
+          b[i] = rng.nextDouble() * 10 - 5;
+        }
+
+        final DenseMatrix64F expectedInverse = new DenseMatrix64F(n, n);
+        Assertions.assertTrue(CommonOps.invert(matrix, expectedInverse));
+        final DenseMatrix64F expected = new DenseMatrix64F(n, 1);
+        CommonOps.mult(expectedInverse, DenseMatrix64F.wrap(n, 1, b), expected);
+
+        final double[] a = matrix.data.clone();
+        Assertions.assertTrue(solver.solve(a, b, n));
+        Assertions.assertArrayEquals(matrix.data, a, "A should be unchanged");
+        Assertions.assertArrayEquals(expected.data, b, 1e-8);
+
+        final double[] inv = new double[n * n];
+        Assertions.assertTrue(solver.invertLastA(inv));
+        Assertions.assertArrayEquals(expectedInverse.data, inv, 1e-8);
+      }
+    }
+  }
+}
@@ -481,6 +481,17 @@ class EjmlLinearSolverTest {
     }
   }
 
+  private class SmallSolverTimingTask extends SolverTimingTask {
+    public SmallSolverTimingTask(DenseMatrix64F[] a, DenseMatrix64F[] b) {
+      super("Small Solver", a, b);
+    }
+
+    @Override
+    boolean solve(DenseMatrix64F a, DenseMatrix64F b) {
+      return solver.solve(a, b);
+    }
+  }
+
   // Create a speed test of the different methods
   @SpeedTag
   @SeededTest
@@ -599,6 +610,16 @@ class EjmlLinearSolverTest {
         logger.log(TestLogUtils.getTimingRecord(ts.get(-(size_1)), ts.get(-i)));
       }
     }
+
+    // Compare the default solve using the small matrix solver to the EJML Cholesky solver
+    final TimingService ts2 = new TimingService(runs);
+    ts2.execute(new CholeskySolverTimingTask(a, b));
+    ts2.execute(new SmallSolverTimingTask(a, b));
+    ts2.repeat();
+    if (logger.isLoggable(Level.INFO)) {
+      logger.info(ts2.getReport(2));
+    }
+    logger.log(TestLogUtils.getTimingRecord(ts2.get(-2), ts2.get(-1)));
   }
 
   private abstract class InversionTimingTask extends BaseTimingTask {
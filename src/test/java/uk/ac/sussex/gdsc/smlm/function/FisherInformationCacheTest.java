@@ -0,0 +1,233 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.function;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import uk.ac.sussex.gdsc.core.utils.LocalList;
+import uk.ac.sussex.gdsc.smlm.data.config.FisherProtos.AlphaSample;
+import uk.ac.sussex.gdsc.smlm.data.config.FisherProtos.PoissonFisherInformationData;
+import uk.ac.sussex.gdsc.smlm.function.FisherInformationCache.CameraType;
+
+@SuppressWarnings({"javadoc"})
+class FisherInformationCacheTest {
+  @AfterEach
+  void afterEach() {
+    final FisherInformationCache cache = FisherInformationCache.getInstance();
+    cache.setCacheFile(null);
+    cache.clear();
+  }
+
+  @Test
+  void testCameraType() {
+    for (final CameraType type : CameraType.values()) {
+      Assertions.assertSame(type, CameraType.forNumber(type.getNumber()));
+    }
+    Assertions.assertNull(CameraType.forNumber(0));
+  }
+
+  @Test
+  void canComputeCcdFisherInformation() {
+    final FisherInformationCache cache = FisherInformationCache.getInstance();
+    final double gain = 2;
+    final double noise = 3;
+    Assertions.assertNull(cache.getData(CameraType.CCD, gain, noise));
+    final InterpolatedPoissonFisherInformation f1 =
+        cache.getFisherInformation(CameraType.CCD, gain, noise);
+    final PoissonFisherInformationData data = cache.getData(CameraType.CCD, gain, noise);
+    Assertions.assertNotNull(data);
+    Assertions.assertEquals(
+        (int) Math.round((FisherInformationCache.MAX_EXPONENT - FisherInformationCache.MIN_EXPONENT)
+            / FisherInformationCache.EXPONENT_INCREMENT) + 1,
+        data.getAlphaSampleCount());
+    final InterpolatedPoissonFisherInformation f2 =
+        cache.getFisherInformation(CameraType.CCD, gain, noise);
+    Assertions.assertNotSame(f1, f2);
+
+    // Matches the computed function at the sample points
+    final PoissonGaussianFisherInformation fi = new PoissonGaussianFisherInformation(noise / gain);
+    fi.setMeanThreshold(1000);
+    for (final AlphaSample sample : data.getAlphaSampleList()) {
+      final double mean = Math.pow(10, sample.getLog10Mean());
+      Assertions.assertEquals(fi.getAlpha(mean), sample.getAlpha(), 1e-10);
+      // The interpolation uses a fast log approximation
+      Assertions.assertEquals(sample.getAlpha(), f1.getAlpha(mean), sample.getAlpha() * 1e-3);
+    }
+  }
+
+  private static PoissonFisherInformationData createData(double gain, double noise) {
+    final PoissonFisherInformationData.Builder builder = PoissonFisherInformationData.newBuilder();
+    builder.setType(CameraType.EM_CCD.getNumber());
+    builder.setGain(gain);
+    builder.setNoise(noise);
+    for (int i = -4; i <= 2; i++) {
+      builder.addAlphaSample(AlphaSample.newBuilder().setLog10Mean(i).setAlpha(0.5));
+    }
+    return builder.build();
+  }
+
+  @Test
+  void canPutData() {
+    final FisherInformationCache cache = FisherInformationCache.getInstance();
+    final PoissonFisherInformationData data = createData(10, 5);
+    cache.putData(data);
+    Assertions.assertEquals(data, cache.getData(CameraType.EM_CCD, 10, 5));
+    // This should not compute the curve
+    final InterpolatedPoissonFisherInformation fi =
+        cache.getFisherInformation(CameraType.EM_CCD, 10, 5);
+    Assertions.assertEquals(0.5, fi.getAlpha(1), 1e-10);
+  }
+
+  @Test
+  void canSaveAndLoadCacheFile() throws IOException {
+    final File file = File.createTempFile(getClass().getSimpleName(), ".settings");
+    file.deleteOnExit();
+    Assertions.assertTrue(file.delete());
+    final FisherInformationCache cache = FisherInformationCache.getInstance();
+    cache.setCacheFile(file.toPath());
+    Assertions.assertEquals(file.toPath(), cache.getCacheFile());
+    cache.getFisherInformation(CameraType.CCD, 1.5, 2.5);
+    final PoissonFisherInformationData data = cache.getData(CameraType.CCD, 1.5, 2.5);
+    Assertions.assertTrue(file.exists());
+
+    cache.setCacheFile(null);
+    cache.clear();
+    Assertions.assertNull(cache.getData(CameraType.CCD, 1.5, 2.5));
+    cache.setCacheFile(file.toPath());
+    Assertions.assertEquals(data, cache.getData(CameraType.CCD, 1.5, 2.5));
+    Assertions.assertEquals(1, cache.getData().getDataCount());
+  }
+
+  @Test
+  void canFlushData() throws IOException {
+    final File file = File.createTempFile(getClass().getSimpleName(), ".settings");
+    file.deleteOnExit();
+    Assertions.assertTrue(file.delete());
+    final FisherInformationCache cache = FisherInformationCache.getInstance();
+    // Nothing to write
+    Assertions.assertFalse(cache.flush());
+    cache.setCacheFile(file.toPath());
+    Assertions.assertFalse(cache.flush());
+    Assertions.assertFalse(file.exists());
+
+    // Data is not written until flushed
+    final int size = FisherInformationCache.MAX_PERSISTED_DATA + 3;
+    for (int i = 0; i < size; i++) {
+      cache.putData(createData(10 + i, 5));
+    }
+    // Older than all the EM-CCD data but limited separately
+    final PoissonFisherInformationData ccdData =
+        createData(1, 2).toBuilder().setType(CameraType.CCD.getNumber()).build();
+    cache.putData(ccdData);
+    Assertions.assertFalse(file.exists());
+    Assertions.assertTrue(cache.flush());
+    Assertions.assertFalse(cache.flush());
+    Assertions.assertTrue(file.exists());
+
+    // Only the most recent data of each type is written
+    cache.setCacheFile(null);
+    cache.clear();
+    cache.setCacheFile(file.toPath());
+    Assertions.assertEquals(FisherInformationCache.MAX_PERSISTED_DATA + 1,
+        cache.getData().getDataCount());
+    Assertions.assertEquals(ccdData, cache.getData(CameraType.CCD, 1, 2));
+    for (int i = 0; i < size; i++) {
+      final PoissonFisherInformationData data = cache.getData(CameraType.EM_CCD, 10 + i, 5);
+      if (i < size - FisherInformationCache.MAX_PERSISTED_DATA) {
+        Assertions.assertNull(data);
+      } else {
+        Assertions.assertEquals(createData(10 + i, 5), data);
+      }
+    }
+  }
+
+  @Test
+  void canComputeFisherInformationConcurrently()
+      throws InterruptedException, ExecutionException {
+    final FisherInformationCache cache = FisherInformationCache.getInstance();
+    final int threads = 4;
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final CountDownLatch start = new CountDownLatch(1);
+      final LocalList<Future<InterpolatedPoissonFisherInformation>> futures = new LocalList<>();
+      for (int i = 0; i < threads; i++) {
+        futures.add(executor.submit(() -> {
+          start.await();
+          return cache.getFisherInformation(CameraType.CCD, 2.5, 3.5);
+        }));
+      }
+      start.countDown();
+      final double alpha = futures.unsafeGet(0).get().getAlpha(1);
+      for (final Future<InterpolatedPoissonFisherInformation> future : futures) {
+        Assertions.assertEquals(alpha, future.get().getAlpha(1));
+      }
+    } finally {
+      executor.shutdown();
+    }
+    Assertions.assertEquals(1, cache.getData().getDataCount());
+  }
+
+  @Test
+  void canFlushDataConcurrently() throws IOException, InterruptedException, ExecutionException {
+    final File file = File.createTempFile(getClass().getSimpleName(), ".settings");
+    file.deleteOnExit();
+    final FisherInformationCache cache = FisherInformationCache.getInstance();
+    cache.setCacheFile(file.toPath());
+    final int threads = 4;
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final LocalList<Future<?>> futures = new LocalList<>();
+      for (int i = 0; i < threads; i++) {
+        final int id = i;
+        futures.add(executor.submit(() -> {
+          for (int j = 0; j < 5; j++) {
+            cache.putData(createData(id + 1, j + 1));
+            cache.flush();
+          }
+        }));
+      }
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    cache.flush();
+    // The file must be readable and contain the most recent data
+    cache.setCacheFile(null);
+    cache.clear();
+    cache.setCacheFile(file.toPath());
+    Assertions.assertEquals(FisherInformationCache.MAX_PERSISTED_DATA,
+        cache.getData().getDataCount());
+  }
+}
@@ -0,0 +1,267 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.function;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import org.apache.commons.rng.UniformRandomProvider;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import uk.ac.sussex.gdsc.core.utils.LocalList;
+import uk.ac.sussex.gdsc.smlm.function.PoissonGammaGaussianFunction.ConvolutionMode;
+import uk.ac.sussex.gdsc.test.junit5.RandomSeed;
+import uk.ac.sussex.gdsc.test.junit5.SeededTest;
+import uk.ac.sussex.gdsc.test.junit5.SpeedTag;
+import uk.ac.sussex.gdsc.test.rng.RngUtils;
+import uk.ac.sussex.gdsc.test.utils.TestComplexity;
+import uk.ac.sussex.gdsc.test.utils.TestLogUtils;
+import uk.ac.sussex.gdsc.test.utils.TestSettings;
+
+@SuppressWarnings({"javadoc"})
+class TabulatedPoissonGammaGaussianFunctionTest {
+  private static Logger logger;
+
+  // Realistic EM-CCD parameters
+  private static final double SD = 7.16;
+  private static final double GAIN = 39.1;
+  private static final double MAX_EXPECTED = 50;
+
+  @BeforeAll
+  public static void beforeAll() {
+    logger = Logger.getLogger(TabulatedPoissonGammaGaussianFunctionTest.class.getName());
+  }
+
+  @AfterAll
+  public static void afterAll() {
+    TabulatedPoissonGammaGaussianFunction.clearTables();
+    logger = null;
+  }
+
+  @Test
+  void testCreateThrows() {
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> TabulatedPoissonGammaGaussianFunction.create(
+            1 / GAIN, SD, ConvolutionMode.APPROXIMATION, 0, MAX_EXPECTED, 0.05, 1));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> TabulatedPoissonGammaGaussianFunction.create(
+            1 / GAIN, SD, ConvolutionMode.APPROXIMATION, 1, 0.5, 0.05, 1));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> TabulatedPoissonGammaGaussianFunction.create(
+            1 / GAIN, SD, ConvolutionMode.APPROXIMATION, 0.1, MAX_EXPECTED, 0, 1));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> TabulatedPoissonGammaGaussianFunction.create(
+            1 / GAIN, SD, ConvolutionMode.APPROXIMATION, 0.1, MAX_EXPECTED, 0.05, 0));
+    // Gain below 1
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> TabulatedPoissonGammaGaussianFunction.create(
+            2, SD, ConvolutionMode.APPROXIMATION, MAX_EXPECTED));
+  }
+
+  @Test
+  void testProperties() {
+    final TabulatedPoissonGammaGaussianFunction f = TabulatedPoissonGammaGaussianFunction
+        .create(1 / GAIN, SD, ConvolutionMode.APPROXIMATION, MAX_EXPECTED);
+    Assertions.assertEquals(1 / GAIN, f.getAlpha(), 1e-10);
+    Assertions.assertEquals(SD, f.getSigma());
+    Assertions.assertEquals(ConvolutionMode.APPROXIMATION, f.getConvolutionMode());
+    Assertions.assertTrue(f.getTableSize() > 0);
+    // The table is shared
+    final TabulatedPoissonGammaGaussianFunction f2 = TabulatedPoissonGammaGaussianFunction
+        .create(1 / GAIN, SD, ConvolutionMode.APPROXIMATION, MAX_EXPECTED);
+    Assertions.assertNotSame(f, f2);
+    Assertions.assertEquals(f.getMaximumError(), f2.getMaximumError());
+  }
+
+  @Test
+  void canComputeAboveMaximumTableSize() {
+    // A very small observed step creates a table above the maximum size
+    final TabulatedPoissonGammaGaussianFunction f = TabulatedPoissonGammaGaussianFunction.create(
+        1 / GAIN, SD, ConvolutionMode.APPROXIMATION, 0.01, MAX_EXPECTED, 0.05, 1e-3);
+    Assertions.assertFalse(f.isTabulated());
+    Assertions.assertEquals(0, f.getTableSize());
+    Assertions.assertEquals(0, f.getMaximumError());
+    final PoissonGammaGaussianFunction exact = new PoissonGammaGaussianFunction(1 / GAIN, SD);
+    exact.setConvolutionMode(ConvolutionMode.APPROXIMATION);
+    for (final double[] p : new double[][] {{10, 0.5}, {100, 3}, {GAIN * MAX_EXPECTED / 2, 20}}) {
+      Assertions.assertEquals(exact.logLikelihood(p[0], p[1]), f.logLikelihood(p[0], p[1]));
+      Assertions.assertEquals(exact.likelihood(p[0], p[1]), f.likelihood(p[0], p[1]));
+    }
+  }
+
+  @Test
+  void canComputeAboveMaximumError() {
+    final TabulatedPoissonGammaGaussianFunction f1 = TabulatedPoissonGammaGaussianFunction
+        .create(1 / GAIN, SD, ConvolutionMode.APPROXIMATION, MAX_EXPECTED);
+    Assertions.assertTrue(f1.isTabulated());
+    Assertions.assertTrue(f1.getMaximumError() > 0);
+    final double minExpected = TabulatedPoissonGammaGaussianFunction.DEFAULT_MIN_EXPECTED;
+    final double logStep = TabulatedPoissonGammaGaussianFunction.DEFAULT_LOG_EXPECTED_STEP;
+    final double step = TabulatedPoissonGammaGaussianFunction.getDefaultObservedStep(1 / GAIN, SD);
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> TabulatedPoissonGammaGaussianFunction.create(1 / GAIN, SD,
+            ConvolutionMode.APPROXIMATION, minExpected, MAX_EXPECTED, logStep, step, -1));
+    // The same table with a lower error tolerance
+    final TabulatedPoissonGammaGaussianFunction f =
+        TabulatedPoissonGammaGaussianFunction.create(1 / GAIN, SD, ConvolutionMode.APPROXIMATION,
+            minExpected, MAX_EXPECTED, logStep, step, f1.getMaximumError() / 2);
+    Assertions.assertFalse(f.isTabulated());
+    Assertions.assertEquals(0, f.getMaximumError());
+    final PoissonGammaGaussianFunction exact = new PoissonGammaGaussianFunction(1 / GAIN, SD);
+    exact.setConvolutionMode(ConvolutionMode.APPROXIMATION);
+    for (final double[] p : new double[][] {{10, 0.5}, {100, 3}, {GAIN * MAX_EXPECTED / 2, 20}}) {
+      Assertions.assertEquals(exact.logLikelihood(p[0], p[1]), f.logLikelihood(p[0], p[1]));
+    }
+  }
+
+  @Test
+  void testCacheSize() {
+    TabulatedPoissonGammaGaussianFunction.clearTables();
+    Assertions.assertEquals(0, TabulatedPoissonGammaGaussianFunction.getCacheSize());
+    final TabulatedPoissonGammaGaussianFunction f = TabulatedPoissonGammaGaussianFunction
+        .create(1 / GAIN, SD, ConvolutionMode.APPROXIMATION, MAX_EXPECTED);
+    Assertions.assertEquals(f.getTableSize(),
+        TabulatedPoissonGammaGaussianFunction.getCacheSize());
+    // Shared table
+    TabulatedPoissonGammaGaussianFunction.create(1 / GAIN, SD, ConvolutionMode.APPROXIMATION,
+        MAX_EXPECTED);
+    Assertions.assertEquals(f.getTableSize(),
+        TabulatedPoissonGammaGaussianFunction.getCacheSize());
+    Assertions.assertTrue(TabulatedPoissonGammaGaussianFunction
+        .getCacheSize() <= TabulatedPoissonGammaGaussianFunction.MAX_CACHE_SIZE);
+  }
+
+  @Test
+  void canCreateTableConcurrently() throws InterruptedException, ExecutionException {
+    // Use settings not shared with other tests
+    final double maxExpected = MAX_EXPECTED / 2;
+    final int threads = 4;
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final CountDownLatch start = new CountDownLatch(1);
+      final LocalList<Future<TabulatedPoissonGammaGaussianFunction>> futures = new LocalList<>();
+      for (int i = 0; i < threads; i++) {
+        futures.add(executor.submit(() -> {
+          start.await();
+          return TabulatedPoissonGammaGaussianFunction.create(1 / GAIN, SD,
+              ConvolutionMode.APPROXIMATION, maxExpected);
+        }));
+      }
+      start.countDown();
+      final TabulatedPoissonGammaGaussianFunction f = futures.unsafeGet(0).get();
+      Assertions.assertTrue(f.isTabulated());
+      for (final Future<TabulatedPoissonGammaGaussianFunction> future : futures) {
+        final TabulatedPoissonGammaGaussianFunction f2 = future.get();
+        Assertions.assertEquals(f.getTableSize(), f2.getTableSize());
+        Assertions.assertEquals(f.getMaximumError(), f2.getMaximumError());
+        Assertions.assertEquals(f.logLikelihood(100, 3), f2.logLikelihood(100, 3));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @SeededTest
+  void canInterpolateLogLikelihood(RandomSeed seed) {
+    final TabulatedPoissonGammaGaussianFunction f = TabulatedPoissonGammaGaussianFunction
+        .create(1 / GAIN, SD, ConvolutionMode.APPROXIMATION, MAX_EXPECTED);
+    final PoissonGammaGaussianFunction exact = new PoissonGammaGaussianFunction(1 / GAIN, SD);
+    exact.setConvolutionMode(ConvolutionMode.APPROXIMATION);
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    for (int i = 0; i < 500; i++) {
+      final double u = 0.1 + rng.nextDouble() * (MAX_EXPECTED - 0.1);
+      // Sample observed values from a realistic range of the distribution
+      final double range = 3 * (Math.sqrt(u) * GAIN + SD);
+      final double x = Math.max(-3 * SD, u * GAIN + (2 * rng.nextDouble() - 1) * range);
+      final double e = exact.logLikelihood(x, u);
+      final double o = f.logLikelihood(x, u);
+      Assertions.assertEquals(e, o, Math.max(0.05, Math.abs(e) * 1e-3),
+          () -> String.format("x=%s, u=%s", x, u));
+      Assertions.assertEquals(Math.exp(o), f.likelihood(x, u), Math.exp(o) * 1e-10);
+    }
+  }
+
+  @Test
+  void canComputeOutsideTableRange() {
+    final TabulatedPoissonGammaGaussianFunction f = TabulatedPoissonGammaGaussianFunction
+        .create(1 / GAIN, SD, ConvolutionMode.APPROXIMATION, MAX_EXPECTED);
+    final PoissonGammaGaussianFunction exact = new PoissonGammaGaussianFunction(1 / GAIN, SD);
+    exact.setConvolutionMode(ConvolutionMode.APPROXIMATION);
+    for (final double[] p : new double[][] {{10, 0}, {10, -1}, {10, 1e-3},
+        {100 * GAIN, 2 * MAX_EXPECTED}, {-10 * SD, 1}}) {
+      Assertions.assertEquals(exact.logLikelihood(p[0], p[1]), f.logLikelihood(p[0], p[1]));
+      Assertions.assertEquals(exact.likelihood(p[0], p[1]), f.likelihood(p[0], p[1]));
+    }
+  }
+
+  @SpeedTag
+  @SeededTest
+  void tableIsFasterThanExact(RandomSeed seed) {
+    Assumptions.assumeTrue(TestSettings.allow(TestComplexity.MEDIUM));
+    final TabulatedPoissonGammaGaussianFunction f1 = TabulatedPoissonGammaGaussianFunction
+        .create(1 / GAIN, SD, ConvolutionMode.APPROXIMATION, MAX_EXPECTED);
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    final double[] x = new double[10000];
+    final double[] u = new double[x.length];
+    for (int i = 0; i < x.length; i++) {
+      u[i] = 0.1 + rng.nextDouble() * (MAX_EXPECTED - 0.1);
+      final double range = 3 * (Math.sqrt(u[i]) * GAIN + SD);
+      x[i] = Math.rint(Math.max(-3 * SD, u[i] * GAIN + (2 * rng.nextDouble() - 1) * range));
+    }
+    for (final ConvolutionMode mode : new ConvolutionMode[] {ConvolutionMode.APPROXIMATION,
+        ConvolutionMode.SIMPSON_PDF}) {
+      final PoissonGammaGaussianFunction f2 = new PoissonGammaGaussianFunction(1 / GAIN, SD);
+      f2.setConvolutionMode(mode);
+      final LogLikelihoodFunction f3 = (mode == ConvolutionMode.APPROXIMATION) ? f1
+          : TabulatedPoissonGammaGaussianFunction.create(1 / GAIN, SD, mode, MAX_EXPECTED);
+
+      // Warm-up
+      run(f2, x, u);
+      run(f3, x, u);
+
+      long t1 = 0;
+      long t2 = 0;
+      for (int i = 0; i < 5; i++) {
+        t1 += run(f2, x, u);
+        t2 += run(f3, x, u);
+      }
+      logger.log(TestLogUtils.getTimingRecord(mode.toString(), t1, "Tabulated " + mode, t2));
+    }
+  }
+
+  private static long run(LogLikelihoodFunction func, double[] x, double[] u) {
+    final long start = System.nanoTime();
+    for (int i = 0; i < x.length; i++) {
+      func.logLikelihood(x[i], u[i]);
+    }
+    return System.nanoTime() - start;
+  }
+}
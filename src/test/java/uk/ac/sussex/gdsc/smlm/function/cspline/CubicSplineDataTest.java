@@ -27,16 +27,41 @@ package uk.ac.sussex.gdsc.smlm.function.cspline;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.logging.Logger;
 import org.apache.commons.rng.UniformRandomProvider;
+import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
 import uk.ac.sussex.gdsc.core.math.interpolation.CustomTricubicFunction;
 import uk.ac.sussex.gdsc.core.math.interpolation.CustomTricubicFunctionUtils;
 import uk.ac.sussex.gdsc.test.junit5.RandomSeed;
 import uk.ac.sussex.gdsc.test.junit5.SeededTest;
+import uk.ac.sussex.gdsc.test.junit5.SpeedTag;
 import uk.ac.sussex.gdsc.test.rng.RngUtils;
+import uk.ac.sussex.gdsc.test.utils.TestComplexity;
+import uk.ac.sussex.gdsc.test.utils.TestLogUtils;
+import uk.ac.sussex.gdsc.test.utils.TestSettings;
 
 @SuppressWarnings({"javadoc"})
 class CubicSplineDataTest {
+  private static Logger logger;
+
+  @BeforeAll
+  public static void beforeAll() {
+    logger = Logger.getLogger(CubicSplineDataTest.class.getName());
+  }
+
+  @AfterAll
+  public static void afterAll() {
+    logger = null;
+  }
+
   @SeededTest
   void canExternaliseDoubleFunction(RandomSeed seed) throws IOException {
     canExternaliseFunction(seed, false);
@@ -49,26 +74,11 @@ class CubicSplineDataTest {
 
   private static void canExternaliseFunction(RandomSeed seed, boolean singlePrecision)
       throws IOException {
-    final UniformRandomProvider r = RngUtils.create(seed.getSeed());
     final int x = 6;
     final int y = 5;
     final int z = 4;
-
     final int size = x * y;
-    final CustomTricubicFunction[][] splines = new CustomTricubicFunction[z][x * y];
-    final double[] a = new double[64];
-    for (int zz = 0; zz < z; zz++) {
-      for (int i = 0; i < size; i++) {
-        for (int j = 0; j < 64; j++) {
-          a[j] = r.nextDouble();
-        }
-        splines[zz][i] = CustomTricubicFunctionUtils.create(a);
-        if (singlePrecision) {
-          splines[zz][i] = splines[zz][i].toSinglePrecision();
-        }
-      }
-    }
-    final CubicSplineData f1 = new CubicSplineData(x, y, splines);
+    final CubicSplineData f1 = createData(seed, x, y, z, singlePrecision);
 
     final ByteArrayOutputStream b = new ByteArrayOutputStream();
     f1.write(b);
@@ -86,4 +96,132 @@ class CubicSplineDataTest {
       }
     }
   }
+
+  @SeededTest
+  void canSaveAndLoadDoubleFunction(RandomSeed seed) throws IOException {
+    canSaveAndLoadFunction(seed, false);
+  }
+
+  @SeededTest
+  void canSaveAndLoadFloatFunction(RandomSeed seed) throws IOException {
+    canSaveAndLoadFunction(seed, true);
+  }
+
+  private static void canSaveAndLoadFunction(RandomSeed seed, boolean singlePrecision)
+      throws IOException {
+    final int x = 6;
+    final int y = 5;
+    final int z = 4;
+    final int size = x * y;
+    final CubicSplineData f1 = createData(seed, x, y, z, singlePrecision);
+    Assertions.assertFalse(f1.isFlatLayout());
+
+    final CubicSplineData f2 = f1.toFlatLayout();
+    Assertions.assertTrue(f2.isFlatLayout());
+    Assertions.assertSame(f2, f2.toFlatLayout());
+    Assertions.assertEquals(singlePrecision, f2.isSinglePrecision());
+
+    final Path path = Files.createTempFile("CubicSplineDataTest", ".csp");
+    try {
+      f1.save(path);
+      final CubicSplineData f3 = CubicSplineData.load(path);
+      Assertions.assertTrue(f3.isFlatLayout());
+      Assertions.assertEquals(singlePrecision, f3.isSinglePrecision());
+      Assertions.assertEquals(x, f3.getMaxX());
+      Assertions.assertEquals(y, f3.getMaxY());
+      Assertions.assertEquals(z, f3.getMaxZ());
+
+      // Write from the flat layout must match the stream format of the graph layout
+      final ByteArrayOutputStream b1 = new ByteArrayOutputStream();
+      f1.write(b1);
+      final ByteArrayOutputStream b3 = new ByteArrayOutputStream();
+      f3.write(b3);
+      Assertions.assertArrayEquals(b1.toByteArray(), b3.toByteArray());
+
+      final double[] exp = new double[64];
+      final double[] obs = new double[64];
+      final double[] obs2 = new double[64];
+      final CustomTricubicFunction[][] splines2 = f2.getSplines();
+      final CustomTricubicFunction[][] splines3 = f3.getSplines();
+      for (int zz = 0; zz < z; zz++) {
+        for (int i = 0; i < size; i++) {
+          f1.splines[zz][i].getCoefficients(exp);
+          splines2[zz][i].getCoefficients(obs);
+          splines3[zz][i].getCoefficients(obs2);
+          Assertions.assertArrayEquals(exp, obs);
+          Assertions.assertArrayEquals(exp, obs2);
+        }
+      }
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @SeededTest
+  void loadThrowsWithBadFile(RandomSeed seed) throws IOException {
+    final Path path = Files.createTempFile("CubicSplineDataTest", ".csp");
+    try {
+      Files.write(path, new byte[] {1, 2, 3, 4});
+      Assertions.assertThrows(IOException.class, () -> CubicSplineData.load(path));
+      createData(seed, 2, 2, 2, true).save(path);
+      final byte[] bytes = Files.readAllBytes(path);
+      Files.write(path, Arrays.copyOf(bytes, bytes.length - 1));
+      Assertions.assertThrows(IOException.class, () -> CubicSplineData.load(path));
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @SpeedTag
+  @SeededTest
+  void loadIsFasterThanRead(RandomSeed seed) throws IOException {
+    Assumptions.assumeTrue(TestSettings.allow(TestComplexity.MEDIUM));
+    // A typical PSF model: 3x sampling of 15x15 pixels over 100 z-planes
+    final CubicSplineData data = createData(seed, 45, 45, 100, true);
+    final Path streamPath = Files.createTempFile("CubicSplineDataTest", ".csp");
+    final Path flatPath = Files.createTempFile("CubicSplineDataTest", ".flat");
+    try {
+      try (OutputStream out = Files.newOutputStream(streamPath)) {
+        data.write(out);
+      }
+      data.save(flatPath);
+
+      long readTime = Long.MAX_VALUE;
+      long loadTime = Long.MAX_VALUE;
+      for (int i = 0; i < 5; i++) {
+        long start = System.nanoTime();
+        try (InputStream in = Files.newInputStream(streamPath)) {
+          CubicSplineData.read(in);
+        }
+        readTime = Math.min(readTime, System.nanoTime() - start);
+        start = System.nanoTime();
+        CubicSplineData.load(flatPath);
+        loadTime = Math.min(loadTime, System.nanoTime() - start);
+      }
+      logger.log(TestLogUtils.getTimingRecord("read", readTime, "load", loadTime));
+    } finally {
+      Files.deleteIfExists(streamPath);
+      Files.deleteIfExists(flatPath);
+    }
+  }
+
+  static CubicSplineData createData(RandomSeed seed, int x, int y, int z,
+      boolean singlePrecision) {
+    final UniformRandomProvider r = RngUtils.create(seed.getSeed());
+    final int size = x * y;
+    final CustomTricubicFunction[][] splines = new CustomTricubicFunction[z][x * y];
+    final double[] a = new double[64];
+    for (int zz = 0; zz < z; zz++) {
+      for (int i = 0; i < size; i++) {
+        for (int j = 0; j < 64; j++) {
+          a[j] = r.nextDouble();
+        }
+        splines[zz][i] = CustomTricubicFunctionUtils.create(a);
+        if (singlePrecision) {
+          splines[zz][i] = splines[zz][i].toSinglePrecision();
+        }
+      }
+    }
+    return new CubicSplineData(x, y, splines);
+  }
 }
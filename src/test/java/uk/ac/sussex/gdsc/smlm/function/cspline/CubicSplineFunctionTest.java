@@ -786,6 +786,47 @@ public abstract class CubicSplineFunctionTest {
     });
   }
 
+  @Test
+  void flatLayoutComputesSameAsGraphLayout() {
+    flatLayoutComputesSameAsGraphLayout(splineData);
+    flatLayoutComputesSameAsGraphLayout(splineDataFloat);
+  }
+
+  private void flatLayoutComputesSameAsGraphLayout(CubicSplineData data) {
+    final CubicSplineData flatData = data.toFlatLayout();
+    final StandardGradient2Procedure p1 = new StandardGradient2Procedure();
+    final StandardGradient2Procedure p2 = new StandardGradient2Procedure();
+    for (int npeaks = 1; npeaks <= 2; npeaks++) {
+      final CubicSplineFunction func = CubicSplineFunctionFactory.createCubicSplineFunction(data,
+          maxx, maxy, cx, cy, cz, scale, npeaks);
+      final CubicSplineFunction flatFunc = CubicSplineFunctionFactory
+          .createCubicSplineFunction(flatData, maxx, maxy, cx, cy, cz, scale, npeaks);
+      for (final double cx1 : testcx1) {
+        for (final double cy1 : testcy1) {
+          for (final double cz1 : testcz1) {
+            final double[] a = (npeaks == 1) ? createParameters(background, 100, cx1, cy1, cz1)
+                : createParameters(background, 100, cx1, cy1, cz1, 50, testcx2[0], testcy2[0],
+                    testcz2[0]);
+            final double[] e = p1.getValues(func, a);
+            final double[] o = p2.getValues(flatFunc, a);
+            assertClose(e, o);
+            for (int i = e.length; i-- > 0;) {
+              assertClose(p1.gradients1[i], p2.gradients1[i]);
+              assertClose(p1.gradients2[i], p2.gradients2[i]);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static void assertClose(double[] expected, double[] actual) {
+    Assertions.assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      Assertions.assertEquals(expected[i], actual[i], Math.abs(expected[i]) * 1e-10 + 1e-10);
+    }
+  }
+
   @SpeedTag
   @Test
   void runSpeedTestWith1Peak() {
@@ -962,6 +1003,13 @@ public abstract class CubicSplineFunctionTest {
     }
     ts.execute(new FunctionTimingTask(cf, x1, order));
     ts.execute(new FunctionTimingTask(cff, x1, order, " single-precision"));
+    // Compare to the flat layout of the same spline data
+    final CubicSplineFunction flat = CubicSplineFunctionFactory.createCubicSplineFunction(
+        splineData.toFlatLayout(), maxx, maxy, cx, cy, cz, scale, n);
+    final CubicSplineFunction flatf = CubicSplineFunctionFactory.createCubicSplineFunction(
+        splineDataFloat.toFlatLayout(), maxx, maxy, cx, cy, cz, scale, n);
+    ts.execute(new FunctionTimingTask(flat, x1, order, " flat"));
+    ts.execute(new FunctionTimingTask(flatf, x1, order, " single-precision flat"));
 
     final int size = ts.getSize();
     ts.repeat(size);
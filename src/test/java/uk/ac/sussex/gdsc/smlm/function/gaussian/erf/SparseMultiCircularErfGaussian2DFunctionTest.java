@@ -0,0 +1,174 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.function.gaussian.erf;
+
+import org.apache.commons.rng.UniformRandomProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import uk.ac.sussex.gdsc.smlm.fitting.FitStatus;
+import uk.ac.sussex.gdsc.smlm.fitting.nonlinear.LseLvmSteppingFunctionSolver;
+import uk.ac.sussex.gdsc.smlm.fitting.nonlinear.ToleranceChecker;
+import uk.ac.sussex.gdsc.smlm.function.Gradient1Procedure;
+import uk.ac.sussex.gdsc.smlm.function.ValueProcedure;
+import uk.ac.sussex.gdsc.smlm.function.gaussian.Gaussian2DFunction;
+import uk.ac.sussex.gdsc.smlm.function.gaussian.GaussianFunctionFactory;
+import uk.ac.sussex.gdsc.test.junit5.RandomSeed;
+import uk.ac.sussex.gdsc.test.junit5.SeededTest;
+import uk.ac.sussex.gdsc.test.rng.RngUtils;
+
+@SuppressWarnings({"javadoc"})
+class SparseMultiCircularErfGaussian2DFunctionTest extends ErfGaussian2DFunctionTest {
+  @Override
+  protected void init() {
+    flags = GaussianFunctionFactory.FIT_ERF_CIRCLE;
+    f1 = new SparseMultiCircularErfGaussian2DFunction(1, maxx, maxy);
+    f2 = new SparseMultiCircularErfGaussian2DFunction(2, maxx, maxy);
+  }
+
+  @Test
+  void testConstructorThrows() {
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> new SparseMultiCircularErfGaussian2DFunction(2, maxx, maxy, 0));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> new SparseMultiCircularErfGaussian2DFunction(2, maxx, maxy, Double.NaN));
+  }
+
+  @Test
+  void testCopy() {
+    final SparseMultiCircularErfGaussian2DFunction f =
+        new SparseMultiCircularErfGaussian2DFunction(2, maxx, maxy, 3.5);
+    final ErfGaussian2DFunction copy = f.copy();
+    Assertions.assertEquals(f.getClass(), copy.getClass());
+    Assertions.assertEquals(3.5, ((SparseMultiCircularErfGaussian2DFunction) copy).getRange());
+  }
+
+  @SeededTest
+  void sparseFunctionMatchesDenseFunction(RandomSeed seed) {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    final int width = 40;
+    final int height = 35;
+    final int npeaks = 12;
+    final ErfGaussian2DFunction dense =
+        new MultiCircularErfGaussian2DFunction(npeaks, width, height);
+    final ErfGaussian2DFunction sparse =
+        new SparseMultiCircularErfGaussian2DFunction(npeaks, width, height);
+    final double[] a = new double[1 + npeaks * Gaussian2DFunction.PARAMETERS_PER_PEAK];
+    a[Gaussian2DFunction.BACKGROUND] = 10;
+    for (int n = 0, i = 0; n < npeaks; n++, i += Gaussian2DFunction.PARAMETERS_PER_PEAK) {
+      a[i + Gaussian2DFunction.SIGNAL] = 100 + rng.nextDouble() * 500;
+      // Allow peaks to be partially outside the region
+      a[i + Gaussian2DFunction.X_POSITION] = rng.nextDouble() * (width + 4) - 2;
+      a[i + Gaussian2DFunction.Y_POSITION] = rng.nextDouble() * (height + 4) - 2;
+      a[i + Gaussian2DFunction.X_SD] = 1 + rng.nextDouble();
+    }
+
+    // Values are within the truncation error of the function
+    final double[] expected = dense.computeValues(a);
+    final double[] values = sparse.computeValues(a);
+    Assertions.assertArrayEquals(expected, values, 1e-3);
+
+    // All sparse evaluation routines are consistent
+    sparse.initialise0(a);
+    final int[] count = {0};
+    sparse.forEach((ValueProcedure) value -> {
+      Assertions.assertEquals(values[count[0]++], value);
+    });
+    Assertions.assertEquals(values.length, count[0]);
+
+    sparse.initialise1(a);
+    dense.initialise1(a);
+    final int ng = sparse.getNumberOfGradients();
+    final double[] sparseDuda = new double[ng];
+    final double[] denseDuda = new double[ng];
+    count[0] = 0;
+    sparse.forEach((Gradient1Procedure) (value, dyDa) -> {
+      final int i = count[0]++;
+      // Evaluation of the clipped tables at a single point is the same as the sparse evaluation
+      Assertions.assertEquals(sparse.eval(i, sparseDuda), value);
+      Assertions.assertArrayEquals(sparseDuda, dyDa);
+      Assertions.assertEquals(values[i], value, 1e-10);
+      dense.eval(i, denseDuda);
+      Assertions.assertArrayEquals(denseDuda, dyDa, 1e-2);
+    });
+    Assertions.assertEquals(values.length, count[0]);
+  }
+
+  @Test
+  void testFactoryCreatesSparseFunction() {
+    final int sparse = GaussianFunctionFactory.FIT_ERF_CIRCLE | GaussianFunctionFactory.FIT_SPARSE;
+    Assertions.assertEquals(SparseMultiCircularErfGaussian2DFunction.class,
+        GaussianFunctionFactory.create2D(2, maxx, maxy, sparse, null).getClass());
+    Assertions.assertEquals(SparseMultiFreeCircularErfGaussian2DFunction.class,
+        GaussianFunctionFactory.create2D(2, maxx, maxy,
+            GaussianFunctionFactory.FIT_ERF_FREE_CIRCLE | GaussianFunctionFactory.FIT_SPARSE, null)
+            .getClass());
+    // Single peaks use the dense function
+    Assertions.assertEquals(SingleCircularErfGaussian2DFunction.class,
+        GaussianFunctionFactory.create2D(1, maxx, maxy, sparse, null).getClass());
+  }
+
+  @SeededTest
+  void lvmFitConvergesWithSparseFunction(RandomSeed seed) {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    final int size = 30;
+    final int npeaks = 3;
+    final double[] a = new double[1 + npeaks * Gaussian2DFunction.PARAMETERS_PER_PEAK];
+    a[Gaussian2DFunction.BACKGROUND] = 5;
+    for (int n = 0, i = 0; n < npeaks; n++, i += Gaussian2DFunction.PARAMETERS_PER_PEAK) {
+      a[i + Gaussian2DFunction.SIGNAL] = 500 + rng.nextDouble() * 500;
+      // Separate the peaks along the diagonal
+      a[i + Gaussian2DFunction.X_POSITION] = 7 + 8 * n + rng.nextDouble();
+      a[i + Gaussian2DFunction.Y_POSITION] = 7 + 8 * n + rng.nextDouble();
+      a[i + Gaussian2DFunction.X_SD] = 1.2 + rng.nextDouble() * 0.5;
+    }
+    // Noise-free data from the dense function
+    final double[] y = new MultiCircularErfGaussian2DFunction(npeaks, size, size).computeValues(a);
+
+    final double[] params = a.clone();
+    for (int n = 0, i = 0; n < npeaks; n++, i += Gaussian2DFunction.PARAMETERS_PER_PEAK) {
+      params[i + Gaussian2DFunction.SIGNAL] *= 1.2;
+      params[i + Gaussian2DFunction.X_POSITION] += 0.3;
+      params[i + Gaussian2DFunction.Y_POSITION] -= 0.3;
+      params[i + Gaussian2DFunction.X_SD] *= 1.1;
+    }
+    final ErfGaussian2DFunction f =
+        new SparseMultiCircularErfGaussian2DFunction(npeaks, size, size);
+    final LseLvmSteppingFunctionSolver solver =
+        new LseLvmSteppingFunctionSolver(f, new ToleranceChecker(1e-6, 1e-8, 0, 0, 100), null);
+    Assertions.assertEquals(FitStatus.OK, solver.fit(y, null, params, null));
+
+    // The clipped tail of the function is negligible at the default range
+    for (int n = 0, i = 0; n < npeaks; n++, i += Gaussian2DFunction.PARAMETERS_PER_PEAK) {
+      Assertions.assertEquals(a[i + Gaussian2DFunction.SIGNAL],
+          params[i + Gaussian2DFunction.SIGNAL], a[i + Gaussian2DFunction.SIGNAL] * 1e-3);
+      Assertions.assertEquals(a[i + Gaussian2DFunction.X_POSITION],
+          params[i + Gaussian2DFunction.X_POSITION], 1e-3);
+      Assertions.assertEquals(a[i + Gaussian2DFunction.Y_POSITION],
+          params[i + Gaussian2DFunction.Y_POSITION], 1e-3);
+      Assertions.assertEquals(a[i + Gaussian2DFunction.X_SD], params[i + Gaussian2DFunction.X_SD],
+          1e-3);
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.ij.plugins;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import uk.ac.sussex.gdsc.core.logging.TrackProgressAdaptor;
+import uk.ac.sussex.gdsc.core.utils.LocalList;
+import uk.ac.sussex.gdsc.smlm.engine.FitEngineConfiguration;
+import uk.ac.sussex.gdsc.smlm.ij.IJImageSource;
+import uk.ac.sussex.gdsc.smlm.ij.plugins.BatchPeakFit.Result;
+import uk.ac.sussex.gdsc.smlm.results.ImageSource;
+
+@SuppressWarnings({"javadoc"})
+class BatchPeakFitTest {
+  @Test
+  void canRunSourcesSequentially() {
+    canRunSources(1, 6, 1, 6, 2, 2);
+  }
+
+  @Test
+  void canRunSourcesConcurrently() {
+    canRunSources(3, 6, 3, 2, 6, 2);
+  }
+
+  @Test
+  void canRunSourcesConcurrentlyWithSmallThreadBudget() {
+    canRunSources(3, 2, 3, 1, 2, 0);
+  }
+
+  @Test
+  void testDuplicateSourceNamesThrows() {
+    final BatchPeakFit batch = new BatchPeakFit(new FitEngineConfiguration(), null,
+        System.getProperty("java.io.tmpdir"));
+    batch.setSilent(true);
+    final LocalList<ImageSource> sources = new LocalList<>();
+    sources.add(new IJImageSource("Source"));
+    sources.add(new IJImageSource("Other"));
+    sources.add(new IJImageSource("Source"));
+    final AtomicInteger count = new AtomicInteger();
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> batch.run(sources, (source, numberOfThreads, numberOfPreprocessThreads,
+            sourceProgress) -> {
+          count.incrementAndGet();
+          return new Result(source.getName(), true, 0, 0, 0, 0);
+        }));
+    // No sources are fitted
+    Assertions.assertEquals(0, count.get());
+    Assertions.assertThrows(IllegalArgumentException.class, () -> batch.setPreprocessThreads(-1));
+  }
+
+  private static void canRunSources(int concurrentSources, int threads, int expectedConcurrency,
+      int expectedThreads, int preprocessThreads, int expectedPreprocessThreads) {
+    final BatchPeakFit batch = new BatchPeakFit(new FitEngineConfiguration(), null,
+        System.getProperty("java.io.tmpdir"));
+    batch.setSilent(true);
+    batch.setConcurrentSources(concurrentSources);
+    batch.setThreads(threads);
+    batch.setPreprocessThreads(preprocessThreads);
+    final LocalList<Double> progress = new LocalList<>();
+    final LocalList<String> status = new LocalList<>();
+    batch.setTrackProgress(new TrackProgressAdaptor() {
+      @Override
+      public void progress(double fraction) {
+        progress.add(fraction);
+      }
+
+      @Override
+      public void status(String format, Object... args) {
+        status.add(String.format(format, args));
+      }
+    });
+
+    final int size = 7;
+    final LocalList<ImageSource> sources = new LocalList<>();
+    for (int i = 0; i < size; i++) {
+      sources.add(new IJImageSource("Source" + i));
+    }
+
+    // The first sources must run at the same time
+    final CyclicBarrier barrier = new CyclicBarrier(expectedConcurrency);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final int[] threadCounts = new int[size];
+    final int[] preprocessThreadCounts = new int[size];
+    final Result[] results = batch.run(sources,
+        (source, numberOfThreads, numberOfPreprocessThreads, sourceProgress) -> {
+      final int index = Integer.parseInt(source.getName().substring("Source".length()));
+      threadCounts[index] = numberOfThreads;
+      preprocessThreadCounts[index] = numberOfPreprocessThreads;
+      final int count = running.incrementAndGet();
+      maxRunning.accumulateAndGet(count, Math::max);
+      if (index < expectedConcurrency) {
+        try {
+          barrier.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException | BrokenBarrierException | TimeoutException ex) {
+          throw new IllegalStateException(ex);
+        }
+      }
+      sourceProgress.progress(1, 2);
+      // Progress cannot go backwards
+      sourceProgress.progress(0.25);
+      running.decrementAndGet();
+      return new Result(source.getName(), true, index, 0, 0, 0);
+    });
+
+    Assertions.assertEquals(size, results.length);
+    for (int i = 0; i < size; i++) {
+      Assertions.assertEquals("Source" + i, results[i].getName());
+      Assertions.assertEquals(i, results[i].getFrames());
+      Assertions.assertEquals(expectedThreads, threadCounts[i]);
+      Assertions.assertEquals(expectedPreprocessThreads, preprocessThreadCounts[i]);
+    }
+    Assertions.assertEquals(expectedConcurrency, maxRunning.get());
+
+    // Aggregate progress
+    Assertions.assertEquals(size * 2, progress.size());
+    for (int i = 1; i < progress.size(); i++) {
+      Assertions.assertTrue(progress.unsafeGet(i - 1) < progress.unsafeGet(i));
+    }
+    Assertions.assertEquals(1.0, progress.unsafeGet(progress.size() - 1));
+    Assertions.assertEquals(size, status.size());
+    Assertions.assertTrue(status.unsafeGet(size - 1).endsWith("(7 / 7)"));
+  }
+}
@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.ij.plugins;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileInfo;
+import ij.io.TiffEncoder;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.commons.rng.UniformRandomProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import uk.ac.sussex.gdsc.core.logging.Ticker;
+import uk.ac.sussex.gdsc.core.math.IntegerArrayMoment;
+import uk.ac.sussex.gdsc.smlm.ij.SeriesImageSource;
+import uk.ac.sussex.gdsc.test.junit5.RandomSeed;
+import uk.ac.sussex.gdsc.test.junit5.SeededTest;
+import uk.ac.sussex.gdsc.test.rng.RngUtils;
+
+@SuppressWarnings({"javadoc"})
+class CmosAnalysisTest {
+  @Test
+  void canCreateShards() {
+    Assertions.assertArrayEquals(new int[] {0, 1}, CmosAnalysis.createShards(new long[] {5}, 3));
+    Assertions.assertArrayEquals(new int[] {0, 4},
+        CmosAnalysis.createShards(new long[] {1, 1, 1, 1}, 1));
+    Assertions.assertArrayEquals(new int[] {0, 2, 4},
+        CmosAnalysis.createShards(new long[] {1, 1, 1, 1}, 2));
+    Assertions.assertArrayEquals(new int[] {0, 1, 2, 3, 4},
+        CmosAnalysis.createShards(new long[] {1, 1, 1, 1}, 5));
+    // Balance by size
+    Assertions.assertArrayEquals(new int[] {0, 1, 4},
+        CmosAnalysis.createShards(new long[] {10, 3, 3, 4}, 2));
+    // Each shard has at least one file
+    Assertions.assertArrayEquals(new int[] {0, 1, 2, 3},
+        CmosAnalysis.createShards(new long[] {1, 1, 100}, 3));
+    Assertions.assertArrayEquals(new int[] {0, 1, 2, 3},
+        CmosAnalysis.createShards(new long[] {100, 1, 1}, 3));
+  }
+
+  @SeededTest
+  void shardedAnalysisMatchesSingleSource(RandomSeed seed) throws IOException {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    final int width = 7;
+    final int height = 5;
+    final int depth = 3;
+    final String[] files = new String[5];
+    for (int i = 0; i < files.length; i++) {
+      final File path = File.createTempFile(CmosAnalysisTest.class.getSimpleName(), ".tif");
+      path.deleteOnExit();
+      files[i] = path.getCanonicalPath();
+      final ImageStack stack = new ImageStack(width, height);
+      for (int j = 0; j < depth; j++) {
+        final short[] pixels = new short[width * height];
+        for (int k = 0; k < pixels.length; k++) {
+          pixels[k] = (short) (100 + rng.nextInt(1000));
+        }
+        stack.addSlice(null, pixels);
+      }
+      saveAsTiff(new ImagePlus(null, stack), files[i]);
+    }
+
+    // Single source
+    final IntegerArrayMoment expected = new IntegerArrayMoment();
+    final SeriesImageSource source = new SeriesImageSource("Test", files);
+    Assertions.assertTrue(source.open());
+    for (Object pixels = source.nextRaw(); pixels != null; pixels = source.nextRaw()) {
+      expected.addUnsigned((short[]) pixels);
+    }
+    source.close();
+    Assertions.assertEquals(files.length * depth, expected.getN());
+
+    // Shards
+    final int[] shards = CmosAnalysis.createShards(new long[] {1, 1, 1, 1, 1}, 3);
+    final SeriesImageSource firstShard =
+        new SeriesImageSource("Test", Arrays.copyOf(files, shards[1]));
+    Assertions.assertTrue(firstShard.open());
+    final Object pixels = firstShard.nextRaw();
+    final IntegerArrayMoment observed = new IntegerArrayMoment();
+    final ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      Assertions.assertNull(CmosAnalysis.analyseShards(executor, Ticker.getDefaultInstance(),
+          "Test", files, shards, width, height, observed, firstShard, pixels));
+    } finally {
+      executor.shutdown();
+    }
+    Assertions.assertEquals(expected.getN(), observed.getN());
+    Assertions.assertArrayEquals(expected.getMean(), observed.getMean());
+    Assertions.assertArrayEquals(expected.getVariance(), observed.getVariance());
+  }
+
+  private static void saveAsTiff(ImagePlus imp, String path) throws IOException {
+    final FileInfo fi = imp.getFileInfo();
+    fi.nImages = imp.getStackSize();
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+      new TiffEncoder(fi).write(out);
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.ij.plugins;
+
+import ij.process.Blitter;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.rng.UniformRandomProvider;
+import org.junit.jupiter.api.Assertions;
+import uk.ac.sussex.gdsc.core.utils.LocalList;
+import uk.ac.sussex.gdsc.smlm.ij.plugins.PsfCreator.SliceInsert;
+import uk.ac.sussex.gdsc.test.junit5.RandomSeed;
+import uk.ac.sussex.gdsc.test.junit5.SeededTest;
+import uk.ac.sussex.gdsc.test.rng.RngUtils;
+
+@SuppressWarnings({"javadoc"})
+class PsfCreatorTest {
+  @SeededTest
+  void sliceInsertMatchesWeightedCopy(RandomSeed seed) {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    final int size = 12;
+    final FloatProcessor fp = createProcessor(rng, 5, 4);
+    // Include positions that are clipped at the edges
+    final double[][] positions = {{3.25, 4.5}, {0, 0}, {-1.5, 2.75}, {9.3, 10.6}, {2, 7.5}};
+    for (final double[] p : positions) {
+      final FloatProcessor expected = new FloatProcessor(size, size);
+      final int lowerX = (int) p[0];
+      final int lowerY = (int) p[1];
+      final double wx2 = p[0] - lowerX;
+      final double wy2 = p[1] - lowerY;
+      final double[] weights =
+          {(1 - wx2) * (1 - wy2), wx2 * (1 - wy2), (1 - wx2) * wy2, wx2 * wy2};
+      for (int i = 0; i < 4; i++) {
+        if (weights[i] > 0) {
+          final FloatProcessor copy = (FloatProcessor) fp.duplicate();
+          copy.multiply(weights[i]);
+          expected.copyBits(copy, lowerX + (i & 1), lowerY + (i >> 1), Blitter.ADD);
+        }
+      }
+      final FloatProcessor observed = new FloatProcessor(size, size);
+      new SliceInsert(fp, p[0], p[1]).addTo(observed);
+      Assertions.assertArrayEquals((float[]) expected.getPixels(), (float[]) observed.getPixels());
+    }
+  }
+
+  @SeededTest
+  void parallelInsertMatchesSequential(RandomSeed seed)
+      throws InterruptedException, ExecutionException {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    final int spots = 6;
+    final int depth = 4;
+    final int w = 7;
+    final int h = 6;
+    final int magnification = 3;
+    final int size = (w + 2) * magnification;
+    final float[][][] data = new float[spots][depth][];
+    final double[][] centres = new double[spots][];
+    for (int i = 0; i < spots; i++) {
+      for (int j = 0; j < depth; j++) {
+        data[i][j] = (float[]) createProcessor(rng, w, h).getPixels();
+      }
+      centres[i] = new double[] {2 + rng.nextDouble() * 3, 2 + rng.nextDouble() * 2};
+    }
+
+    for (final boolean centreEachSlice : new boolean[] {false, true}) {
+      // Sequential
+      final FloatProcessor[] expected = createPsf(depth, size);
+      for (int i = 0; i < spots; i++) {
+        for (int j = 0; j < depth; j++) {
+          SliceInsert.create(data[i][j], w, h, magnification, ImageProcessor.BILINEAR, 0.5,
+              centres[i], centreEachSlice).addTo(expected[j]);
+        }
+      }
+
+      // Parallel creation with ordered insertion
+      final FloatProcessor[] observed = createPsf(depth, size);
+      final ExecutorService executor = Executors.newFixedThreadPool(3);
+      try {
+        final LocalList<Future<SliceInsert[]>> futures = new LocalList<>();
+        for (int i = 0; i < spots; i++) {
+          final int spot = i;
+          futures.add(executor.submit(() -> {
+            final SliceInsert[] inserts = new SliceInsert[depth];
+            for (int j = 0; j < depth; j++) {
+              inserts[j] = SliceInsert.create(data[spot][j], w, h, magnification,
+                  ImageProcessor.BILINEAR, 0.5, centres[spot], centreEachSlice);
+            }
+            return inserts;
+          }));
+        }
+        for (final Future<SliceInsert[]> future : futures) {
+          final SliceInsert[] inserts = future.get();
+          for (int j = 0; j < depth; j++) {
+            inserts[j].addTo(observed[j]);
+          }
+        }
+      } finally {
+        executor.shutdown();
+      }
+
+      for (int j = 0; j < depth; j++) {
+        Assertions.assertArrayEquals((float[]) expected[j].getPixels(),
+            (float[]) observed[j].getPixels());
+      }
+    }
+  }
+
+  private static FloatProcessor createProcessor(UniformRandomProvider rng, int w, int h) {
+    final float[] pixels = new float[w * h];
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = rng.nextFloat();
+    }
+    return new FloatProcessor(w, h, pixels);
+  }
+
+  private static FloatProcessor[] createPsf(int depth, int size) {
+    final FloatProcessor[] psf = new FloatProcessor[depth];
+    for (int j = 0; j < depth; j++) {
+      psf[j] = new FloatProcessor(size, size);
+    }
+    return psf;
+  }
+}
@@ -24,6 +24,8 @@
 
 package uk.ac.sussex.gdsc.smlm.ij.utils;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.junit.jupiter.api.AfterAll;
@@ -175,4 +177,49 @@ class Image3DAlignerTest {
       Assertions.assertEquals(e[i], result[i], tolerance);
     }
   }
+
+  @Test
+  void canAlignBatch() {
+    final int maxx = 16;
+    final int maxy = 16;
+    final int maxz = 32;
+    final double cx = (maxx - 1) / 2.0;
+    final double cy = (maxy - 1) / 2.0;
+    final double cz = (maxz - 1) / 2.0;
+    final Image3DAligner a = new Image3DAligner();
+    a.setReference(createData(maxx, maxy, maxz, cx, cy, cz));
+
+    final double[] shift = new double[] {0, 1, 1.5, 2};
+    final Image3D[] targets = new Image3D[shift.length * shift.length];
+    for (int i = 0, k = 0; i < shift.length; i++) {
+      for (int j = 0; j < shift.length; j++) {
+        targets[k++] = createData(maxx, maxy, maxz, cx + shift[i], cy + shift[j], cz + shift[i]);
+      }
+    }
+    final double[][] expected = new double[targets.length][];
+    final Image3D[] images = new Image3D[targets.length];
+    for (int k = 0; k < targets.length; k++) {
+      expected[k] = a.align(targets[k].copy(), 5, 1e-2);
+      images[k] = targets[k].copy();
+    }
+
+    final ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      final double[][] results = a.align(images, 5, 1e-2, executor, 3);
+      for (int k = 0; k < targets.length; k++) {
+        Assertions.assertArrayEquals(expected[k], results[k]);
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    // Sequential
+    for (int k = 0; k < targets.length; k++) {
+      images[k] = targets[k].copy();
+    }
+    final double[][] results = a.align(images, 5, 1e-2, null, 3);
+    for (int k = 0; k < targets.length; k++) {
+      Assertions.assertArrayEquals(expected[k], results[k]);
+    }
+  }
 }
@@ -0,0 +1,152 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.model.camera;
+
+import java.awt.Rectangle;
+import org.apache.commons.rng.UniformRandomProvider;
+import org.junit.jupiter.api.Assertions;
+import uk.ac.sussex.gdsc.core.utils.SimpleArrayUtils;
+import uk.ac.sussex.gdsc.test.junit5.RandomSeed;
+import uk.ac.sussex.gdsc.test.junit5.SeededTest;
+import uk.ac.sussex.gdsc.test.rng.RngUtils;
+
+@SuppressWarnings({"javadoc"})
+class PerPixelCameraModelTablesTest {
+  static final int w = 37;
+  static final int h = 23;
+  static final int size = w * h;
+
+  private static PerPixelCameraModel createModel(UniformRandomProvider rng, int x, int y) {
+    final float[] bias = new float[size];
+    final float[] gain = new float[size];
+    final float[] variance = new float[size];
+    for (int i = 0; i < size; i++) {
+      bias[i] = 100 * rng.nextFloat();
+      gain[i] = 1f + rng.nextFloat(); // Ensure positive
+      variance[i] = 0.5f + rng.nextFloat(); // Ensure positive
+    }
+    return new PerPixelCameraModel(x, y, w, h, bias, gain, variance);
+  }
+
+  private static Rectangle getBounds(UniformRandomProvider rng, Rectangle cameraBounds) {
+    final int width = 1 + rng.nextInt(cameraBounds.width);
+    final int height = 1 + rng.nextInt(cameraBounds.height);
+    final int x = cameraBounds.x + rng.nextInt(cameraBounds.width - width + 1);
+    final int y = cameraBounds.y + rng.nextInt(cameraBounds.height - height + 1);
+    return new Rectangle(x, y, width, height);
+  }
+
+  @SeededTest
+  void canGetRegion(RandomSeed seed) {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    final PerPixelCameraModel model = createModel(rng, 3, 5);
+    final PerPixelCameraModelTables tables = model.getTables();
+    Assertions.assertSame(tables, model.getTables());
+    Assertions.assertEquals(model.getBounds(), tables.getBounds());
+    for (int i = 0; i < 10; i++) {
+      final Rectangle bounds = getBounds(rng, model.getBounds());
+      final PerPixelCameraModelTables.Region region = tables.getRegion(bounds);
+      Assertions.assertEquals(bounds, region.getBounds());
+      assertRegion(model, bounds, region);
+    }
+  }
+
+  @SeededTest
+  void canReuseWorkingArrays(RandomSeed seed) {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    final PerPixelCameraModel model = createModel(rng, 0, 0);
+    final Rectangle bounds = new Rectangle(2, 3, 5, 4);
+    final PerPixelCameraModelTables.Region region = model.getRegion(bounds);
+    final double[] data = new double[bounds.width * bounds.height];
+    Assertions.assertSame(data, region.getNormalisedVariance(data));
+    Assertions.assertArrayEquals(
+        SimpleArrayUtils.toDouble(model.getNormalisedVariance(bounds)), data);
+    Assertions.assertNotSame(data, region.getNormalisedVariance(new double[1]));
+  }
+
+  @SeededTest
+  void canGetWeightsWithInvalidGainOrVariance(RandomSeed seed) {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    final PerPixelCameraModel model = createModel(rng, 0, 0);
+    final Rectangle cameraBounds = model.getBounds();
+    final Rectangle bounds = new Rectangle(2, 3, 5, 4);
+    for (int i = 0; i < 2; i++) {
+      final float[] gain = model.getGain();
+      final float[] variance = model.getVariance();
+      // Invalidate a pixel within the region
+      final int index = 4 * w + 3;
+      if (i == 0) {
+        gain[index] = 0;
+      } else {
+        variance[index] = 0;
+      }
+      final float[] varG2 = new float[size];
+      for (int j = 0; j < size; j++) {
+        varG2[j] = variance[j] / (gain[j] * gain[j]);
+      }
+      final PerPixelCameraModelTables tables = PerPixelCameraModelTables.create(cameraBounds,
+          model.getBias(), gain, variance, varG2);
+      final PerPixelCameraModelTables.Region region = tables.getRegion(bounds);
+      final float[] weights = region.getWeights(null);
+      final float[] normalisedWeights = region.getNormalisedWeights(null);
+      Assertions.assertArrayEquals(CameraModelUtils.toWeights(region.getVariance((float[]) null)),
+          weights);
+      Assertions.assertArrayEquals(
+          CameraModelUtils.toWeights(region.getNormalisedVariance((float[]) null)),
+          normalisedWeights);
+      for (int j = 0; j < weights.length; j++) {
+        Assertions.assertTrue(Float.isFinite(weights[j]));
+        Assertions.assertTrue(Float.isFinite(normalisedWeights[j]));
+      }
+    }
+  }
+
+  @SeededTest
+  void cannotGetRegionOutsideBounds(RandomSeed seed) {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    final PerPixelCameraModelTables tables = createModel(rng, 3, 5).getTables();
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> tables.getRegion(new Rectangle(2, 5, 3, 3)));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> tables.getRegion(new Rectangle(3, 4, 3, 3)));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> tables.getRegion(new Rectangle(3 + w - 2, 5, 3, 3)));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> tables.getRegion(new Rectangle(3, 5 + h - 2, 3, 3)));
+  }
+
+  private static void assertRegion(PerPixelCameraModel model, Rectangle bounds,
+      PerPixelCameraModelTables.Region region) {
+    Assertions.assertArrayEquals(model.getBias(bounds), region.getBias(null));
+    Assertions.assertArrayEquals(model.getGain(bounds), region.getGain(null));
+    Assertions.assertArrayEquals(model.getVariance(bounds), region.getVariance((float[]) null));
+    Assertions.assertArrayEquals(model.getNormalisedVariance(bounds),
+        region.getNormalisedVariance((float[]) null));
+    Assertions.assertArrayEquals(CameraModelUtils.toWeights(model.getVariance(bounds)),
+        region.getWeights(null));
+    Assertions.assertArrayEquals(CameraModelUtils.toWeights(model.getNormalisedVariance(bounds)),
+        region.getNormalisedWeights(null));
+  }
+}
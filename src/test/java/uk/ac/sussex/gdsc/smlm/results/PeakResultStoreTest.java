@@ -31,6 +31,7 @@ import org.apache.commons.rng.UniformRandomProvider;
 import org.junit.jupiter.api.Assertions;
 import uk.ac.sussex.gdsc.core.utils.rng.RandomUtils;
 import uk.ac.sussex.gdsc.smlm.results.sort.FrameIdPeakResultComparator;
+import uk.ac.sussex.gdsc.smlm.results.sort.FrameIndex;
 import uk.ac.sussex.gdsc.test.junit5.RandomSeed;
 import uk.ac.sussex.gdsc.test.junit5.SeededTest;
 import uk.ac.sussex.gdsc.test.rng.RngUtils;
@@ -54,6 +55,40 @@ class PeakResultStoreTest {
     canStoreResults(seed, new SetPeakResultStore(capacity));
   }
 
+  @SeededTest
+  void arrayStoreHasFrameIndexAfterSortByFrame(RandomSeed seed) {
+    final UniformRandomProvider r = RngUtils.create(seed.getSeed());
+    final ArrayPeakResultStore store = new ArrayPeakResultStore(capacity);
+    for (int i = 0; i < 50; i++) {
+      store.add(new PeakResult(1 + r.nextInt(10), r.nextFloat(), r.nextFloat(), r.nextFloat()));
+    }
+    Assertions.assertNull(store.getFrameIndex());
+    store.sort();
+    final FrameIndex index = store.getFrameIndex();
+    Assertions.assertNotNull(index);
+    Assertions.assertEquals(store.size(), index.size());
+    for (int i = 0; i < store.size(); i++) {
+      final int frame = store.get(i).getFrame();
+      Assertions.assertTrue(index.getStart(frame) <= i && i < index.getEnd(frame));
+    }
+    // The index is shared with a copy
+    Assertions.assertSame(index, ((PeakResultStoreList) store.copy()).getFrameIndex());
+
+    // Modification invalidates the index
+    store.remove(0);
+    Assertions.assertNull(store.getFrameIndex());
+    store.sort();
+    store.add(store.get(0));
+    Assertions.assertNull(store.getFrameIndex());
+    store.sort();
+    store.shuffle(r);
+    Assertions.assertNull(store.getFrameIndex());
+
+    // Sorting not by frame does not create an index
+    store.sort((o1, o2) -> Float.compare(o1.getIntensity(), o2.getIntensity()));
+    Assertions.assertNull(store.getFrameIndex());
+  }
+
   @SuppressWarnings("null")
   private static void canStoreResults(RandomSeed seed, PeakResultStore store) {
     final boolean isList = store instanceof PeakResultStoreList;
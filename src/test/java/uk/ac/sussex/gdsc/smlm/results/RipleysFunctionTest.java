@@ -0,0 +1,119 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.results;
+
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import org.apache.commons.rng.UniformRandomProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import uk.ac.sussex.gdsc.test.junit5.RandomSeed;
+import uk.ac.sussex.gdsc.test.junit5.SeededTest;
+import uk.ac.sussex.gdsc.test.rng.RngUtils;
+
+@SuppressWarnings({"javadoc"})
+class RipleysFunctionTest {
+  @Test
+  void testConstructorThrows() {
+    final Rectangle bounds = new Rectangle(10, 10);
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> new RipleysFunction(new float[2], new float[3], bounds));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> new RipleysFunction(new float[2], new float[2], new Rectangle(0, 10)));
+  }
+
+  @Test
+  void testKFunctionThrowsWithBadRadii() {
+    final RipleysFunction rf =
+        new RipleysFunction(new float[2], new float[2], new Rectangle(10, 10));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> rf.kfunction(new double[] {-1}));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> rf.kfunction(new double[] {2, 1}));
+  }
+
+  @Test
+  void testKFunctionWithTooFewPoints() {
+    final RipleysFunction rf =
+        new RipleysFunction(new float[1], new float[1], new Rectangle(10, 10));
+    Assertions.assertArrayEquals(new double[2], rf.kfunction(new double[] {1, 2}));
+    Assertions.assertArrayEquals(new double[0], rf.kfunction(new double[0]));
+  }
+
+  @SeededTest
+  void canComputeKFunction(RandomSeed seed) {
+    canComputeKFunction(seed, false);
+  }
+
+  @SeededTest
+  void canComputeKFunctionWithEdgeCorrection(RandomSeed seed) {
+    canComputeKFunction(seed, true);
+  }
+
+  private static void canComputeKFunction(RandomSeed seed, boolean edgeCorrection) {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    final Rectangle2D bounds = new Rectangle2D.Double(5, 10, 40, 30);
+    final int n = 500;
+    final float[] x = new float[n];
+    final float[] y = new float[n];
+    for (int i = 0; i < n; i++) {
+      x[i] = (float) (bounds.getX() + rng.nextDouble() * bounds.getWidth());
+      y[i] = (float) (bounds.getY() + rng.nextDouble() * bounds.getHeight());
+    }
+    // Include duplicates
+    x[1] = x[0];
+    y[1] = y[0];
+    final double[] radii = {0, 0.5, 1, 1.5, 2.25, 3, 5, 5};
+    final RipleysFunction rf = new RipleysFunction(x, y, bounds);
+    Assertions.assertTrue(rf.isEdgeCorrection());
+    rf.setEdgeCorrection(edgeCorrection);
+    Assertions.assertEquals(edgeCorrection, rf.isEdgeCorrection());
+    final double[] k = rf.kfunction(radii);
+    final double[] l = rf.lfunction(radii);
+
+    // Brute force
+    final double area = bounds.getWidth() * bounds.getHeight();
+    for (int m = 0; m < radii.length; m++) {
+      final double r2 = radii[m] * radii[m];
+      double sum = 0;
+      for (int i = 0; i < n; i++) {
+        for (int j = 0; j < n; j++) {
+          if (i == j) {
+            continue;
+          }
+          final double dx = (double) x[j] - x[i];
+          final double dy = (double) y[j] - y[i];
+          if (dx * dx + dy * dy <= r2) {
+            sum += edgeCorrection
+                ? area / ((bounds.getWidth() - Math.abs(dx)) * (bounds.getHeight() - Math.abs(dy)))
+                : 1;
+          }
+        }
+      }
+      final double expected = sum * area / ((double) n * (n - 1));
+      Assertions.assertEquals(expected, k[m], expected * 1e-10);
+      Assertions.assertEquals(Math.sqrt(expected / Math.PI), l[m], expected * 1e-10);
+    }
+  }
+}
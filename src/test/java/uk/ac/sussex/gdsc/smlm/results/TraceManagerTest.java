@@ -105,7 +105,16 @@ class TraceManagerTest {
 
   private static void runTracing(final UniformRandomProvider rnd, double distance, int time,
       Trace... expected) {
+    runTracing(rnd, distance, time, false, expected);
+  }
+
+  private static void runTracing(final UniformRandomProvider rnd, double distance, int time,
+      boolean sortByFrame, Trace... expected) {
     final MemoryPeakResults results = toPeakResults(rnd, expected);
+    if (sortByFrame) {
+      results.sort();
+      Assertions.assertNotNull(results.getFrameIndex(), "Sorted results should have a frame index");
+    }
     final TraceManager tm = new TraceManager(results);
     final int n = tm.traceMolecules(distance, time);
     Assertions.assertEquals(expected.length, n, "Incorrect number of traces");
@@ -124,6 +133,11 @@ class TraceManagerTest {
     simulate(seed, 1000, 5, 5, 10, 0);
   }
 
+  @SeededTest
+  void canTraceMultiplePulsingFluorophoresWithFrameIndex(RandomSeed seed) {
+    simulate(seed, 1000, 5, 5, 10, 0, true);
+  }
+
   @SeededTest
   void canTraceMultipleFluorophoresWithMovingCoords(RandomSeed seed) {
     simulateMoving(seed, 1000, 1, 5, 2);
@@ -136,6 +150,11 @@ class TraceManagerTest {
 
   private static void simulate(RandomSeed seed, int molecules, int maxPulses, int maxOnTime,
       int maxOffTime, float distance) {
+    simulate(seed, molecules, maxPulses, maxOnTime, maxOffTime, distance, false);
+  }
+
+  private static void simulate(RandomSeed seed, int molecules, int maxPulses, int maxOnTime,
+      int maxOffTime, float distance, boolean sortByFrame) {
     final UniformRandomProvider rand = RngUtils.create(seed.getSeed());
     final Trace[] expected = new Trace[molecules];
     for (int j = 0; j < expected.length; j++) {
@@ -155,7 +174,7 @@ class TraceManagerTest {
     }
 
     final double d = (distance > 0) ? Math.sqrt(2.05 * distance * distance) : 0;
-    runTracing(rand, d, maxOffTime + 1, expected);
+    runTracing(rand, d, maxOffTime + 1, sortByFrame, expected);
   }
 
   private static void simulateMoving(RandomSeed seed, int molecules, int maxPulses, int maxOnTime,
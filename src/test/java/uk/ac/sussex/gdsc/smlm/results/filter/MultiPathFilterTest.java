@@ -0,0 +1,210 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.results.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.rng.UniformRandomProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import uk.ac.sussex.gdsc.smlm.results.filter.BasePreprocessedPeakResult.ResultType;
+import uk.ac.sussex.gdsc.smlm.results.filter.MultiPathFilter.SelectedResult;
+import uk.ac.sussex.gdsc.smlm.results.filter.MultiPathFilter.SelectedResultStore;
+import uk.ac.sussex.gdsc.smlm.results.filter.MultiPathFitResult.FitResult;
+import uk.ac.sussex.gdsc.test.junit5.RandomSeed;
+import uk.ac.sussex.gdsc.test.junit5.SeededTest;
+import uk.ac.sussex.gdsc.test.rng.RngUtils;
+
+@SuppressWarnings({"javadoc"})
+class MultiPathFilterTest {
+  private static final double SIGNAL = 100;
+  private static final double ACCEPT = 2 * SIGNAL;
+  private static final double REJECT = SIGNAL / 2;
+
+  /**
+   * Count the number of times the multi fit result is requested.
+   */
+  private static class CountingMultiPathFitResult extends MultiPathFitResult {
+    int multiCount;
+
+    @Override
+    public FitResult getMultiFitResult() {
+      multiCount++;
+      return super.getMultiFitResult();
+    }
+  }
+
+  /**
+   * Store the selected results.
+   */
+  private static class ListSelectedResultStore implements SelectedResultStore {
+    final List<SelectedResult> list = new ArrayList<>();
+
+    @Override
+    public void add(SelectedResult selectedResult) {
+      list.add(selectedResult);
+    }
+
+    @Override
+    public boolean isFit(int candidateId) {
+      return false;
+    }
+
+    @Override
+    public boolean isValid(int candidateId) {
+      return false;
+    }
+
+    @Override
+    public void pass(PreprocessedPeakResult result) {
+      // Ignore
+    }
+
+    @Override
+    public void passMin(PreprocessedPeakResult result) {
+      // Ignore
+    }
+  }
+
+  @SeededTest
+  void selectSingleFirstMatchesSelectWhenSingleIsSelected(RandomSeed seed) {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    final CountingMultiPathFitResult[] results = new CountingMultiPathFitResult[50];
+    for (int i = 0; i < results.length; i++) {
+      // The multi fit is absent, rejected or for a different candidate
+      final FitResult multi;
+      switch (rng.nextInt(3)) {
+        case 0:
+          multi = null;
+          break;
+        case 1:
+          multi = createFitResult(createResult(i, REJECT), createResult(i + 1, ACCEPT));
+          break;
+        default:
+          multi = createFitResult(createResult(i + 1, ACCEPT));
+          break;
+      }
+      results[i] = createMultiPathFitResult(i, multi, createFitResult(createResult(i, ACCEPT)));
+    }
+    assertSelectEquals(results);
+  }
+
+  @SeededTest
+  void selectSingleFirstMatchesSelectWhenSingleIsRejected(RandomSeed seed) {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    final CountingMultiPathFitResult[] results = new CountingMultiPathFitResult[50];
+    for (int i = 0; i < results.length; i++) {
+      final FitResult multi =
+          createFitResult(createResult(i, rng.nextBoolean() ? ACCEPT : REJECT));
+      results[i] = createMultiPathFitResult(i, multi, createFitResult(createResult(i, REJECT)));
+    }
+    assertSelectEquals(results);
+  }
+
+  @Test
+  void selectSingleFirstDoesNotEvaluateMultiFit() {
+    final FitResult multi = createFitResult(createResult(0, ACCEPT), createResult(1, ACCEPT));
+    final FitResult single = createFitResult(createResult(0, ACCEPT));
+    final CountingMultiPathFitResult result = createMultiPathFitResult(0, multi, single);
+    final MultiPathFilter filter = new MultiPathFilter(new SignalFilter(SIGNAL), 1);
+
+    // The default order prefers the multi fit
+    List<SelectedResult> selected = select(filter, false, result);
+    Assertions.assertEquals(1, selected.size());
+    Assertions.assertSame(multi, selected.get(0).fitResult);
+    Assertions.assertNotEquals(0, result.multiCount);
+
+    result.multiCount = 0;
+    selected = select(filter, true, result);
+    Assertions.assertEquals(1, selected.size());
+    Assertions.assertSame(single, selected.get(0).fitResult);
+    Assertions.assertEquals(0, result.multiCount);
+  }
+
+  private static void assertSelectEquals(CountingMultiPathFitResult[] results) {
+    final MultiPathFilter filter = new MultiPathFilter(new SignalFilter(SIGNAL), 1);
+    final List<SelectedResult> expected = select(filter, false, results);
+    final List<SelectedResult> actual = select(filter, true, results);
+    Assertions.assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Assertions.assertSame(expected.get(i).fitResult, actual.get(i).fitResult);
+      Assertions.assertArrayEquals(expected.get(i).results, actual.get(i).results);
+    }
+  }
+
+  private static List<SelectedResult> select(MultiPathFilter filter, boolean singleFirst,
+      MultiPathFitResult... results) {
+    filter.setSingleFirst(singleFirst);
+    final ListSelectedResultStore store = new ListSelectedResultStore();
+    filter.select(new IMultiPathFitResults() {
+      @Override
+      public int getFrame() {
+        return 1;
+      }
+
+      @Override
+      public int getNumberOfResults() {
+        return results.length;
+      }
+
+      @Override
+      public MultiPathFitResult getResult(int index) {
+        return results[index];
+      }
+
+      @Override
+      public void complete(int index) {
+        // Ignore
+      }
+
+      @Override
+      public int getTotalCandidates() {
+        return results.length + 1;
+      }
+    }, null, true, store, null);
+    return store.list;
+  }
+
+  private static CountingMultiPathFitResult createMultiPathFitResult(int candidateId,
+      FitResult multi, FitResult single) {
+    final CountingMultiPathFitResult result = new CountingMultiPathFitResult();
+    result.setFrame(1);
+    result.setCandidateId(candidateId);
+    result.setMultiFitResult(multi);
+    result.setSingleFitResult(single);
+    return result;
+  }
+
+  private static FitResult createFitResult(PreprocessedPeakResult... results) {
+    final FitResult fitResult = new FitResult(0);
+    fitResult.setResults(results);
+    return fitResult;
+  }
+
+  private static PreprocessedPeakResult createResult(int candidateId, double signal) {
+    return new BasePreprocessedPeakResult(1, 0, candidateId, signal, signal, 1, 0, 0, candidateId,
+        candidateId, 0, candidateId, candidateId, 1, 1, 1, 1, 0.01, 0.01, 0.01, ResultType.NEW);
+  }
+}
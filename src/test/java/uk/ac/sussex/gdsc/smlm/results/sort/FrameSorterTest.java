@@ -0,0 +1,147 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.results.sort;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.commons.rng.UniformRandomProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import uk.ac.sussex.gdsc.smlm.results.IdPeakResult;
+import uk.ac.sussex.gdsc.smlm.results.PeakResult;
+import uk.ac.sussex.gdsc.test.junit5.RandomSeed;
+import uk.ac.sussex.gdsc.test.junit5.SeededTest;
+import uk.ac.sussex.gdsc.test.rng.RngUtils;
+
+@SuppressWarnings({"javadoc"})
+class FrameSorterTest {
+  @Test
+  void testIsFrameComparator() {
+    Assertions.assertTrue(FrameSorter.isFrameComparator(FramePeakResultComparator.INSTANCE));
+    Assertions.assertTrue(FrameSorter.isFrameComparator(FrameIdPeakResultComparator.INSTANCE));
+    Assertions
+        .assertTrue(FrameSorter.isFrameComparator(FrameIntensityPeakResultComparator.INSTANCE));
+    Assertions.assertTrue(
+        FrameSorter.isFrameComparator(FrameEndFrameIntensityPeakResultComparator.INSTANCE));
+    Assertions.assertFalse(FrameSorter.isFrameComparator(IdFramePeakResultComparator.INSTANCE));
+    Assertions.assertFalse(FrameSorter.isFrameComparator(null));
+  }
+
+  @Test
+  void testSortEmpty() {
+    final FrameIndex index = FrameSorter.sort(new PeakResult[0], 0);
+    Assertions.assertEquals(0, index.size());
+    Assertions.assertEquals(0, index.getCount(0));
+  }
+
+  @Test
+  void testFrameIndex() {
+    final PeakResult[] results = {createResult(5, 0), createResult(3, 1), createResult(5, 2),
+        createResult(7, 3)};
+    final FrameIndex index = FrameSorter.sort(results, results.length);
+    Assertions.assertEquals(4, index.size());
+    Assertions.assertEquals(3, index.getMinFrame());
+    Assertions.assertEquals(7, index.getMaxFrame());
+    Assertions.assertEquals(0, index.getStart(Integer.MIN_VALUE));
+    Assertions.assertEquals(0, index.getEnd(2));
+    Assertions.assertEquals(0, index.getStart(3));
+    Assertions.assertEquals(1, index.getEnd(3));
+    Assertions.assertEquals(1, index.getStart(4));
+    Assertions.assertEquals(1, index.getEnd(4));
+    Assertions.assertEquals(2, index.getCount(5));
+    Assertions.assertEquals(0, index.getCount(6));
+    Assertions.assertEquals(3, index.getStart(7));
+    Assertions.assertEquals(4, index.getEnd(Integer.MAX_VALUE));
+    Assertions.assertEquals(3, index.getCount(4, 7));
+    Assertions.assertEquals(0, index.getCount(7, 4));
+  }
+
+  @Test
+  void testFrameIndexIsLimitedByRange() {
+    // Comparison sort and counting sort
+    for (final int size : new int[] {4, 1000}) {
+      for (final int range : new int[] {4 * size, 4 * size + 1}) {
+        final PeakResult[] results = new PeakResult[size];
+        for (int i = 0; i < size; i++) {
+          results[i] = createResult(size - i, i);
+        }
+        results[0] = createResult(range, 0);
+        final FrameIndex index = FrameSorter.sort(results, size);
+        Assertions.assertEquals(range, results[size - 1].getFrame());
+        if (range <= 4 * size) {
+          Assertions.assertNotNull(index);
+          Assertions.assertEquals(1, index.getMinFrame());
+          Assertions.assertEquals(range, index.getMaxFrame());
+          Assertions.assertEquals(size - 1, index.getStart(range));
+        } else {
+          Assertions.assertNull(index);
+        }
+      }
+    }
+  }
+
+  @SeededTest
+  void canSortByFrame(RandomSeed seed) {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    final ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      for (final int size : new int[] {1, 10, 1000, 100000}) {
+        // Ranges that create an index or use the radix sort
+        for (final int range : new int[] {1, 100, Integer.MAX_VALUE}) {
+          final PeakResult[] results = new PeakResult[size];
+          for (int i = 0; i < size; i++) {
+            results[i] = createResult(rng.nextInt(range) - range / 2, rng.nextInt(10));
+          }
+          for (final Comparator<PeakResult> comparator : Arrays.asList(
+              FramePeakResultComparator.INSTANCE, FrameIdPeakResultComparator.INSTANCE)) {
+            final PeakResult[] expected = results.clone();
+            Arrays.sort(expected, comparator);
+            for (final int threads : new int[] {1, 4}) {
+              final PeakResult[] actual = results.clone();
+              final FrameIndex index = FrameSorter.sort(actual, size, comparator, executor,
+                  threads);
+              Assertions.assertArrayEquals(expected, actual);
+              if (index != null) {
+                Assertions.assertEquals(size, index.size());
+                for (int i = 0; i < size; i++) {
+                  final int frame = actual[i].getFrame();
+                  Assertions.assertTrue(index.getStart(frame) <= i && i < index.getEnd(frame));
+                }
+              }
+            }
+          }
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static PeakResult createResult(int frame, int id) {
+    return new IdPeakResult(frame, 0, 0, 1, id);
+  }
+}
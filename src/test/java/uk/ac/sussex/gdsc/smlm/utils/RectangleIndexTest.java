@@ -0,0 +1,130 @@
+/*-
+ * #%L
+ * Genome Damage and Stability Centre SMLM ImageJ Plugins
+ *
+ * Software for single molecule localisation microscopy (SMLM)
+ * %%
+ * Copyright (C) 2011 - 2020 Alex Herbert
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package uk.ac.sussex.gdsc.smlm.utils;
+
+import java.util.Arrays;
+import org.apache.commons.rng.UniformRandomProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import uk.ac.sussex.gdsc.core.utils.LocalList;
+import uk.ac.sussex.gdsc.test.junit5.RandomSeed;
+import uk.ac.sussex.gdsc.test.junit5.SeededTest;
+import uk.ac.sussex.gdsc.test.rng.RngUtils;
+
+@SuppressWarnings({"javadoc"})
+class RectangleIndexTest {
+  @Test
+  void testBadArguments() {
+    final double[] a = {0, 1};
+    final double[] b = {0};
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new RectangleIndex(a, b, a, a));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> new RectangleIndex(a, a, a, new double[] {1, -1}));
+  }
+
+  @Test
+  void canSearchEmptyIndex() {
+    final double[] a = {};
+    final RectangleIndex index = new RectangleIndex(a, a, a, a);
+    Assertions.assertEquals(0, index.size());
+    Assertions.assertArrayEquals(new int[0], index.search(-10, -10, 10, 10));
+  }
+
+  @Test
+  void searchIncludesTouchingRectangles() {
+    final RectangleIndex index = new RectangleIndex(new double[] {0, 5, 10},
+        new double[] {0, 5, 10}, new double[] {1, 1, 1}, new double[] {1, 1, 1});
+    Assertions.assertArrayEquals(new int[] {0, 1}, index.search(1, 1, 5, 5));
+    Assertions.assertArrayEquals(new int[] {1}, index.search(2, 2, 5.5, 5.5));
+    Assertions.assertArrayEquals(new int[0], index.search(2, 2, 4.5, 4.5));
+    // Invalid region
+    Assertions.assertArrayEquals(new int[0], index.search(5, 5, 1, 1));
+  }
+
+  @SeededTest
+  void searchMatchesLinearScan(RandomSeed seed) {
+    final UniformRandomProvider rng = RngUtils.create(seed.getSeed());
+    final int size = 2000;
+    final double[] x = new double[size];
+    final double[] y = new double[size];
+    final double[] w = new double[size];
+    final double[] h = new double[size];
+    for (int i = 0; i < size; i++) {
+      x[i] = rng.nextDouble() * 100;
+      y[i] = rng.nextDouble() * 50;
+      // Mostly small with some large rectangles
+      final double scale = (rng.nextInt(20) == 0) ? 40 : 1;
+      w[i] = rng.nextDouble() * scale;
+      h[i] = rng.nextDouble() * scale;
+    }
+    final RectangleIndex index = new RectangleIndex(x, y, w, h);
+    Assertions.assertEquals(size, index.size());
+    Assertions.assertTrue(index.getNumberOfLargeRectangles() > 0);
+    Assertions.assertTrue(index.getNumberOfLargeRectangles() < size);
+
+    for (int n = 0; n < 50; n++) {
+      final double x1 = rng.nextDouble() * 120 - 10;
+      final double y1 = rng.nextDouble() * 70 - 10;
+      final double x2 = x1 + rng.nextDouble() * 30;
+      final double y2 = y1 + rng.nextDouble() * 30;
+      final LocalList<Integer> expected = new LocalList<>();
+      for (int i = 0; i < size; i++) {
+        if (x[i] <= x2 && x[i] + w[i] >= x1 && y[i] <= y2 && y[i] + h[i] >= y1) {
+          expected.add(i);
+        }
+      }
+      final int[] e = expected.stream().mapToInt(Integer::intValue).toArray();
+      final int[] o = index.search(x1, y1, x2, y2);
+      Assertions.assertArrayEquals(e, o);
+      // The unordered visit should match
+      final int[] count = {0};
+      final int[] visited = new int[size];
+      index.forEach(x1, y1, x2, y2, i -> visited[count[0]++] = i);
+      final int[] v = Arrays.copyOf(visited, count[0]);
+      Arrays.sort(v);
+      Assertions.assertArrayEquals(e, v);
+    }
+  }
+
+  @Test
+  void largeRectanglesAreNotStoredInTheGrid() {
+    final int size = 400;
+    final double[] x = new double[size];
+    final double[] y = new double[size];
+    final double[] w = new double[size];
+    for (int i = 0; i < size; i++) {
+      x[i] = i % 20;
+      y[i] = i / 20;
+    }
+    // One rectangle covers the entire region
+    w[0] = 100;
+    final RectangleIndex index = new RectangleIndex(x, y, w, w);
+    // 4 items per cell
+    Assertions.assertEquals(100, index.getNumberOfCells());
+    Assertions.assertEquals(1, index.getNumberOfLargeRectangles());
+    Assertions.assertArrayEquals(new int[] {0, 210}, index.search(10, 10, 10, 10));
+    Assertions.assertArrayEquals(new int[] {0, 211}, index.search(10.5, 10, 11, 10));
+  }
+}